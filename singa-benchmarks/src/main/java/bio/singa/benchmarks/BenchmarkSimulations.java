@@ -0,0 +1,246 @@
+package bio.singa.benchmarks;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.chemistry.entities.ComplexEntity;
+import bio.singa.chemistry.entities.ComplexModification;
+import bio.singa.chemistry.entities.ModificationSite;
+import bio.singa.chemistry.entities.Protein;
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.diffusivity.Diffusivity;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.model.Evidence;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.DynamicChemicalEntity;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.EntityReducer;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.sections.concentration.ConcentrationInitializer;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.UpdateScheduler;
+import tec.units.indriya.quantity.Quantities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static bio.singa.chemistry.features.diffusivity.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static bio.singa.features.units.UnitProvider.MILLI_MOLE_PER_LITRE;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellSubsections.CELL_OUTER_MEMBRANE;
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static bio.singa.simulation.model.sections.CellSubsections.EXTRACELLULAR_REGION;
+import static bio.singa.simulation.model.sections.CellTopology.INNER;
+import static bio.singa.simulation.model.sections.CellTopology.MEMBRANE;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.MetricPrefix.NANO;
+import static tec.units.indriya.unit.Units.METRE;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * Creates the simulations used by the benchmarks. All simulations are built from arbitrary entities, such that no
+ * database access is required. Random values are drawn from fixed seeds, such that subsequent runs of a benchmark
+ * process identical simulations.
+ *
+ * @author cl
+ */
+public final class BenchmarkSimulations {
+
+    /**
+     * The seed of all random values.
+     */
+    private static final long SEED = 42L;
+
+    private BenchmarkSimulations() {
+        // prevent instantiation
+    }
+
+    /**
+     * Resets the unit registry and environment, that are shared by all simulations of the process.
+     */
+    public static void reset() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    /**
+     * Sets the number of threads calculating modules and partitions of neighbourhood dependent modules.
+     *
+     * @param simulation The simulation.
+     * @param threads The number of threads or {@link UpdateScheduler#THREAD_PER_MODULE}.
+     */
+    public static void setThreads(Simulation simulation, int threads) {
+        simulation.getScheduler().setParallelism(threads);
+        simulation.getScheduler().setPartitionParallelism(Math.max(1, threads));
+    }
+
+    /**
+     * Creates a simulation of the given number of small molecules diffusing on a square grid, the left half of the grid
+     * is filled with all molecules.
+     *
+     * @param gridSize The number of nodes on each side of the grid.
+     * @param species The number of diffusing species.
+     * @return The simulation.
+     */
+    public static Simulation createDiffusion(int gridSize, int species) {
+        UnitRegistry.setTime(Quantities.getQuantity(1.0, MICRO(SECOND)));
+        Environment.setNodeSpacingToDiameter(Quantities.getQuantity(2500.0, NANO(METRE)), gridSize);
+        List<ChemicalEntity> molecules = new ArrayList<>();
+        for (int index = 0; index < species; index++) {
+            // diffusivities between small gases and sugars
+            double diffusivity = 1.0E-5 + 3.0E-5 * index / Math.max(1, species - 1);
+            molecules.add(SmallMolecule.create("S" + index)
+                    .assignFeature(new Diffusivity(Quantities.getQuantity(diffusivity, SQUARE_CENTIMETRE_PER_SECOND), Evidence.NO_EVIDENCE))
+                    .build());
+        }
+        AutomatonGraph graph = AutomatonGraphs.createRectangularAutomatonGraph(gridSize, gridSize);
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() < gridSize / 2 ? 1.0 : 0.0;
+            for (ChemicalEntity molecule : molecules) {
+                node.getConcentrationContainer().initialize(EXTRACELLULAR_REGION, molecule, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+            }
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .forAll(molecules)
+                .build();
+        return simulation;
+    }
+
+    /**
+     * Creates a simulation of a kinase binding to any complex containing a phosphorylation site on the membrane of a
+     * square grid and phosphorylating the site. The entities of the reactions are determined dynamically from the
+     * complexes that are formed during the simulation.
+     *
+     * @param gridSize The number of nodes on each side of the grid.
+     * @return The simulation.
+     */
+    public static Simulation createDynamicComplexReactions(int gridSize) {
+        UnitRegistry.setTime(Quantities.getQuantity(1.0, MICRO(SECOND)));
+        ModificationSite ps = ModificationSite.create("PS").build();
+        ChemicalEntity p = SmallMolecule.create("P").build();
+        ChemicalEntity aqp2Protein = Protein.create("AQP2").build();
+        ComplexEntity aqp2 = ComplexEntity.from(aqp2Protein, ps);
+        ChemicalEntity pp1Protein = Protein.create("PP1").build();
+        ComplexEntity pp1 = ComplexEntity.from(pp1Protein, ps);
+        ChemicalEntity pkac = Protein.create("PKA").build();
+
+        AutomatonGraph graph = AutomatonGraphs.createRectangularAutomatonGraph(gridSize, gridSize);
+        for (AutomatonNode node : graph.getNodes()) {
+            node.setCellRegion(CellRegions.CELL_OUTER_MEMBRANE_REGION);
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        ConcentrationInitializer concentrationInitializer = new ConcentrationInitializer();
+        concentrationInitializer.addInitialConcentration(CELL_OUTER_MEMBRANE, aqp2, Quantities.getQuantity(100, MICRO_MOLE_PER_LITRE));
+        concentrationInitializer.addInitialConcentration(CYTOPLASM, pp1, Quantities.getQuantity(100, MICRO_MOLE_PER_LITRE));
+        concentrationInitializer.addInitialConcentration(CELL_OUTER_MEMBRANE, pkac, Quantities.getQuantity(100, MICRO_MOLE_PER_LITRE));
+        simulation.setConcentrationInitializer(concentrationInitializer);
+
+        DynamicChemicalEntity anyPka = DynamicChemicalEntity.create("*PKA & !PS")
+                .addCompositionCondition(EntityReducer.hasPart(pkac))
+                .addCompositionCondition(EntityReducer.hasNotPart(ps))
+                .addPossibleTopology(MEMBRANE)
+                .build();
+        DynamicChemicalEntity anyPs = DynamicChemicalEntity.create("*PS & !PKA")
+                .addCompositionCondition(EntityReducer.hasPart(ps))
+                .addCompositionCondition(EntityReducer.hasNotPart(pkac))
+                .addPossibleTopology(MEMBRANE)
+                .addPossibleTopology(INNER)
+                .build();
+        ReactionBuilder.dynamicReactants(simulation)
+                .addSubstrate(anyPka)
+                .addSubstrate(anyPs)
+                .targetProductToTopology(pkac, MEMBRANE)
+                .complexBuilding()
+                .associationRate(RateConstant.create(200)
+                        .forward().secondOrder()
+                        .concentrationUnit(MILLI_MOLE_PER_LITRE)
+                        .timeUnit(SECOND)
+                        .build())
+                .dissociationRate(RateConstant.create(8)
+                        .backward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("complex building")
+                .build();
+
+        DynamicChemicalEntity transformable = DynamicChemicalEntity.create("*PS & *PKA")
+                .addCompositionCondition(EntityReducer.hasPart(ps))
+                .addCompositionCondition(EntityReducer.hasPart(pkac))
+                .addCompositionCondition(EntityReducer.hasNotPart(p))
+                .addPossibleTopology(MEMBRANE)
+                .build();
+        ReactionBuilder.dynamicReactants(simulation)
+                .addSubstrate(transformable)
+                .addProduct(transformable, new ComplexModification(ComplexModification.Operation.ADD, p, ps))
+                .addProduct(transformable, ComplexModification.SPLIT)
+                .targetProductToTopology(pp1Protein, INNER)
+                .targetProductToTopology(aqp2Protein, MEMBRANE)
+                .irreversible()
+                .rate(RateConstant.create(50)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .identifier("phosphorylation")
+                .build();
+        return simulation;
+    }
+
+    /**
+     * Creates a simulation without modules, containing the given number of vesicles, that are placed randomly on a
+     * square grid of 20 µm.
+     *
+     * @param gridSize The number of nodes on each side of the grid.
+     * @param vesicles The number of vesicles.
+     * @return The initialized simulation.
+     */
+    public static Simulation createVesicles(int gridSize, int vesicles) {
+        UnitRegistry.setTime(Quantities.getQuantity(1.0, MICRO(SECOND)));
+        Environment.setSystemExtend(Quantities.getQuantity(20, MICRO(METRE)));
+        AutomatonGraph graph = AutomatonGraphs.createRectangularAutomatonGraph(gridSize, gridSize);
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Random random = new Random(SEED);
+        double extend = Environment.getSimulationExtend();
+        double margin = Environment.convertSystemToSimulationScale(Quantities.getQuantity(100.0, NANO(METRE)));
+        for (int index = 0; index < vesicles; index++) {
+            Vector2D position = new Vector2D(margin + random.nextDouble() * (extend - 2 * margin),
+                    margin + random.nextDouble() * (extend - 2 * margin));
+            simulation.getVesicleLayer().addVesicle(new Vesicle(position, Quantities.getQuantity(50.0, NANO(METRE))));
+        }
+        simulation.initialize();
+        return simulation;
+    }
+
+    /**
+     * Creates a simulation of a square grid, where each node contains the given number of species in the cytoplasm.
+     *
+     * @param gridSize The number of nodes on each side of the grid.
+     * @param species The number of species.
+     * @return The initialized simulation.
+     */
+    public static Simulation createConcentrations(int gridSize, int species) {
+        AutomatonGraph graph = AutomatonGraphs.createRectangularAutomatonGraph(gridSize, gridSize);
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Random random = new Random(SEED);
+        for (AutomatonNode node : graph.getNodes()) {
+            node.setCellRegion(CellRegions.CYTOPLASM_REGION);
+            for (int index = 0; index < species; index++) {
+                node.getConcentrationContainer().set(CYTOPLASM, SmallMolecule.create("S" + index).build(), 0.5 + random.nextDouble());
+            }
+        }
+        simulation.initialize();
+        return simulation;
+    }
+
+}
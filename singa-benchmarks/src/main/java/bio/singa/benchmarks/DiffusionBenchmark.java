@@ -0,0 +1,52 @@
+package bio.singa.benchmarks;
+
+import bio.singa.simulation.model.simulation.Simulation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time required to calculate a single epoch of the free diffusion of a number of species on square grids
+ * of different sizes.
+ *
+ * @author cl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DiffusionBenchmark {
+
+    @Param({"10", "30", "50"})
+    public int gridSize;
+
+    @Param({"1", "4"})
+    public int species;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Simulation simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        simulation = BenchmarkSimulations.createDiffusion(gridSize, species);
+        BenchmarkSimulations.setThreads(simulation, threads);
+        simulation.initialize();
+    }
+
+    @Benchmark
+    public long nextEpoch() {
+        simulation.nextEpoch();
+        return simulation.getEpoch();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.getScheduler().shutdown();
+        BenchmarkSimulations.reset();
+    }
+
+}
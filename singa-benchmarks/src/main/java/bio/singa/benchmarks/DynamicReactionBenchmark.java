@@ -0,0 +1,49 @@
+package bio.singa.benchmarks;
+
+import bio.singa.simulation.model.simulation.Simulation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time required to calculate a single epoch of reactions with dynamic reactants, where the complexes
+ * taking part in each reaction are determined from the complexes present in each node.
+ *
+ * @author cl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DynamicReactionBenchmark {
+
+    @Param({"1", "5", "10"})
+    public int gridSize;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Simulation simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        simulation = BenchmarkSimulations.createDynamicComplexReactions(gridSize);
+        BenchmarkSimulations.setThreads(simulation, threads);
+        simulation.initialize();
+    }
+
+    @Benchmark
+    public long nextEpoch() {
+        simulation.nextEpoch();
+        return simulation.getEpoch();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.getScheduler().shutdown();
+        BenchmarkSimulations.reset();
+    }
+
+}
@@ -0,0 +1,90 @@
+package bio.singa.benchmarks;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+
+/**
+ * Measures the time required to determine the global numerical error of all nodes, as done by the
+ * {@link bio.singa.simulation.model.simulation.UpdateScheduler} after each pass. For every node the full and half step
+ * deltas of each species are added to the {@link ConcentrationDeltaManager}, the interim and comparison
+ * concentrations are determined and the largest error is evaluated, before the concentrations are reverted.
+ *
+ * @author cl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GlobalErrorBenchmark {
+
+    @Param({"10", "50"})
+    public int gridSize;
+
+    @Param({"10", "100"})
+    public int species;
+
+    private Simulation simulation;
+    private List<ConcentrationDeltaManager> managers;
+    private List<List<ConcentrationDelta>> fullDeltas;
+    private List<List<ConcentrationDelta>> halfDeltas;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        simulation = BenchmarkSimulations.createConcentrations(gridSize, species);
+        managers = new ArrayList<>();
+        fullDeltas = new ArrayList<>();
+        halfDeltas = new ArrayList<>();
+        for (AutomatonNode node : simulation.getGraph().getNodes()) {
+            ConcentrationDeltaManager manager = node.getConcentrationManager();
+            List<ConcentrationDelta> full = new ArrayList<>();
+            List<ConcentrationDelta> half = new ArrayList<>();
+            int index = 0;
+            for (ChemicalEntity entity : node.getConcentrationContainer().getReferencedEntities()) {
+                double value = -1.0e-3 * (1 + index % 7);
+                full.add(new ConcentrationDelta(null, CYTOPLASM, entity, value));
+                // half step deltas deviate slightly from the full step deltas
+                half.add(new ConcentrationDelta(null, CYTOPLASM, entity, value * 1.01));
+                index++;
+            }
+            managers.add(manager);
+            fullDeltas.add(full);
+            halfDeltas.add(half);
+        }
+    }
+
+    @Benchmark
+    public double globalError() {
+        double largestError = 0.0;
+        for (int index = 0; index < managers.size(); index++) {
+            ConcentrationDeltaManager manager = managers.get(index);
+            manager.backupConcentrations();
+            fullDeltas.get(index).forEach(manager::addPotentialDelta);
+            manager.setInterimAndUpdateCurrentConcentrations();
+            halfDeltas.get(index).forEach(manager::addPotentialDelta);
+            manager.determineComparisionConcentrations();
+            largestError = Math.max(largestError, manager.determineGlobalNumericalError());
+            manager.clearPotentialDeltas();
+            manager.revertToOriginalConcentrations();
+        }
+        return largestError;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.getScheduler().shutdown();
+        BenchmarkSimulations.reset();
+    }
+
+}
@@ -0,0 +1,82 @@
+package bio.singa.benchmarks;
+
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.SimulationExamples;
+import org.openjdk.jmh.annotations.*;
+import tec.units.indriya.quantity.Quantities;
+
+import java.util.concurrent.TimeUnit;
+
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * Measures the time required to calculate a single epoch of the {@link SimulationExamples}. The equilibrium reaction and
+ * compartment examples are measured by default. The decomposition, Michaelis-Menten, iodine and diffusion examples
+ * retrieve their entities from ChEBI and require network access, they can be selected using
+ * {@code -p scenario=DECOMPOSITION,MICHAELIS_MENTEN,IODINE,DIFFUSION}.
+ *
+ * @author cl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SimulationEpochBenchmark {
+
+    /**
+     * The examples that can be benchmarked.
+     */
+    public enum Scenario {
+
+        EQUILIBRIUM, COMPARTMENTS, DECOMPOSITION, MICHAELIS_MENTEN, IODINE, DIFFUSION;
+
+        Simulation create() {
+            switch (this) {
+                case EQUILIBRIUM:
+                    return SimulationExamples.createEquilibriumReactionExample();
+                case COMPARTMENTS:
+                    return SimulationExamples.createCompartmentTestEnvironment();
+                case DECOMPOSITION:
+                    return SimulationExamples.createDecompositionReactionExample();
+                case MICHAELIS_MENTEN:
+                    return SimulationExamples.createMichaelisMentenReactionExample();
+                case IODINE:
+                    return SimulationExamples.createIodineMultiReactionExample();
+                default:
+                    return SimulationExamples.createDiffusionModuleExample(10, Quantities.getQuantity(1.0, MICRO(SECOND)));
+            }
+        }
+
+    }
+
+    @Param({"EQUILIBRIUM", "COMPARTMENTS"})
+    public Scenario scenario;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Simulation simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        simulation = scenario.create();
+        BenchmarkSimulations.setThreads(simulation, threads);
+        simulation.initialize();
+    }
+
+    @Benchmark
+    public long nextEpoch() {
+        simulation.nextEpoch();
+        return simulation.getEpoch();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.getScheduler().shutdown();
+        BenchmarkSimulations.reset();
+    }
+
+}
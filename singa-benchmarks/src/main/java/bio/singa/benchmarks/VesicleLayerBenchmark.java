@@ -0,0 +1,88 @@
+package bio.singa.benchmarks;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
+import bio.singa.simulation.model.modules.displacement.DisplacementDelta;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.openjdk.jmh.annotations.*;
+import tec.units.indriya.quantity.Quantities;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static tec.units.indriya.unit.MetricPrefix.NANO;
+import static tec.units.indriya.unit.Units.METRE;
+
+/**
+ * Measures the time required to resolve collisions of moving vesicles and to associate vesicles to the nodes of the
+ * graph for different numbers of vesicles. Each invocation displaces the vesicles back and forth by about 10 nm, such
+ * that the vesicles stay distributed over the simulation region.
+ *
+ * @author cl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class VesicleLayerBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int vesicles;
+
+    @Param({"false", "true"})
+    public boolean parallelAssociation;
+
+    private Simulation simulation;
+    private VesicleLayer vesicleLayer;
+    private Vector2D[] displacements;
+    private Vector2D[] reverseDisplacements;
+    private boolean reverse;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        simulation = BenchmarkSimulations.createVesicles(10, vesicles);
+        vesicleLayer = simulation.getVesicleLayer();
+        vesicleLayer.setParallelAssociation(parallelAssociation);
+        double length = Environment.convertSystemToSimulationScale(Quantities.getQuantity(10.0, NANO(METRE)));
+        Random random = new Random(vesicles);
+        displacements = new Vector2D[vesicles];
+        reverseDisplacements = new Vector2D[vesicles];
+        for (int index = 0; index < vesicles; index++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            displacements[index] = new Vector2D(length * Math.cos(angle), length * Math.sin(angle));
+            reverseDisplacements[index] = displacements[index].invertX().invertY();
+        }
+    }
+
+    @Benchmark
+    public int collisions() {
+        List<Vesicle> vesicleList = vesicleLayer.getVesicles();
+        for (int index = 0; index < vesicleList.size(); index++) {
+            Vector2D displacement = reverse ? reverseDisplacements[index] : displacements[index];
+            Vesicle vesicle = vesicleList.get(index);
+            vesicle.addPotentialSpatialDelta(new DisplacementDelta(null, displacement));
+            vesicle.calculateTotalDisplacement();
+        }
+        reverse = !reverse;
+        vesicleLayer.applyDeltas();
+        return vesicleList.size();
+    }
+
+    @Benchmark
+    public int association() {
+        vesicleLayer.associateVesicles();
+        return vesicleLayer.getVesicles().size();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.getScheduler().shutdown();
+        BenchmarkSimulations.reset();
+    }
+
+}
@@ -68,9 +68,8 @@ public class Diffusivity extends ScalableQuantitativeFeature<Diffusivity> implem
     }
 
     @Override
-    public void scale() {
-        scaledQuantity = UnitRegistry.scale(getContent()).getValue().doubleValue();
-        halfScaledQuantity = scaledQuantity * 0.5;
+    public double determineScaledQuantity() {
+        return UnitRegistry.scale(getContent()).getValue().doubleValue();
     }
 
     public void setContent(Quantity<Diffusivity> quantity) {
@@ -29,9 +29,8 @@ public class MembranePermeability extends ScalableQuantitativeFeature<MembranePe
     }
 
     @Override
-    public void scale() {
-        scaledQuantity = UnitRegistry.scale(getContent()).getValue().doubleValue();
-        halfScaledQuantity = scaledQuantity * 0.5;
+    public double determineScaledQuantity() {
+        return UnitRegistry.scale(getContent()).getValue().doubleValue();
     }
 
     @Override
@@ -1,5 +1,7 @@
 package bio.singa.features.model;
 
+import bio.singa.features.units.ScalingContext;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -33,26 +35,46 @@ public class FeatureRegistry {
         scalableQuantitativeFeatures = new ArrayList<>();
     }
 
-    public static void addQuantitativeFeature(QuantitativeFeature<?> quantitativeFeature) {
+    public static synchronized void addQuantitativeFeature(QuantitativeFeature<?> quantitativeFeature) {
         getInstance().quantitativeFeatures.add(quantitativeFeature);
     }
 
-    public static void addQualitativeFeature(QualitativeFeature<?> qualitativeFeature) {
+    public static synchronized void addQualitativeFeature(QualitativeFeature<?> qualitativeFeature) {
         getInstance().qualitativeFeatures.add(qualitativeFeature);
     }
 
-    public static void addScalableQuantitativeFeatures(ScalableQuantitativeFeature<?> scalableQuantitativeFeature) {
+    public static synchronized void addScalableQuantitativeFeatures(ScalableQuantitativeFeature<?> scalableQuantitativeFeature) {
         scalableQuantitativeFeature.scale();
         getInstance().scalableQuantitativeFeatures.add(scalableQuantitativeFeature);
     }
 
-    public static  void scale() {
+    /**
+     * Recalculates the scaled values of all features. If a {@link ScalingContext} is bound to the calling thread, only
+     * the values of this context are affected.
+     */
+    public static synchronized void scale() {
+        ScalingContext context = ScalingContext.current();
+        if (context != null) {
+            context.invalidateFeatures();
+            return;
+        }
         for (ScalableQuantitativeFeature<?> feature : getInstance().scalableQuantitativeFeatures) {
             feature.scale();
         }
     }
 
-    public static void scale(double factor) {
+    /**
+     * Multiplies the scaled values of all features with the given factor. If a {@link ScalingContext} is bound to the
+     * calling thread, only the values of this context are affected.
+     *
+     * @param factor The factor.
+     */
+    public static synchronized void scale(double factor) {
+        ScalingContext context = ScalingContext.current();
+        if (context != null) {
+            context.rescaleFeatures(factor);
+            return;
+        }
         for (ScalableQuantitativeFeature<?> feature : getInstance().scalableQuantitativeFeatures) {
             feature.scale(factor);
         }
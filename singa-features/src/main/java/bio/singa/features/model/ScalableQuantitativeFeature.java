@@ -1,15 +1,27 @@
 package bio.singa.features.model;
 
+import bio.singa.features.units.ScalingContext;
 import bio.singa.features.units.UnitRegistry;
 
 import javax.measure.Quantity;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author cl
  */
 public abstract class ScalableQuantitativeFeature<FeatureContent extends Quantity<FeatureContent>> extends AbstractFeature<Quantity<FeatureContent>> {
 
+    /**
+     * The source of scaling indices.
+     */
+    private static final AtomicInteger scalingIndices = new AtomicInteger();
+
+    /**
+     * The index referencing the scaled values of this feature in a {@link ScalingContext}.
+     */
+    private final int scalingIndex = scalingIndices.getAndIncrement();
+
     protected double scaledQuantity;
     protected double halfScaledQuantity;
 
@@ -28,16 +40,49 @@ public abstract class ScalableQuantitativeFeature<FeatureContent extends Quantit
         FeatureRegistry.addScalableQuantitativeFeatures(this);
     }
 
+    public int getScalingIndex() {
+        return scalingIndex;
+    }
+
+    /**
+     * Returns the scaled quantity, referring to the {@link ScalingContext} bound to the calling thread if there is
+     * one.
+     *
+     * @return The scaled quantity.
+     */
     public double getScaledQuantity() {
+        ScalingContext context = ScalingContext.current();
+        if (context != null) {
+            return context.getScaledQuantity(this);
+        }
         return scaledQuantity;
     }
 
+    /**
+     * Returns half of the scaled quantity, referring to the {@link ScalingContext} bound to the calling thread if
+     * there is one.
+     *
+     * @return Half of the scaled quantity.
+     */
     public double getHalfScaledQuantity() {
+        ScalingContext context = ScalingContext.current();
+        if (context != null) {
+            return context.getScaledQuantity(this) * 0.5;
+        }
         return halfScaledQuantity;
     }
 
+    /**
+     * Scales the content of this feature with the registry referenced by the calling thread.
+     *
+     * @return The scaled value.
+     */
+    public double determineScaledQuantity() {
+        return UnitRegistry.scaleTime(getContent()).getValue().doubleValue();
+    }
+
     public void scale() {
-        scaledQuantity = UnitRegistry.scaleTime(getContent()).getValue().doubleValue();
+        scaledQuantity = determineScaledQuantity();
         halfScaledQuantity = scaledQuantity * 0.5;
     }
 
@@ -2,14 +2,17 @@ package bio.singa.features.parameters;
 
 import bio.singa.features.quantities.DynamicViscosity;
 import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.features.units.ScalingContext;
 import bio.singa.features.units.UnitRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tec.units.indriya.quantity.Quantities;
 
 import javax.measure.Quantity;
+import javax.measure.Unit;
 import javax.measure.quantity.Length;
 import javax.measure.quantity.Temperature;
+import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -18,6 +21,14 @@ import static tec.units.indriya.unit.MetricPrefix.MICRO;
 import static tec.units.indriya.unit.MetricPrefix.MILLI;
 import static tec.units.indriya.unit.Units.*;
 
+/**
+ * The environment holds the physical conditions of the simulated system (temperature and viscosities) and the
+ * extent of the system, that determines the conversion between system and simulation distances. Without a bound
+ * {@link ScalingContext} all static methods refer to the global environment, after a context has been bound to a
+ * thread the same static methods refer to the environment of the context.
+ *
+ * @author cl
+ */
 public class Environment extends Observable {
 
     private static final Logger logger = LoggerFactory.getLogger(Environment.class);
@@ -97,7 +108,16 @@ public class Environment extends Observable {
      */
     private double simulationScale;
 
+    /**
+     * The cached factors to convert distances in each used unit to simulation scale (copy on write).
+     */
+    private volatile UnitScale[] unitScales = new UnitScale[0];
+
     private static Environment getInstance() {
+        ScalingContext context = ScalingContext.current();
+        if (context != null) {
+            return context.getEnvironment();
+        }
         if (instance == null) {
             synchronized (Environment.class) {
                 instance = new Environment();
@@ -118,6 +138,40 @@ public class Environment extends Observable {
         notifyObservers();
     }
 
+    private Environment(Environment environment) {
+        systemTemperature = environment.systemTemperature;
+        macroViscosity = environment.macroViscosity;
+        matrixViscosity = environment.matrixViscosity;
+        emptyConcentration = environment.emptyConcentration;
+        systemExtend = environment.systemExtend;
+        systemScale = environment.systemScale;
+        simulationExtend = environment.simulationExtend;
+        simulationScale = environment.simulationScale;
+    }
+
+    /**
+     * Creates a copy of the environment referenced by the calling thread (either the global environment or the
+     * environment of the bound {@link ScalingContext}). Observers are not copied.
+     *
+     * @return The copy.
+     */
+    public static Environment createCopy() {
+        return getInstance().copy();
+    }
+
+    /**
+     * Creates a copy of this environment. Observers are not copied.
+     *
+     * @return The copy.
+     */
+    public Environment copy() {
+        return new Environment(this);
+    }
+
+    /**
+     * Resets the environment referenced by the calling thread, i.e. the environment of the {@link ScalingContext}
+     * bound to the calling thread or the global environment.
+     */
     public static void reset() {
         getInstance().systemExtend = DEFAULT_SYSTEM_EXTEND;
         getInstance().simulationExtend = DEFAULT_SIMULATION_EXTEND;
@@ -192,9 +246,10 @@ public class Environment extends Observable {
         return getInstance().simulationScale;
     }
 
-    private void setSystemAndSimulationScales() {
+    private synchronized void setSystemAndSimulationScales() {
         simulationScale = simulationExtend / systemExtend.getValue().doubleValue();
         systemScale = systemExtend.divide(simulationExtend);
+        unitScales = new UnitScale[0];
     }
 
     public static Quantity<Length> convertSimulationToSystemScale(double simulationDistance) {
@@ -205,6 +260,50 @@ public class Environment extends Observable {
         return realDistance.to(getInstance().systemExtend.getUnit()).getValue().doubleValue() * getInstance().simulationScale;
     }
 
+    /**
+     * Converts a distance given in the specified unit to simulation scale. In contrast to
+     * {@link #convertSystemToSimulationScale(Quantity)} no quantity is created, the conversion factor of each used unit
+     * is cached until the system or simulation extend changes.
+     *
+     * @param realDistance The distance.
+     * @param unit The unit of the distance.
+     * @return The distance in simulation scale.
+     */
+    public static double convertSystemToSimulationScale(double realDistance, Unit<Length> unit) {
+        return realDistance * getInstance().getUnitScale(unit);
+    }
+
+    /**
+     * Converts a distance given in the space unit of the {@link UnitRegistry} (e.g. the scaled value of a feature) to
+     * simulation scale.
+     *
+     * @param spaceDistance The distance in space units.
+     * @return The distance in simulation scale.
+     */
+    public static double convertSpaceToSimulationScale(double spaceDistance) {
+        return convertSystemToSimulationScale(spaceDistance, UnitRegistry.getSpaceUnit());
+    }
+
+    private double getUnitScale(Unit<Length> unit) {
+        // only few units are used (e.g. the space unit and the unit of vesicle radii), such that a linear search suffices
+        UnitScale[] scales = unitScales;
+        for (UnitScale scale : scales) {
+            if (scale.unit == unit || scale.unit.equals(unit)) {
+                return scale.factor;
+            }
+        }
+        return addUnitScale(unit);
+    }
+
+    private synchronized double addUnitScale(Unit<Length> unit) {
+        double factor = Quantities.getQuantity(1.0, unit).to(systemExtend.getUnit()).getValue().doubleValue() * simulationScale;
+        UnitScale[] scales = unitScales;
+        UnitScale[] updatedScales = Arrays.copyOf(scales, scales.length + 1);
+        updatedScales[scales.length] = new UnitScale(unit, factor);
+        unitScales = updatedScales;
+        return factor;
+    }
+
     public static void attachObserver(Observer observer) {
         getInstance().addObserver(observer);
     }
@@ -217,4 +316,19 @@ public class Environment extends Observable {
                 "system viscosity = " + getInstance().macroViscosity + "\n";
     }
 
+    /**
+     * The factor converting distances in a unit to simulation scale.
+     */
+    private static final class UnitScale {
+
+        private final Unit<Length> unit;
+        private final double factor;
+
+        private UnitScale(Unit<Length> unit, double factor) {
+            this.unit = unit;
+            this.factor = factor;
+        }
+
+    }
+
 }
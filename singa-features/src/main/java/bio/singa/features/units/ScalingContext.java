@@ -0,0 +1,192 @@
+package bio.singa.features.units;
+
+import bio.singa.features.model.ScalableQuantitativeFeature;
+import bio.singa.features.parameters.Environment;
+
+import javax.measure.Quantity;
+
+/**
+ * A scaling context holds its own {@link UnitRegistry} (time and space scale as well as the default units), its own
+ * {@link Environment} (system extent, simulation scale and physical conditions) and the values of
+ * {@link ScalableQuantitativeFeature}s scaled to this registry. Without a bound context all static methods of the
+ * {@link UnitRegistry}, the {@link Environment} and the {@link bio.singa.features.model.FeatureRegistry} refer to the
+ * global instances. After a context has been bound to a thread using {@link #bind(ScalingContext)}, the same static
+ * methods refer to the context, such that multiple simulations with different time steps and spatial scales can be
+ * calculated concurrently in one JVM, as long as each thread is bound to the context of the simulation it is working
+ * on.
+ * <p>
+ * Scaled feature values are calculated lazily, the first time a feature is requested in a context, and are
+ * recalculated if the content of the feature is replaced.
+ *
+ * @author cl
+ */
+public class ScalingContext {
+
+    /**
+     * The context bound to each thread.
+     */
+    private static final ThreadLocal<ScalingContext> boundContext = new ThreadLocal<>();
+
+    /**
+     * The registry of this context.
+     */
+    private volatile UnitRegistry unitRegistry;
+
+    /**
+     * The environment of this context.
+     */
+    private final Environment environment;
+
+    /**
+     * The scaled values by scaling index of the features (copy on write).
+     */
+    private volatile ScaledValue[] scaledValues;
+
+    private ScalingContext(UnitRegistry unitRegistry, Environment environment) {
+        this.unitRegistry = unitRegistry;
+        this.environment = environment;
+        scaledValues = new ScaledValue[0];
+    }
+
+    /**
+     * Creates a new scaling context, that is initialized with the current state of the registry and environment that
+     * are referenced by the calling thread (either the global instances or the ones of the bound context).
+     *
+     * @return The new scaling context.
+     */
+    public static ScalingContext create() {
+        return new ScalingContext(new UnitRegistry(UnitRegistry.getInstance()), Environment.createCopy());
+    }
+
+    /**
+     * Creates a new scaling context, that is initialized with the current state of the registry and environment of
+     * this context. Scaled feature values are not copied.
+     *
+     * @return The new scaling context.
+     */
+    public ScalingContext copy() {
+        return new ScalingContext(new UnitRegistry(unitRegistry), environment.copy());
+    }
+
+    /**
+     * Returns the scaling context bound to the calling thread or null if the global registry is used.
+     *
+     * @return The scaling context bound to the calling thread.
+     */
+    public static ScalingContext current() {
+        return boundContext.get();
+    }
+
+    /**
+     * Binds the scaling context to the calling thread. Binding null restores the global registry.
+     *
+     * @param context The context to bind.
+     * @return The context previously bound to the calling thread (possibly null).
+     */
+    public static ScalingContext bind(ScalingContext context) {
+        ScalingContext previous = boundContext.get();
+        if (context == null) {
+            boundContext.remove();
+        } else {
+            boundContext.set(context);
+        }
+        return previous;
+    }
+
+    UnitRegistry getUnitRegistry() {
+        return unitRegistry;
+    }
+
+    /**
+     * Returns the environment of this context.
+     *
+     * @return The environment of this context.
+     */
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    /**
+     * Resets the registry of this context to the default values and discards all scaled values.
+     */
+    synchronized void reinitialize() {
+        unitRegistry = new UnitRegistry();
+        scaledValues = new ScaledValue[0];
+    }
+
+    /**
+     * Returns the scaled value of the feature in this context, calculating it if required.
+     *
+     * @param feature The feature.
+     * @return The scaled value.
+     */
+    public double getScaledQuantity(ScalableQuantitativeFeature<?> feature) {
+        int index = feature.getScalingIndex();
+        ScaledValue[] values = scaledValues;
+        if (index < values.length) {
+            ScaledValue value = values[index];
+            if (value != null && value.content == feature.getContent()) {
+                return value.value;
+            }
+        }
+        return scale(feature);
+    }
+
+    private synchronized double scale(ScalableQuantitativeFeature<?> feature) {
+        Quantity<?> content = feature.getContent();
+        double value;
+        ScalingContext previous = bind(this);
+        try {
+            value = feature.determineScaledQuantity();
+        } finally {
+            bind(previous);
+        }
+        int index = feature.getScalingIndex();
+        ScaledValue[] values = scaledValues;
+        ScaledValue[] updatedValues = new ScaledValue[Math.max(values.length, index + 1)];
+        System.arraycopy(values, 0, updatedValues, 0, values.length);
+        updatedValues[index] = new ScaledValue(content, value);
+        scaledValues = updatedValues;
+        return value;
+    }
+
+    /**
+     * Multiplies all scaled values by the given factor, e.g. after the time step has been changed.
+     *
+     * @param factor The factor.
+     */
+    public synchronized void rescaleFeatures(double factor) {
+        ScaledValue[] values = scaledValues;
+        ScaledValue[] updatedValues = new ScaledValue[values.length];
+        for (int index = 0; index < values.length; index++) {
+            ScaledValue value = values[index];
+            if (value != null) {
+                updatedValues[index] = new ScaledValue(value.content, value.value * factor);
+            }
+        }
+        scaledValues = updatedValues;
+    }
+
+    /**
+     * Discards all scaled values, such that they are recalculated when they are requested the next time.
+     */
+    public synchronized void invalidateFeatures() {
+        scaledValues = new ScaledValue[0];
+    }
+
+    /**
+     * A scaled value and the content of the feature it has been derived from.
+     */
+    private static final class ScaledValue {
+
+        private final Object content;
+        private final double value;
+
+        private ScaledValue(Object content, double value) {
+            this.content = content;
+            this.value = value;
+        }
+
+    }
+
+}
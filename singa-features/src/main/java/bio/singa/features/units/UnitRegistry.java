@@ -46,13 +46,18 @@ public class UnitRegistry {
     private Quantity<Length> space;
     private Quantity<Time> time;
 
+    /**
+     * The time step in microseconds, updated whenever the time changes.
+     */
+    private double timeInMicroseconds;
+
     private Map<Dimension, Unit> defaultUnits;
 
     private static UnitRegistry instance = getInstance();
 
-    private UnitRegistry() {
+    UnitRegistry() {
         space = DEFAULT_SPACE;
-        time = DEFAULT_TIME;
+        setTimeQuantity(DEFAULT_TIME);
 
         defaultUnits = new HashMap<>();
         defaultUnits.put(LENGTH, space.getUnit());
@@ -62,14 +67,34 @@ public class UnitRegistry {
         defaultUnits.put(TEMPERATURE, DEFAULT_TEMPERATURE_UNIT);
     }
 
-    private static UnitRegistry getInstance() {
+    UnitRegistry(UnitRegistry registry) {
+        space = registry.space;
+        time = registry.time;
+        timeInMicroseconds = registry.timeInMicroseconds;
+        defaultUnits = new HashMap<>(registry.defaultUnits);
+    }
+
+    static UnitRegistry getInstance() {
+        ScalingContext context = ScalingContext.current();
+        if (context != null) {
+            return context.getUnitRegistry();
+        }
         if (instance == null) {
             reinitialize();
         }
         return instance;
     }
 
+    /**
+     * Resets the registry referenced by the calling thread, i.e. the registry of the {@link ScalingContext} bound to
+     * the calling thread or the global registry.
+     */
     public static void reinitialize() {
+        ScalingContext context = ScalingContext.current();
+        if (context != null) {
+            context.reinitialize();
+            return;
+        }
         synchronized (UnitRegistry.class) {
             instance = new UnitRegistry();
         }
@@ -122,12 +147,21 @@ public class UnitRegistry {
         return getInstance().time;
     }
 
+    /**
+     * Returns the current time step in microseconds, without converting the time quantity.
+     *
+     * @return The time step in microseconds.
+     */
+    public static double getTimeInMicroseconds() {
+        return getInstance().timeInMicroseconds;
+    }
+
     public static double getTimeScale() {
         return getInstance().time.getValue().doubleValue();
     }
 
     public static void setTimeScale(double scale) {
-        getInstance().time = Quantities.getQuantity(scale, getInstance().time.getUnit());
+        getInstance().setTimeQuantity(Quantities.getQuantity(scale, getInstance().time.getUnit()));
     }
 
     public static Unit<Time> getTimeUnit() {
@@ -136,12 +170,17 @@ public class UnitRegistry {
 
     public static void setTimeUnit(Unit<Time> unit) {
         if (!getInstance().time.getUnit().equals(unit)) {
-            getInstance().time = Quantities.getQuantity(getInstance().time.getValue().doubleValue(), unit);
+            getInstance().setTimeQuantity(Quantities.getQuantity(getInstance().time.getValue().doubleValue(), unit));
             getInstance().defaultUnits.put(TIME, unit);
             rescaleRegisteredUnits();
         }
     }
 
+    private void setTimeQuantity(Quantity<Time> time) {
+        this.time = time;
+        timeInMicroseconds = time.to(MICRO(SECOND)).getValue().doubleValue();
+    }
+
     public static void resetTime() {
         setTimeScale(DEFAULT_TIME.getValue().doubleValue());
         setTimeUnit(DEFAULT_TIME.getUnit());
@@ -0,0 +1,70 @@
+package bio.singa.features.parameters;
+
+import bio.singa.features.units.ScalingContext;
+import bio.singa.features.units.UnitRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.MetricPrefix.NANO;
+import static tec.units.indriya.unit.Units.METRE;
+
+/**
+ * @author cl
+ */
+class EnvironmentTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldConvertPrimitiveDistancesToSimulationScale() {
+        Environment.setSystemExtend(Quantities.getQuantity(20.0, MICRO(METRE)));
+        double expected = Environment.convertSystemToSimulationScale(Quantities.getQuantity(50.0, NANO(METRE)));
+        assertEquals(expected, Environment.convertSystemToSimulationScale(50.0, NANO(METRE)), 1e-12);
+        assertEquals(expected, Environment.convertSpaceToSimulationScale(0.05), 1e-12);
+        // cached factor is invalidated if the system extend changes
+        Environment.setSystemExtend(Quantities.getQuantity(10.0, MICRO(METRE)));
+        assertEquals(2 * expected, Environment.convertSystemToSimulationScale(50.0, NANO(METRE)), 1e-12);
+        assertEquals(2 * expected, Environment.convertSpaceToSimulationScale(0.05), 1e-12);
+    }
+
+    @Test
+    void shouldConvertAlternatingUnitsToSimulationScale() {
+        Environment.setSystemExtend(Quantities.getQuantity(20.0, MICRO(METRE)));
+        double expected = Environment.convertSystemToSimulationScale(Quantities.getQuantity(50.0, NANO(METRE)));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expected, Environment.convertSystemToSimulationScale(50.0, NANO(METRE)), 1e-12);
+            assertEquals(expected, Environment.convertSystemToSimulationScale(0.05, MICRO(METRE)), 1e-12);
+        }
+        // all cached factors are invalidated if the system extend changes
+        Environment.setSystemExtend(Quantities.getQuantity(10.0, MICRO(METRE)));
+        assertEquals(2 * expected, Environment.convertSystemToSimulationScale(50.0, NANO(METRE)), 1e-12);
+        assertEquals(2 * expected, Environment.convertSystemToSimulationScale(0.05, MICRO(METRE)), 1e-12);
+    }
+
+    @Test
+    void shouldUseEnvironmentOfScalingContext() {
+        Environment.setSystemExtend(Quantities.getQuantity(20.0, MICRO(METRE)));
+        double globalScale = Environment.getSimulationScale();
+        ScalingContext context = ScalingContext.create();
+        ScalingContext previous = ScalingContext.bind(context);
+        try {
+            // the context is initialized with the global environment
+            assertEquals(globalScale, Environment.getSimulationScale(), 1e-12);
+            Environment.setSystemExtend(Quantities.getQuantity(10.0, MICRO(METRE)));
+            assertEquals(2 * globalScale, Environment.getSimulationScale(), 1e-12);
+        } finally {
+            ScalingContext.bind(previous);
+        }
+        // the global environment is unaffected
+        assertEquals(Quantities.getQuantity(20.0, MICRO(METRE)), Environment.getSystemExtend());
+        assertEquals(globalScale, Environment.getSimulationScale(), 1e-12);
+    }
+
+}
@@ -107,4 +107,36 @@ class UnitRegistryTest {
         assertEquals(-1, UnitRegistry.getTimeExponent(diffusivity));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testScalingContext() {
+        ScalingContext context = ScalingContext.create();
+        ScalingContext previous = ScalingContext.bind(context);
+        try {
+            UnitRegistry.setTime(Quantities.getQuantity(10.0, MILLI(SECOND)));
+            assertEquals(Quantities.getQuantity(10.0, MILLI(SECOND)), UnitRegistry.getTime());
+            Quantity<?> rate = UnitRegistry.scaleTime(Quantities.getQuantity(1.0, ONE.divide(SECOND)));
+            assertEquals(0.01, rate.getValue().doubleValue(), 1e-12);
+        } finally {
+            ScalingContext.bind(previous);
+        }
+        // the global registry is unaffected
+        assertEquals(UnitRegistry.DEFAULT_TIME, UnitRegistry.getTime());
+        // rebinding restores the state of the context
+        ScalingContext.bind(context);
+        try {
+            assertEquals(Quantities.getQuantity(10.0, MILLI(SECOND)), UnitRegistry.getTime());
+        } finally {
+            ScalingContext.bind(previous);
+        }
+    }
+
+    @Test
+    void shouldCacheTimeInMicroseconds() {
+        assertEquals(1.0, UnitRegistry.getTimeInMicroseconds(), 1e-9);
+        UnitRegistry.setTime(Quantities.getQuantity(2.5, MILLI(SECOND)));
+        assertEquals(2500.0, UnitRegistry.getTimeInMicroseconds(), 1e-9);
+        UnitRegistry.setTimeScale(0.5);
+        assertEquals(500.0, UnitRegistry.getTimeInMicroseconds(), 1e-9);
+    }
+
+}
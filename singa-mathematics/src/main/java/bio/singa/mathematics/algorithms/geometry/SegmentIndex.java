@@ -0,0 +1,298 @@
+package bio.singa.mathematics.algorithms.geometry;
+
+import bio.singa.mathematics.geometry.edges.LineSegment;
+import bio.singa.mathematics.vectors.Vector2D;
+
+import java.util.*;
+
+/**
+ * The segment index partitions the plane into square cells of a fixed size and references each line segment in every
+ * cell overlapping its bounding box. Queries for segments intersecting a line segment, segments close to a point and
+ * the segment closest to a point only consider segments from cells overlapping the query region. Segments can be
+ * added and removed at any time, if the end points of an indexed segment are changed, it has to be updated using
+ * {@link #update(LineSegment)}. Segments are identified by identity, since their equality usually depends on their
+ * (mutable) end points.
+ *
+ * @param <SegmentType> The type of the segments.
+ * @author cl
+ */
+public class SegmentIndex<SegmentType extends LineSegment> {
+
+    /**
+     * The side length of each cell.
+     */
+    private final double cellSize;
+
+    /**
+     * The segments of each occupied cell.
+     */
+    private final Map<Long, List<SegmentType>> cells;
+
+    /**
+     * The cells each segment is referenced in.
+     */
+    private final Map<SegmentType, long[]> segmentCells;
+
+    /**
+     * The bounding box of all segments that have been added (minimal x, minimal y, maximal x, maximal y).
+     */
+    private final double[] extend;
+
+    /**
+     * Creates a new segment index.
+     *
+     * @param cellSize The side length of each cell.
+     */
+    public SegmentIndex(double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("The cell size of a segment index has to be positive.");
+        }
+        this.cellSize = cellSize;
+        cells = new HashMap<>();
+        segmentCells = new IdentityHashMap<>();
+        extend = new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public int size() {
+        return segmentCells.size();
+    }
+
+    public boolean contains(SegmentType segment) {
+        return segmentCells.containsKey(segment);
+    }
+
+    /**
+     * Adds a segment. If the segment is already indexed it is updated.
+     *
+     * @param segment The segment.
+     */
+    public void add(SegmentType segment) {
+        if (segmentCells.containsKey(segment)) {
+            update(segment);
+            return;
+        }
+        Vector2D start = segment.getStartingPoint();
+        Vector2D end = segment.getEndingPoint();
+        double minimalX = Math.min(start.getX(), end.getX());
+        double minimalY = Math.min(start.getY(), end.getY());
+        double maximalX = Math.max(start.getX(), end.getX());
+        double maximalY = Math.max(start.getY(), end.getY());
+        extend[0] = Math.min(extend[0], minimalX);
+        extend[1] = Math.min(extend[1], minimalY);
+        extend[2] = Math.max(extend[2], maximalX);
+        extend[3] = Math.max(extend[3], maximalY);
+        int firstColumn = cell(minimalX);
+        int lastColumn = cell(maximalX);
+        int firstRow = cell(minimalY);
+        int lastRow = cell(maximalY);
+        long[] keys = new long[(lastColumn - firstColumn + 1) * (lastRow - firstRow + 1)];
+        int index = 0;
+        for (int x = firstColumn; x <= lastColumn; x++) {
+            for (int y = firstRow; y <= lastRow; y++) {
+                long key = key(x, y);
+                cells.computeIfAbsent(key, k -> new ArrayList<>()).add(segment);
+                keys[index++] = key;
+            }
+        }
+        segmentCells.put(segment, keys);
+    }
+
+    /**
+     * Adds all segments.
+     *
+     * @param segments The segments.
+     */
+    public void addAll(Collection<? extends SegmentType> segments) {
+        segments.forEach(this::add);
+    }
+
+    /**
+     * Removes a segment.
+     *
+     * @param segment The segment.
+     * @return True if the segment was indexed.
+     */
+    public boolean remove(SegmentType segment) {
+        long[] keys = segmentCells.remove(segment);
+        if (keys == null) {
+            return false;
+        }
+        for (long key : keys) {
+            List<SegmentType> cell = cells.get(key);
+            for (int index = 0; index < cell.size(); index++) {
+                if (cell.get(index) == segment) {
+                    cell.remove(index);
+                    break;
+                }
+            }
+            if (cell.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Updates the cells of a segment, after its end points have been changed.
+     *
+     * @param segment The segment.
+     */
+    public void update(SegmentType segment) {
+        remove(segment);
+        add(segment);
+    }
+
+    /**
+     * Removes all segments.
+     */
+    public void clear() {
+        cells.clear();
+        segmentCells.clear();
+        extend[0] = Double.POSITIVE_INFINITY;
+        extend[1] = Double.POSITIVE_INFINITY;
+        extend[2] = Double.NEGATIVE_INFINITY;
+        extend[3] = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Returns all segments referenced in cells overlapping the given box (each segment once). Candidates may not
+     * overlap the box themselves.
+     *
+     * @param minimalX The minimal x coordinate.
+     * @param minimalY The minimal y coordinate.
+     * @param maximalX The maximal x coordinate.
+     * @param maximalY The maximal y coordinate.
+     * @return The candidates.
+     */
+    public List<SegmentType> getCandidates(double minimalX, double minimalY, double maximalX, double maximalY) {
+        List<SegmentType> candidates = new ArrayList<>();
+        if (segmentCells.isEmpty()) {
+            return candidates;
+        }
+        // restrict the query to the extend of all segments
+        minimalX = Math.max(minimalX, extend[0]);
+        minimalY = Math.max(minimalY, extend[1]);
+        maximalX = Math.min(maximalX, extend[2]);
+        maximalY = Math.min(maximalY, extend[3]);
+        if (minimalX > maximalX || minimalY > maximalY) {
+            return candidates;
+        }
+        Set<SegmentType> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        int lastColumn = cell(maximalX);
+        int lastRow = cell(maximalY);
+        for (int x = cell(minimalX); x <= lastColumn; x++) {
+            for (int y = cell(minimalY); y <= lastRow; y++) {
+                List<SegmentType> cell = cells.get(key(x, y));
+                if (cell != null) {
+                    for (SegmentType segment : cell) {
+                        if (visited.add(segment)) {
+                            candidates.add(segment);
+                        }
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns all segments intersecting the given line segment.
+     *
+     * @param lineSegment The line segment.
+     * @return The intersecting segments.
+     */
+    public List<SegmentType> getSegmentsIntersecting(LineSegment lineSegment) {
+        Vector2D start = lineSegment.getStartingPoint();
+        Vector2D end = lineSegment.getEndingPoint();
+        List<SegmentType> segments = new ArrayList<>();
+        for (SegmentType candidate : getCandidates(Math.min(start.getX(), end.getX()), Math.min(start.getY(), end.getY()),
+                Math.max(start.getX(), end.getX()), Math.max(start.getY(), end.getY()))) {
+            if (lineSegment.getIntersectionWith(candidate).isPresent()) {
+                segments.add(candidate);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Returns true if any segment intersects the given line segment.
+     *
+     * @param lineSegment The line segment.
+     * @return True if any segment intersects the given line segment.
+     */
+    public boolean intersectsAny(LineSegment lineSegment) {
+        Vector2D start = lineSegment.getStartingPoint();
+        Vector2D end = lineSegment.getEndingPoint();
+        for (SegmentType candidate : getCandidates(Math.min(start.getX(), end.getX()), Math.min(start.getY(), end.getY()),
+                Math.max(start.getX(), end.getX()), Math.max(start.getY(), end.getY()))) {
+            if (lineSegment.getIntersectionWith(candidate).isPresent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns all segments, whose distance to the centre is smaller than the radius, i.e. all segments intersecting
+     * or contained in the circle.
+     *
+     * @param centre The centre.
+     * @param radius The radius.
+     * @return The segments within the radius.
+     */
+    public List<SegmentType> getSegmentsWithin(Vector2D centre, double radius) {
+        List<SegmentType> segments = new ArrayList<>();
+        for (SegmentType candidate : getCandidates(centre.getX() - radius, centre.getY() - radius, centre.getX() + radius, centre.getY() + radius)) {
+            if (candidate.distanceTo(centre) < radius) {
+                segments.add(candidate);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the segment closest to the point or null if no segments are indexed. The search region is doubled until
+     * a segment within the region is found.
+     *
+     * @param point The point.
+     * @return The closest segment.
+     */
+    public SegmentType getClosestSegment(Vector2D point) {
+        if (segmentCells.isEmpty()) {
+            return null;
+        }
+        // the largest distance from the point to the extend of all segments
+        double maximalRadius = Math.max(Math.max(Math.abs(point.getX() - extend[0]), Math.abs(point.getX() - extend[2])),
+                Math.max(Math.abs(point.getY() - extend[1]), Math.abs(point.getY() - extend[3])));
+        double radius = cellSize;
+        while (true) {
+            SegmentType closestSegment = null;
+            double closestDistance = Double.POSITIVE_INFINITY;
+            for (SegmentType candidate : getCandidates(point.getX() - radius, point.getY() - radius, point.getX() + radius, point.getY() + radius)) {
+                double distance = candidate.distanceTo(point);
+                if (distance < closestDistance) {
+                    closestDistance = distance;
+                    closestSegment = candidate;
+                }
+            }
+            // segments outside of the region are at least radius away
+            if (closestDistance <= radius || radius >= maximalRadius) {
+                return closestSegment;
+            }
+            radius *= 2;
+        }
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+}
@@ -0,0 +1,189 @@
+package bio.singa.mathematics.algorithms.geometry;
+
+import bio.singa.mathematics.vectors.Vector2D;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * A spatial hash partitions the plane into square cells of a fixed size and maps each content to the cell containing
+ * its position. Neighbours of a position are retrieved by only considering the cells overlapping the query circle,
+ * such that the cost of a query only depends on the local density of the content. Contents are moved incrementally,
+ * buckets only change if the content changes its cell.
+ *
+ * @param <ContentType> The type of the content.
+ * @author cl
+ */
+public class SpatialHash<ContentType> {
+
+    /**
+     * The side length of each cell.
+     */
+    private final double cellSize;
+
+    /**
+     * The contents of each occupied cell.
+     */
+    private final Map<Long, List<ContentType>> cells;
+
+    /**
+     * The cell and position of each content.
+     */
+    private final Map<ContentType, Entry> entries;
+
+    /**
+     * Creates a new spatial hash.
+     *
+     * @param cellSize The side length of each cell.
+     */
+    public SpatialHash(double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("The cell size of a spatial hash has to be positive.");
+        }
+        this.cellSize = cellSize;
+        cells = new HashMap<>();
+        entries = new HashMap<>();
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean contains(ContentType content) {
+        return entries.containsKey(content);
+    }
+
+    /**
+     * Returns the position the content was last put at or null if the content is not contained.
+     *
+     * @param content The content.
+     * @return The position.
+     */
+    public Vector2D getPosition(ContentType content) {
+        Entry entry = entries.get(content);
+        return entry != null ? entry.position : null;
+    }
+
+    /**
+     * Adds the content at the given position or moves it, if it is already contained.
+     *
+     * @param content The content.
+     * @param position The position.
+     */
+    public void put(ContentType content, Vector2D position) {
+        long key = key(cell(position.getX()), cell(position.getY()));
+        Entry entry = entries.get(content);
+        if (entry == null) {
+            entries.put(content, new Entry(key, position));
+            cells.computeIfAbsent(key, k -> new ArrayList<>()).add(content);
+            return;
+        }
+        entry.position = position;
+        if (entry.key != key) {
+            removeFromCell(entry.key, content);
+            cells.computeIfAbsent(key, k -> new ArrayList<>()).add(content);
+            entry.key = key;
+        }
+    }
+
+    /**
+     * Removes the content.
+     *
+     * @param content The content.
+     * @return True if the content was contained.
+     */
+    public boolean remove(ContentType content) {
+        Entry entry = entries.remove(content);
+        if (entry == null) {
+            return false;
+        }
+        removeFromCell(entry.key, content);
+        return true;
+    }
+
+    private void removeFromCell(long key, ContentType content) {
+        List<ContentType> cell = cells.get(key);
+        cell.remove(content);
+        if (cell.isEmpty()) {
+            cells.remove(key);
+        }
+    }
+
+    /**
+     * Removes all contents.
+     */
+    public void clear() {
+        cells.clear();
+        entries.clear();
+    }
+
+    /**
+     * Passes all contents in cells overlapping the square around the circle to the consumer, together with their
+     * position. Candidates may be farther away than the radius.
+     *
+     * @param centre The centre of the circle.
+     * @param radius The radius of the circle.
+     * @param consumer The consumer.
+     */
+    public void forEachCandidate(Vector2D centre, double radius, BiConsumer<ContentType, Vector2D> consumer) {
+        int minimalX = cell(centre.getX() - radius);
+        int maximalX = cell(centre.getX() + radius);
+        int minimalY = cell(centre.getY() - radius);
+        int maximalY = cell(centre.getY() + radius);
+        for (int x = minimalX; x <= maximalX; x++) {
+            for (int y = minimalY; y <= maximalY; y++) {
+                List<ContentType> cell = cells.get(key(x, y));
+                if (cell != null) {
+                    for (ContentType content : cell) {
+                        consumer.accept(content, entries.get(content).position);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns all contents, whose distance to the centre is smaller than the radius.
+     *
+     * @param centre The centre.
+     * @param radius The radius.
+     * @return The contents within the radius.
+     */
+    public List<ContentType> getNeighbours(Vector2D centre, double radius) {
+        List<ContentType> neighbours = new ArrayList<>();
+        double squaredRadius = radius * radius;
+        forEachCandidate(centre, radius, (content, position) -> {
+            double x = position.getX() - centre.getX();
+            double y = position.getY() - centre.getY();
+            if (x * x + y * y < squaredRadius) {
+                neighbours.add(content);
+            }
+        });
+        return neighbours;
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static class Entry {
+
+        private long key;
+        private Vector2D position;
+
+        private Entry(long key, Vector2D position) {
+            this.key = key;
+            this.position = position;
+        }
+
+    }
+
+}
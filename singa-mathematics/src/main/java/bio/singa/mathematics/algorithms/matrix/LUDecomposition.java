@@ -9,10 +9,168 @@ import java.util.Collections;
 import java.util.List;
 
 /**
+ * The LU decomposition factorizes a square matrix {@code A} with partial pivoting into {@code P * A = L * U}, where
+ * {@code L} is a lower triangular matrix with unit diagonal and {@code U} is an upper triangular matrix. Use the static
+ * method {@link #calculateLUDecomposition(double[][])} to obtain a decomposition, that can be used to solve multiple
+ * linear systems {@code A * x = b} (see {@link #solve(double[])}). Additionally, the row echelon form of arbitrary
+ * matrices can be calculated (see {@link #calculateRowEchelonMatrix(Matrix)}).
+ *
  * @author cl
  */
 public class LUDecomposition {
 
+    /**
+     * The factors L (below the diagonal) and U (on and above the diagonal).
+     */
+    private final double[][] factors;
+
+    /**
+     * The original row of each row of the factors.
+     */
+    private final int[] pivots;
+
+    /**
+     * True if any pivot element is zero.
+     */
+    private boolean singular;
+
+    /**
+     * Initializes the LU decomposition.
+     *
+     * @param factors The copied elements of the matrix to be decomposed.
+     */
+    private LUDecomposition(double[][] factors) {
+        this.factors = factors;
+        pivots = new int[factors.length];
+    }
+
+    /**
+     * Calculates the LU decomposition of the given square matrix, using Gaussian elimination with partial pivoting.
+     *
+     * @param matrix The matrix to be decomposed.
+     * @return The LU decomposition.
+     */
+    public static LUDecomposition calculateLUDecomposition(Matrix matrix) {
+        return calculateLUDecomposition(matrix.getElements());
+    }
+
+    /**
+     * Calculates the LU decomposition of the given square matrix, using Gaussian elimination with partial pivoting. The
+     * given array is not modified.
+     *
+     * @param elements The elements of the matrix to be decomposed (rows first).
+     * @return The LU decomposition.
+     */
+    public static LUDecomposition calculateLUDecomposition(double[][] elements) {
+        int dimension = elements.length;
+        double[][] factors = new double[dimension][];
+        for (int row = 0; row < dimension; row++) {
+            if (elements[row].length != dimension) {
+                throw new IllegalArgumentException("The LU decomposition can only be calculated for square matrices.");
+            }
+            factors[row] = elements[row].clone();
+        }
+        LUDecomposition decomposition = new LUDecomposition(factors);
+        for (int row = 0; row < dimension; row++) {
+            decomposition.pivots[row] = row;
+        }
+        for (int iteration = 0; iteration < dimension; iteration++) {
+            // search for row with largest absolute value in the current column
+            int pivotIndex = iteration;
+            for (int row = iteration + 1; row < dimension; row++) {
+                if (Math.abs(factors[row][iteration]) > Math.abs(factors[pivotIndex][iteration])) {
+                    pivotIndex = row;
+                }
+            }
+            if (pivotIndex != iteration) {
+                double[] rowValues = factors[pivotIndex];
+                factors[pivotIndex] = factors[iteration];
+                factors[iteration] = rowValues;
+                int pivot = decomposition.pivots[pivotIndex];
+                decomposition.pivots[pivotIndex] = decomposition.pivots[iteration];
+                decomposition.pivots[iteration] = pivot;
+            }
+            double pivotElement = factors[iteration][iteration];
+            if (pivotElement == 0.0) {
+                decomposition.singular = true;
+                continue;
+            }
+            // eliminate entries below the pivot
+            for (int row = iteration + 1; row < dimension; row++) {
+                double factor = factors[row][iteration] / pivotElement;
+                factors[row][iteration] = factor;
+                if (factor != 0.0) {
+                    for (int column = iteration + 1; column < dimension; column++) {
+                        factors[row][column] -= factor * factors[iteration][column];
+                    }
+                }
+            }
+        }
+        return decomposition;
+    }
+
+    /**
+     * Returns the dimension of the decomposed matrix.
+     *
+     * @return The dimension.
+     */
+    public int getDimension() {
+        return factors.length;
+    }
+
+    /**
+     * Returns true if the decomposed matrix is singular.
+     *
+     * @return True if the decomposed matrix is singular.
+     */
+    public boolean isSingular() {
+        return singular;
+    }
+
+    /**
+     * Solves the linear system {@code A * x = b} for the decomposed matrix {@code A}.
+     *
+     * @param rightHandSide The right hand side {@code b}.
+     * @return The solution {@code x}.
+     */
+    public double[] solve(double[] rightHandSide) {
+        int dimension = factors.length;
+        if (rightHandSide.length != dimension) {
+            throw new IllegalArgumentException("The right hand side needs to have " + dimension + " elements.");
+        }
+        if (singular) {
+            throw new IllegalStateException("The given matrix is singular - no LU decomposition possible.");
+        }
+        double[] solution = new double[dimension];
+        // forward substitution with L
+        for (int row = 0; row < dimension; row++) {
+            double value = rightHandSide[pivots[row]];
+            for (int column = 0; column < row; column++) {
+                value -= factors[row][column] * solution[column];
+            }
+            solution[row] = value;
+        }
+        // backward substitution with U
+        for (int row = dimension - 1; row >= 0; row--) {
+            double value = solution[row];
+            for (int column = row + 1; column < dimension; column++) {
+                value -= factors[row][column] * solution[column];
+            }
+            solution[row] = value / factors[row][row];
+        }
+        return solution;
+    }
+
+    /**
+     * Solves the linear system {@code A * x = b} for the decomposed matrix {@code A}.
+     *
+     * @param rightHandSide The right hand side {@code b}.
+     * @return The solution {@code x}.
+     */
+    public Vector solve(Vector rightHandSide) {
+        return new RegularVector(solve(rightHandSide.getElements()));
+    }
+
     public static Matrix calculateRowEchelonMatrix(Matrix originalMatrix) {
         List<Vector> matrixRows = Matrices.divideIntoRows(originalMatrix);
         for (int iteration = 0; iteration < Math.min(originalMatrix.getColumnDimension(), originalMatrix.getRowDimension()); iteration++) {
@@ -7,6 +7,7 @@ import bio.singa.mathematics.vectors.Vector2D;
 import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static bio.singa.mathematics.geometry.faces.Polygons.INSIDE;
@@ -144,6 +145,27 @@ public interface LineSegment {
     }
 
     default Vector2D getRandomPoint() {
+        return getPointAt(ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * Returns a random point on this line segment using the given source of randomness.
+     *
+     * @param random The source of randomness.
+     * @return The random point.
+     */
+    default Vector2D getRandomPoint(SplittableRandom random) {
+        return getPointAt(random.nextDouble());
+    }
+
+    /**
+     * Returns the point at the given fraction of the varied coordinate, i.e. the x coordinate for horizontal and
+     * inclined segments and the y coordinate for vertical segments, ordered from the lower to the higher value.
+     *
+     * @param fraction The fraction in [0, 1).
+     * @return The point.
+     */
+    default Vector2D getPointAt(double fraction) {
         if (isHorizontal()) {
             // x can be varied
             double segmentStartX = getStartingPoint().getX();
@@ -154,9 +176,9 @@ public interface LineSegment {
                 segmentStartX = segmentEndX;
                 segmentEndX = temp;
             }
-            // determine random initial position
+            // determine initial position
             double startY = getStartingPoint().getY();
-            double startX = ThreadLocalRandom.current().nextDouble(segmentStartX, segmentEndX);
+            double startX = segmentStartX + fraction * (segmentEndX - segmentStartX);
             return new Vector2D(startX, startY);
 
         }
@@ -170,9 +192,9 @@ public interface LineSegment {
                 segmentStartY = segmentEndY;
                 segmentEndY = temp;
             }
-            // determine random initial position
+            // determine initial position
             double startX = getStartingPoint().getX();
-            double startY = ThreadLocalRandom.current().nextDouble(segmentStartY, segmentEndY);
+            double startY = segmentStartY + fraction * (segmentEndY - segmentStartY);
             return new Vector2D(startX, startY);
         }
         SimpleLineSegment simpleLineSegment = (SimpleLineSegment) this;
@@ -185,7 +207,7 @@ public interface LineSegment {
             end = temp;
         }
         // calculate initial position
-        double xValue = ThreadLocalRandom.current().nextDouble(start, end);
+        double xValue = start + fraction * (end - start);
         double yValue = simpleLineSegment.getYValue(xValue);
         return new Vector2D(xValue, yValue);
     }
@@ -70,12 +70,38 @@ public class Vectors {
         return new Vector2D(x, y);
     }
 
+    /**
+     * Generates a vector, where both components are independently drawn from a standard normal distribution using the
+     * given source of randomness (Box-Muller transform).
+     *
+     * @param random The source of randomness.
+     * @return The standard gaussian vector.
+     */
+    public static Vector2D generateStandardGaussian2DVector(SplittableRandom random) {
+        // 1 - u is in (0, 1], such that the logarithm is finite
+        double radius = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()));
+        double angle = 2.0 * Math.PI * random.nextDouble();
+        return new Vector2D(radius * Math.cos(angle), radius * Math.sin(angle));
+    }
+
     public static Vector2D generateRandomUnit2DVector() {
         double x = ThreadLocalRandom.current().nextDouble(-1.0, 1.0);
         double y = ThreadLocalRandom.current().nextDouble(-1.0, 1.0);
         return new Vector2D(x, y).normalize();
     }
 
+    /**
+     * Generates a random unit vector using the given source of randomness.
+     *
+     * @param random The source of randomness.
+     * @return The random unit vector.
+     */
+    public static Vector2D generateRandomUnit2DVector(SplittableRandom random) {
+        double x = random.nextDouble(-1.0, 1.0);
+        double y = random.nextDouble(-1.0, 1.0);
+        return new Vector2D(x, y).normalize();
+    }
+
 
     public static Vector3D generateRandomVector3D() {
         double x = ThreadLocalRandom.current().nextDouble();
@@ -0,0 +1,89 @@
+package bio.singa.mathematics.algorithms.geometry;
+
+import bio.singa.mathematics.geometry.edges.LineSegment;
+import bio.singa.mathematics.geometry.edges.SimpleLineSegment;
+import bio.singa.mathematics.vectors.Vector2D;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class SegmentIndexTest {
+
+    private static Vector2D randomPoint(Random random) {
+        return new Vector2D(random.nextDouble() * 100, random.nextDouble() * 100);
+    }
+
+    private static SimpleLineSegment randomSegment(Random random) {
+        Vector2D start = randomPoint(random);
+        return new SimpleLineSegment(start, start.add(new Vector2D(random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10)));
+    }
+
+    @Test
+    void shouldAnswerQueriesLikeBruteForce() {
+        Random random = new Random(11);
+        SegmentIndex<SimpleLineSegment> index = new SegmentIndex<>(5.0);
+        List<SimpleLineSegment> segments = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            SimpleLineSegment segment = randomSegment(random);
+            segments.add(segment);
+            index.add(segment);
+        }
+        // grow some segments and update them
+        for (int i = 0; i < 30; i++) {
+            SimpleLineSegment segment = segments.get(i);
+            segment.setEndingPoint(segment.getEndingPoint().add(new Vector2D(15.0, -5.0)));
+            index.update(segment);
+        }
+        assertEquals(300, index.size());
+
+        for (int query = 0; query < 100; query++) {
+            // intersections
+            LineSegment line = randomSegment(random);
+            Set<SimpleLineSegment> expectedIntersecting = new HashSet<>();
+            for (SimpleLineSegment segment : segments) {
+                if (line.getIntersectionWith(segment).isPresent()) {
+                    expectedIntersecting.add(segment);
+                }
+            }
+            assertEquals(expectedIntersecting, new HashSet<>(index.getSegmentsIntersecting(line)));
+            assertEquals(!expectedIntersecting.isEmpty(), index.intersectsAny(line));
+
+            // within radius
+            Vector2D point = new Vector2D(random.nextDouble() * 140 - 20, random.nextDouble() * 140 - 20);
+            double radius = random.nextDouble() * 10;
+            Set<SimpleLineSegment> expectedWithin = new HashSet<>();
+            double closestDistance = Double.POSITIVE_INFINITY;
+            for (SimpleLineSegment segment : segments) {
+                double distance = segment.distanceTo(point);
+                if (distance < radius) {
+                    expectedWithin.add(segment);
+                }
+                closestDistance = Math.min(closestDistance, distance);
+            }
+            assertEquals(expectedWithin, new HashSet<>(index.getSegmentsWithin(point, radius)));
+
+            // closest
+            assertEquals(closestDistance, index.getClosestSegment(point).distanceTo(point));
+        }
+    }
+
+    @Test
+    void shouldRemoveSegments() {
+        SegmentIndex<SimpleLineSegment> index = new SegmentIndex<>(1.0);
+        assertNull(index.getClosestSegment(new Vector2D(0.0, 0.0)));
+        SimpleLineSegment first = new SimpleLineSegment(new Vector2D(0.0, 0.0), new Vector2D(3.0, 0.0));
+        SimpleLineSegment second = new SimpleLineSegment(new Vector2D(0.0, 5.0), new Vector2D(3.0, 5.0));
+        index.addAll(Arrays.asList(first, second));
+        assertSame(first, index.getClosestSegment(new Vector2D(1.0, 1.0)));
+        assertTrue(index.remove(first));
+        assertFalse(index.remove(first));
+        assertSame(second, index.getClosestSegment(new Vector2D(1.0, 1.0)));
+        assertTrue(index.getSegmentsWithin(new Vector2D(1.0, 0.0), 0.5).isEmpty());
+    }
+
+}
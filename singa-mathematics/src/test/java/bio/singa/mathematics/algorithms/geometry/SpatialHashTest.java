@@ -0,0 +1,58 @@
+package bio.singa.mathematics.algorithms.geometry;
+
+import bio.singa.mathematics.vectors.Vector2D;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class SpatialHashTest {
+
+    @Test
+    void shouldFindSameNeighboursAsBruteForce() {
+        Random random = new Random(42);
+        SpatialHash<Integer> hash = new SpatialHash<>(10.0);
+        Map<Integer, Vector2D> positions = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            Vector2D position = new Vector2D(random.nextDouble() * 200 - 100, random.nextDouble() * 200 - 100);
+            positions.put(i, position);
+            hash.put(i, position);
+        }
+        // move some contents, crossing cells
+        for (int i = 0; i < 100; i++) {
+            Vector2D position = positions.get(i).add(new Vector2D(random.nextDouble() * 30 - 15, random.nextDouble() * 30 - 15));
+            positions.put(i, position);
+            hash.put(i, position);
+        }
+        assertEquals(500, hash.size());
+        for (int query = 0; query < 50; query++) {
+            Vector2D centre = new Vector2D(random.nextDouble() * 200 - 100, random.nextDouble() * 200 - 100);
+            double radius = random.nextDouble() * 25;
+            Set<Integer> expected = new HashSet<>();
+            for (Map.Entry<Integer, Vector2D> entry : positions.entrySet()) {
+                if (entry.getValue().distanceTo(centre) < radius) {
+                    expected.add(entry.getKey());
+                }
+            }
+            assertEquals(expected, new HashSet<>(hash.getNeighbours(centre, radius)));
+        }
+    }
+
+    @Test
+    void shouldRemoveContent() {
+        SpatialHash<String> hash = new SpatialHash<>(1.0);
+        hash.put("a", new Vector2D(0.5, 0.5));
+        hash.put("b", new Vector2D(-0.5, -0.5));
+        assertEquals(2, hash.getNeighbours(new Vector2D(0.0, 0.0), 1.0).size());
+        assertTrue(hash.remove("a"));
+        assertFalse(hash.remove("a"));
+        assertFalse(hash.contains("a"));
+        assertNull(hash.getPosition("a"));
+        assertEquals(Collections.singletonList("b"), hash.getNeighbours(new Vector2D(0.0, 0.0), 1.0));
+    }
+
+}
@@ -5,6 +5,7 @@ import bio.singa.mathematics.matrices.RegularMatrix;
 import org.junit.jupiter.api.Test;
 
 import static bio.singa.mathematics.NumberConceptAssertion.assertMatrixEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * @author cl
@@ -43,4 +44,23 @@ class LUDecompositionTest {
         assertMatrixEquals(expected, actual, 0.0);
     }
 
-}
\ No newline at end of file
+    @Test
+    void shouldSolveLinearSystem() {
+        double[][] elements = {{2, 1, -1}, {-3, -1, 2}, {-2, 1, 2}};
+        LUDecomposition decomposition = LUDecomposition.calculateLUDecomposition(elements);
+        assertFalse(decomposition.isSingular());
+        double[] solution = decomposition.solve(new double[]{8, -11, -3});
+        assertArrayEquals(new double[]{2, 3, -1}, solution, 1e-12);
+        // the decomposition can be reused and the original elements are retained
+        assertArrayEquals(new double[]{1, 0, 0}, decomposition.solve(new double[]{2, -3, -2}), 1e-12);
+        assertEquals(-3, elements[1][0]);
+    }
+
+    @Test
+    void shouldDetectSingularMatrix() {
+        LUDecomposition decomposition = LUDecomposition.calculateLUDecomposition(new double[][]{{1, 2}, {2, 4}});
+        assertTrue(decomposition.isSingular());
+        assertThrows(IllegalStateException.class, () -> decomposition.solve(new double[]{1, 2}));
+    }
+
+}
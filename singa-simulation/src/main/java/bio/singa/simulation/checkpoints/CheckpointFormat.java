@@ -0,0 +1,45 @@
+package bio.singa.simulation.checkpoints;
+
+/**
+ * Constants describing the layout of checkpoint files.
+ * <pre>
+ * file      = magic (long) | version (int) | epoch (long) | elapsed time (double) | time step (double) | seed (long)
+ *             | nodes | filaments | vesicles | modules | integrator
+ * nodes     = number of nodes (int) | (node (UTF) | container)*
+ * container = number of pools (int) | (topology (int) | subsection (UTF) | pool)*
+ * pool      = number of entities (int) | (entity (UTF) | concentration (double))*
+ * filaments = number of filaments (int, -1 without line layer) | (type (UTF) | plus end behaviour (UTF?)
+ *             | minus end behaviour (UTF?) | number of segments (int) | (x (double) | y (double))*)*
+ * vesicles  = number of vesicles (int) | (vesicle (UTF) | region (UTF) | x (double) | y (double) | radius (double)
+ *             | state (UTF?) | target direction (UTF?) | filament (int, -1 if detached) | segment (int) | container)*
+ * modules   = number of modules (int) | (index (int) | module (UTF?) | module state)*
+ * integrator = integrator class (UTF?, absent if the integrator keeps no state) | integrator state
+ * </pre>
+ * Optional strings (UTF?) are preceded by a boolean, that is true if the string is present. Times are stored in
+ * seconds, lengths in metre, concentrations in mol/l and positions in simulation scale. The state of each
+ * {@link CheckpointedModule} and {@link CheckpointedIntegrator} is written by the module or integrator itself.
+ *
+ * @author cl
+ */
+final class CheckpointFormat {
+
+    /**
+     * The magic number identifying checkpoint files ("SINGACKP").
+     */
+    static final long MAGIC = 0x53494E4741434B50L;
+
+    /**
+     * The version of the format.
+     */
+    static final int VERSION = 3;
+
+    /**
+     * The filament index of vesicles that are not attached to any filament.
+     */
+    static final int NO_FILAMENT = -1;
+
+    private CheckpointFormat() {
+
+    }
+
+}
@@ -0,0 +1,306 @@
+package bio.singa.simulation.checkpoints;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.exceptions.CheckpointException;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.sections.*;
+import bio.singa.simulation.model.simulation.Simulation;
+import tec.units.indriya.ComparableQuantity;
+import tec.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import javax.measure.quantity.Time;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static tec.units.indriya.unit.Units.METRE;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * The checkpoint input reads checkpoints written by the {@link CheckpointOutput}. References to entities, nodes,
+ * vesicles, regions and subsections are resolved by their identifiers in the simulation the checkpoint is restored
+ * to, a {@link CheckpointException} is thrown if a referenced object is unknown.
+ *
+ * @author cl
+ */
+public class CheckpointInput extends DataInputStream {
+
+    /**
+     * The simulation the checkpoint is restored to.
+     */
+    private final Simulation simulation;
+
+    /**
+     * The factor converting concentrations from mol/l to the unit registry.
+     */
+    private final double concentrationFactor;
+
+    /**
+     * The entities by identifier.
+     */
+    private final Map<String, ChemicalEntity> entities;
+
+    /**
+     * The nodes by identifier.
+     */
+    private final Map<String, AutomatonNode> nodes;
+
+    /**
+     * The regions by identifier.
+     */
+    private final Map<String, CellRegion> regions;
+
+    /**
+     * The subsections by identifier.
+     */
+    private final Map<String, CellSubsection> subsections;
+
+    /**
+     * The vesicles by identifier, determined when the first vesicle is read.
+     */
+    private Map<String, Vesicle> vesicles;
+
+    /**
+     * Creates a new checkpoint input for the given simulation. Entities, nodes, regions and subsections are collected
+     * at creation.
+     *
+     * @param inputStream The underlying stream.
+     * @param simulation The simulation the checkpoint is restored to.
+     */
+    public CheckpointInput(InputStream inputStream, Simulation simulation) {
+        super(inputStream);
+        this.simulation = simulation;
+        concentrationFactor = 1.0 / UnitRegistry.concentration(1.0).to(MOLE_PER_LITRE).getValue().doubleValue();
+        entities = new HashMap<>();
+        EntityIndex entityIndex = simulation.getEntityIndex();
+        for (int index = 0; index < entityIndex.size(); index++) {
+            ChemicalEntity entity = entityIndex.getEntity(index);
+            entities.put(entity.getIdentifier().toString(), entity);
+        }
+        for (ChemicalEntity entity : simulation.getAllChemicalEntities()) {
+            entities.put(entity.getIdentifier().toString(), entity);
+        }
+        // entities that modules create during initialization
+        for (UpdateModule module : simulation.getModules()) {
+            for (ChemicalEntity entity : module.getReferencedEntities()) {
+                entities.putIfAbsent(entity.getIdentifier().toString(), entity);
+            }
+        }
+        nodes = new HashMap<>();
+        regions = new HashMap<>();
+        subsections = new HashMap<>();
+        for (AutomatonNode node : simulation.getGraph().getNodes()) {
+            nodes.put(node.getStringIdentifier(), node);
+            addRegion(node.getCellRegion());
+            addSubsections(node.getConcentrationContainer());
+        }
+        addRegion(CellRegions.VESICLE_REGION);
+        if (simulation.getVesicleLayer() != null) {
+            for (Vesicle vesicle : simulation.getVesicleLayer().getVesicles()) {
+                addRegion(vesicle.getRegion());
+                addSubsections(vesicle.getConcentrationContainer());
+            }
+        }
+    }
+
+    private void addRegion(CellRegion region) {
+        if (region != null) {
+            regions.putIfAbsent(region.getIdentifier(), region);
+            for (CellSubsection subsection : region.getSubsections()) {
+                subsections.putIfAbsent(subsection.getIdentifier(), subsection);
+            }
+        }
+    }
+
+    private void addSubsections(ConcentrationContainer container) {
+        for (CellSubsection subsection : container.getReferencedSubsections()) {
+            subsections.putIfAbsent(subsection.getIdentifier(), subsection);
+        }
+    }
+
+    /**
+     * Returns the simulation the checkpoint is restored to.
+     *
+     * @return The simulation.
+     */
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * Reads a string that may be null.
+     *
+     * @return The string.
+     * @throws IOException If the string could not be read.
+     */
+    public String readOptionalUTF() throws IOException {
+        if (readBoolean()) {
+            return readUTF();
+        }
+        return null;
+    }
+
+    /**
+     * Reads a vector.
+     *
+     * @return The vector.
+     * @throws IOException If the vector could not be read.
+     */
+    public Vector2D readVector() throws IOException {
+        double x = readDouble();
+        double y = readDouble();
+        return new Vector2D(x, y);
+    }
+
+    /**
+     * Reads a time and converts it to the time unit of the unit registry.
+     *
+     * @return The time.
+     * @throws IOException If the time could not be read.
+     */
+    public ComparableQuantity<Time> readTime() throws IOException {
+        return Quantities.getQuantity(readDouble(), SECOND).to(UnitRegistry.getTimeUnit());
+    }
+
+    /**
+     * Reads a length and converts it to the space unit of the unit registry.
+     *
+     * @return The length.
+     * @throws IOException If the length could not be read.
+     */
+    public Quantity<Length> readLength() throws IOException {
+        return Quantities.getQuantity(readDouble(), METRE).to(UnitRegistry.getSpaceUnit());
+    }
+
+    /**
+     * Reads a concentration and converts it to the concentration unit of the unit registry.
+     *
+     * @return The concentration.
+     * @throws IOException If the concentration could not be read.
+     */
+    public double readConcentration() throws IOException {
+        return readDouble() * concentrationFactor;
+    }
+
+    /**
+     * Reads a reference to a chemical entity.
+     *
+     * @return The entity.
+     * @throws IOException If the reference could not be read.
+     */
+    public ChemicalEntity readEntity() throws IOException {
+        String identifier = readUTF();
+        ChemicalEntity entity = entities.get(identifier);
+        if (entity == null) {
+            throw new CheckpointException("The entity " + identifier + " is not referenced in the simulation.");
+        }
+        return entity;
+    }
+
+    /**
+     * Reads a reference to a node.
+     *
+     * @return The node.
+     * @throws IOException If the reference could not be read.
+     */
+    public AutomatonNode readNode() throws IOException {
+        String identifier = readUTF();
+        AutomatonNode node = nodes.get(identifier);
+        if (node == null) {
+            throw new CheckpointException("The node " + identifier + " is not part of the simulation.");
+        }
+        return node;
+    }
+
+    /**
+     * Reads a reference to a vesicle. Vesicles are resolved after they have been restored.
+     *
+     * @return The vesicle.
+     * @throws IOException If the reference could not be read.
+     */
+    public Vesicle readVesicle() throws IOException {
+        String identifier = readUTF();
+        if (vesicles == null) {
+            vesicles = new HashMap<>();
+            for (Vesicle vesicle : simulation.getVesicleLayer().getVesicles()) {
+                vesicles.put(vesicle.getStringIdentifier(), vesicle);
+            }
+        }
+        Vesicle vesicle = vesicles.get(identifier);
+        if (vesicle == null) {
+            throw new CheckpointException("The vesicle " + identifier + " is not part of the simulation.");
+        }
+        return vesicle;
+    }
+
+    /**
+     * Reads a reference to a cell region.
+     *
+     * @return The region.
+     * @throws IOException If the reference could not be read.
+     */
+    public CellRegion readRegion() throws IOException {
+        String identifier = readUTF();
+        CellRegion region = regions.get(identifier);
+        if (region == null) {
+            throw new CheckpointException("The region " + identifier + " is not referenced in the simulation.");
+        }
+        return region;
+    }
+
+    /**
+     * Reads a reference to a subsection. Subsections that are not referenced in the simulation are created.
+     *
+     * @return The subsection.
+     * @throws IOException If the reference could not be read.
+     */
+    public CellSubsection readSubsection() throws IOException {
+        return subsections.computeIfAbsent(readUTF(), CellSubsection::new);
+    }
+
+    /**
+     * Reads the concentrations of a concentration pool.
+     *
+     * @return The pool.
+     * @throws IOException If the pool could not be read.
+     */
+    public ConcentrationPool readConcentrationPool() throws IOException {
+        ConcentrationPool pool = new ConcentrationPool();
+        int numberOfEntities = readInt();
+        for (int entity = 0; entity < numberOfEntities; entity++) {
+            pool.set(readEntity(), readConcentration());
+        }
+        return pool;
+    }
+
+    /**
+     * Reads a concentration container.
+     *
+     * @return The container.
+     * @throws IOException If the container could not be read.
+     */
+    public ConcentrationContainer readConcentrationContainer() throws IOException {
+        ConcentrationContainer container = new ConcentrationContainer();
+        int numberOfPools = readInt();
+        CellTopology[] topologies = CellTopology.values();
+        for (int pool = 0; pool < numberOfPools; pool++) {
+            int topology = readInt();
+            if (topology < 0 || topology >= topologies.length) {
+                throw new IOException("Unknown topology " + topology + ".");
+            }
+            CellSubsection subsection = readSubsection();
+            container.putSubsectionPool(subsection, topologies[topology], readConcentrationPool());
+        }
+        return container;
+    }
+
+}
@@ -0,0 +1,162 @@
+package bio.singa.simulation.checkpoints;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.CellTopology;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.sections.ConcentrationPool;
+import bio.singa.simulation.model.simulation.Updatable;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import javax.measure.quantity.Time;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static tec.units.indriya.unit.Units.METRE;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * The checkpoint output writes the state of a simulation in the binary layout described in {@link CheckpointFormat}.
+ * Besides primitives, quantities, concentrations and references to entities and updatables can be written, such that
+ * they can be resolved by the {@link CheckpointInput} when the checkpoint is restored. Quantities and concentrations
+ * are converted to fixed units, such that checkpoints do not depend on the scaling of the unit registry.
+ *
+ * @author cl
+ */
+public class CheckpointOutput extends DataOutputStream {
+
+    /**
+     * The factor converting concentrations from the unit registry to mol/l.
+     */
+    private final double concentrationFactor;
+
+    /**
+     * Creates a new checkpoint output. The concentration unit of the unit registry is determined at creation.
+     *
+     * @param outputStream The underlying stream.
+     */
+    public CheckpointOutput(OutputStream outputStream) {
+        super(outputStream);
+        concentrationFactor = UnitRegistry.concentration(1.0).to(MOLE_PER_LITRE).getValue().doubleValue();
+    }
+
+    /**
+     * Writes a string that may be null.
+     *
+     * @param value The string.
+     * @throws IOException If the string could not be written.
+     */
+    public void writeOptionalUTF(String value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeUTF(value);
+        }
+    }
+
+    /**
+     * Writes a vector.
+     *
+     * @param vector The vector.
+     * @throws IOException If the vector could not be written.
+     */
+    public void writeVector(Vector2D vector) throws IOException {
+        writeDouble(vector.getX());
+        writeDouble(vector.getY());
+    }
+
+    /**
+     * Writes a time (in seconds).
+     *
+     * @param time The time.
+     * @throws IOException If the time could not be written.
+     */
+    public void writeTime(Quantity<Time> time) throws IOException {
+        writeDouble(time.to(SECOND).getValue().doubleValue());
+    }
+
+    /**
+     * Writes a length (in metre).
+     *
+     * @param length The length.
+     * @throws IOException If the length could not be written.
+     */
+    public void writeLength(Quantity<Length> length) throws IOException {
+        writeDouble(length.to(METRE).getValue().doubleValue());
+    }
+
+    /**
+     * Writes a concentration (in mol/l).
+     *
+     * @param concentration The concentration in the unit of the unit registry.
+     * @throws IOException If the concentration could not be written.
+     */
+    public void writeConcentration(double concentration) throws IOException {
+        writeDouble(concentration * concentrationFactor);
+    }
+
+    /**
+     * Writes a reference to a chemical entity.
+     *
+     * @param entity The entity.
+     * @throws IOException If the reference could not be written.
+     */
+    public void writeEntity(ChemicalEntity entity) throws IOException {
+        writeUTF(entity.getIdentifier().toString());
+    }
+
+    /**
+     * Writes a reference to an updatable, i.e. a node or a vesicle.
+     *
+     * @param updatable The updatable.
+     * @throws IOException If the reference could not be written.
+     */
+    public void writeUpdatable(Updatable updatable) throws IOException {
+        writeUTF(updatable.getStringIdentifier());
+    }
+
+    /**
+     * Writes all concentrations of a concentration pool.
+     *
+     * @param pool The pool.
+     * @throws IOException If the pool could not be written.
+     */
+    public void writeConcentrationPool(ConcentrationPool pool) throws IOException {
+        Map<ChemicalEntity, Double> concentrations = pool.getConcentrations();
+        writeInt(concentrations.size());
+        for (Map.Entry<ChemicalEntity, Double> entry : concentrations.entrySet()) {
+            writeEntity(entry.getKey());
+            writeConcentration(entry.getValue());
+        }
+    }
+
+    /**
+     * Writes the subsections, topologies and concentrations of a concentration container.
+     *
+     * @param container The container.
+     * @throws IOException If the container could not be written.
+     */
+    public void writeConcentrationContainer(ConcentrationContainer container) throws IOException {
+        int pools = 0;
+        for (CellTopology topology : CellTopology.values()) {
+            if (container.getSubsection(topology) != null) {
+                pools++;
+            }
+        }
+        writeInt(pools);
+        for (CellTopology topology : CellTopology.values()) {
+            Map.Entry<CellSubsection, ConcentrationPool> pool = container.getPool(topology);
+            if (pool != null) {
+                writeInt(topology.ordinal());
+                writeUTF(pool.getKey().getIdentifier());
+                writeConcentrationPool(pool.getValue());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package bio.singa.simulation.checkpoints;
+
+import bio.singa.simulation.model.simulation.Simulation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The checkpoint writer writes checkpoints of a simulation to a file in the background. The state of the simulation
+ * is copied to a binary checkpoint (see {@link Checkpoints#toBytes(Simulation)}) by the calling thread, writing the
+ * file is done by a separate writer thread, such that the calculation of epochs is not blocked by the file system. If
+ * a checkpoint is requested while the previous checkpoint is still being written, only the most recent pending
+ * checkpoint is retained. Each checkpoint replaces the previous one, after it has been written completely.
+ * <p>
+ * Errors during writing are reported when the next checkpoint is requested or the writer is closed. The writer needs
+ * to be closed after the simulation finished (this is done by the
+ * {@link bio.singa.simulation.model.simulation.SimulationManager}).
+ *
+ * @author cl
+ */
+public class CheckpointWriter implements Closeable {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointWriter.class);
+
+    /**
+     * The file.
+     */
+    private final Path file;
+
+    /**
+     * The writer thread, with a queue holding at most one pending checkpoint.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The number of checkpoints that have been written.
+     */
+    private final AtomicLong writtenCheckpoints;
+
+    /**
+     * The first error that occurred during writing.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Creates a new checkpoint writer.
+     *
+     * @param file The checkpoint file.
+     */
+    public CheckpointWriter(Path file) {
+        this.file = file;
+        writtenCheckpoints = new AtomicLong();
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of checkpoints that have been written completely.
+     *
+     * @return The number of written checkpoints.
+     */
+    public long getWrittenCheckpoints() {
+        return writtenCheckpoints.get();
+    }
+
+    /**
+     * Copies the current state of the simulation and schedules the checkpoint to be written.
+     *
+     * @param simulation The simulation.
+     */
+    public void checkpoint(Simulation simulation) {
+        checkFailure();
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("The checkpoint writer for " + file + " has already been closed.");
+        }
+        byte[] checkpoint = Checkpoints.toBytes(simulation);
+        long epoch = simulation.getEpoch();
+        executor.execute(() -> write(checkpoint, epoch));
+    }
+
+    private void write(byte[] checkpoint, long epoch) {
+        try {
+            Checkpoints.writeFile(checkpoint, file);
+            writtenCheckpoints.incrementAndGet();
+            logger.debug("Wrote checkpoint of epoch {} ({} bytes) to {}.", epoch, checkpoint.length, file);
+        } catch (IOException e) {
+            logger.error("Unable to write checkpoint to {}.", file, e);
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Unable to write checkpoint to " + file + ".", failure);
+        }
+    }
+
+    /**
+     * Waits until all pending checkpoints have been written and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Writing checkpoint to {} did not finish in time.", file);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+}
@@ -0,0 +1,36 @@
+package bio.singa.simulation.checkpoints;
+
+import bio.singa.simulation.model.simulation.Integrator;
+import bio.singa.simulation.model.simulation.Simulation;
+
+import java.io.IOException;
+
+/**
+ * Integrators that keep state between epochs (e.g. the proposed time step or the time stepping of slow modules)
+ * implement this interface to have their state written to and restored from checkpoints, such that a resumed
+ * simulation continues as if it had not been interrupted. Integrators are restored after the modules of the
+ * simulation.
+ *
+ * @author cl
+ */
+public interface CheckpointedIntegrator extends Integrator {
+
+    /**
+     * Writes the state of this integrator.
+     *
+     * @param simulation The simulation the integrator belongs to.
+     * @param output The checkpoint output.
+     * @throws IOException If the state could not be written.
+     */
+    void writeCheckpoint(Simulation simulation, CheckpointOutput output) throws IOException;
+
+    /**
+     * Replaces the state of this integrator with the state read from the checkpoint.
+     *
+     * @param simulation The simulation the integrator belongs to.
+     * @param input The checkpoint input.
+     * @throws IOException If the state could not be read.
+     */
+    void readCheckpoint(Simulation simulation, CheckpointInput input) throws IOException;
+
+}
@@ -0,0 +1,32 @@
+package bio.singa.simulation.checkpoints;
+
+import bio.singa.simulation.model.modules.UpdateModule;
+
+import java.io.IOException;
+
+/**
+ * Modules that keep state between epochs (e.g. pending events or agents that are not part of any layer) implement
+ * this interface to have their state written to and restored from checkpoints. Modules are restored after the
+ * concentrations, filaments and vesicles of the simulation, such that references to vesicles can be resolved.
+ *
+ * @author cl
+ */
+public interface CheckpointedModule extends UpdateModule {
+
+    /**
+     * Writes the state of this module.
+     *
+     * @param output The checkpoint output.
+     * @throws IOException If the state could not be written.
+     */
+    void writeCheckpoint(CheckpointOutput output) throws IOException;
+
+    /**
+     * Replaces the state of this module with the state read from the checkpoint.
+     *
+     * @param input The checkpoint input.
+     * @throws IOException If the state could not be read.
+     */
+    void readCheckpoint(CheckpointInput input) throws IOException;
+
+}
@@ -0,0 +1,417 @@
+package bio.singa.simulation.checkpoints;
+
+import bio.singa.features.formatter.TimeFormatter;
+import bio.singa.features.units.ScalingContext;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.edges.VectorPath;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.exceptions.CheckpointException;
+import bio.singa.simulation.model.agents.linelike.LineLikeAgent;
+import bio.singa.simulation.model.agents.linelike.LineLikeAgentLayer;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.sections.CellRegion;
+import bio.singa.simulation.model.sections.EntityIndex;
+import bio.singa.simulation.model.simulation.Integrator;
+import bio.singa.simulation.model.simulation.RandomStreams;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.Updatable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Length;
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Checkpoints contain the state of a simulation between two epochs, such that long running simulations can be
+ * resumed. The checkpoint comprises the epoch, elapsed time and time step, the seed of the {@link RandomStreams}, the
+ * concentrations of all nodes, the paths of filaments, the positions, states and concentrations of vesicles, the
+ * state of each {@link CheckpointedModule} and the state of a {@link CheckpointedIntegrator}. The structure of the simulation (graph, regions, modules and their
+ * features, and the integrator) is not part of the checkpoint, checkpoints are restored to a simulation that has been set up in the same
+ * way as the simulation the checkpoint was taken from. Features of vesicles, that are not derived from their radius,
+ * are not restored.
+ * <p>
+ * Checkpoints can be written periodically without blocking the simulation using a {@link CheckpointWriter}.
+ *
+ * @author cl
+ */
+public class Checkpoints {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(Checkpoints.class);
+
+    private Checkpoints() {
+
+    }
+
+    /**
+     * Returns the current state of the simulation as checkpoint.
+     *
+     * @param simulation The simulation.
+     * @return The binary checkpoint.
+     */
+    public static byte[] toBytes(Simulation simulation) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ScalingContext previousContext = bindContext(simulation);
+        EntityIndex previousIndex = EntityIndex.bind(simulation.getEntityIndex());
+        try (CheckpointOutput output = new CheckpointOutput(bytes)) {
+            writeSimulation(simulation, output);
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new UncheckedIOException("Unable to create checkpoint.", e);
+        } finally {
+            EntityIndex.bind(previousIndex);
+            restoreContext(simulation, previousContext);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the current state of the simulation as checkpoint to the given file. An existing checkpoint is only
+     * replaced, after the new checkpoint has been written completely.
+     *
+     * @param simulation The simulation.
+     * @param file The file.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    public static void write(Simulation simulation, Path file) throws IOException {
+        writeFile(toBytes(simulation), file);
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and moves it to the given file afterwards, such that the previous
+     * checkpoint is retained if writing fails.
+     *
+     * @param checkpoint The binary checkpoint.
+     * @param file The file.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    static void writeFile(byte[] checkpoint, Path file) throws IOException {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(temporaryFile.toFile())) {
+            outputStream.write(checkpoint);
+            outputStream.getFD().sync();
+        }
+        try {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Restores the checkpoint from the given file. The simulation is initialized if this has not been done before.
+     *
+     * @param simulation The simulation.
+     * @param file The file.
+     * @throws IOException If the file could not be read or is no checkpoint.
+     */
+    public static void restore(Simulation simulation, Path file) throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file))) {
+            restore(simulation, inputStream);
+        }
+        logger.info("Restored checkpoint {} at epoch {} ({}).", file, simulation.getEpoch(), TimeFormatter.formatTime(simulation.getElapsedTime()));
+    }
+
+    /**
+     * Restores the checkpoint from the given stream. The simulation is initialized if this has not been done before.
+     *
+     * @param simulation The simulation.
+     * @param inputStream The stream.
+     * @throws IOException If the stream could not be read or contains no checkpoint.
+     */
+    public static void restore(Simulation simulation, InputStream inputStream) throws IOException {
+        ScalingContext previousContext = bindContext(simulation);
+        EntityIndex previousIndex = EntityIndex.bind(simulation.getEntityIndex());
+        try {
+            simulation.initialize();
+            readSimulation(simulation, new CheckpointInput(inputStream, simulation));
+        } finally {
+            EntityIndex.bind(previousIndex);
+            restoreContext(simulation, previousContext);
+        }
+    }
+
+    private static ScalingContext bindContext(Simulation simulation) {
+        if (simulation.getScalingContext() == null) {
+            return null;
+        }
+        return ScalingContext.bind(simulation.getScalingContext());
+    }
+
+    private static void restoreContext(Simulation simulation, ScalingContext previousContext) {
+        if (simulation.getScalingContext() != null) {
+            ScalingContext.bind(previousContext);
+        }
+    }
+
+    private static void writeSimulation(Simulation simulation, CheckpointOutput output) throws IOException {
+        output.writeLong(CheckpointFormat.MAGIC);
+        output.writeInt(CheckpointFormat.VERSION);
+        output.writeLong(simulation.getEpoch());
+        output.writeTime(simulation.getElapsedTime());
+        output.writeTime(UnitRegistry.getTime());
+        output.writeLong(simulation.getRandomStreams().getSeed());
+        // nodes
+        Collection<AutomatonNode> nodes = simulation.getGraph().getNodes();
+        output.writeInt(nodes.size());
+        for (AutomatonNode node : nodes) {
+            output.writeUpdatable(node);
+            output.writeConcentrationContainer(node.getConcentrationContainer());
+        }
+        // filaments
+        Map<LineLikeAgent, Integer> filamentIndices = new IdentityHashMap<>();
+        LineLikeAgentLayer lineLayer = simulation.getLineLayer();
+        if (lineLayer == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(lineLayer.getFilaments().size());
+            for (LineLikeAgent filament : lineLayer.getFilaments()) {
+                filamentIndices.put(filament, filamentIndices.size());
+                writeFilament(filament, output);
+            }
+        }
+        // vesicles
+        List<Vesicle> vesicles = simulation.getVesicleLayer() != null ? simulation.getVesicleLayer().getVesicles() : Collections.emptyList();
+        output.writeInt(vesicles.size());
+        for (Vesicle vesicle : vesicles) {
+            writeVesicle(vesicle, filamentIndices, output);
+        }
+        // modules
+        List<UpdateModule> modules = simulation.getModules();
+        int checkpointedModules = 0;
+        for (UpdateModule module : modules) {
+            if (module instanceof CheckpointedModule) {
+                checkpointedModules++;
+            }
+        }
+        output.writeInt(checkpointedModules);
+        for (int index = 0; index < modules.size(); index++) {
+            UpdateModule module = modules.get(index);
+            if (module instanceof CheckpointedModule) {
+                output.writeInt(index);
+                output.writeOptionalUTF(module.getIdentifier());
+                ((CheckpointedModule) module).writeCheckpoint(output);
+            }
+        }
+        // integrator
+        Integrator integrator = simulation.getScheduler().getIntegrator();
+        if (integrator instanceof CheckpointedIntegrator) {
+            output.writeOptionalUTF(integrator.getClass().getName());
+            ((CheckpointedIntegrator) integrator).writeCheckpoint(simulation, output);
+        } else {
+            output.writeOptionalUTF(null);
+        }
+    }
+
+    private static void writeFilament(LineLikeAgent filament, CheckpointOutput output) throws IOException {
+        output.writeUTF(filament.getType());
+        output.writeOptionalUTF(filament.getPlusEndBehaviour() != null ? filament.getPlusEndBehaviour().name() : null);
+        output.writeOptionalUTF(filament.getMinusEndBehaviour() != null ? filament.getMinusEndBehaviour().name() : null);
+        List<Vector2D> segments = filament.getPath().getSegments();
+        output.writeInt(segments.size());
+        for (Vector2D segment : segments) {
+            output.writeVector(segment);
+        }
+    }
+
+    private static void writeVesicle(Vesicle vesicle, Map<LineLikeAgent, Integer> filamentIndices, CheckpointOutput output) throws IOException {
+        output.writeUpdatable(vesicle);
+        output.writeUTF(vesicle.getRegion().getIdentifier());
+        output.writeVector(vesicle.getPosition());
+        output.writeLength(vesicle.getRadius());
+        output.writeOptionalUTF(vesicle.getState());
+        output.writeOptionalUTF(vesicle.getTargetDirection());
+        LineLikeAgent filament = vesicle.getAttachedFilament();
+        if (filament == null || !filamentIndices.containsKey(filament)) {
+            output.writeInt(CheckpointFormat.NO_FILAMENT);
+            output.writeInt(-1);
+        } else {
+            output.writeInt(filamentIndices.get(filament));
+            output.writeInt(vesicle.getSegmentIterator() != null ? vesicle.getSegmentIterator().nextIndex() : -1);
+        }
+        output.writeConcentrationContainer(vesicle.getConcentrationContainer());
+    }
+
+    private static void readSimulation(Simulation simulation, CheckpointInput input) throws IOException {
+        if (input.readLong() != CheckpointFormat.MAGIC) {
+            throw new IOException("The file is no checkpoint file.");
+        }
+        int version = input.readInt();
+        if (version != CheckpointFormat.VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version + ".");
+        }
+        simulation.setEpoch(input.readLong());
+        simulation.setElapsedTime(input.readTime());
+        UnitRegistry.setTime(input.readTime());
+        simulation.getRandomStreams().setSeed(input.readLong());
+        // nodes
+        int numberOfNodes = input.readInt();
+        if (numberOfNodes != simulation.getGraph().getNodes().size()) {
+            throw new CheckpointException("The checkpoint contains " + numberOfNodes + " nodes, but the simulation contains " + simulation.getGraph().getNodes().size() + " nodes.");
+        }
+        for (int node = 0; node < numberOfNodes; node++) {
+            restoreConcentrations(input.readNode(), input);
+        }
+        // filaments
+        List<LineLikeAgent> filaments = readFilaments(simulation, input);
+        // vesicles
+        readVesicles(simulation, filaments, input);
+        simulation.collectUpdatables();
+        // modules
+        int numberOfModules = input.readInt();
+        for (int module = 0; module < numberOfModules; module++) {
+            readModule(simulation, input);
+        }
+        // integrator
+        readIntegrator(simulation, input);
+        // concentrations have been modified outside of modules
+        simulation.getActivityTracker().activateAll();
+    }
+
+    private static void restoreConcentrations(Updatable updatable, CheckpointInput input) throws IOException {
+        updatable.getConcentrationManager().setConcentrationContainer(input.readConcentrationContainer());
+        updatable.getConcentrationManager().clearPotentialDeltas();
+    }
+
+    private static List<LineLikeAgent> readFilaments(Simulation simulation, CheckpointInput input) throws IOException {
+        int numberOfFilaments = input.readInt();
+        LineLikeAgentLayer lineLayer = simulation.getLineLayer();
+        if (numberOfFilaments < 0) {
+            if (lineLayer != null) {
+                throw new CheckpointException("The checkpoint contains no filaments, but the simulation has a line layer.");
+            }
+            return Collections.emptyList();
+        }
+        if (lineLayer == null) {
+            throw new CheckpointException("The checkpoint contains filaments, but the simulation has no line layer.");
+        }
+        List<LineLikeAgent> filaments = new ArrayList<>();
+        for (int index = 0; index < numberOfFilaments; index++) {
+            // strings are interned, since types and behaviours are compared by identity
+            LineLikeAgent filament = new LineLikeAgent(input.readUTF().intern());
+            String plusEndBehaviour = input.readOptionalUTF();
+            if (plusEndBehaviour != null) {
+                filament.setPlusEndBehaviour(LineLikeAgent.GrowthBehaviour.valueOf(plusEndBehaviour));
+            }
+            String minusEndBehaviour = input.readOptionalUTF();
+            if (minusEndBehaviour != null) {
+                filament.setMinusEndBehaviour(LineLikeAgent.GrowthBehaviour.valueOf(minusEndBehaviour));
+            }
+            int numberOfSegments = input.readInt();
+            List<Vector2D> segments = new ArrayList<>(numberOfSegments);
+            for (int segment = 0; segment < numberOfSegments; segment++) {
+                segments.add(input.readVector());
+            }
+            filament.setPath(new VectorPath(segments));
+            filaments.add(filament);
+        }
+        // replace associations of the previous filaments
+        for (AutomatonNode node : simulation.getGraph().getNodes()) {
+            node.getAssociatedLineLikeAgents().clear();
+        }
+        for (LineLikeAgent filament : filaments) {
+            filament.associateInGraph(simulation.getGraph());
+        }
+        lineLayer.setFilaments(filaments);
+        return filaments;
+    }
+
+    private static void readVesicles(Simulation simulation, List<LineLikeAgent> filaments, CheckpointInput input) throws IOException {
+        int numberOfVesicles = input.readInt();
+        VesicleLayer vesicleLayer = simulation.getVesicleLayer();
+        if (vesicleLayer == null) {
+            if (numberOfVesicles > 0) {
+                throw new CheckpointException("The checkpoint contains vesicles, but the simulation has no vesicle layer.");
+            }
+            return;
+        }
+        List<Vesicle> vesicles = new ArrayList<>(numberOfVesicles);
+        for (int index = 0; index < numberOfVesicles; index++) {
+            String identifier = input.readUTF();
+            CellRegion region = input.readRegion();
+            Vector2D position = input.readVector();
+            Quantity<Length> radius = input.readLength();
+            Vesicle vesicle = new Vesicle(region, position, radius);
+            vesicle.setIdentifier(identifier);
+            // states are compared by identity
+            String state = input.readOptionalUTF();
+            vesicle.setState(state != null ? state.intern() : null);
+            String targetDirection = input.readOptionalUTF();
+            vesicle.setTargetDirection(targetDirection != null ? targetDirection.intern() : null);
+            int filament = input.readInt();
+            int segment = input.readInt();
+            if (filament != CheckpointFormat.NO_FILAMENT) {
+                if (filament >= filaments.size()) {
+                    throw new CheckpointException("Vesicle " + identifier + " is attached to unknown filament " + filament + ".");
+                }
+                LineLikeAgent attachedFilament = filaments.get(filament);
+                vesicle.setAttachedFilament(attachedFilament);
+                if (segment >= 0) {
+                    vesicle.setSegmentIterator(attachedFilament.getPath().getSegments().listIterator(segment));
+                }
+            }
+            restoreConcentrations(vesicle, input);
+            vesicles.add(vesicle);
+            updateVesicleCounter(identifier);
+        }
+        for (Vesicle vesicle : new ArrayList<>(vesicleLayer.getVesicles())) {
+            vesicleLayer.removeVesicle(vesicle);
+        }
+        vesicleLayer.addVesicles(vesicles);
+        vesicleLayer.associateVesicles();
+    }
+
+    /**
+     * Ensures that identifiers generated for new vesicles do not collide with restored vesicles.
+     *
+     * @param identifier The identifier of a restored vesicle.
+     */
+    private static void updateVesicleCounter(String identifier) {
+        if (identifier.length() > 1 && identifier.charAt(0) == 'v') {
+            try {
+                int number = Integer.parseInt(identifier.substring(1));
+                Vesicle.vesicleCounter.accumulateAndGet(number + 1, Math::max);
+            } catch (NumberFormatException e) {
+                // custom identifier
+            }
+        }
+    }
+
+    private static void readIntegrator(Simulation simulation, CheckpointInput input) throws IOException {
+        String integratorClass = input.readOptionalUTF();
+        Integrator integrator = simulation.getScheduler().getIntegrator();
+        if (integratorClass == null) {
+            if (integrator instanceof CheckpointedIntegrator) {
+                throw new CheckpointException("The checkpoint contains no state of the integrator " + integrator.getClass().getSimpleName() + ".");
+            }
+            return;
+        }
+        if (!integrator.getClass().getName().equals(integratorClass)) {
+            throw new CheckpointException("The checkpoint has been taken with integrator " + integratorClass + ", but the simulation uses " + integrator.getClass().getName() + ".");
+        }
+        ((CheckpointedIntegrator) integrator).readCheckpoint(simulation, input);
+    }
+
+    private static void readModule(Simulation simulation, CheckpointInput input) throws IOException {
+        int index = input.readInt();
+        String identifier = input.readOptionalUTF();
+        List<UpdateModule> modules = simulation.getModules();
+        if (index >= modules.size() || !(modules.get(index) instanceof CheckpointedModule)
+                || !Objects.equals(modules.get(index).getIdentifier(), identifier)) {
+            throw new CheckpointException("The module " + identifier + " could not be found in the simulation.");
+        }
+        ((CheckpointedModule) modules.get(index)).readCheckpoint(input);
+    }
+
+}
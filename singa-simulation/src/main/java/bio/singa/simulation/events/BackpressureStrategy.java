@@ -0,0 +1,27 @@
+package bio.singa.simulation.events;
+
+/**
+ * The strategy a {@link SnapshotEventPipeline} applies, if a listener does not keep up with the simulation and the
+ * buffer of snapshots pending for the listener is full.
+ *
+ * @author cl
+ */
+public enum BackpressureStrategy {
+
+    /**
+     * The simulation waits until the listener processed the oldest pending snapshot. Every snapshot is received.
+     */
+    BLOCK,
+
+    /**
+     * The new snapshot is not passed to the listener. The simulation never waits.
+     */
+    DROP,
+
+    /**
+     * The most recent pending snapshot is replaced by the new snapshot, such that the listener always receives the
+     * latest state. The simulation never waits.
+     */
+    COALESCE
+
+}
@@ -0,0 +1,378 @@
+package bio.singa.simulation.events;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.ConcentrationPool;
+import bio.singa.simulation.model.sections.EntityIndex;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.Updatable;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A snapshot of the concentrations of updatables, captured by a {@link SnapshotEventPipeline} after an epoch. Each
+ * concentration is stored in a slot, referencing the updatable, the subsection and the entity. Concentrations are
+ * given in the internal concentration unit of the {@link bio.singa.features.units.UnitRegistry}. Additionally the
+ * deltas observed for each captured updatable since the previous emission (see
+ * {@link Simulation#getPreviousObservedDeltas(Updatable)}) are stored in delta slots, referencing the updatable, the
+ * identifier of the module, the subsection and the entity.
+ * <p>
+ * Snapshots do not reference the updatables of the simulation and can not be modified by listeners. Snapshots are
+ * reused by the pipeline as soon as every listener processed them, listeners must therefore not retain references
+ * to snapshots after {@link bio.singa.core.events.UpdateEventListener#onEventReceived(Object)} returned, but copy the
+ * required values.
+ *
+ * @author cl
+ */
+public final class SimulationSnapshot {
+
+    /**
+     * The initial capacity of the arrays.
+     */
+    private static final int MINIMAL_CAPACITY = 64;
+
+    /**
+     * The number of listeners that did not process this snapshot yet.
+     */
+    private final AtomicInteger pendingListeners;
+
+    private long epoch;
+    private Quantity<Time> elapsedTime;
+
+    /**
+     * The index of the captured entities (the index of the captured simulation).
+     */
+    private EntityIndex entityIndex;
+
+    private String[] updatableIdentifiers;
+    private int numberOfUpdatables;
+
+    private int[] updatableIndices;
+    private CellSubsection[] subsections;
+    private int[] entityIndices;
+    private double[] concentrations;
+    private int size;
+
+    private int[] deltaUpdatableIndices;
+    private String[] deltaModules;
+    private CellSubsection[] deltaSubsections;
+    private int[] deltaEntityIndices;
+    private double[] deltaValues;
+    private int numberOfDeltas;
+
+    /**
+     * Creates a new, empty snapshot.
+     */
+    SimulationSnapshot() {
+        pendingListeners = new AtomicInteger();
+        updatableIdentifiers = new String[MINIMAL_CAPACITY];
+        updatableIndices = new int[MINIMAL_CAPACITY];
+        subsections = new CellSubsection[MINIMAL_CAPACITY];
+        entityIndices = new int[MINIMAL_CAPACITY];
+        concentrations = new double[MINIMAL_CAPACITY];
+        deltaUpdatableIndices = new int[MINIMAL_CAPACITY];
+        deltaModules = new String[MINIMAL_CAPACITY];
+        deltaSubsections = new CellSubsection[MINIMAL_CAPACITY];
+        deltaEntityIndices = new int[MINIMAL_CAPACITY];
+        deltaValues = new double[MINIMAL_CAPACITY];
+    }
+
+    /**
+     * Copies the current concentrations and the observed deltas of the given updatables into this snapshot, previous
+     * contents are discarded.
+     *
+     * @param simulation The simulation.
+     * @param updatables The updatables.
+     */
+    void capture(Simulation simulation, Collection<? extends Updatable> updatables) {
+        epoch = simulation.getEpoch();
+        elapsedTime = simulation.getElapsedTime();
+        entityIndex = simulation.getEntityIndex();
+        numberOfUpdatables = 0;
+        size = 0;
+        numberOfDeltas = 0;
+        for (Updatable updatable : updatables) {
+            if (numberOfUpdatables == updatableIdentifiers.length) {
+                updatableIdentifiers = Arrays.copyOf(updatableIdentifiers, numberOfUpdatables * 2);
+            }
+            int updatableIndex = numberOfUpdatables++;
+            updatableIdentifiers[updatableIndex] = updatable.getStringIdentifier();
+            for (Map.Entry<CellSubsection, ConcentrationPool> entry : updatable.getConcentrationContainer().getConcentrations().entrySet()) {
+                ConcentrationPool pool = entry.getValue();
+                EntityIndex poolIndex = pool.getEntityIndex();
+                for (int poolEntityIndex = 0; poolEntityIndex < pool.getCapacity(); poolEntityIndex++) {
+                    if (pool.isReferenced(poolEntityIndex)) {
+                        // pools that have not been transferred to the index of the simulation yet are translated
+                        int capturedIndex = poolIndex == entityIndex ? poolEntityIndex : entityIndex.indexOf(poolIndex.getEntity(poolEntityIndex));
+                        addSlot(updatableIndex, entry.getKey(), capturedIndex, pool.get(poolEntityIndex));
+                    }
+                }
+            }
+            List<ConcentrationDelta> observedDeltas = simulation.getPreviousObservedDeltas(updatable);
+            if (observedDeltas != null) {
+                for (ConcentrationDelta delta : observedDeltas) {
+                    addDeltaSlot(updatableIndex, delta);
+                }
+            }
+        }
+        // release references to updatables that are no longer captured
+        Arrays.fill(updatableIdentifiers, numberOfUpdatables, updatableIdentifiers.length, null);
+        Arrays.fill(subsections, size, subsections.length, null);
+        Arrays.fill(deltaModules, numberOfDeltas, deltaModules.length, null);
+        Arrays.fill(deltaSubsections, numberOfDeltas, deltaSubsections.length, null);
+    }
+
+    private void addSlot(int updatableIndex, CellSubsection subsection, int entityIndex, double concentration) {
+        if (size == concentrations.length) {
+            int capacity = size * 2;
+            updatableIndices = Arrays.copyOf(updatableIndices, capacity);
+            subsections = Arrays.copyOf(subsections, capacity);
+            entityIndices = Arrays.copyOf(entityIndices, capacity);
+            concentrations = Arrays.copyOf(concentrations, capacity);
+        }
+        updatableIndices[size] = updatableIndex;
+        subsections[size] = subsection;
+        entityIndices[size] = entityIndex;
+        concentrations[size] = concentration;
+        size++;
+    }
+
+    private void addDeltaSlot(int updatableIndex, ConcentrationDelta delta) {
+        if (numberOfDeltas == deltaValues.length) {
+            int capacity = numberOfDeltas * 2;
+            deltaUpdatableIndices = Arrays.copyOf(deltaUpdatableIndices, capacity);
+            deltaModules = Arrays.copyOf(deltaModules, capacity);
+            deltaSubsections = Arrays.copyOf(deltaSubsections, capacity);
+            deltaEntityIndices = Arrays.copyOf(deltaEntityIndices, capacity);
+            deltaValues = Arrays.copyOf(deltaValues, capacity);
+        }
+        deltaUpdatableIndices[numberOfDeltas] = updatableIndex;
+        deltaModules[numberOfDeltas] = delta.getModule() != null ? delta.getModule().getIdentifier() : null;
+        deltaSubsections[numberOfDeltas] = delta.getCellSubsection();
+        deltaEntityIndices[numberOfDeltas] = entityIndex.indexOf(delta.getChemicalEntity());
+        deltaValues[numberOfDeltas] = delta.getValue();
+        numberOfDeltas++;
+    }
+
+    /**
+     * Sets the number of listeners, this snapshot is passed to.
+     *
+     * @param numberOfListeners The number of listeners.
+     */
+    void retain(int numberOfListeners) {
+        pendingListeners.set(numberOfListeners);
+    }
+
+    /**
+     * Marks this snapshot as processed by one listener.
+     *
+     * @return True if every listener processed this snapshot and it can be reused.
+     */
+    boolean release() {
+        return pendingListeners.decrementAndGet() == 0;
+    }
+
+    /**
+     * Returns the epoch the snapshot was captured after.
+     *
+     * @return The epoch.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the elapsed time the snapshot was captured at.
+     *
+     * @return The elapsed time.
+     */
+    public Quantity<Time> getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Returns the number of captured updatables.
+     *
+     * @return The number of updatables.
+     */
+    public int getNumberOfUpdatables() {
+        return numberOfUpdatables;
+    }
+
+    /**
+     * Returns the identifier of the updatable with the given index.
+     *
+     * @param updatableIndex The index of the updatable.
+     * @return The identifier of the updatable.
+     */
+    public String getUpdatableIdentifier(int updatableIndex) {
+        checkIndex(updatableIndex, numberOfUpdatables);
+        return updatableIdentifiers[updatableIndex];
+    }
+
+    /**
+     * Returns the number of slots, i.e. captured concentrations.
+     *
+     * @return The number of slots.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the index of the updatable of the slot.
+     *
+     * @param slot The slot.
+     * @return The index of the updatable.
+     */
+    public int getUpdatableIndex(int slot) {
+        checkIndex(slot, size);
+        return updatableIndices[slot];
+    }
+
+    /**
+     * Returns the subsection of the slot.
+     *
+     * @param slot The slot.
+     * @return The subsection.
+     */
+    public CellSubsection getSubsection(int slot) {
+        checkIndex(slot, size);
+        return subsections[slot];
+    }
+
+    /**
+     * Returns the entity of the slot.
+     *
+     * @param slot The slot.
+     * @return The entity.
+     */
+    public ChemicalEntity getEntity(int slot) {
+        checkIndex(slot, size);
+        return entityIndex.getEntity(entityIndices[slot]);
+    }
+
+    /**
+     * Returns the concentration of the slot.
+     *
+     * @param slot The slot.
+     * @return The concentration.
+     */
+    public double getConcentration(int slot) {
+        checkIndex(slot, size);
+        return concentrations[slot];
+    }
+
+    /**
+     * Returns the concentration of the entity in the subsection of the updatable with the given identifier or 0 if
+     * the concentration has not been captured. All slots are searched, for repeated access slots should be used.
+     *
+     * @param updatableIdentifier The identifier of the updatable.
+     * @param subsection The subsection.
+     * @param entity The entity.
+     * @return The concentration.
+     */
+    public double getConcentration(String updatableIdentifier, CellSubsection subsection, ChemicalEntity entity) {
+        int capturedIndex = entityIndex.lookup(entity);
+        if (capturedIndex == EntityIndex.UNREGISTERED) {
+            return 0.0;
+        }
+        for (int slot = 0; slot < size; slot++) {
+            if (entityIndices[slot] == capturedIndex && subsections[slot].equals(subsection)
+                    && updatableIdentifiers[updatableIndices[slot]].equals(updatableIdentifier)) {
+                return concentrations[slot];
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Returns the number of delta slots, i.e. captured observed deltas.
+     *
+     * @return The number of delta slots.
+     */
+    public int getNumberOfDeltas() {
+        return numberOfDeltas;
+    }
+
+    /**
+     * Returns the index of the updatable of the delta slot.
+     *
+     * @param deltaSlot The delta slot.
+     * @return The index of the updatable.
+     */
+    public int getDeltaUpdatableIndex(int deltaSlot) {
+        checkIndex(deltaSlot, numberOfDeltas);
+        return deltaUpdatableIndices[deltaSlot];
+    }
+
+    /**
+     * Returns the identifier of the module, that calculated the delta of the delta slot.
+     *
+     * @param deltaSlot The delta slot.
+     * @return The identifier of the module.
+     */
+    public String getDeltaModule(int deltaSlot) {
+        checkIndex(deltaSlot, numberOfDeltas);
+        return deltaModules[deltaSlot];
+    }
+
+    /**
+     * Returns the subsection of the delta slot.
+     *
+     * @param deltaSlot The delta slot.
+     * @return The subsection.
+     */
+    public CellSubsection getDeltaSubsection(int deltaSlot) {
+        checkIndex(deltaSlot, numberOfDeltas);
+        return deltaSubsections[deltaSlot];
+    }
+
+    /**
+     * Returns the entity of the delta slot.
+     *
+     * @param deltaSlot The delta slot.
+     * @return The entity.
+     */
+    public ChemicalEntity getDeltaEntity(int deltaSlot) {
+        checkIndex(deltaSlot, numberOfDeltas);
+        return entityIndex.getEntity(deltaEntityIndices[deltaSlot]);
+    }
+
+    /**
+     * Returns the value of the delta slot (scaled to one microsecond, see
+     * {@link Simulation#getPreviousObservedDeltas(Updatable)}).
+     *
+     * @param deltaSlot The delta slot.
+     * @return The value of the delta.
+     */
+    public double getDeltaValue(int deltaSlot) {
+        checkIndex(deltaSlot, numberOfDeltas);
+        return deltaValues[deltaSlot];
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationSnapshot{" +
+                "epoch=" + epoch +
+                ", elapsedTime=" + elapsedTime +
+                ", updatables=" + numberOfUpdatables +
+                ", slots=" + size +
+                ", deltas=" + numberOfDeltas +
+                '}';
+    }
+
+}
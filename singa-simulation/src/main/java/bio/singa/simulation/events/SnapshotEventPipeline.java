@@ -0,0 +1,172 @@
+package bio.singa.simulation.events;
+
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.Updatable;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The snapshot event pipeline passes the state of a simulation to listeners, without the simulation waiting for the
+ * listeners to process the state. Each time {@link #emit()} is called, the concentrations of the observed updatables
+ * (or all updatables, see {@link #setCaptureAllUpdatables(boolean)}) and their observed deltas are copied into a
+ * {@link SimulationSnapshot} and offered to the {@link SnapshotSubscription} of each listener. Listeners receive the
+ * snapshots on their own consumer threads, in the order they were emitted. If a listener does not keep up, the
+ * {@link BackpressureStrategy} of its subscription determines, whether the simulation waits or snapshots are skipped
+ * for the listener.
+ * <p>
+ * Snapshots are pooled, once every listener processed a snapshot it is reused for subsequent emissions. Therefore the
+ * simulation thread only pays for copying the concentrations. The pipeline needs to be closed after the simulation
+ * finished (this is done by the {@link bio.singa.simulation.model.simulation.SimulationManager}), pending snapshots
+ * are processed before closing returns.
+ *
+ * @author cl
+ */
+public class SnapshotEventPipeline implements Closeable {
+
+    /**
+     * The default number of snapshots, that can be pending for each listener.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * The simulation.
+     */
+    private final Simulation simulation;
+
+    /**
+     * The subscriptions of all listeners.
+     */
+    private final CopyOnWriteArrayList<SnapshotSubscription> subscriptions;
+
+    /**
+     * The snapshots that have been processed by every listener.
+     */
+    private final ConcurrentLinkedQueue<SimulationSnapshot> snapshotPool;
+
+    /**
+     * True if all updatables instead of only observed updatables should be captured.
+     */
+    private boolean captureAllUpdatables;
+
+    /**
+     * True if the pipeline has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new pipeline for the given simulation.
+     *
+     * @param simulation The simulation.
+     */
+    public SnapshotEventPipeline(Simulation simulation) {
+        this.simulation = simulation;
+        subscriptions = new CopyOnWriteArrayList<>();
+        snapshotPool = new ConcurrentLinkedQueue<>();
+    }
+
+    public boolean isCaptureAllUpdatables() {
+        return captureAllUpdatables;
+    }
+
+    /**
+     * Determines whether all updatables or only the observed updatables (default) should be captured.
+     *
+     * @param captureAllUpdatables True if all updatables should be captured.
+     */
+    public void setCaptureAllUpdatables(boolean captureAllUpdatables) {
+        this.captureAllUpdatables = captureAllUpdatables;
+    }
+
+    /**
+     * Adds a listener, that blocks the simulation if {@link #DEFAULT_CAPACITY} snapshots are pending.
+     *
+     * @param listener The listener.
+     * @return The subscription of the listener.
+     */
+    public SnapshotSubscription addListener(UpdateEventListener<SimulationSnapshot> listener) {
+        return addListener(listener, BackpressureStrategy.BLOCK, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Adds a listener, receiving snapshots on a new consumer thread.
+     *
+     * @param listener The listener.
+     * @param strategy The strategy applied if the given number of snapshots are pending.
+     * @param capacity The number of snapshots that can be pending.
+     * @return The subscription of the listener.
+     */
+    public SnapshotSubscription addListener(UpdateEventListener<SimulationSnapshot> listener, BackpressureStrategy strategy, int capacity) {
+        if (closed) {
+            throw new IllegalStateException("The snapshot pipeline has already been closed.");
+        }
+        SnapshotSubscription subscription = new SnapshotSubscription(this, listener, strategy, capacity,
+                "snapshot-listener-" + subscriptions.size() + "-" + listener.getClass().getSimpleName());
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Returns the subscriptions of all listeners.
+     *
+     * @return The subscriptions.
+     */
+    public List<SnapshotSubscription> getSubscriptions() {
+        return new ArrayList<>(subscriptions);
+    }
+
+    /**
+     * Captures the current state of the simulation and offers it to all listeners.
+     */
+    public void emit() {
+        if (closed) {
+            throw new IllegalStateException("The snapshot pipeline has already been closed.");
+        }
+        SnapshotSubscription[] currentSubscriptions = subscriptions.toArray(new SnapshotSubscription[0]);
+        if (currentSubscriptions.length == 0) {
+            return;
+        }
+        SimulationSnapshot snapshot = snapshotPool.poll();
+        if (snapshot == null) {
+            snapshot = new SimulationSnapshot();
+        }
+        Collection<? extends Updatable> updatables = captureAllUpdatables ? simulation.getUpdatables() : simulation.getObservedUpdatables();
+        snapshot.capture(simulation, updatables);
+        snapshot.retain(currentSubscriptions.length);
+        for (SnapshotSubscription subscription : currentSubscriptions) {
+            subscription.offer(snapshot);
+        }
+    }
+
+    /**
+     * Returns a snapshot to the pool, once every listener processed it.
+     *
+     * @param snapshot The snapshot.
+     */
+    void release(SimulationSnapshot snapshot) {
+        if (snapshot.release()) {
+            snapshotPool.offer(snapshot);
+        }
+    }
+
+    /**
+     * Waits until every listener processed all pending snapshots and stops the consumer threads. Listeners that are
+     * {@link Closeable} are closed.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (SnapshotSubscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+package bio.singa.simulation.events;
+
+import bio.singa.core.events.UpdateEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The subscription of a listener to a {@link SnapshotEventPipeline}. Each subscription buffers pending snapshots in a
+ * bounded ring buffer and passes them to the listener on a dedicated consumer thread. If the buffer is full, the
+ * {@link BackpressureStrategy} of the subscription determines, whether the simulation waits or snapshots are dropped
+ * or coalesced.
+ *
+ * @author cl
+ */
+public final class SnapshotSubscription {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotSubscription.class);
+
+    /**
+     * The pipeline the snapshots are returned to.
+     */
+    private final SnapshotEventPipeline pipeline;
+
+    /**
+     * The listener.
+     */
+    private final UpdateEventListener<SimulationSnapshot> listener;
+
+    /**
+     * The strategy applied if the buffer is full.
+     */
+    private final BackpressureStrategy strategy;
+
+    /**
+     * The pending snapshots.
+     */
+    private final SimulationSnapshot[] buffer;
+
+    /**
+     * The position of the oldest pending snapshot.
+     */
+    private int head;
+
+    /**
+     * The number of pending snapshots.
+     */
+    private int count;
+
+    /**
+     * True if no more snapshots are offered.
+     */
+    private boolean closed;
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+
+    private final LongAdder deliveredSnapshots;
+    private final LongAdder droppedSnapshots;
+
+    /**
+     * The consumer thread.
+     */
+    private final Thread consumer;
+
+    /**
+     * Creates a new subscription and starts the consumer thread.
+     *
+     * @param pipeline The pipeline.
+     * @param listener The listener.
+     * @param strategy The strategy applied if the buffer is full.
+     * @param capacity The number of snapshots that can be pending.
+     * @param threadName The name of the consumer thread.
+     */
+    SnapshotSubscription(SnapshotEventPipeline pipeline, UpdateEventListener<SimulationSnapshot> listener, BackpressureStrategy strategy, int capacity, String threadName) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity of the snapshot buffer has to be at least 1.");
+        }
+        this.pipeline = pipeline;
+        this.listener = listener;
+        this.strategy = strategy;
+        buffer = new SimulationSnapshot[capacity];
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+        deliveredSnapshots = new LongAdder();
+        droppedSnapshots = new LongAdder();
+        consumer = new Thread(this::consume, threadName);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    public UpdateEventListener<SimulationSnapshot> getListener() {
+        return listener;
+    }
+
+    public BackpressureStrategy getStrategy() {
+        return strategy;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Returns the number of snapshots that have been passed to the listener.
+     *
+     * @return The number of delivered snapshots.
+     */
+    public long getDeliveredSnapshots() {
+        return deliveredSnapshots.sum();
+    }
+
+    /**
+     * Returns the number of snapshots that have been dropped or replaced by a newer snapshot, because the buffer was
+     * full.
+     *
+     * @return The number of dropped snapshots.
+     */
+    public long getDroppedSnapshots() {
+        return droppedSnapshots.sum();
+    }
+
+    /**
+     * Returns the number of currently pending snapshots.
+     *
+     * @return The number of pending snapshots.
+     */
+    public int getPendingSnapshots() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Offers a snapshot to the buffer, applying the backpressure strategy if the buffer is full.
+     *
+     * @param snapshot The snapshot.
+     */
+    void offer(SimulationSnapshot snapshot) {
+        SimulationSnapshot discarded = null;
+        lock.lock();
+        try {
+            if (count == buffer.length) {
+                switch (strategy) {
+                    case BLOCK:
+                        while (count == buffer.length && !closed) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        break;
+                    case DROP:
+                        discarded = snapshot;
+                        break;
+                    case COALESCE:
+                        int newest = (head + count - 1) % buffer.length;
+                        discarded = buffer[newest];
+                        buffer[newest] = snapshot;
+                        break;
+                }
+            }
+            if (closed) {
+                discarded = snapshot;
+            } else if (discarded == null) {
+                buffer[(head + count) % buffer.length] = snapshot;
+                count++;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (discarded != null) {
+            droppedSnapshots.increment();
+            pipeline.release(discarded);
+        }
+    }
+
+    /**
+     * Passes pending snapshots to the listener until the subscription is closed and no snapshots are pending.
+     */
+    private void consume() {
+        while (true) {
+            SimulationSnapshot snapshot;
+            lock.lock();
+            try {
+                while (count == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (count == 0) {
+                    return;
+                }
+                snapshot = buffer[head];
+                buffer[head] = null;
+                head = (head + 1) % buffer.length;
+                count--;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                listener.onEventReceived(snapshot);
+                deliveredSnapshots.increment();
+            } catch (RuntimeException e) {
+                logger.error("Listener {} failed to process {}.", listener.getClass().getSimpleName(), snapshot, e);
+            } finally {
+                pipeline.release(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting snapshots, waits until all pending snapshots have been passed to the listener and closes the
+     * listener, if it is {@link Closeable}.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (listener instanceof Closeable) {
+            try {
+                ((Closeable) listener).close();
+            } catch (IOException e) {
+                logger.error("Unable to close {}.", listener, e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package bio.singa.simulation.exceptions;
+
+/**
+ * A checkpoint exception is thrown if a checkpoint does not match the simulation it should be restored to.
+ *
+ * @author cl
+ */
+public class CheckpointException extends RuntimeException {
+
+    public CheckpointException(String message) {
+        super(message);
+    }
+
+    public CheckpointException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
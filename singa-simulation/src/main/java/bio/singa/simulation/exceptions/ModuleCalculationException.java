@@ -9,4 +9,8 @@ public class ModuleCalculationException extends  RuntimeException {
         super(message);
     }
 
+    public ModuleCalculationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
 }
@@ -0,0 +1,16 @@
+package bio.singa.simulation.exceptions;
+
+/**
+ * @author cl
+ */
+public class VariationSweepException extends RuntimeException {
+
+    public VariationSweepException(String message) {
+        super(message);
+    }
+
+    public VariationSweepException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -1,10 +1,12 @@
 package bio.singa.simulation.features;
 
+import bio.singa.simulation.model.simulation.RandomStreams;
 import tec.units.indriya.quantity.Quantities;
 
 import javax.measure.Quantity;
 import javax.measure.quantity.Length;
 import javax.measure.quantity.Time;
+import java.util.SplittableRandom;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -21,6 +23,11 @@ public class FeatureRandomizer {
         return Quantities.getQuantity(next, averageTime.getUnit());
     }
 
+    public static Quantity<Time> varyTime(Quantity<Time> averageTime, SplittableRandom random) {
+        double next = averageTime.getValue().doubleValue() + averageTime.getValue().doubleValue() * RandomStreams.nextGaussian(random) * DEFAULT_VARIATION;
+        return Quantities.getQuantity(next, averageTime.getUnit());
+    }
+
     public static Quantity<Length> varyLength(Quantity<Length> averageLength) {
         // add some random percent of DEFAULT_VARIATION
         double next = averageLength.getValue().doubleValue() + averageLength.getValue().doubleValue() * ThreadLocalRandom.current().nextGaussian() * DEFAULT_VARIATION;
@@ -28,4 +35,9 @@ public class FeatureRandomizer {
         return Quantities.getQuantity(next, averageLength.getUnit());
     }
 
+    public static Quantity<Length> varyLength(Quantity<Length> averageLength, SplittableRandom random) {
+        double next = averageLength.getValue().doubleValue() + averageLength.getValue().doubleValue() * RandomStreams.nextGaussian(random) * DEFAULT_VARIATION;
+        return Quantities.getQuantity(next, averageLength.getUnit());
+    }
+
 }
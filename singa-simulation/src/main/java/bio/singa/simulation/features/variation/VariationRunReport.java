@@ -0,0 +1,85 @@
+package bio.singa.simulation.features.variation;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The report of a single combination of parameters that has been calculated by a {@link VariationSweep}.
+ *
+ * @author cl
+ */
+public class VariationRunReport {
+
+    /**
+     * The index of the combination in {@link VariationSet#generateAllCombinations()}.
+     */
+    private final int index;
+
+    /**
+     * The combination of parameters.
+     */
+    private final List<?> combination;
+
+    /**
+     * The directory the results have been written to.
+     */
+    private final Path directory;
+
+    /**
+     * The simulated time in seconds.
+     */
+    private final double simulatedSeconds;
+
+    /**
+     * The wall clock time required for the calculation in seconds.
+     */
+    private final double wallSeconds;
+
+    public VariationRunReport(int index, List<?> combination, Path directory, double simulatedSeconds, double wallSeconds) {
+        this.index = index;
+        this.combination = combination;
+        this.directory = directory;
+        this.simulatedSeconds = simulatedSeconds;
+        this.wallSeconds = wallSeconds;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public List<?> getCombination() {
+        return combination;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public double getSimulatedSeconds() {
+        return simulatedSeconds;
+    }
+
+    public double getWallSeconds() {
+        return wallSeconds;
+    }
+
+    /**
+     * Returns the throughput of the calculation in simulated seconds per wall clock second.
+     *
+     * @return The throughput.
+     */
+    public double getThroughput() {
+        return simulatedSeconds / wallSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return "VariationRunReport{" +
+                "index=" + index +
+                ", simulatedSeconds=" + simulatedSeconds +
+                ", wallSeconds=" + wallSeconds +
+                ", throughput=" + getThroughput() +
+                '}';
+    }
+
+}
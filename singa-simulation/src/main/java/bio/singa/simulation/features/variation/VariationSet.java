@@ -4,6 +4,7 @@ import bio.singa.chemistry.entities.ChemicalEntity;
 import bio.singa.features.quantities.MolarConcentration;
 import bio.singa.features.units.UnitRegistry;
 import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.sections.concentration.ConcentrationInitializer;
 import bio.singa.simulation.model.sections.concentration.InitialConcentration;
 import bio.singa.simulation.model.sections.concentration.SectionConcentration;
 import bio.singa.simulation.model.simulation.Simulation;
@@ -74,6 +75,9 @@ public class VariationSet {
         for (Object parameterVariation : parameterVariations) {
             if (parameterVariation instanceof InitialConcentration) {
                 // varying concentration
+                if (simulation.getConcentrationInitializer() == null) {
+                    simulation.setConcentrationInitializer(new ConcentrationInitializer());
+                }
                 simulation.getConcentrationInitializer().addInitialConcentration((InitialConcentration) parameterVariation);
             } else if (parameterVariation instanceof EntityFeatureVariationEntry) {
                 // varying feature of a entity
@@ -0,0 +1,322 @@
+package bio.singa.simulation.features.variation;
+
+import bio.singa.features.units.ScalingContext;
+import bio.singa.simulation.exceptions.VariationSweepException;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.SimulationManager;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.trajectories.Recorders;
+import bio.singa.simulation.trajectories.flat.FlatUpdateRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * A variation sweep calculates one simulation for each combination of parameters generated by a {@link VariationSet}.
+ * For each combination a new simulation is requested from the simulation factory, the parameters are applied using
+ * {@link VariationSet#applyParameters(Simulation, List)} and the simulation is calculated until the termination time
+ * is reached. Up to {@link #getParallelism()} combinations are calculated concurrently. The factory has to create
+ * independent simulations (graph, entities and modules must not be shared between simulations).
+ * <p>
+ * Each simulation uses its own {@link ScalingContext}, that is initialized with the state of the unit registry at the
+ * time the sweep is started and is already bound while the factory is creating the simulation. Therefore, time steps
+ * can be adapted independently for each simulation. The {@link bio.singa.features.parameters.Environment} is still
+ * shared between all simulations.
+ * <p>
+ * The results of each combination are written to their own directory ("variation_" followed by the index of the
+ * combination) in the sweep directory, containing the variation log and the trajectories of all observed updatables,
+ * written by a {@link FlatUpdateRecorder}. Finished combinations are appended to a checkpoint file in the sweep
+ * directory. If a sweep is started in a directory containing a checkpoint file for the same variations, only the
+ * combinations that have not been finished are calculated.
+ *
+ * @author cl
+ */
+public class VariationSweep {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(VariationSweep.class);
+
+    /**
+     * The name of the checkpoint file.
+     */
+    public static final String CHECKPOINT_FILE_NAME = "completed_variations.csv";
+
+    /**
+     * The prefix of result directories.
+     */
+    public static final String VARIATION_DIRECTORY_PREFIX = "variation_";
+
+    private static final String VALUE_SEPARATOR = ",";
+
+    /**
+     * The factory creating a new simulation for each combination.
+     */
+    private final Supplier<Simulation> simulationFactory;
+
+    /**
+     * The variations.
+     */
+    private final VariationSet variationSet;
+
+    /**
+     * The directory results are written to.
+     */
+    private final Path directory;
+
+    /**
+     * The maximal number of concurrently calculated combinations.
+     */
+    private int parallelism;
+
+    /**
+     * The simulated time after which each simulation is terminated.
+     */
+    private Quantity<Time> terminationTime;
+
+    /**
+     * The simulated time between two recorded updates (null to record every epoch).
+     */
+    private Quantity<Time> recordingInterval;
+
+    /**
+     * The aggregated throughput of the last sweep.
+     */
+    private double aggregateThroughput;
+
+    /**
+     * Creates a new variation sweep.
+     *
+     * @param simulationFactory The factory creating a new simulation for each combination.
+     * @param variationSet The variations.
+     * @param directory The directory results are written to.
+     */
+    public VariationSweep(Supplier<Simulation> simulationFactory, VariationSet variationSet, Path directory) {
+        this.simulationFactory = simulationFactory;
+        this.variationSet = variationSet;
+        this.directory = directory;
+        parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism of a sweep has to be at least 1.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public Quantity<Time> getTerminationTime() {
+        return terminationTime;
+    }
+
+    public void setTerminationTime(Quantity<Time> terminationTime) {
+        this.terminationTime = terminationTime;
+    }
+
+    public Quantity<Time> getRecordingInterval() {
+        return recordingInterval;
+    }
+
+    public void setRecordingInterval(Quantity<Time> recordingInterval) {
+        this.recordingInterval = recordingInterval;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the simulated seconds per wall clock second of all combinations calculated during the last call of
+     * {@link #run()}.
+     *
+     * @return The aggregated throughput.
+     */
+    public double getAggregateThroughput() {
+        return aggregateThroughput;
+    }
+
+    /**
+     * Calculates all combinations that have not yet been finished according to the checkpoint file.
+     *
+     * @return The reports of all combinations calculated by this call, in the order of their index.
+     * @throws VariationSweepException if the calculation of any combination failed.
+     */
+    public List<VariationRunReport> run() {
+        if (terminationTime == null) {
+            throw new IllegalStateException("A termination time is required to run a variation sweep.");
+        }
+        Recorders.createDirectories(directory);
+        List<List<?>> combinations = variationSet.generateAllCombinations();
+        Set<Integer> finishedCombinations = readCheckpoint();
+        logger.info("Starting sweep of {} combinations ({} already finished) with parallelism {}.", combinations.size(),
+                finishedCombinations.size(), parallelism);
+
+        ScalingContext initialContext = ScalingContext.create();
+        AtomicInteger workerCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "Variation worker " + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        List<Future<VariationRunReport>> futures = new ArrayList<>();
+        for (int index = 0; index < combinations.size(); index++) {
+            if (finishedCombinations.contains(index)) {
+                continue;
+            }
+            final int currentIndex = index;
+            final List<?> combination = combinations.get(index);
+            futures.add(executor.submit(() -> calculate(currentIndex, combination, initialContext.copy())));
+        }
+
+        List<VariationRunReport> reports = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        try {
+            for (Future<VariationRunReport> future : futures) {
+                try {
+                    reports.add(future.get());
+                } catch (ExecutionException e) {
+                    logger.error("Calculation of variation failed.", e.getCause());
+                    failures.add(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VariationSweepException("Variation sweep has been interrupted.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        double wallSeconds = (System.nanoTime() - start) / 1.0e9;
+        double simulatedSeconds = reports.stream()
+                .mapToDouble(VariationRunReport::getSimulatedSeconds)
+                .sum();
+        aggregateThroughput = wallSeconds > 0 ? simulatedSeconds / wallSeconds : 0.0;
+        logger.info("Finished {} combinations in {} s, aggregated throughput {} simulated s per s.", reports.size(),
+                wallSeconds, aggregateThroughput);
+
+        if (!failures.isEmpty()) {
+            throw new VariationSweepException(failures.size() + " of " + futures.size() + " variations failed, " +
+                    "finished variations have been recorded in " + directory.resolve(CHECKPOINT_FILE_NAME) + ".", failures.get(0));
+        }
+        return reports;
+    }
+
+    /**
+     * Calculates a single combination.
+     *
+     * @param index The index of the combination.
+     * @param combination The combination.
+     * @param scalingContext The scaling context used for the simulation.
+     * @return The report.
+     */
+    private VariationRunReport calculate(int index, List<?> combination, ScalingContext scalingContext) {
+        ScalingContext previousContext = ScalingContext.bind(scalingContext);
+        try {
+            Simulation simulation = simulationFactory.get();
+            simulation.setScalingContext(scalingContext);
+            VariationSet.applyParameters(simulation, combination);
+
+            String directoryName = VARIATION_DIRECTORY_PREFIX + index;
+            Path variationDirectory = directory.resolve(directoryName);
+            Recorders.createDirectories(variationDirectory);
+            VariationSet.writeVariationLog(variationDirectory, combination);
+
+            SimulationManager manager = new SimulationManager(simulation);
+            manager.setSimulationTerminationToTime(terminationTime);
+            if (recordingInterval != null) {
+                manager.setUpdateEmissionToTimePassed(recordingInterval);
+            }
+            if (!simulation.getObservedUpdatables().isEmpty()) {
+                FlatUpdateRecorder recorder = FlatUpdateRecorder.create()
+                        .workspace(directory)
+                        .directory(directoryName, false)
+                        .build();
+                for (Updatable updatable : simulation.getObservedUpdatables()) {
+                    recorder.addUpdatableToObserve(updatable);
+                }
+                manager.addSnapshotListener(recorder);
+            }
+
+            long start = System.nanoTime();
+            manager.calculateUntilTermination();
+            double wallSeconds = (System.nanoTime() - start) / 1.0e9;
+            double simulatedSeconds = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+            VariationRunReport report = new VariationRunReport(index, combination, variationDirectory, simulatedSeconds, wallSeconds);
+            writeCheckpoint(report);
+            logger.info("Finished variation {} in {} s, throughput {} simulated s per s.", index, wallSeconds, report.getThroughput());
+            return report;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to record variation " + index + ".", e);
+        } finally {
+            ScalingContext.bind(previousContext);
+        }
+    }
+
+    /**
+     * Returns the indices of all combinations recorded in the checkpoint file. The file is created if it does not
+     * exist.
+     *
+     * @return The indices of finished combinations.
+     */
+    private Set<Integer> readCheckpoint() {
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE_NAME);
+        String header = variationSet.getAffectedParameters();
+        try {
+            if (!Files.exists(checkpoint)) {
+                Files.write(checkpoint, Arrays.asList(header, String.join(VALUE_SEPARATOR, "index", "simulated_time_s", "wall_time_s", "throughput")),
+                        StandardCharsets.UTF_8);
+                return Collections.emptySet();
+            }
+            List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals(header)) {
+                throw new VariationSweepException("The checkpoint " + checkpoint + " belongs to different variations.");
+            }
+            Set<Integer> finishedCombinations = new HashSet<>();
+            for (String line : lines.subList(2, lines.size())) {
+                if (!line.isEmpty()) {
+                    finishedCombinations.add(Integer.parseInt(line.split(VALUE_SEPARATOR)[0]));
+                }
+            }
+            return finishedCombinations;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read checkpoint " + checkpoint + ".", e);
+        }
+    }
+
+    /**
+     * Appends the finished combination to the checkpoint file.
+     *
+     * @param report The report of the finished combination.
+     */
+    private synchronized void writeCheckpoint(VariationRunReport report) {
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE_NAME);
+        String line = String.join(VALUE_SEPARATOR, String.valueOf(report.getIndex()), String.valueOf(report.getSimulatedSeconds()),
+                String.valueOf(report.getWallSeconds()), String.valueOf(report.getThroughput())) + System.lineSeparator();
+        try {
+            Files.write(checkpoint, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write checkpoint " + checkpoint + ".", e);
+        }
+    }
+
+}
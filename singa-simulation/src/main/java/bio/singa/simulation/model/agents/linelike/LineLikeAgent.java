@@ -153,7 +153,7 @@ public class LineLikeAgent {
         for (Vector2D segment : getPath().getSegments()) {
             Circle headRegion = new Circle(segment, 10);
             // determine associated nodes
-            for (AutomatonNode node : graph.getNodes()) {
+            for (AutomatonNode node : getCandidateNodes(headRegion)) {
                 // get representative region of the node
                 Polygon polygon = node.getSpatialRepresentation();
                 // associate segment to the node with the largest part of the vesicle (midpoint is inside)
@@ -168,7 +168,7 @@ public class LineLikeAgent {
         }
     }
 
-    public int nextEpoch() {
+    public int nextEpoch(SplittableRandom random) {
         switch (minusEndBehaviour) {
             case SHRINK:
                 shrinkMinus();
@@ -179,7 +179,7 @@ public class LineLikeAgent {
         }
         switch (plusEndBehaviour) {
             case GROW:
-                growPlus();
+                growPlus(random);
                 break;
             case SHRINK:
                 shrinkPlus();
@@ -188,7 +188,7 @@ public class LineLikeAgent {
                 if (path.size() > 2) {
                     follow();
                 } else {
-                    growPlus();
+                    growPlus(random);
                 }
                 break;
             case STAGNANT:
@@ -208,7 +208,7 @@ public class LineLikeAgent {
         path.addToHead(nextPosition);
     }
 
-    private void growPlus() {
+    private void growPlus(SplittableRandom random) {
         Vector2D head;
         if (path.size() == 1) {
             // this is the first growth
@@ -220,7 +220,7 @@ public class LineLikeAgent {
             Iterator<Vector2D> iterator = path.getSegments().iterator();
             head = iterator.next().subtract(iterator.next());
         }
-        Vector2D nextSegment = computeNextSegment(head);
+        Vector2D nextSegment = computeNextSegment(head, random);
         Vector2D nextPosition = path.getHead().add(nextSegment);
         associateNodes(nextPosition);
         path.addToHead(nextPosition);
@@ -234,16 +234,16 @@ public class LineLikeAgent {
         path.removeHead();
     }
 
-    private Vector2D computeNextSegment(Vector2D head) {
+    private Vector2D computeNextSegment(Vector2D head, SplittableRandom random) {
         // r_n+1 = (r_n * (1 - r_d) + r_d * u) / mag(r_n * (1 - r_d) + r_d * u)
-        return head.multiply(1 - rd).add(Vectors.generateRandomUnit2DVector().multiply(rd)).normalize().multiply(2);
+        return head.multiply(1 - rd).add(Vectors.generateRandomUnit2DVector(random).multiply(rd)).normalize().multiply(2);
     }
 
     private void associateNodes(Vector2D segment) {
         associatedNodes.clear();
         Circle headRegion = new Circle(segment, 10);
         // determine associated nodes
-        for (AutomatonNode node : getGraph().getNodes()) {
+        for (AutomatonNode node : getCandidateNodes(headRegion)) {
             // get representative region of the node
             Polygon polygon = node.getSpatialRepresentation();
             // associate segment to the node with the largest part of the vesicle (midpoint is inside)
@@ -259,6 +259,19 @@ public class LineLikeAgent {
         }
     }
 
+    /**
+     * Returns all nodes, whose spatial representation may contain the centre of or intersect with the region.
+     *
+     * @param region The region.
+     * @return The candidate nodes.
+     */
+    private Collection<AutomatonNode> getCandidateNodes(Circle region) {
+        Vector2D centre = region.getMidpoint();
+        double radius = region.getRadius();
+        return getGraph().getNodeLocator().getCandidates(centre.getX() - radius, centre.getY() - radius,
+                centre.getX() + radius, centre.getY() + radius);
+    }
+
     double angleTo(LineLikeAgent filament) {
         Iterator<Vector2D> thisSegments = path.getSegments().iterator();
         Line thisLine = new Line(thisSegments.next(), thisSegments.next());
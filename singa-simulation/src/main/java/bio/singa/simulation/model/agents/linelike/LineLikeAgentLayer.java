@@ -11,7 +11,6 @@ import bio.singa.simulation.model.agents.surfacelike.MembraneSegment;
 import bio.singa.simulation.model.simulation.Simulation;
 
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 import static bio.singa.simulation.model.agents.linelike.LineLikeAgent.ACTIN;
@@ -28,6 +27,11 @@ public class LineLikeAgentLayer {
     private Rectangle simulationRegion;
     private Simulation simulation;
 
+    /**
+     * The source of randomness for spawning and growing filaments.
+     */
+    private SplittableRandom random;
+
     public LineLikeAgentLayer(Simulation simulation, MembraneLayer membraneLayer) {
         filaments = new ArrayList<>();
         this.simulation = simulation;
@@ -35,6 +39,19 @@ public class LineLikeAgentLayer {
         this.membraneLayer = membraneLayer;
     }
 
+    /**
+     * Returns the source of randomness for spawning and growing filaments, the setup stream is retrieved from the
+     * simulation on first use.
+     *
+     * @return The source of randomness.
+     */
+    SplittableRandom getRandom() {
+        if (random == null) {
+            random = simulation.getRandomStreams().getSetupStream("filaments");
+        }
+        return random;
+    }
+
     public void spawnFilament(Membrane sourceMembrane, Membrane targetMembrane) {
         List<MembraneSegment> segments = new ArrayList<>(sourceMembrane.getSegments());
         // choose random line segment from the given membrane
@@ -48,11 +65,11 @@ public class LineLikeAgentLayer {
                 .collect(Collectors.toList());
 
         Vector2D centroid = Vectors.getCentroid(sourcePoints).as(Vector2D.class);
-        LineSegment segment = segments.get(ThreadLocalRandom.current().nextInt(0, segments.size())).getSegment();
-        Vector2D initialPosition = segment.getRandomPoint();
+        LineSegment segment = segments.get(getRandom().nextInt(0, segments.size())).getSegment();
+        Vector2D initialPosition = segment.getRandomPoint(getRandom());
         while (initialPosition.isRightOf(centroid)) {
-            segment = segments.get(ThreadLocalRandom.current().nextInt(0, segments.size())).getSegment();
-            initialPosition = segment.getRandomPoint();
+            segment = segments.get(getRandom().nextInt(0, segments.size())).getSegment();
+            initialPosition = segment.getRandomPoint(getRandom());
         }
 
         Map.Entry<Vector2D, Double> entry = VectorMetricProvider.EUCLIDEAN_METRIC.calculateClosestDistance(targetPoints, initialPosition);
@@ -62,8 +79,8 @@ public class LineLikeAgentLayer {
     public void spawnActinFilament(Membrane cellMembrane) {
         List<MembraneSegment> segments = new ArrayList<>(cellMembrane.getSegments());
         // choose random line segment from the given membrane
-        LineSegment lineSegment = segments.get(ThreadLocalRandom.current().nextInt(0, segments.size())).getSegment();
-        Vector2D initialPosition = lineSegment.getRandomPoint();
+        LineSegment lineSegment = segments.get(getRandom().nextInt(0, segments.size())).getSegment();
+        Vector2D initialPosition = lineSegment.getRandomPoint(getRandom());
 
         List<Vector2D> membranePoints = cellMembrane.getSegments().stream()
                 .map(MembraneSegment::getStartingPoint)
@@ -76,10 +93,10 @@ public class LineLikeAgentLayer {
     public void spawnHorizontalFilament(Membrane sourceMembrane) {
         List<MembraneSegment> segments = new ArrayList<>(sourceMembrane.getSegments());
         // choose random line segment from the given membrane
-        LineSegment lineSegment = segments.get(ThreadLocalRandom.current().nextInt(0, segments.size())).getSegment();
+        LineSegment lineSegment = segments.get(getRandom().nextInt(0, segments.size())).getSegment();
         // add corresponding filament
         while (lineSegment.isHorizontal()) {
-            lineSegment = segments.get(ThreadLocalRandom.current().nextInt(0, segments.size())).getSegment();
+            lineSegment = segments.get(getRandom().nextInt(0, segments.size())).getSegment();
         }
         if (lineSegment.isVertical()) {
             addHorizontalFilament(lineSegment);
@@ -89,7 +106,7 @@ public class LineLikeAgentLayer {
     }
 
     private void addVerticalFilament(LineSegment lineSegment) {
-        Vector2D initialPosition = lineSegment.getRandomPoint();
+        Vector2D initialPosition = lineSegment.getRandomPoint(getRandom());
         // calculate distances to top and bottom
         double topDistance = simulationRegion.getTopEdge().distanceTo(initialPosition);
         double bottomDistance = simulationRegion.getBottomEdge().distanceTo(initialPosition);
@@ -102,7 +119,7 @@ public class LineLikeAgentLayer {
     }
 
     private void addHorizontalFilament(LineSegment lineSegment) {
-        Vector2D initialPosition = lineSegment.getRandomPoint();
+        Vector2D initialPosition = lineSegment.getRandomPoint(getRandom());
         // calculate distances to left and right
         double rightDistance = simulationRegion.getRightEdge().distanceTo(initialPosition);
         double leftDistance = simulationRegion.getLeftEdge().distanceTo(initialPosition);
@@ -115,7 +132,7 @@ public class LineLikeAgentLayer {
     }
 
     private void addPerpendicularFilament(LineSegment lineSegment) {
-        Vector2D initialPosition = lineSegment.getRandomPoint();
+        Vector2D initialPosition = lineSegment.getRandomPoint(getRandom());
         Vector2D centre = simulationRegion.getCentre();
         addMicrotubule(initialPosition, centre.subtract(initialPosition));
     }
@@ -125,7 +142,7 @@ public class LineLikeAgentLayer {
         ListIterator<LineLikeAgent> iterator = filaments.listIterator();
         while (iterator.hasNext()) {
             LineLikeAgent filament = iterator.next();
-            int currentLength = filament.nextEpoch();
+            int currentLength = filament.nextEpoch(getRandom());
             // filament has shrunk to zero
             if (currentLength == 0) {
                 iterator.remove();
@@ -139,14 +156,9 @@ public class LineLikeAgentLayer {
         for (LineLikeAgent filament : filaments) {
             Vector2D head = filament.getPlusEnd();
             // TODO collisions with simulation borders
-            if (filament.getPlusEndBehaviour() != STAGNANT) {
-                for (Membrane membrane : membraneLayer.getMembranes()) {
-                    for (MembraneSegment membraneSegment : membrane.getSegments()) {
-                        if (membraneSegment.distanceTo(head) < 1 && filament.getPath().size() > 10) {
-                            filament.setPlusEndBehaviour(STAGNANT);
-                            break;
-                        }
-                    }
+            if (filament.getPlusEndBehaviour() != STAGNANT && filament.getPath().size() > 10) {
+                if (!membraneLayer.getSegmentIndex().getSegmentsWithin(head, 1).isEmpty()) {
+                    filament.setPlusEndBehaviour(STAGNANT);
                 }
             }
         }
@@ -31,7 +31,7 @@ public class MicrotubuleOrganizingCentre {
         Vector2D centre = circleRepresentation.getMidpoint();
         while (currentFilaments != initialFilaments) {
             // random point on circle circumference
-            double angle = Math.random() * Math.PI * 2;
+            double angle = layer.getRandom().nextDouble() * Math.PI * 2;
             double x = Math.cos(angle) * circleRepresentation.getRadius();
             double y = Math.sin(angle) * circleRepresentation.getRadius();
             // set starting position and direction
@@ -55,7 +55,7 @@ public class MicrotubuleOrganizingCentre {
         Vector2D centre = circleRepresentation.getMidpoint();
         while (currentFilaments != initialFilaments) {
             // random point on circle circumference
-            double angle = Math.random() * Math.PI * 2;
+            double angle = layer.getRandom().nextDouble() * Math.PI * 2;
             double x = Math.cos(angle) * circleRepresentation.getRadius();
             double y = Math.sin(angle) * circleRepresentation.getRadius();
             // set starting position and direction
@@ -97,6 +97,15 @@ public class Vesicle implements Updatable, Featureable {
         return radius;
     }
 
+    /**
+     * Returns the radius of this vesicle in simulation scale.
+     *
+     * @return The radius in simulation scale.
+     */
+    public double getSimulationRadius() {
+        return Environment.convertSystemToSimulationScale(radius.getValue().doubleValue(), radius.getUnit());
+    }
+
     public Quantity<Area> getArea() {
         return area;
     }
@@ -188,6 +197,10 @@ public class Vesicle implements Updatable, Featureable {
         return displacementManager.calculateTotalDisplacement();
     }
 
+    public Vector2D calculateTotalDisplacement(double deltaX, double deltaY) {
+        return displacementManager.calculateTotalDisplacement(deltaX, deltaY);
+    }
+
     public void clearPotentialDisplacementDeltas() {
         displacementManager.clearPotentialDisplacementDeltas();
     }
@@ -244,7 +257,7 @@ public class Vesicle implements Updatable, Featureable {
     }
 
     public Circle getCircleRepresentation() {
-        return new Circle(displacementManager.getCurrentPosition(), Environment.convertSystemToSimulationScale(radius));
+        return new Circle(displacementManager.getCurrentPosition(), getSimulationRadius());
     }
 
     @Override
@@ -0,0 +1,239 @@
+package bio.singa.simulation.model.agents.pointlike;
+
+import bio.singa.chemistry.features.diffusivity.Diffusivity;
+import bio.singa.mathematics.vectors.Vector2D;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The vesicle displacements store the vesicles of a {@link VesicleLayer} as a structure of arrays, such that
+ * displacements can be calculated in batches without accessing the vesicles themselves. For each vesicle the current
+ * position and radius (simulation scale), an identifier of the state and the scaled diffusivity are stored. The index
+ * of a vesicle in the store corresponds to its index in the list of vesicles of the layer.
+ * <p>
+ * Modules calculating displacements in batches add their displacements to the store (see
+ * {@link #addDeltas(double[], double[], int)}), the accumulated displacements are combined with the displacement
+ * deltas of the individual vesicles, if the next positions are determined. The store is prepared by
+ * {@link VesicleLayer#getDisplacements()} and refreshed once the vesicles have been moved, the list of vesicles has
+ * changed or the time step differs from the time step the store was prepared for.
+ *
+ * @author cl
+ */
+public final class VesicleDisplacements {
+
+    /**
+     * The initial capacity of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The number of vesicles.
+     */
+    private int size;
+
+    private double[] x;
+    private double[] y;
+    private double[] radius;
+    private double[] diffusivity;
+    private int[] state;
+
+    /**
+     * The accumulated displacements of all batched modules.
+     */
+    private double[] deltaX;
+    private double[] deltaY;
+
+    /**
+     * True if any displacements have been added since the deltas were last cleared.
+     */
+    private boolean hasDeltas;
+
+    /**
+     * The identifiers of vesicle states.
+     */
+    private final Map<String, Integer> stateIdentifiers;
+
+    /**
+     * True if the store reflects the current vesicles.
+     */
+    private boolean valid;
+
+    /**
+     * The epoch the store was prepared in.
+     */
+    private long preparedEpoch;
+
+    /**
+     * The time step (in microseconds) the store was prepared for.
+     */
+    private double preparedTimeStep;
+
+    VesicleDisplacements() {
+        stateIdentifiers = new HashMap<>();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        x = new double[capacity];
+        y = new double[capacity];
+        radius = new double[capacity];
+        diffusivity = new double[capacity];
+        state = new int[capacity];
+        deltaX = new double[capacity];
+        deltaY = new double[capacity];
+    }
+
+    /**
+     * Copies the properties of the given vesicles to the store, if the store does not reflect the vesicles of the
+     * current epoch and time step. Accumulated displacements are retained if the store is refreshed without changes to
+     * the list of vesicles.
+     *
+     * @param vesicles The vesicles.
+     * @param epoch The current epoch.
+     * @param timeStep The current time step in microseconds.
+     */
+    synchronized void prepare(List<Vesicle> vesicles, long epoch, double timeStep) {
+        if (valid && size == vesicles.size() && preparedEpoch == epoch && preparedTimeStep == timeStep) {
+            return;
+        }
+        if (size != vesicles.size()) {
+            if (vesicles.size() > x.length) {
+                allocate(Math.max(vesicles.size(), 2 * x.length));
+            }
+            size = vesicles.size();
+            clearDeltas();
+        }
+        for (int index = 0; index < size; index++) {
+            Vesicle vesicle = vesicles.get(index);
+            Vector2D position = vesicle.getPosition();
+            x[index] = position.getX();
+            y[index] = position.getY();
+            radius[index] = vesicle.getSimulationRadius();
+            diffusivity[index] = vesicle.getFeature(Diffusivity.class).getScaledQuantity();
+            state[index] = getStateIdentifier(vesicle.getState());
+        }
+        valid = true;
+        preparedEpoch = epoch;
+        preparedTimeStep = timeStep;
+    }
+
+    /**
+     * Marks the store as outdated, e.g. after vesicles have been moved, added or removed.
+     */
+    synchronized void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Returns the number of vesicles.
+     *
+     * @return The number of vesicles.
+     */
+    public int size() {
+        return size;
+    }
+
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    /**
+     * Returns the radius of the vesicle in simulation scale.
+     *
+     * @param index The index of the vesicle.
+     * @return The radius.
+     */
+    public double getRadius(int index) {
+        return radius[index];
+    }
+
+    /**
+     * Returns the scaled diffusivity of the vesicle.
+     *
+     * @param index The index of the vesicle.
+     * @return The scaled diffusivity.
+     */
+    public double getDiffusivity(int index) {
+        return diffusivity[index];
+    }
+
+    /**
+     * Returns the identifier of the state of the vesicle (see {@link #getStateIdentifier(String)}).
+     *
+     * @param index The index of the vesicle.
+     * @return The identifier of the state.
+     */
+    public int getState(int index) {
+        return state[index];
+    }
+
+    /**
+     * Returns the identifier of the given state, such that states of vesicles can be compared without comparing
+     * strings. Identifiers are assigned on first request and are retained for the lifetime of the store.
+     *
+     * @param vesicleState The state.
+     * @return The identifier of the state.
+     */
+    public synchronized int getStateIdentifier(String vesicleState) {
+        Integer identifier = stateIdentifiers.get(vesicleState);
+        if (identifier == null) {
+            identifier = stateIdentifiers.size();
+            stateIdentifiers.put(vesicleState, identifier);
+        }
+        return identifier;
+    }
+
+    /**
+     * Adds the given displacements (simulation scale) to the accumulated displacements of the vesicles.
+     *
+     * @param moduleDeltaX The displacements in x direction.
+     * @param moduleDeltaY The displacements in y direction.
+     * @param numberOfVesicles The number of vesicles the displacements have been calculated for.
+     */
+    public synchronized void addDeltas(double[] moduleDeltaX, double[] moduleDeltaY, int numberOfVesicles) {
+        if (numberOfVesicles != size) {
+            throw new IllegalStateException("Displacements for " + numberOfVesicles + " vesicles can not be added to the displacements of " + size + " vesicles.");
+        }
+        for (int index = 0; index < numberOfVesicles; index++) {
+            deltaX[index] += moduleDeltaX[index];
+            deltaY[index] += moduleDeltaY[index];
+        }
+        hasDeltas = true;
+    }
+
+    /**
+     * Returns true if displacements have been added to the store.
+     *
+     * @return True if displacements have been added to the store.
+     */
+    public boolean hasDeltas() {
+        return hasDeltas;
+    }
+
+    public double getDeltaX(int index) {
+        return deltaX[index];
+    }
+
+    public double getDeltaY(int index) {
+        return deltaY[index];
+    }
+
+    /**
+     * Clears the accumulated displacements.
+     */
+    synchronized void clearDeltas() {
+        if (hasDeltas) {
+            Arrays.fill(deltaX, 0, deltaX.length, 0.0);
+            Arrays.fill(deltaY, 0, deltaY.length, 0.0);
+            hasDeltas = false;
+        }
+    }
+
+}
@@ -1,25 +1,28 @@
 package bio.singa.simulation.model.agents.pointlike;
 
 import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.ScalingContext;
 import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.algorithms.geometry.SegmentIndex;
+import bio.singa.mathematics.algorithms.geometry.SpatialHash;
 import bio.singa.mathematics.geometry.bodies.Spheres;
 import bio.singa.mathematics.geometry.edges.LineSegment;
 import bio.singa.mathematics.geometry.edges.SimpleLineSegment;
 import bio.singa.mathematics.geometry.faces.Circle;
 import bio.singa.mathematics.geometry.faces.Rectangle;
 import bio.singa.mathematics.geometry.model.Polygon;
-import bio.singa.mathematics.matrices.LabeledSymmetricMatrix;
 import bio.singa.mathematics.topology.grids.rectangular.MooreRectangularDirection;
 import bio.singa.mathematics.topology.grids.rectangular.NeumannRectangularDirection;
 import bio.singa.mathematics.topology.grids.rectangular.RectangularCoordinate;
 import bio.singa.mathematics.vectors.Vector2D;
-import bio.singa.simulation.model.agents.surfacelike.Membrane;
 import bio.singa.simulation.model.agents.surfacelike.MembraneSegment;
 import bio.singa.simulation.model.agents.volumelike.VolumeLikeAgent;
 import bio.singa.simulation.model.graphs.AutomatonGraph;
 import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.graphs.NodeLocator;
 import bio.singa.simulation.model.modules.displacement.DisplacementBasedModule;
 import bio.singa.simulation.model.modules.displacement.implementations.VesicleConfinedDiffusion;
+import bio.singa.simulation.model.sections.EntityIndex;
 import bio.singa.simulation.model.simulation.Simulation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,7 +30,6 @@ import org.slf4j.LoggerFactory;
 import javax.measure.Quantity;
 import javax.measure.quantity.Length;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
 
 import static bio.singa.mathematics.metrics.model.VectorMetricProvider.SQUARED_EUCLIDEAN_METRIC;
 
@@ -41,14 +43,36 @@ public class VesicleLayer {
      */
     private static final Logger logger = LoggerFactory.getLogger(DisplacementBasedModule.class);
 
+    /**
+     * The name of the random stream resolving collisions between vesicles.
+     */
+    private static final String COLLISION_STREAM = "vesicle collisions";
+
     private List<Vesicle> vesicles;
+
+    /**
+     * The index of the next positions of all vesicles, using the node distance as cell size.
+     */
+    private SpatialHash<Vesicle> vesicleIndex;
+
+    /**
+     * True if vesicles are associated to nodes in parallel.
+     */
+    private boolean parallelAssociation;
+
     private Rectangle simulationRegion;
     private final Quantity<Length> displacementEpsilon;
     private Simulation simulation;
 
+    /**
+     * The vesicles as a structure of arrays for batched displacement calculations.
+     */
+    private final VesicleDisplacements displacements;
+
     public VesicleLayer(Simulation simulation) {
         setSimulation(simulation);
         vesicles = new ArrayList<>();
+        displacements = new VesicleDisplacements();
         displacementEpsilon = UnitRegistry.getSpace().divide(10);
     }
 
@@ -69,36 +93,99 @@ public class VesicleLayer {
         simulationRegion = simulation.getSimulationRegion();
     }
 
+    public boolean isParallelAssociation() {
+        return parallelAssociation;
+    }
+
+    /**
+     * Determines whether vesicles are associated to nodes in parallel. Associating a vesicle only modifies the vesicle,
+     * therefore this is only worthwhile for large numbers of vesicles.
+     *
+     * @param parallelAssociation True if vesicles should be associated in parallel.
+     */
+    public void setParallelAssociation(boolean parallelAssociation) {
+        this.parallelAssociation = parallelAssociation;
+    }
+
+
     public void addVesicle(Vesicle vesicle) {
         vesicles.add(vesicle);
+        displacements.invalidate();
+        if (vesicleIndex != null) {
+            vesicleIndex.put(vesicle, vesicle.getNextPosition());
+        }
     }
 
     public void addVesicles(Collection<Vesicle> vesicles) {
-        this.vesicles.addAll(vesicles);
+        vesicles.forEach(this::addVesicle);
     }
 
     public void removeVesicle(Vesicle vesicle) {
         vesicles.remove(vesicle);
+        displacements.invalidate();
+        if (vesicleIndex != null) {
+            vesicleIndex.remove(vesicle);
+        }
     }
 
     public List<Vesicle> getVesicles() {
         return vesicles;
     }
 
+    /**
+     * Returns the vesicles as a structure of arrays for batched displacement calculations. The store is refreshed if
+     * vesicles have been moved, added or removed or the time step changed since it was last prepared.
+     *
+     * @return The vesicle displacements.
+     */
+    public VesicleDisplacements getDisplacements() {
+        displacements.prepare(vesicles, simulation.getEpoch(), UnitRegistry.getTimeInMicroseconds());
+        return displacements;
+    }
+
+    /**
+     * Moves all vesicles to their next position in the vesicle index. The index is rebuilt if the node distance
+     * changed or vesicles have been added to the list directly.
+     *
+     * @param radii The vesicles providing the radii.
+     * @return The largest radius of all vesicles (simulation scale).
+     */
+    private double updateVesicleIndex(VesicleDisplacements radii) {
+        double cellSize = Environment.convertSpaceToSimulationScale(UnitRegistry.getSpaceScale());
+        if (vesicleIndex == null || vesicleIndex.getCellSize() != cellSize || vesicleIndex.size() != vesicles.size()) {
+            vesicleIndex = new SpatialHash<>(cellSize);
+        }
+        double largestRadius = 0.0;
+        for (int index = 0; index < vesicles.size(); index++) {
+            vesicleIndex.put(vesicles.get(index), vesicles.get(index).getNextPosition());
+            largestRadius = Math.max(largestRadius, radii.getRadius(index));
+        }
+        return largestRadius;
+    }
+
     private void checkForCollisions() {
-        //compare the distance to combined radii
-        LabeledSymmetricMatrix<Vesicle> distances = SQUARED_EUCLIDEAN_METRIC.calculateDistancesPairwise(vesicles, Vesicle::getNextPosition);
+        // radii are taken from the prepared store
+        VesicleDisplacements radii = getDisplacements();
+        // index the next positions before any of them is reset
+        double largestRadius = updateVesicleIndex(radii);
+        SegmentIndex<MembraneSegment> segmentIndex = simulation.getMembraneLayer() != null ? simulation.getMembraneLayer().getSegmentIndex() : null;
         vesicleLoop:
-        for (Vesicle vesicle1 : vesicles) {
+        for (int index = 0; index < vesicles.size(); index++) {
+            Vesicle vesicle1 = vesicles.get(index);
             // check collisions with other vesicles
-            double firstRadius = Environment.convertSystemToSimulationScale(vesicle1.getRadius());
-            for (Vesicle vesicle2 : vesicles) {
-                // TODO speed up by comparing only to close vesicles with referenced automaton nodes
+            double firstRadius = radii.getRadius(index);
+            Vector2D firstPosition = vesicleIndex.getPosition(vesicle1);
+            SplittableRandom random = null;
+            // squared distances are compared to the combined radii, only closer vesicles are candidates
+            for (Vesicle vesicle2 : vesicleIndex.getNeighbours(firstPosition, Math.sqrt(firstRadius + largestRadius))) {
                 if (vesicle1 != vesicle2) {
-                    double distance = distances.getValueForLabel(vesicle1, vesicle2);
-                    double combinedRadii = firstRadius + Environment.convertSystemToSimulationScale(vesicle2.getRadius());
+                    double distance = SQUARED_EUCLIDEAN_METRIC.calculateDistance(firstPosition, vesicleIndex.getPosition(vesicle2));
+                    double combinedRadii = firstRadius + vesicle2.getSimulationRadius();
                     if (distance < combinedRadii) {
-                        if (ThreadLocalRandom.current().nextDouble() < 0.5) {
+                        if (random == null) {
+                            random = simulation.getRandomStreams().getStream(COLLISION_STREAM, index);
+                        }
+                        if (random.nextDouble() < 0.5) {
                             vesicle1.resetNextPosition();
                             continue vesicleLoop;
                         }
@@ -106,17 +193,11 @@ public class VesicleLayer {
                 }
             }
             // check collisions with membranes
-            if (simulation.getMembraneLayer() != null) {
-                for (Membrane macroscopicMembrane : simulation.getMembraneLayer().getMembranes()) {
-                    for (MembraneSegment membraneSegment : macroscopicMembrane.getSegments()) {
-                        if (!vesicle1.getPosition().equals(vesicle1.getNextPosition())) {
-                            SimpleLineSegment displacementVector = new SimpleLineSegment(vesicle1.getPosition(), vesicle1.getNextPosition());
-                            if (displacementVector.getIntersectionWith(membraneSegment).isPresent()) {
-                                vesicle1.resetNextPosition();
-                                continue vesicleLoop;
-                            }
-                        }
-                    }
+            if (simulation.getMembraneLayer() != null && !vesicle1.getPosition().equals(vesicle1.getNextPosition())) {
+                SimpleLineSegment displacementVector = new SimpleLineSegment(vesicle1.getPosition(), vesicle1.getNextPosition());
+                if (segmentIndex.intersectsAny(displacementVector)) {
+                    vesicle1.resetNextPosition();
+                    continue;
                 }
             }
             // check for collisions with confined volumes
@@ -151,12 +232,18 @@ public class VesicleLayer {
     }
 
     public boolean deltasAreBelowDisplacementCutoff() {
-        for (Vesicle vesicle : vesicles) {
-            Vector2D totalDisplacement = vesicle.calculateTotalDisplacement();
-            Quantity<Length> lengthQuantity = Environment.convertSimulationToSystemScale(totalDisplacement.getMagnitude());
-            lengthQuantity.to(displacementEpsilon.getUnit());
-            if (lengthQuantity.getValue().doubleValue() > displacementEpsilon.getValue().doubleValue()) {
-                logger.info("The magnitude of the spatial displacement of {} is {}, higher than the allowed {}.", vesicle.getStringIdentifier(), lengthQuantity, displacementEpsilon);
+        // compare squared magnitudes in simulation scale, quantities are only created for logging
+        double cutoff = Environment.convertSystemToSimulationScale(displacementEpsilon);
+        double squaredCutoff = cutoff * cutoff;
+        // include the displacements of batched modules
+        boolean batched = displacements.hasDeltas() && displacements.size() == vesicles.size();
+        for (int index = 0; index < vesicles.size(); index++) {
+            Vesicle vesicle = vesicles.get(index);
+            Vector2D totalDisplacement = batched ? vesicle.calculateTotalDisplacement(displacements.getDeltaX(index), displacements.getDeltaY(index))
+                    : vesicle.calculateTotalDisplacement();
+            if (totalDisplacement.dotProduct(totalDisplacement) > squaredCutoff) {
+                logger.info("The magnitude of the spatial displacement of {} is {}, higher than the allowed {}.", vesicle.getStringIdentifier(),
+                        Environment.convertSimulationToSystemScale(totalDisplacement.getMagnitude()).to(displacementEpsilon.getUnit()), displacementEpsilon);
                 return false;
             }
         }
@@ -167,81 +254,95 @@ public class VesicleLayer {
         // clear previous vesicle associations
         vesicles.forEach(Vesicle::clearAssociatedNodes);
         // associate vesicles to nodes
-        vesicles.forEach(this::associateVesicle);
+        NodeLocator locator = simulation.getGraph().getNodeLocator();
+        if (parallelAssociation) {
+            ScalingContext context = ScalingContext.current();
+            EntityIndex entityIndex = EntityIndex.current();
+            vesicles.parallelStream().forEach(vesicle -> {
+                ScalingContext previousContext = ScalingContext.bind(context);
+                EntityIndex previousIndex = EntityIndex.bind(entityIndex);
+                try {
+                    associateVesicle(vesicle, locator);
+                } finally {
+                    ScalingContext.bind(previousContext);
+                    EntityIndex.bind(previousIndex);
+                }
+            });
+        } else {
+            vesicles.forEach(vesicle -> associateVesicle(vesicle, locator));
+        }
     }
 
-    private void associateVesicle(Vesicle vesicle) {
+    private void associateVesicle(Vesicle vesicle, NodeLocator locator) {
         // convert vesicle from system to simulation scale
         Circle vesicleCircle = vesicle.getCircleRepresentation();
         double vesicleRadius = vesicleCircle.getRadius();
         Vector2D vesicleCentre = vesicleCircle.getMidpoint();
         // determine the node that contains the vesicle
+        // associate vesicle to the node with the largest part of the vesicle (midpoint is inside)
         AutomatonGraph graph = simulation.getGraph();
-        for (AutomatonNode node : graph.getNodes()) {
+        AutomatonNode node = locator.locate(vesicle.getPosition());
+        if (node != null) {
             // get representative region of the node
             Polygon polygon = node.getSpatialRepresentation();
-            // associate vesicle to the node with the largest part of the vesicle (midpoint is inside)
-            if (polygon.isInside(vesicle.getPosition())) {
-                // check if vesicle intersects with more than two regions at once
-                for (Vector2D polygonVertex : polygon.getVertices()) {
-                    // this is the case if the distance to the edge is smaller than the radius
-                    if (vesicleCentre.distanceTo(polygonVertex) < vesicleRadius) {
-                        Map<MooreRectangularDirection, Double> slices = Spheres.calculateSphereSlice(vesicleCentre, vesicleRadius, polygonVertex);
-                        // get biggest slice, this is the representative node
-                        MooreRectangularDirection coordinateDirection = null;
-                        double biggestSurface = 0;
-                        for (Map.Entry<MooreRectangularDirection, Double> entry : slices.entrySet()) {
-                            if (entry.getValue() > biggestSurface) {
-                                coordinateDirection = entry.getKey();
-                                biggestSurface = entry.getValue();
-                            }
+            // check if vesicle intersects with more than two regions at once
+            for (Vector2D polygonVertex : polygon.getVertices()) {
+                // this is the case if the distance to the edge is smaller than the radius
+                if (vesicleCentre.distanceTo(polygonVertex) < vesicleRadius) {
+                    Map<MooreRectangularDirection, Double> slices = Spheres.calculateSphereSlice(vesicleCentre, vesicleRadius, polygonVertex);
+                    // get biggest slice, this is the representative node
+                    MooreRectangularDirection coordinateDirection = null;
+                    double biggestSurface = 0;
+                    for (Map.Entry<MooreRectangularDirection, Double> entry : slices.entrySet()) {
+                        if (entry.getValue() > biggestSurface) {
+                            coordinateDirection = entry.getKey();
+                            biggestSurface = entry.getValue();
                         }
-                        if (coordinateDirection == null) {
-                            throw new IllegalStateException("Tried to associate vesicle " + vesicle + " with " + node + " but no areas could be determined.");
-                        }
-                        // assign other corresponding nodes to neighbors
-                        for (Map.Entry<MooreRectangularDirection, Double> entry : slices.entrySet()) {
-                            RectangularCoordinate neighbor = MooreRectangularDirection.getNeighborOf(node.getIdentifier(), coordinateDirection, entry.getKey());
-                            vesicle.addAssociatedNode(graph.getNode(neighbor), entry.getValue());
-                        }
-                        // all neighbors have been associated
-                        return;
                     }
+                    if (coordinateDirection == null) {
+                        throw new IllegalStateException("Tried to associate vesicle " + vesicle + " with " + node + " but no areas could be determined.");
+                    }
+                    // assign other corresponding nodes to neighbors
+                    for (Map.Entry<MooreRectangularDirection, Double> entry : slices.entrySet()) {
+                        RectangularCoordinate neighbor = MooreRectangularDirection.getNeighborOf(node.getIdentifier(), coordinateDirection, entry.getKey());
+                        vesicle.addAssociatedNode(graph.getNode(neighbor), entry.getValue());
+                    }
+                    // all neighbors have been associated
+                    return;
                 }
-                // (else) check if vesicle intersects with exactly two regions
-                double totalSurface = Spheres.calculateSurface(vesicleRadius);
-                for (LineSegment polygonEdge : polygon.getEdges()) {
-                    // this is the case if there are at least two intersections
-                    Set<Vector2D> intersection = polygonEdge.getIntersectionWith(vesicleCircle);
-                    if (intersection.size() > 1) {
-                        Iterator<Vector2D> iterator = intersection.iterator();
-                        LineSegment sliceSegment = new SimpleLineSegment(iterator.next(), iterator.next());
-                        double sliceSurface = Spheres.calculateSphereSlice(vesicleCentre, vesicleRadius, sliceSegment) / totalSurface;
-                        double remainingSurface = 1 - sliceSurface;
-                        if (sliceSegment.isVertical()) {
-                            if (sliceSegment.getStartingPoint().isLeftOf(node.getPosition())) {
-                                vesicle.addAssociatedNode(node, remainingSurface);
-                                vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.WEST)), sliceSurface);
-                            } else {
-                                vesicle.addAssociatedNode(node, remainingSurface);
-                                vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.EAST)), sliceSurface);
-                            }
+            }
+            // (else) check if vesicle intersects with exactly two regions
+            double totalSurface = Spheres.calculateSurface(vesicleRadius);
+            for (LineSegment polygonEdge : polygon.getEdges()) {
+                // this is the case if there are at least two intersections
+                Set<Vector2D> intersection = polygonEdge.getIntersectionWith(vesicleCircle);
+                if (intersection.size() > 1) {
+                    Iterator<Vector2D> iterator = intersection.iterator();
+                    LineSegment sliceSegment = new SimpleLineSegment(iterator.next(), iterator.next());
+                    double sliceSurface = Spheres.calculateSphereSlice(vesicleCentre, vesicleRadius, sliceSegment) / totalSurface;
+                    double remainingSurface = 1 - sliceSurface;
+                    if (sliceSegment.isVertical()) {
+                        if (sliceSegment.getStartingPoint().isLeftOf(node.getPosition())) {
+                            vesicle.addAssociatedNode(node, remainingSurface);
+                            vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.WEST)), sliceSurface);
                         } else {
-                            if (sliceSegment.getStartingPoint().isBelow(node.getPosition())) {
-                                vesicle.addAssociatedNode(node, remainingSurface);
-                                vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.SOUTH)), sliceSurface);
-                            } else {
-                                vesicle.addAssociatedNode(node, remainingSurface);
-                                vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.NORTH)), sliceSurface);
-                            }
+                            vesicle.addAssociatedNode(node, remainingSurface);
+                            vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.EAST)), sliceSurface);
+                        }
+                    } else {
+                        if (sliceSegment.getStartingPoint().isBelow(node.getPosition())) {
+                            vesicle.addAssociatedNode(node, remainingSurface);
+                            vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.SOUTH)), sliceSurface);
+                        } else {
+                            vesicle.addAssociatedNode(node, remainingSurface);
+                            vesicle.addAssociatedNode(graph.getNode(node.getIdentifier().getNeighbour(NeumannRectangularDirection.NORTH)), sliceSurface);
                         }
-                        return;
                     }
+                    return;
                 }
-                // else the vesicle if fully contained
-                vesicle.addAssociatedNode(node, 1.0);
-                return;
             }
+            // else the vesicle if fully contained
+            vesicle.addAssociatedNode(node, 1.0);
         }
     }
 
@@ -252,6 +353,7 @@ public class VesicleLayer {
             vesicle.clearPotentialDisplacementDeltas();
             vesicle.resetNextPosition();
         }
+        displacements.clearDeltas();
     }
 
     public void applyDeltas() {
@@ -260,6 +362,8 @@ public class VesicleLayer {
             vesicle.clearPotentialDisplacementDeltas();
             vesicle.updatePosition();
         }
+        displacements.clearDeltas();
+        displacements.invalidate();
     }
 
 }
@@ -1,5 +1,8 @@
 package bio.singa.simulation.model.agents.surfacelike;
 
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.algorithms.geometry.SegmentIndex;
 import bio.singa.simulation.model.agents.linelike.MicrotubuleOrganizingCentre;
 
 import java.util.ArrayList;
@@ -15,6 +18,11 @@ public class MembraneLayer {
 
     private MicrotubuleOrganizingCentre microtubuleOrganizingCentre;
 
+    /**
+     * The index of all membrane segments, using the node distance as cell size.
+     */
+    private SegmentIndex<MembraneSegment> segmentIndex;
+
     public MembraneLayer() {
         membranes = new ArrayList<>();
     }
@@ -33,10 +41,37 @@ public class MembraneLayer {
 
     public void addMembrane(Membrane membrane) {
         membranes.add(membrane);
+        if (segmentIndex != null) {
+            segmentIndex.addAll(membrane.getSegments());
+        }
     }
 
     public void addMembranes(Collection<Membrane> membranes) {
-        this.membranes.addAll(membranes);
+        membranes.forEach(this::addMembrane);
+    }
+
+    /**
+     * Returns the index of the segments of all membranes. The index is created on first access and recreated if the
+     * node distance changed. If segments of membranes are changed, the index has to be invalidated.
+     *
+     * @return The segment index.
+     */
+    public SegmentIndex<MembraneSegment> getSegmentIndex() {
+        double cellSize = Environment.convertSystemToSimulationScale(UnitRegistry.getSpace());
+        if (segmentIndex == null || segmentIndex.getCellSize() != cellSize) {
+            segmentIndex = new SegmentIndex<>(cellSize);
+            for (Membrane membrane : membranes) {
+                segmentIndex.addAll(membrane.getSegments());
+            }
+        }
+        return segmentIndex;
+    }
+
+    /**
+     * Discards the segment index, this is required if membrane segments changed.
+     */
+    public void invalidateSegmentIndex() {
+        segmentIndex = null;
     }
 
 }
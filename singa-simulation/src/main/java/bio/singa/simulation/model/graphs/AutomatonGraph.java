@@ -26,6 +26,11 @@ public class AutomatonGraph extends AbstractGridGraph<AutomatonNode, AutomatonEd
      */
     private final Map<String, CellRegion> cellRegions;
 
+    /**
+     * The locator of nodes by position, created on demand.
+     */
+    private NodeLocator nodeLocator;
+
     /**
      * Creates a new empty graph, initialized with node and edge capacity.
      *
@@ -75,4 +80,24 @@ public class AutomatonGraph extends AbstractGridGraph<AutomatonNode, AutomatonEd
         cellRegions.put(cellSection.getIdentifier(), cellSection);
     }
 
+    /**
+     * Returns the {@link NodeLocator} for the current spatial representations of the nodes. The locator is created on
+     * first access and has to be invalidated if spatial representations change.
+     *
+     * @return The node locator.
+     */
+    public NodeLocator getNodeLocator() {
+        if (nodeLocator == null) {
+            nodeLocator = NodeLocator.of(this);
+        }
+        return nodeLocator;
+    }
+
+    /**
+     * Discards the node locator, this is required if the spatial representations of the nodes changed.
+     */
+    public void invalidateNodeLocator() {
+        nodeLocator = null;
+    }
+
 }
@@ -0,0 +1,295 @@
+package bio.singa.simulation.model.graphs;
+
+import bio.singa.mathematics.geometry.model.Polygon;
+import bio.singa.mathematics.vectors.Vector2D;
+
+import java.util.*;
+
+/**
+ * The node locator determines the {@link AutomatonNode}, whose spatial representation contains a given position.
+ * The bounding box of all spatial representations is divided into square cells, each cell references the nodes, whose
+ * spatial representations overlap with the cell. The cell size is derived from the smallest spatial representation,
+ * such that only few candidates remain for each cell. If a cell is covered by an axis aligned rectangular
+ * representation, that does not overlap with any other candidate of the cell (e.g. for rectangular graphs), positions
+ * inside of the rectangle are resolved by a direct coordinate lookup without any polygon test. Positions on the
+ * borders of the rectangle and positions in cells of irregular (e.g. Voronoi) representations are resolved by testing
+ * the candidates of the cell. The locator has to be recreated if the spatial representations change.
+ *
+ * @author cl
+ */
+public class NodeLocator {
+
+    /**
+     * The maximal number of cells per node.
+     */
+    private static final int MAXIMAL_CELLS_PER_NODE = 4;
+
+    private static final AutomatonNode[] NO_NODES = new AutomatonNode[0];
+
+    private final AutomatonGraph graph;
+    private final double originX;
+    private final double originY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * The candidate nodes of each cell (in the order of {@link AutomatonGraph#getNodes()}).
+     */
+    private final AutomatonNode[][] cells;
+
+    /**
+     * The node, whose rectangular representation covers each cell without overlapping with other candidates, or null
+     * if the candidates of the cell need to be tested.
+     */
+    private final AutomatonNode[] directNodes;
+
+    /**
+     * The bounding boxes of the direct nodes of each cell (minimal x, minimal y, maximal x, maximal y).
+     */
+    private final double[][] directBoxes;
+
+    private NodeLocator(AutomatonGraph graph, double originX, double originY, double cellSize, int columns, int rows) {
+        this.graph = graph;
+        this.originX = originX;
+        this.originY = originY;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+        cells = new AutomatonNode[columns * rows][];
+        directNodes = new AutomatonNode[columns * rows];
+        directBoxes = new double[columns * rows][];
+    }
+
+    /**
+     * Creates a locator for the current spatial representations of the nodes of the graph.
+     *
+     * @param graph The graph.
+     * @return The locator.
+     */
+    public static NodeLocator of(AutomatonGraph graph) {
+        List<AutomatonNode> nodes = new ArrayList<>();
+        List<double[]> boxes = new ArrayList<>();
+        double minimalX = Double.POSITIVE_INFINITY;
+        double minimalY = Double.POSITIVE_INFINITY;
+        double maximalX = Double.NEGATIVE_INFINITY;
+        double maximalY = Double.NEGATIVE_INFINITY;
+        double smallestExtend = Double.POSITIVE_INFINITY;
+        for (AutomatonNode node : graph.getNodes()) {
+            Polygon polygon = node.getSpatialRepresentation();
+            if (polygon == null || polygon.getVertices().isEmpty()) {
+                continue;
+            }
+            double[] box = boundingBox(polygon);
+            nodes.add(node);
+            boxes.add(box);
+            minimalX = Math.min(minimalX, box[0]);
+            minimalY = Math.min(minimalY, box[1]);
+            maximalX = Math.max(maximalX, box[2]);
+            maximalY = Math.max(maximalY, box[3]);
+            double extend = Math.min(box[2] - box[0], box[3] - box[1]);
+            if (extend > 0) {
+                smallestExtend = Math.min(smallestExtend, extend);
+            }
+        }
+        if (nodes.isEmpty()) {
+            return new NodeLocator(graph, 0.0, 0.0, 1.0, 0, 0);
+        }
+        if (Double.isInfinite(smallestExtend)) {
+            smallestExtend = Math.max(Math.max(maximalX - minimalX, maximalY - minimalY), 1.0);
+        }
+        // limit the number of cells for very unevenly sized representations
+        double cellSize = smallestExtend;
+        while (cellCount(minimalX, minimalY, maximalX, maximalY, cellSize) > (long) MAXIMAL_CELLS_PER_NODE * nodes.size()) {
+            cellSize *= 2;
+        }
+        int columns = (int) Math.floor((maximalX - minimalX) / cellSize) + 1;
+        int rows = (int) Math.floor((maximalY - minimalY) / cellSize) + 1;
+        NodeLocator locator = new NodeLocator(graph, minimalX, minimalY, cellSize, columns, rows);
+
+        // collect candidates, representations are closed, cells are half open
+        List<List<Integer>> candidates = new ArrayList<>(columns * rows);
+        for (int cell = 0; cell < columns * rows; cell++) {
+            candidates.add(null);
+        }
+        for (int index = 0; index < nodes.size(); index++) {
+            double[] box = boxes.get(index);
+            int firstColumn = locator.column(box[0]);
+            int lastColumn = locator.column(box[2]);
+            int firstRow = locator.row(box[1]);
+            int lastRow = locator.row(box[3]);
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                for (int row = firstRow; row <= lastRow; row++) {
+                    int cell = row * columns + column;
+                    if (candidates.get(cell) == null) {
+                        candidates.set(cell, new ArrayList<>(1));
+                    }
+                    candidates.get(cell).add(index);
+                }
+            }
+        }
+        for (int cell = 0; cell < candidates.size(); cell++) {
+            List<Integer> cellCandidates = candidates.get(cell);
+            if (cellCandidates == null) {
+                locator.cells[cell] = NO_NODES;
+                continue;
+            }
+            AutomatonNode[] cellNodes = new AutomatonNode[cellCandidates.size()];
+            for (int candidate = 0; candidate < cellNodes.length; candidate++) {
+                cellNodes[candidate] = nodes.get(cellCandidates.get(candidate));
+            }
+            locator.cells[cell] = cellNodes;
+            locator.determineDirectNode(cell, cellCandidates, nodes, boxes);
+        }
+        return locator;
+    }
+
+    /**
+     * Determines the node, whose representation is an axis aligned rectangle covering the cell, that does not overlap
+     * with the representation of any other candidate of the cell.
+     *
+     * @param cell The cell.
+     * @param cellCandidates The indices of the candidates of the cell.
+     * @param nodes The nodes.
+     * @param boxes The bounding boxes of the nodes.
+     */
+    private void determineDirectNode(int cell, List<Integer> cellCandidates, List<AutomatonNode> nodes, List<double[]> boxes) {
+        double cellMinimalX = originX + (cell % columns) * cellSize;
+        double cellMinimalY = originY + (cell / columns) * cellSize;
+        for (int index : cellCandidates) {
+            double[] box = boxes.get(index);
+            if (box[0] > cellMinimalX || box[1] > cellMinimalY || box[2] < cellMinimalX + cellSize || box[3] < cellMinimalY + cellSize) {
+                continue;
+            }
+            if (!isAxisAlignedRectangle(nodes.get(index).getSpatialRepresentation(), box)) {
+                continue;
+            }
+            boolean overlapping = false;
+            for (int otherIndex : cellCandidates) {
+                double[] otherBox = boxes.get(otherIndex);
+                if (otherIndex != index && otherBox[0] < box[2] && otherBox[2] > box[0] && otherBox[1] < box[3] && otherBox[3] > box[1]) {
+                    overlapping = true;
+                    break;
+                }
+            }
+            if (!overlapping) {
+                directNodes[cell] = nodes.get(index);
+                directBoxes[cell] = box;
+            }
+            return;
+        }
+    }
+
+    private static boolean isAxisAlignedRectangle(Polygon polygon, double[] box) {
+        if (polygon.getVertices().size() != 4) {
+            return false;
+        }
+        for (Vector2D vertex : polygon.getVertices()) {
+            if ((vertex.getX() != box[0] && vertex.getX() != box[2]) || (vertex.getY() != box[1] && vertex.getY() != box[3])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double[] boundingBox(Polygon polygon) {
+        double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (Vector2D vertex : polygon.getVertices()) {
+            box[0] = Math.min(box[0], vertex.getX());
+            box[1] = Math.min(box[1], vertex.getY());
+            box[2] = Math.max(box[2], vertex.getX());
+            box[3] = Math.max(box[3], vertex.getY());
+        }
+        return box;
+    }
+
+    private static long cellCount(double minimalX, double minimalY, double maximalX, double maximalY, double cellSize) {
+        return ((long) Math.floor((maximalX - minimalX) / cellSize) + 1) * ((long) Math.floor((maximalY - minimalY) / cellSize) + 1);
+    }
+
+    /**
+     * Returns the graph, whose nodes are located.
+     *
+     * @return The graph.
+     */
+    public AutomatonGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Returns the first node (in the order of {@link AutomatonGraph#getNodes()}), whose spatial representation
+     * contains the position, or null if the position is outside of all spatial representations.
+     *
+     * @param position The position.
+     * @return The node containing the position.
+     */
+    public AutomatonNode locate(Vector2D position) {
+        int column = column(position.getX());
+        int row = row(position.getY());
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            return null;
+        }
+        int cell = row * columns + column;
+        if (resolvesDirectly(cell, position)) {
+            return directNodes[cell];
+        }
+        for (AutomatonNode node : cells[cell]) {
+            if (node.getSpatialRepresentation().isInside(position)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all nodes, whose spatial representations may overlap with the given box. This includes all nodes
+     * containing any point of the box.
+     *
+     * @param minimalX The minimal x coordinate.
+     * @param minimalY The minimal y coordinate.
+     * @param maximalX The maximal x coordinate.
+     * @param maximalY The maximal y coordinate.
+     * @return The candidate nodes.
+     */
+    public Set<AutomatonNode> getCandidates(double minimalX, double minimalY, double maximalX, double maximalY) {
+        Set<AutomatonNode> candidates = new LinkedHashSet<>();
+        int firstColumn = Math.max(column(minimalX), 0);
+        int lastColumn = Math.min(column(maximalX), columns - 1);
+        int firstRow = Math.max(row(minimalY), 0);
+        int lastRow = Math.min(row(maximalY), rows - 1);
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                Collections.addAll(candidates, cells[row * columns + column]);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns true if the position is resolved by a direct coordinate lookup, without testing the candidates of its
+     * cell.
+     *
+     * @param position The position.
+     * @return True if the position is resolved directly.
+     */
+    boolean resolvesDirectly(Vector2D position) {
+        int column = column(position.getX());
+        int row = row(position.getY());
+        return column >= 0 && column < columns && row >= 0 && row < rows && resolvesDirectly(row * columns + column, position);
+    }
+
+    private boolean resolvesDirectly(int cell, Vector2D position) {
+        double[] box = directBoxes[cell];
+        // positions on the border may be contained in multiple representations
+        return box != null && position.getX() > box[0] && position.getX() < box[2] && position.getY() > box[1] && position.getY() < box[3];
+    }
+
+    private int column(double x) {
+        return (int) Math.floor((x - originX) / cellSize);
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y - originY) / cellSize);
+    }
+
+}
@@ -10,6 +10,9 @@ import bio.singa.simulation.model.modules.concentration.functions.AbstractDeltaF
 import bio.singa.simulation.model.modules.concentration.scope.UpdateScope;
 import bio.singa.simulation.model.modules.concentration.specifity.UpdateSpecificity;
 import bio.singa.simulation.model.parameters.FeatureManager;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.simulation.ActivityTracker;
+import bio.singa.simulation.model.simulation.ModuleMetrics;
 import bio.singa.simulation.model.simulation.Simulation;
 import bio.singa.simulation.model.simulation.Updatable;
 import bio.singa.simulation.model.simulation.UpdateScheduler;
@@ -104,6 +107,21 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
      */
     private Set<ChemicalEntity> referencedChemicalEntities;
 
+    /**
+     * True if only updatables determined by the {@link ActivityTracker} are processed.
+     */
+    private boolean activityTracking;
+
+    /**
+     * True if only full step deltas are calculated as stages of an embedded integration scheme.
+     */
+    private volatile boolean stageCalculation;
+
+    /**
+     * The metrics of this module, null if no metrics are collected.
+     */
+    private ModuleMetrics metrics;
+
     /**
      * Creates a new concentration based module.
      */
@@ -124,6 +142,7 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
     @Override
     public void run() {
         UpdateScheduler scheduler = getSimulation().getScheduler();
+        metrics = getSimulation().getMetrics().isEnabled() ? getSimulation().getMetrics().getModuleMetrics(this) : null;
         while (state == PENDING || state == REQUIRING_RECALCULATION) {
             switch (state) {
                 case PENDING:
@@ -143,8 +162,6 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
                     break;
             }
         }
-        scheduler.getCountDownLatch().countDown();
-        logger.debug("Module finished {}, latch at {}.", Thread.currentThread().getName(), scheduler.getCountDownLatch().getCount());
     }
 
     /**
@@ -240,6 +257,62 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
         this.errorCutoff = errorCutoff;
     }
 
+    /**
+     * Returns true if only updatables are processed, where concentrations of the updatable or its neighbours changed
+     * or where this module contributed deltas in the previous epoch (see {@link ActivityTracker}).
+     *
+     * @return True if activity tracking is used.
+     */
+    public boolean isActivityTracking() {
+        return activityTracking;
+    }
+
+    /**
+     * Sets whether only updatables are processed, where concentrations of the updatable or its neighbours changed
+     * or where this module contributed deltas in the previous epoch (see {@link ActivityTracker}). This should only
+     * be used for modules whose deltas depend solely on concentrations.
+     *
+     * @param activityTracking True if activity tracking should be used.
+     */
+    public void setActivityTracking(boolean activityTracking) {
+        this.activityTracking = activityTracking;
+    }
+
+    /**
+     * Returns true if only full step deltas are calculated as a stage of an embedded integration scheme (see
+     * {@link bio.singa.simulation.model.simulation.EmbeddedRungeKuttaIntegrator}).
+     *
+     * @return True if stages are calculated.
+     */
+    public boolean isStageCalculation() {
+        return stageCalculation;
+    }
+
+    /**
+     * Sets whether only full step deltas are calculated as a stage of an embedded integration scheme. During stage
+     * calculations, full deltas are directly assigned as potential deltas and neither half step deltas nor local
+     * errors are determined.
+     *
+     * @param stageCalculation True if stages are calculated.
+     */
+    public void setStageCalculation(boolean stageCalculation) {
+        this.stageCalculation = stageCalculation;
+    }
+
+    /**
+     * Returns the updatables that need to be processed by this module in the current epoch. If activity tracking is
+     * used, these are the active updatables determined by the {@link ActivityTracker}, otherwise all updatables of
+     * the simulation.
+     *
+     * @return The updatables that need to be processed.
+     */
+    public Collection<Updatable> getActiveUpdatables() {
+        if (activityTracking) {
+            return simulation.getActivityTracker().getActiveUpdatables(this);
+        }
+        return simulation.getUpdatables();
+    }
+
     /**
      * Returns the referenced simulation.
      *
@@ -333,29 +406,68 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
      * @param delta The delta itself.
      */
     public void handleDelta(ConcentrationDeltaIdentifier deltaIdentifier, ConcentrationDelta delta) {
-        logDelta(deltaIdentifier, delta);
-        if (supplier.isStrutCalculation()) {
-            delta = delta.multiply(2.0);
-            supplier.getCurrentHalfDeltas().put(deltaIdentifier, delta);
-            deltaIdentifier.getUpdatable().addPotentialDelta(delta);
+        handleDelta(deltaIdentifier.getUpdatable(), deltaIdentifier.getSubsection(), delta);
+    }
+
+    /**
+     * Handles a delta based on the current state of the calculation. Full deltas are only buffered, half deltas are
+     * buffered and additionally assigned to the updatable as potential delta. During stage calculations full deltas
+     * are assigned as potential deltas without buffering, such that no half step deltas are calculated.
+     *
+     * @param updatable The updatable the delta is applied to.
+     * @param subsection The subsection the delta is applied to.
+     * @param delta The delta itself.
+     */
+    public void handleDelta(Updatable updatable, CellSubsection subsection, ConcentrationDelta delta) {
+        handleDelta(updatable, subsection, delta.getModule(), delta.getChemicalEntity(), delta.getValue());
+    }
+
+    /**
+     * Handles a delta given as value based on the current state of the calculation (see
+     * {@link #handleDelta(Updatable, CellSubsection, ConcentrationDelta)}). No {@link ConcentrationDelta} is created,
+     * such that delta functions can avoid allocations.
+     *
+     * @param updatable The updatable the delta is applied to.
+     * @param subsection The subsection the delta is applied to.
+     * @param entity The chemical entity.
+     * @param value The value of the delta.
+     */
+    public void handleDelta(Updatable updatable, CellSubsection subsection, ChemicalEntity entity, double value) {
+        handleDelta(updatable, subsection, this, entity, value);
+    }
+
+    private void handleDelta(Updatable updatable, CellSubsection subsection, UpdateModule module, ChemicalEntity entity, double value) {
+        if (logger.isTraceEnabled()) {
+            logDelta(updatable, subsection, entity, value);
+        }
+        if (metrics != null) {
+            metrics.recordProducedDelta();
+        }
+        if (stageCalculation) {
+            supplier.addPotentialDelta(updatable, module, subsection, entity, value);
+        } else if (supplier.isStrutCalculation()) {
+            supplier.getDeltaBuffer().putHalfDelta(updatable, subsection, entity, 2.0 * value);
+            supplier.addPotentialDelta(updatable, module, subsection, entity, 2.0 * value);
         } else {
-            supplier.getCurrentFullDeltas().put(deltaIdentifier, delta);
+            supplier.getDeltaBuffer().putFullDelta(updatable, subsection, entity, value);
         }
     }
 
     /**
      * Produces a log massage for the given update.
      *
-     * @param deltaIdentifier THe delta identifier.
-     * @param delta The delta.
+     * @param updatable The updatable.
+     * @param subsection The subsection.
+     * @param entity The chemical entity.
+     * @param value The value of the delta.
      */
-    private void logDelta(ConcentrationDeltaIdentifier deltaIdentifier, ConcentrationDelta delta) {
+    private void logDelta(Updatable updatable, CellSubsection subsection, ChemicalEntity entity, double value) {
         logger.trace("{} delta for {} in {}:{} = {}",
                 supplier.isStrutCalculation() ? "Half" : "Full",
-                deltaIdentifier.getEntity().getIdentifier(),
-                deltaIdentifier.getUpdatable().getStringIdentifier(),
-                deltaIdentifier.getSubsection().getIdentifier(),
-                delta.getValue());
+                entity.getIdentifier(),
+                updatable.getStringIdentifier(),
+                subsection.getIdentifier(),
+                value);
     }
 
     /**
@@ -368,6 +480,16 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
         return deltaIsNotZero(delta) && deltaIsAboveNumericCutoff(delta);
     }
 
+    /**
+     * Returns true if the value of a delta is valid, i.e. it is not zero and nor below the numerical threshold.
+     *
+     * @param value The value of the delta to be evaluated.
+     * @return true if the value of a delta is valid, i.e. it is not zero and nor below the numerical threshold.
+     */
+    public boolean deltaIsValid(double value) {
+        return value != 0.0 && Math.abs(value) > deltaCutoff;
+    }
+
     /**
      * Returns true if the delta is not zero.
      *
@@ -400,11 +522,12 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
      * instability.
      */
     public LocalError determineLargestLocalError() {
+        ConcentrationDeltaBuffer deltaBuffer = supplier.getDeltaBuffer();
         // no deltas mean this module did not change anything in the course of this simulation step
-        if (supplier.getCurrentFullDeltas().isEmpty()) {
+        if (deltaBuffer.hasNoFullDeltas()) {
             return LocalError.MINIMAL_EMPTY_ERROR;
         }
-        if (supplier.getCurrentFullDeltas().size() != supplier.getCurrentHalfDeltas().size()) {
+        if (deltaBuffer.getNumberOfFullDeltas() != deltaBuffer.getNumberOfHalfDeltas()) {
             logger.trace("The deltas that should be applied have fallen below " +
                     "the threshold of " + deltaCutoff + ". (Module: " + getIdentifier() + ")");
             return LocalError.MINIMAL_EMPTY_ERROR;
@@ -412,25 +535,30 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
 
         // compare full and half deltas
         double largestLocalError = -Double.MAX_VALUE;
-        ConcentrationDeltaIdentifier largestIdentifier = null;
+        int largestSlot = -1;
         double associatedDelta = 0.0;
-        for (ConcentrationDeltaIdentifier identifier : supplier.getCurrentFullDeltas().keySet()) {
-            double fullDelta = supplier.getCurrentFullDeltas().get(identifier).getValue();
-            double halfDelta = supplier.getCurrentHalfDeltas().get(identifier).getValue();
+        for (int slot = 0; slot < deltaBuffer.size(); slot++) {
+            if (!deltaBuffer.hasFullDelta(slot)) {
+                continue;
+            }
+            double fullDelta = deltaBuffer.getFullDelta(slot);
+            double halfDelta = deltaBuffer.getHalfDelta(slot);
             // calculate error
             double localError = Math.abs(1 - (fullDelta / halfDelta));
             // check for numerical instabilities
             checkErrorStability(fullDelta, halfDelta, localError);
             // determine the largest error in the current deltas
             if (largestLocalError < localError) {
-                largestIdentifier = identifier;
+                largestSlot = slot;
                 largestLocalError = localError;
                 associatedDelta = fullDelta;
             }
         }
         // safety check
-        Objects.requireNonNull(largestIdentifier);
-        LocalError localError = new LocalError(largestIdentifier.getUpdatable(), largestIdentifier.getEntity(), largestLocalError);
+        if (largestSlot == -1) {
+            throw new IllegalStateException("No local error could be determined for " + getIdentifier() + ".");
+        }
+        LocalError localError = new LocalError(deltaBuffer.getUpdatable(largestSlot), deltaBuffer.getEntity(largestSlot), largestLocalError);
         // set local error and return local error
         simulation.getScheduler().setLargestLocalError(localError, this, associatedDelta);
         return localError;
@@ -453,9 +581,35 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
     }
 
 
+    /**
+     * Returns true if this module is able to determine the derivatives of its deltas (see
+     * {@link #determineJacobian(Updatable, ConcentrationJacobian)}). Implicit integration schemes only treat modules
+     * providing a jacobian implicitly.
+     *
+     * @return True if this module provides a jacobian.
+     */
+    public boolean providesJacobian() {
+        return false;
+    }
+
+    /**
+     * Adds the derivatives of the deltas this module calculates for the updatable with respect to the current
+     * concentrations of the updatable to the jacobian. By default no derivatives are added.
+     *
+     * @param updatable The updatable.
+     * @param jacobian The jacobian of the updatable.
+     */
+    public void determineJacobian(Updatable updatable, ConcentrationJacobian jacobian) {
+
+    }
+
     @Override
     public void calculateUpdates() {
-        scope.processAllUpdatables(simulation.getUpdatables());
+        Collection<Updatable> updatables = getActiveUpdatables();
+        scope.processAllUpdatables(updatables);
+        if (metrics != null) {
+            metrics.recordProcessedUpdatables(updatables.size());
+        }
         evaluateModuleState();
     }
 
@@ -468,6 +622,9 @@ public abstract class ConcentrationBasedModule<DeltaFunctionType extends Abstrac
             // determine new local error with decreased time step
             simulation.getScheduler().decreaseTimeStep();
             scope.processUpdatable(updatable);
+            if (metrics != null) {
+                metrics.recordProcessedUpdatables(1);
+            }
             // evaluate module state by error
             evaluateModuleState();
         }
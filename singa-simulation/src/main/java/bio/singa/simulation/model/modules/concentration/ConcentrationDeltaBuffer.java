@@ -0,0 +1,343 @@
+package bio.singa.simulation.model.modules.concentration;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.EntityIndex;
+import bio.singa.simulation.model.simulation.Updatable;
+
+import java.util.Arrays;
+
+/**
+ * The concentration delta buffer stores the full and half step deltas a module calculates during one pass in
+ * primitive arrays. Each delta is addressed by its {@link Updatable}, {@link CellSubsection} and the
+ * {@link EntityIndex} of its {@link ChemicalEntity}. Deltas are kept in the order they have been added and can be
+ * accessed by their slot (0 to {@link #size()}). Clearing the buffer retains all arrays, such that no allocations are
+ * required once the buffer has grown to the number of deltas a module usually produces. Each module owns its buffer,
+ * it is not thread safe.
+ *
+ * @author cl
+ */
+public class ConcentrationDeltaBuffer {
+
+    /**
+     * The initial number of slots.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The updatables (compared by identity).
+     */
+    private Updatable[] updatables;
+
+    /**
+     * The subsections.
+     */
+    private CellSubsection[] subsections;
+
+    /**
+     * The entity indices.
+     */
+    private int[] entityIndices;
+
+    /**
+     * The full step deltas.
+     */
+    private double[] fullDeltas;
+
+    /**
+     * The half step deltas.
+     */
+    private double[] halfDeltas;
+
+    /**
+     * True if a full delta has been set for the slot.
+     */
+    private boolean[] hasFullDelta;
+
+    /**
+     * True if a half delta has been set for the slot.
+     */
+    private boolean[] hasHalfDelta;
+
+    /**
+     * The hash table referencing slots (offset by one, zero is empty).
+     */
+    private int[] table;
+
+    /**
+     * The bucket in the hash table of each slot.
+     */
+    private int[] buckets;
+
+    /**
+     * The number of used slots.
+     */
+    private int size;
+
+    /**
+     * The number of full deltas.
+     */
+    private int numberOfFullDeltas;
+
+    /**
+     * The number of half deltas.
+     */
+    private int numberOfHalfDeltas;
+
+    /**
+     * Creates a new, empty buffer.
+     */
+    public ConcentrationDeltaBuffer() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        updatables = new Updatable[capacity];
+        subsections = new CellSubsection[capacity];
+        entityIndices = new int[capacity];
+        fullDeltas = new double[capacity];
+        halfDeltas = new double[capacity];
+        hasFullDelta = new boolean[capacity];
+        hasHalfDelta = new boolean[capacity];
+        buckets = new int[capacity];
+        table = new int[capacity * 2];
+    }
+
+    /**
+     * Sets the full step delta, replacing any full delta previously set for the same target.
+     *
+     * @param updatable The updatable.
+     * @param subsection The subsection.
+     * @param entity The chemical entity.
+     * @param value The delta.
+     */
+    public void putFullDelta(Updatable updatable, CellSubsection subsection, ChemicalEntity entity, double value) {
+        int slot = slotOf(updatable, subsection, EntityIndex.current().indexOf(entity));
+        if (!hasFullDelta[slot]) {
+            hasFullDelta[slot] = true;
+            numberOfFullDeltas++;
+        }
+        fullDeltas[slot] = value;
+    }
+
+    /**
+     * Sets the half step delta, replacing any half delta previously set for the same target.
+     *
+     * @param updatable The updatable.
+     * @param subsection The subsection.
+     * @param entity The chemical entity.
+     * @param value The delta.
+     */
+    public void putHalfDelta(Updatable updatable, CellSubsection subsection, ChemicalEntity entity, double value) {
+        int slot = slotOf(updatable, subsection, EntityIndex.current().indexOf(entity));
+        if (!hasHalfDelta[slot]) {
+            hasHalfDelta[slot] = true;
+            numberOfHalfDeltas++;
+        }
+        halfDeltas[slot] = value;
+    }
+
+    /**
+     * Returns the slot for the given target, appending a new slot if the target was not yet referenced.
+     */
+    private int slotOf(Updatable updatable, CellSubsection subsection, int entityIndex) {
+        int mask = table.length - 1;
+        int bucket = hash(updatable, subsection, entityIndex) & mask;
+        while (true) {
+            int entry = table[bucket];
+            if (entry == 0) {
+                break;
+            }
+            int slot = entry - 1;
+            if (updatables[slot] == updatable && entityIndices[slot] == entityIndex && sameSubsection(subsections[slot], subsection)) {
+                return slot;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        if (size == updatables.length) {
+            grow();
+            return slotOf(updatable, subsection, entityIndex);
+        }
+        int slot = size++;
+        updatables[slot] = updatable;
+        subsections[slot] = subsection;
+        entityIndices[slot] = entityIndex;
+        buckets[slot] = bucket;
+        table[bucket] = slot + 1;
+        return slot;
+    }
+
+    private static boolean sameSubsection(CellSubsection first, CellSubsection second) {
+        return first == second || (first != null && first.equals(second));
+    }
+
+    private static int hash(Updatable updatable, CellSubsection subsection, int entityIndex) {
+        int hash = System.identityHashCode(updatable);
+        hash = 31 * hash + (subsection != null ? subsection.getIdentifier().hashCode() : 0);
+        hash = 31 * hash + entityIndex;
+        // spread bits
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        Updatable[] previousUpdatables = updatables;
+        CellSubsection[] previousSubsections = subsections;
+        int[] previousEntityIndices = entityIndices;
+        double[] previousFullDeltas = fullDeltas;
+        double[] previousHalfDeltas = halfDeltas;
+        boolean[] previousHasFullDelta = hasFullDelta;
+        boolean[] previousHasHalfDelta = hasHalfDelta;
+        int previousSize = size;
+        allocate(previousUpdatables.length * 2);
+        size = 0;
+        for (int previousSlot = 0; previousSlot < previousSize; previousSlot++) {
+            int slot = slotOf(previousUpdatables[previousSlot], previousSubsections[previousSlot], previousEntityIndices[previousSlot]);
+            fullDeltas[slot] = previousFullDeltas[previousSlot];
+            halfDeltas[slot] = previousHalfDeltas[previousSlot];
+            hasFullDelta[slot] = previousHasFullDelta[previousSlot];
+            hasHalfDelta[slot] = previousHasHalfDelta[previousSlot];
+        }
+    }
+
+    /**
+     * Returns the number of used slots.
+     *
+     * @return The number of used slots.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if no full delta has been set.
+     *
+     * @return True if no full delta has been set.
+     */
+    public boolean hasNoFullDeltas() {
+        return numberOfFullDeltas == 0;
+    }
+
+    /**
+     * Returns the number of full deltas.
+     *
+     * @return The number of full deltas.
+     */
+    public int getNumberOfFullDeltas() {
+        return numberOfFullDeltas;
+    }
+
+    /**
+     * Returns the number of half deltas.
+     *
+     * @return The number of half deltas.
+     */
+    public int getNumberOfHalfDeltas() {
+        return numberOfHalfDeltas;
+    }
+
+    /**
+     * Returns the updatable of the slot.
+     *
+     * @param slot The slot.
+     * @return The updatable of the slot.
+     */
+    public Updatable getUpdatable(int slot) {
+        return updatables[slot];
+    }
+
+    /**
+     * Returns the subsection of the slot.
+     *
+     * @param slot The slot.
+     * @return The subsection of the slot.
+     */
+    public CellSubsection getSubsection(int slot) {
+        return subsections[slot];
+    }
+
+    /**
+     * Returns the entity index of the slot.
+     *
+     * @param slot The slot.
+     * @return The entity index of the slot.
+     */
+    public int getEntityIndex(int slot) {
+        return entityIndices[slot];
+    }
+
+    /**
+     * Returns the chemical entity of the slot.
+     *
+     * @param slot The slot.
+     * @return The chemical entity of the slot.
+     */
+    public ChemicalEntity getEntity(int slot) {
+        return EntityIndex.current().getEntity(entityIndices[slot]);
+    }
+
+    /**
+     * Returns true if a full delta has been set for the slot.
+     *
+     * @param slot The slot.
+     * @return True if a full delta has been set for the slot.
+     */
+    public boolean hasFullDelta(int slot) {
+        return hasFullDelta[slot];
+    }
+
+    /**
+     * Returns true if a half delta has been set for the slot.
+     *
+     * @param slot The slot.
+     * @return True if a half delta has been set for the slot.
+     */
+    public boolean hasHalfDelta(int slot) {
+        return hasHalfDelta[slot];
+    }
+
+    /**
+     * Returns the full delta of the slot.
+     *
+     * @param slot The slot.
+     * @return The full delta of the slot.
+     */
+    public double getFullDelta(int slot) {
+        return fullDeltas[slot];
+    }
+
+    /**
+     * Returns the half delta of the slot.
+     *
+     * @param slot The slot.
+     * @return The half delta of the slot.
+     */
+    public double getHalfDelta(int slot) {
+        return halfDeltas[slot];
+    }
+
+    /**
+     * Removes all deltas, retaining the allocated arrays.
+     */
+    public void clear() {
+        for (int slot = 0; slot < size; slot++) {
+            table[buckets[slot]] = 0;
+            updatables[slot] = null;
+            subsections[slot] = null;
+            hasFullDelta[slot] = false;
+            hasHalfDelta[slot] = false;
+        }
+        size = 0;
+        numberOfFullDeltas = 0;
+        numberOfHalfDeltas = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcentrationDeltaBuffer{" +
+                "size=" + size +
+                ", fullDeltas=" + Arrays.toString(Arrays.copyOf(fullDeltas, size)) +
+                ", halfDeltas=" + Arrays.toString(Arrays.copyOf(halfDeltas, size)) +
+                '}';
+    }
+
+}
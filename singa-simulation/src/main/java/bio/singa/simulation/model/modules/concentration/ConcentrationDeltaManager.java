@@ -6,17 +6,30 @@ import bio.singa.features.quantities.MolarConcentration;
 import bio.singa.simulation.model.modules.UpdateModule;
 import bio.singa.simulation.model.sections.CellSubsection;
 import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.sections.ConcentrationPool;
+import bio.singa.simulation.model.sections.EntityIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * The ConcentrationDeltaManager handles current concentrations of an updatable and the updates to those
  * concentrations that should be applied during simulation.
+ * <p>
+ * Potential and final deltas are stored in primitive arrays. Each potential delta references a slot, i.e. a
+ * (subsection, entity) pair of the updatable, that is retained for the lifetime of the manager, such that deltas are
+ * accumulated per slot without creating {@link ConcentrationDelta}s. Deltas are added by concurrently running
+ * modules, therefore all methods handling deltas are synchronized on the manager.
+ * <p>
+ * During the evaluation of the global error, the half step and comparison concentrations are written to an overlay
+ * container. The overlay is copied from the original concentrations once per epoch (only the pools that are written
+ * to are copied, see {@link ConcentrationPool}) and only differs from them in the slots modified by deltas, which are
+ * restored before each evaluation. The interim (full step) concentrations are only kept for the modified slots, and
+ * the global error is only determined for those slots. Deltas that would reduce a concentration below zero are capped
+ * by scaling the deltas of the consuming modules, without repeating the evaluation.
  *
  * @author cl
  */
@@ -28,15 +41,19 @@ public class ConcentrationDeltaManager {
     private static final Logger logger = LoggerFactory.getLogger(ConcentrationDeltaManager.class);
 
     /**
-     * The current concentration, this is modified during calculations and might not be the actual value.
+     * The initial capacity of slots and deltas.
      */
-    private ConcentrationContainer currentConcentrations;
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The relative deviation below zero, that capped concentrations may have due to rounding.
+     */
+    private static final double CAP_TOLERANCE = 1e-10;
 
     /**
-     * A copy of the original concentrations used to calculate the full step concentrations for the evaluation of the
-     * global error.
+     * The current concentration, this is modified during calculations and might not be the actual value.
      */
-    private ConcentrationContainer interimConcentrations;
+    private ConcentrationContainer currentConcentrations;
 
     /**
      * A copy of the concentrations at the start of the global error evaluation to revert to if recalculations are
@@ -45,15 +62,125 @@ public class ConcentrationDeltaManager {
     private ConcentrationContainer originalConcentrations;
 
     /**
-     * A list of potential deltas.
+     * The container the half step and comparison concentrations are written to, it only differs from the original
+     * concentrations in overlaid slots.
+     */
+    private ConcentrationContainer overlayConcentrations;
+
+    /**
+     * The subsection of each slot.
+     */
+    private CellSubsection[] slotSubsections;
+
+    /**
+     * The entity index of each slot.
+     */
+    private int[] slotEntities;
+
+    /**
+     * The hash table referencing slots (offset by one, zero is empty).
+     */
+    private int[] slotTable;
+
+    /**
+     * The number of slots.
+     */
+    private int numberOfSlots;
+
+    /**
+     * True if a potential delta references the slot in the current evaluation.
+     */
+    private boolean[] touchedSlots;
+
+    /**
+     * The original concentration of each touched slot.
+     */
+    private double[] originalValues;
+
+    /**
+     * The sum of all potential deltas of each touched slot.
+     */
+    private double[] deltaSums;
+
+    /**
+     * The sum of the absolute values of all negative potential deltas of each touched slot.
+     */
+    private double[] consumptions;
+
+    /**
+     * The interim (full step) concentration of each slot.
+     */
+    private double[] interimValues;
+
+    /**
+     * True if the interim concentration of the slot has been determined.
+     */
+    private boolean[] interimSlots;
+
+    /**
+     * True if the comparison concentration of the slot has been determined.
+     */
+    private boolean[] comparisonSlots;
+
+    /**
+     * True if the slot has been written to the overlay concentrations.
+     */
+    private boolean[] overlaidSlots;
+
+    /**
+     * The modules of the potential deltas.
+     */
+    private UpdateModule[] potentialModules;
+
+    /**
+     * The slots of the potential deltas.
+     */
+    private int[] potentialSlots;
+
+    /**
+     * The values of the potential deltas.
+     */
+    private double[] potentialValues;
+
+    /**
+     * The number of potential deltas.
+     */
+    private int numberOfPotentialDeltas;
+
+    /**
+     * The modules of the deltas that are to be applied to the node.
+     */
+    private UpdateModule[] finalModules;
+
+    /**
+     * The slots of the deltas that are to be applied to the node.
+     */
+    private int[] finalSlots;
+
+    /**
+     * The values of the deltas that are to be applied to the node.
+     */
+    private double[] finalValues;
+
+    /**
+     * The number of final deltas.
      */
-    private final List<ConcentrationDelta> potentialDeltas;
+    private int numberOfFinalDeltas;
 
+    /**
+     * The modules whose deltas are capped.
+     */
+    private UpdateModule[] cappedModules;
 
     /**
-     * Deltas that are to be applied to the node.
+     * The factor the deltas of each capped module are scaled with.
      */
-    private final List<ConcentrationDelta> finalDeltas;
+    private double[] capFactors;
+
+    /**
+     * The number of capped modules.
+     */
+    private int numberOfCappedModules;
 
     /**
      * A flag signifying if this node is observed.
@@ -71,11 +198,18 @@ public class ConcentrationDeltaManager {
      * @param initialConcentrations The initial concentrations.
      */
     public ConcentrationDeltaManager(ConcentrationContainer initialConcentrations) {
-        finalDeltas = new ArrayList<>();
-        potentialDeltas = Collections.synchronizedList(new ArrayList<>());
         observed = false;
         concentrationFixed = false;
         currentConcentrations = initialConcentrations;
+        allocateSlots(0);
+        potentialModules = new UpdateModule[0];
+        potentialSlots = new int[0];
+        potentialValues = new double[0];
+        finalModules = new UpdateModule[0];
+        finalSlots = new int[0];
+        finalValues = new double[0];
+        cappedModules = new UpdateModule[0];
+        capFactors = new double[0];
     }
 
     /**
@@ -136,106 +270,364 @@ public class ConcentrationDeltaManager {
         this.concentrationFixed = concentrationFixed;
     }
 
-    public boolean hasDeltas() {
-        return !getFinalDeltas().isEmpty();
+    public synchronized boolean hasDeltas() {
+        return numberOfFinalDeltas > 0;
     }
 
-    public void setInterimAndUpdateCurrentConcentrations() {
-        boolean repeat;
-        do {
-            repeat = false;
-            currentConcentrations = originalConcentrations.fullCopy();
-            interimConcentrations = originalConcentrations.fullCopy();
-            for (ConcentrationDelta delta : potentialDeltas) {
-                // if delta would add a new entity do not consider it during stability evaluation
-                if (currentConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity()) == 0.0) {
-                    continue;
-                }
-                double updatedHalfConcentration = currentConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity()) + delta.getValue() * 0.5;
-                double updatedFullConcentration = interimConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity()) + delta.getValue();
-                if (updatedFullConcentration < 0.0) {
-                    capDeltas(delta.getModule(), delta);
-                    repeat = true;
-                    break;
+    /**
+     * Determines the interim concentrations by applying the full step deltas to the original concentrations and sets
+     * the current concentrations to the half step concentrations. Deltas that would reduce a concentration below zero
+     * are capped.
+     */
+    public synchronized void setInterimAndUpdateCurrentConcentrations() {
+        prepareOverlay();
+        Arrays.fill(interimSlots, 0, numberOfSlots, false);
+        Arrays.fill(comparisonSlots, 0, numberOfSlots, false);
+        accumulateDeltas();
+        // if delta would add a new entity do not consider it during stability evaluation
+        capDeltas(true);
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            if (!touchedSlots[slot] || originalValues[slot] == 0.0) {
+                continue;
+            }
+            interimValues[slot] = originalValues[slot] + deltaSums[slot];
+            interimSlots[slot] = true;
+            overlay(slot, originalValues[slot] + deltaSums[slot] * 0.5);
+        }
+        numberOfPotentialDeltas = 0;
+    }
+
+    /**
+     * Determines the comparison concentrations by applying the deltas calculated at the half step concentrations to
+     * the original concentrations. Deltas that would reduce a concentration below zero are capped.
+     */
+    public synchronized void determineComparisionConcentrations() {
+        prepareOverlay();
+        Arrays.fill(comparisonSlots, 0, numberOfSlots, false);
+        accumulateDeltas();
+        capDeltas(false);
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            if (!touchedSlots[slot]) {
+                continue;
+            }
+            // add to original (0) concentrations full delta (1) = 1
+            comparisonSlots[slot] = true;
+            overlay(slot, originalValues[slot] + deltaSums[slot]);
+        }
+    }
+
+    /**
+     * Restores the slots that have been written to the overlay concentrations and sets the overlay as current
+     * concentrations. The overlay is copied from the original concentrations, if it has not been created in this
+     * epoch.
+     */
+    private void prepareOverlay() {
+        if (overlayConcentrations == null) {
+            overlayConcentrations = originalConcentrations.fullCopy();
+            Arrays.fill(overlaidSlots, 0, numberOfSlots, false);
+        } else {
+            for (int slot = 0; slot < numberOfSlots; slot++) {
+                if (overlaidSlots[slot]) {
+                    overlayConcentrations.restore(slotSubsections[slot], slotEntities[slot], originalConcentrations);
+                    overlaidSlots[slot] = false;
                 }
-                currentConcentrations.set(delta.getCellSubsection(), delta.getChemicalEntity(), updatedHalfConcentration);
-                interimConcentrations.set(delta.getCellSubsection(), delta.getChemicalEntity(), updatedFullConcentration);
             }
-        } while (repeat);
-        potentialDeltas.clear();
+        }
+        currentConcentrations = overlayConcentrations;
     }
 
-    public void determineComparisionConcentrations() {
-        boolean repeat;
-        do {
-            repeat = false;
-            currentConcentrations = originalConcentrations.fullCopy();
-            for (ConcentrationDelta delta : potentialDeltas) {
-                // add to original (0) concentrations full delta (1) = 1
-                double updatedConcentration = currentConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity()) + delta.getValue();
-                if (updatedConcentration < 0.0) {
-                    // cap deltas such that the minimal value of the delta can be zero
-                    capDeltas(delta.getModule(), delta);
-                    repeat = true;
+    private void overlay(int slot, double concentration) {
+        overlayConcentrations.set(slotSubsections[slot], slotEntities[slot], concentration);
+        overlaidSlots[slot] = true;
+    }
+
+    private void discardOverlay() {
+        overlayConcentrations = null;
+        Arrays.fill(overlaidSlots, 0, numberOfSlots, false);
+    }
+
+    /**
+     * Determines the original concentration, the sum of all potential deltas and the consumption of each slot
+     * referenced by potential deltas.
+     */
+    private void accumulateDeltas() {
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            touchedSlots[slot] = false;
+            deltaSums[slot] = 0.0;
+            consumptions[slot] = 0.0;
+        }
+        for (int delta = 0; delta < numberOfPotentialDeltas; delta++) {
+            int slot = potentialSlots[delta];
+            if (!touchedSlots[slot]) {
+                touchedSlots[slot] = true;
+                originalValues[slot] = originalConcentrations.get(slotSubsections[slot], slotEntities[slot]);
+            }
+            double value = potentialValues[delta];
+            deltaSums[slot] += value;
+            if (value < 0.0) {
+                consumptions[slot] -= value;
+            }
+        }
+    }
+
+    /**
+     * Caps potential deltas, such that no concentration is reduced below zero. For each slot whose concentration
+     * would become negative, the consuming deltas are limited to the fraction of the consumption that is covered by
+     * the original concentration and the production of the slot. All deltas of a module are scaled by the smallest
+     * limit of any slot it consumes from, retaining the relationship between the deltas of the module. Deltas are
+     * capped in a single pass, unless a capped module also produced in another slot that now becomes negative. In
+     * this case the consumption of every slot is limited to its original concentration alone in a second and final
+     * pass, that can not reduce any concentration below zero, since it is independent of the production.
+     *
+     * @param skipEmptySlots True if slots without original concentration should be ignored.
+     * @return True if any delta has been capped.
+     */
+    private boolean capDeltas(boolean skipEmptySlots) {
+        if (!limitModules(skipEmptySlots, true)) {
+            return false;
+        }
+        scaleCappedDeltas();
+        accumulateDeltas();
+        if (hasNegativeSlots(skipEmptySlots) && limitModules(skipEmptySlots, false)) {
+            logger.trace("Capped deltas of producing modules, limiting consumption to the original concentrations.");
+            scaleCappedDeltas();
+            accumulateDeltas();
+        }
+        return true;
+    }
+
+    /**
+     * Determines the factor each module consuming from a slot with insufficient concentration needs to be scaled
+     * with.
+     *
+     * @param skipEmptySlots True if slots without original concentration should be ignored.
+     * @param creditProduction True if the production of each slot is considered to be available for consumption.
+     * @return True if any module needs to be scaled.
+     */
+    private boolean limitModules(boolean skipEmptySlots, boolean creditProduction) {
+        numberOfCappedModules = 0;
+        for (int delta = 0; delta < numberOfPotentialDeltas; delta++) {
+            int slot = potentialSlots[delta];
+            if (potentialValues[delta] >= 0.0 || (skipEmptySlots && originalValues[slot] == 0.0)) {
+                continue;
+            }
+            double available = Math.max(0.0, originalValues[slot]);
+            if (creditProduction) {
+                available += deltaSums[slot] + consumptions[slot];
+            }
+            if (available >= consumptions[slot]) {
+                continue;
+            }
+            limitModule(potentialModules[delta], available / consumptions[slot]);
+        }
+        return numberOfCappedModules > 0;
+    }
+
+    private void scaleCappedDeltas() {
+        for (int delta = 0; delta < numberOfPotentialDeltas; delta++) {
+            for (int module = 0; module < numberOfCappedModules; module++) {
+                if (cappedModules[module] == potentialModules[delta]) {
+                    potentialValues[delta] *= capFactors[module];
                     break;
                 }
-                currentConcentrations.set(delta.getCellSubsection(), delta.getChemicalEntity(), updatedConcentration);
             }
-        } while (repeat);
-    }
-
-    private void capDeltas(UpdateModule module, ConcentrationDelta delta) {
-        double remainingConcentration = currentConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity());
-        List<ConcentrationDelta> affectedDeltas = potentialDeltas.stream()
-                .filter(element -> element.getModule().equals(module))
-                .collect(Collectors.toList());
-        double deltaValue = delta.getValue();
-        for (ConcentrationDelta affectedDelta : affectedDeltas) {
-            if (affectedDelta.equals(delta)) {
-                delta.setValue(-remainingConcentration);
-            } else {
-                // determine relationship
-                double factor = affectedDelta.getValue() / deltaValue;
-                affectedDelta.setValue(Math.signum(affectedDelta.getValue()) * remainingConcentration * factor);
+        }
+    }
+
+    private boolean hasNegativeSlots(boolean skipEmptySlots) {
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            if (!touchedSlots[slot] || (skipEmptySlots && originalValues[slot] == 0.0)) {
+                continue;
+            }
+            // tolerate rounding errors of capped deltas
+            if (originalValues[slot] + deltaSums[slot] < -CAP_TOLERANCE * originalValues[slot]) {
+                return true;
             }
         }
+        return false;
+    }
 
+    private void limitModule(UpdateModule module, double limit) {
+        for (int index = 0; index < numberOfCappedModules; index++) {
+            if (cappedModules[index] == module) {
+                capFactors[index] = Math.min(capFactors[index], limit);
+                return;
+            }
+        }
+        if (numberOfCappedModules == cappedModules.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, numberOfCappedModules * 2);
+            cappedModules = Arrays.copyOf(cappedModules, capacity);
+            capFactors = Arrays.copyOf(capFactors, capacity);
+        }
+        cappedModules[numberOfCappedModules] = module;
+        capFactors[numberOfCappedModules] = limit;
+        numberOfCappedModules++;
     }
 
-    public double determineGlobalNumericalError() {
+    /**
+     * Returns the largest relative difference between the interim and comparison concentrations. Only slots modified
+     * by deltas are compared, all other concentrations are equal.
+     *
+     * @return The largest global error.
+     */
+    public synchronized double determineGlobalNumericalError() {
         double largestError = 0.0;
-        for (ChemicalEntity entity : currentConcentrations.getReferencedEntities()) {
-            for (CellSubsection subsection : currentConcentrations.getReferencedSubsections()) {
-                double interimConcentration = interimConcentrations.get(subsection, entity);
-                double currentConcentration = currentConcentrations.get(subsection, entity);
-                if (currentConcentration != 0.0 && interimConcentration != 0.0) {
-                    double globalError = Math.abs(1 - (interimConcentration / currentConcentration));
-                    if (globalError > largestError) {
-                        largestError = globalError;
-                    }
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            if (!interimSlots[slot] && !comparisonSlots[slot]) {
+                continue;
+            }
+            double interimConcentration = interimSlots[slot] ? interimValues[slot] : originalValues[slot];
+            double currentConcentration = currentConcentrations.get(slotSubsections[slot], slotEntities[slot]);
+            if (currentConcentration != 0.0 && interimConcentration != 0.0) {
+                double globalError = Math.abs(1 - (interimConcentration / currentConcentration));
+                if (globalError > largestError) {
+                    largestError = globalError;
                 }
             }
         }
         return largestError;
     }
 
+    /**
+     * Returns the slot for the given subsection and entity, appending a new slot if it was not yet referenced.
+     *
+     * @param subsection The subsection.
+     * @param entityIndex The index of the entity.
+     * @return The slot.
+     */
+    private int slotOf(CellSubsection subsection, int entityIndex) {
+        if (slotTable.length > 0) {
+            int mask = slotTable.length - 1;
+            int bucket = hash(subsection, entityIndex) & mask;
+            while (slotTable[bucket] != 0) {
+                int slot = slotTable[bucket] - 1;
+                if (slotEntities[slot] == entityIndex && sameSubsection(slotSubsections[slot], subsection)) {
+                    return slot;
+                }
+                bucket = (bucket + 1) & mask;
+            }
+        }
+        if (numberOfSlots == slotSubsections.length) {
+            allocateSlots(Math.max(INITIAL_CAPACITY, numberOfSlots * 2));
+        }
+        int slot = numberOfSlots++;
+        slotSubsections[slot] = subsection;
+        slotEntities[slot] = entityIndex;
+        insert(slot);
+        return slot;
+    }
+
+    private void insert(int slot) {
+        int mask = slotTable.length - 1;
+        int bucket = hash(slotSubsections[slot], slotEntities[slot]) & mask;
+        while (slotTable[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        slotTable[bucket] = slot + 1;
+    }
+
+    private static boolean sameSubsection(CellSubsection first, CellSubsection second) {
+        return first == second || (first != null && first.equals(second));
+    }
+
+    private static int hash(CellSubsection subsection, int entityIndex) {
+        int hash = 31 * (subsection != null ? subsection.hashCode() : 0) + entityIndex;
+        // spread bits
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Grows the arrays of all slots to the given capacity, retaining existing slots.
+     *
+     * @param capacity The capacity.
+     */
+    private void allocateSlots(int capacity) {
+        if (slotSubsections == null) {
+            slotSubsections = new CellSubsection[capacity];
+            slotEntities = new int[capacity];
+            touchedSlots = new boolean[capacity];
+            originalValues = new double[capacity];
+            deltaSums = new double[capacity];
+            consumptions = new double[capacity];
+            interimValues = new double[capacity];
+            interimSlots = new boolean[capacity];
+            comparisonSlots = new boolean[capacity];
+            overlaidSlots = new boolean[capacity];
+        } else {
+            slotSubsections = Arrays.copyOf(slotSubsections, capacity);
+            slotEntities = Arrays.copyOf(slotEntities, capacity);
+            touchedSlots = Arrays.copyOf(touchedSlots, capacity);
+            originalValues = Arrays.copyOf(originalValues, capacity);
+            deltaSums = Arrays.copyOf(deltaSums, capacity);
+            consumptions = Arrays.copyOf(consumptions, capacity);
+            interimValues = Arrays.copyOf(interimValues, capacity);
+            interimSlots = Arrays.copyOf(interimSlots, capacity);
+            comparisonSlots = Arrays.copyOf(comparisonSlots, capacity);
+            overlaidSlots = Arrays.copyOf(overlaidSlots, capacity);
+        }
+        slotTable = new int[capacity * 2];
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            insert(slot);
+        }
+    }
 
     /**
-     * Returns all deltas that are going to be applied to this node.
+     * Returns copies of all deltas that are going to be applied to this node.
      *
      * @return All deltas that are going to be applied to this node.
      */
-    public List<ConcentrationDelta> getFinalDeltas() {
-        return finalDeltas;
+    public synchronized List<ConcentrationDelta> getFinalDeltas() {
+        List<ConcentrationDelta> deltas = new ArrayList<>(numberOfFinalDeltas);
+        for (int delta = 0; delta < numberOfFinalDeltas; delta++) {
+            deltas.add(createDelta(finalModules[delta], finalSlots[delta], finalValues[delta]));
+        }
+        return deltas;
+    }
+
+    /**
+     * Returns the number of deltas that are going to be applied to this node.
+     *
+     * @return The number of final deltas.
+     */
+    public synchronized int getNumberOfFinalDeltas() {
+        return numberOfFinalDeltas;
     }
 
     /**
-     * Returns all potential deltas that should be applied.
+     * Returns the module of the final delta with the given index.
+     *
+     * @param delta The index of the final delta.
+     * @return The module of the final delta.
+     */
+    public synchronized UpdateModule getFinalDeltaModule(int delta) {
+        return finalModules[delta];
+    }
+
+    /**
+     * Returns copies of all potential deltas that should be applied.
      *
      * @return All potential deltas that should be applied.
      */
-    public List<ConcentrationDelta> getPotentialDeltas() {
-        return potentialDeltas;
+    public synchronized List<ConcentrationDelta> getPotentialDeltas() {
+        List<ConcentrationDelta> deltas = new ArrayList<>(numberOfPotentialDeltas);
+        for (int delta = 0; delta < numberOfPotentialDeltas; delta++) {
+            deltas.add(createDelta(potentialModules[delta], potentialSlots[delta], potentialValues[delta]));
+        }
+        return deltas;
+    }
+
+    /**
+     * Returns true if no potential deltas have been added.
+     *
+     * @return True if no potential deltas have been added.
+     */
+    public synchronized boolean hasNoPotentialDeltas() {
+        return numberOfPotentialDeltas == 0;
+    }
+
+    private ConcentrationDelta createDelta(UpdateModule module, int slot, double value) {
+        CellSubsection subsection = slotSubsections[slot];
+        return new ConcentrationDelta(module, subsection, currentConcentrations.getEntityIndex(subsection).getEntity(slotEntities[slot]), value);
     }
 
     /**
@@ -244,23 +636,63 @@ public class ConcentrationDeltaManager {
      * @param potentialDelta The potential delta.
      */
     public void addPotentialDelta(ConcentrationDelta potentialDelta) {
-        potentialDeltas.add(potentialDelta);
+        addPotentialDelta(potentialDelta.getModule(), potentialDelta.getCellSubsection(),
+                currentConcentrations.getEntityIndex(potentialDelta.getCellSubsection()).indexOf(potentialDelta.getChemicalEntity()), potentialDelta.getValue());
+    }
+
+    /**
+     * Adds a potential delta to this updatable, without creating a {@link ConcentrationDelta}.
+     *
+     * @param module The module the delta originates from.
+     * @param subsection The subsection.
+     * @param entity The chemical entity.
+     * @param value The value of the delta.
+     */
+    public void addPotentialDelta(UpdateModule module, CellSubsection subsection, ChemicalEntity entity, double value) {
+        addPotentialDelta(module, subsection, currentConcentrations.getEntityIndex(subsection).indexOf(entity), value);
+    }
+
+    /**
+     * Adds a potential delta to this updatable, without creating a {@link ConcentrationDelta}.
+     *
+     * @param module The module the delta originates from.
+     * @param subsection The subsection.
+     * @param entityIndex The {@link EntityIndex} of the chemical entity.
+     * @param value The value of the delta.
+     */
+    public synchronized void addPotentialDelta(UpdateModule module, CellSubsection subsection, int entityIndex, double value) {
+        int slot = slotOf(subsection, entityIndex);
+        if (numberOfPotentialDeltas == potentialValues.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, numberOfPotentialDeltas * 2);
+            potentialModules = Arrays.copyOf(potentialModules, capacity);
+            potentialSlots = Arrays.copyOf(potentialSlots, capacity);
+            potentialValues = Arrays.copyOf(potentialValues, capacity);
+        }
+        potentialModules[numberOfPotentialDeltas] = module;
+        potentialSlots[numberOfPotentialDeltas] = slot;
+        potentialValues[numberOfPotentialDeltas] = value;
+        numberOfPotentialDeltas++;
     }
 
     public void backupConcentrations() {
         originalConcentrations = currentConcentrations.fullCopy();
+        discardOverlay();
     }
 
-    public void revertToOriginalConcentrations() {
-        currentConcentrations = originalConcentrations.fullCopy();
+    public synchronized void revertToOriginalConcentrations() {
+        if (overlayConcentrations != null) {
+            prepareOverlay();
+        } else {
+            currentConcentrations = originalConcentrations.fullCopy();
+        }
     }
 
     /**
      * Clears the list of potential deltas. Usually done after {@link ConcentrationDeltaManager#shiftDeltas()} or after rejecting a
      * time step.
      */
-    public void clearPotentialDeltas() {
-        potentialDeltas.clear();
+    public synchronized void clearPotentialDeltas() {
+        numberOfPotentialDeltas = 0;
     }
 
     /**
@@ -269,46 +701,65 @@ public class ConcentrationDeltaManager {
      *
      * @param module The module.
      */
-    public void clearPotentialDeltasBut(UpdateModule module) {
-        synchronized (potentialDeltas) {
-            potentialDeltas.removeIf(delta -> delta.getModule() != module);
+    public synchronized void clearPotentialDeltasBut(UpdateModule module) {
+        int retainedDeltas = 0;
+        for (int delta = 0; delta < numberOfPotentialDeltas; delta++) {
+            if (potentialModules[delta] == module) {
+                potentialModules[retainedDeltas] = potentialModules[delta];
+                potentialSlots[retainedDeltas] = potentialSlots[delta];
+                potentialValues[retainedDeltas] = potentialValues[delta];
+                retainedDeltas++;
+            }
         }
+        numberOfPotentialDeltas = retainedDeltas;
     }
 
     /**
      * Shifts the deltas from the potential delta list to the final delta list.
      */
-    public void shiftDeltas() {
-        synchronized (potentialDeltas) {
-            finalDeltas.addAll(potentialDeltas);
+    public synchronized void shiftDeltas() {
+        int requiredCapacity = numberOfFinalDeltas + numberOfPotentialDeltas;
+        if (requiredCapacity > finalValues.length) {
+            int capacity = Math.max(requiredCapacity, Math.max(INITIAL_CAPACITY, finalValues.length * 2));
+            finalModules = Arrays.copyOf(finalModules, capacity);
+            finalSlots = Arrays.copyOf(finalSlots, capacity);
+            finalValues = Arrays.copyOf(finalValues, capacity);
         }
+        System.arraycopy(potentialModules, 0, finalModules, numberOfFinalDeltas, numberOfPotentialDeltas);
+        System.arraycopy(potentialSlots, 0, finalSlots, numberOfFinalDeltas, numberOfPotentialDeltas);
+        System.arraycopy(potentialValues, 0, finalValues, numberOfFinalDeltas, numberOfPotentialDeltas);
+        numberOfFinalDeltas = requiredCapacity;
         if (!observed) {
-            potentialDeltas.clear();
+            numberOfPotentialDeltas = 0;
         }
     }
 
     /**
      * Applies all final deltas and clears the delta list.
      */
-    public void applyDeltas() {
+    public synchronized void applyDeltas() {
         currentConcentrations = originalConcentrations;
-        interimConcentrations = originalConcentrations;
-        for (ConcentrationDelta delta : finalDeltas) {
+        discardOverlay();
+        for (int delta = 0; delta < numberOfFinalDeltas; delta++) {
+            CellSubsection subsection = slotSubsections[finalSlots[delta]];
+            int entityIndex = slotEntities[finalSlots[delta]];
+            double value = finalValues[delta];
             // it may happen that concentrations are calculated as strut points that have no representations in the
             // original concentrations and therefore non existent entities would be removed
-            double previousConcentration = currentConcentrations.get(delta.getCellSubsection(), delta.getChemicalEntity());
-            double updatedConcentration = previousConcentration + delta.getValue();
+            double previousConcentration = currentConcentrations.get(subsection, entityIndex);
+            double updatedConcentration = previousConcentration + value;
             if (updatedConcentration < 0.0) {
-                if (MolarConcentration.concentrationToMolecules(Math.abs(delta.getValue())).getValue().doubleValue() < 0.1) {
-                    logger.warn("Updates for {} have reached a cutoff value where less than a 1/10 of a molecule would remain, setting concentration to 0.", delta.getChemicalEntity());
+                if (MolarConcentration.concentrationToMolecules(Math.abs(value)).getValue().doubleValue() < 0.1) {
+                    logger.warn("Updates for {} have reached a cutoff value where less than a 1/10 of a molecule would remain, setting concentration to 0.", currentConcentrations.getEntityIndex(subsection).getEntity(entityIndex));
                     updatedConcentration = 0.0;
                 }
             }
-            logger.trace("Setting {} in {} from {} to {} ", delta.getChemicalEntity(), delta.getCellSubsection().getIdentifier(), previousConcentration, updatedConcentration);
-            currentConcentrations.set(delta.getCellSubsection(), delta.getChemicalEntity(), updatedConcentration);
+            if (logger.isTraceEnabled()) {
+                logger.trace("Setting {} in {} from {} to {} ", currentConcentrations.getEntityIndex(subsection).getEntity(entityIndex), subsection.getIdentifier(), previousConcentration, updatedConcentration);
+            }
+            currentConcentrations.set(subsection, entityIndex, updatedConcentration);
         }
-        finalDeltas.clear();
+        numberOfFinalDeltas = 0;
     }
 
-
 }
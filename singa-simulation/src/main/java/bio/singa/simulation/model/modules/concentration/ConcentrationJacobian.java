@@ -0,0 +1,160 @@
+package bio.singa.simulation.model.modules.concentration;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.EntityIndex;
+
+import java.util.*;
+
+/**
+ * The concentration jacobian stores the derivatives of the deltas of an {@link bio.singa.simulation.model.simulation.Updatable}
+ * with respect to its concentrations. Each concentration (entity in subsection) that is referenced is assigned a
+ * consecutive index, only non zero derivatives are stored. Deltas are scaled to the current time step, such that the
+ * jacobian already contains the factor of the time step.
+ *
+ * @author cl
+ */
+public class ConcentrationJacobian {
+
+    /**
+     * The subsection of each index.
+     */
+    private final List<CellSubsection> subsections;
+
+    /**
+     * The entity index of each index.
+     */
+    private final List<Integer> entityIndices;
+
+    /**
+     * The index of each subsection and entity index.
+     */
+    private final Map<CellSubsection, Map<Integer, Integer>> indices;
+
+    /**
+     * The non zero derivatives (row index in the upper, column index in the lower half).
+     */
+    private final Map<Long, Double> derivatives;
+
+    /**
+     * Creates a new empty jacobian.
+     */
+    public ConcentrationJacobian() {
+        subsections = new ArrayList<>();
+        entityIndices = new ArrayList<>();
+        indices = new HashMap<>();
+        derivatives = new LinkedHashMap<>();
+    }
+
+    /**
+     * Returns the index of the concentration of the entity in the subsection, a new index is assigned if the
+     * concentration has not been referenced before.
+     *
+     * @param subsection The subsection.
+     * @param entity The entity.
+     * @return The index.
+     */
+    public int indexOf(CellSubsection subsection, ChemicalEntity entity) {
+        return indexOf(subsection, EntityIndex.current().indexOf(entity));
+    }
+
+    /**
+     * Returns the index of the concentration of the entity in the subsection, a new index is assigned if the
+     * concentration has not been referenced before.
+     *
+     * @param subsection The subsection.
+     * @param entityIndex The index of the entity (see {@link EntityIndex}).
+     * @return The index.
+     */
+    public int indexOf(CellSubsection subsection, int entityIndex) {
+        Map<Integer, Integer> subsectionIndices = indices.computeIfAbsent(subsection, key -> new HashMap<>());
+        Integer index = subsectionIndices.get(entityIndex);
+        if (index == null) {
+            index = subsections.size();
+            subsections.add(subsection);
+            entityIndices.add(entityIndex);
+            subsectionIndices.put(entityIndex, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of referenced concentrations.
+     *
+     * @return The number of referenced concentrations.
+     */
+    public int size() {
+        return subsections.size();
+    }
+
+    public CellSubsection getSubsection(int index) {
+        return subsections.get(index);
+    }
+
+    public int getEntityIndex(int index) {
+        return entityIndices.get(index);
+    }
+
+    /**
+     * Adds the derivative of the delta of the row concentration with respect to the column concentration.
+     *
+     * @param row The index of the changed concentration.
+     * @param column The index of the concentration the change depends on.
+     * @param derivative The derivative.
+     */
+    public void add(int row, int column, double derivative) {
+        if (derivative != 0.0) {
+            derivatives.merge(((long) row << 32) | column, derivative, Double::sum);
+        }
+    }
+
+    /**
+     * Returns the derivative of the delta of the row concentration with respect to the column concentration.
+     *
+     * @param row The index of the changed concentration.
+     * @param column The index of the concentration the change depends on.
+     * @return The derivative.
+     */
+    public double get(int row, int column) {
+        return derivatives.getOrDefault(((long) row << 32) | column, 0.0);
+    }
+
+    /**
+     * Returns true if no derivatives have been added.
+     *
+     * @return True if no derivatives have been added.
+     */
+    public boolean hasNoDerivatives() {
+        return derivatives.isEmpty();
+    }
+
+    /**
+     * Returns the number of non zero derivatives.
+     *
+     * @return The number of non zero derivatives.
+     */
+    public int getNumberOfDerivatives() {
+        return derivatives.size();
+    }
+
+    /**
+     * Returns the matrix {@code I - factor * J} for all concentrations referenced as of yet.
+     *
+     * @param factor The factor of the jacobian.
+     * @return The elements of the matrix.
+     */
+    public double[][] shiftedIdentity(double factor) {
+        int dimension = size();
+        double[][] elements = new double[dimension][dimension];
+        for (int index = 0; index < dimension; index++) {
+            elements[index][index] = 1.0;
+        }
+        for (Map.Entry<Long, Double> entry : derivatives.entrySet()) {
+            int row = (int) (entry.getKey() >>> 32);
+            int column = (int) (entry.getKey() & 0xFFFFFFFFL);
+            elements[row][column] -= factor * entry.getValue();
+        }
+        return elements;
+    }
+
+}
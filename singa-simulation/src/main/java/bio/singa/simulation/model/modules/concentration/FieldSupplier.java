@@ -1,14 +1,18 @@
 package bio.singa.simulation.model.modules.concentration;
 
 import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.simulation.model.modules.UpdateModule;
 import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.EntityIndex;
 import bio.singa.simulation.model.simulation.Updatable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * The field supplier manages all files required for different behaviours of a module.
+ * The field supplier manages all files required for different behaviours of a module. If the updatables of a module
+ * are processed in parallel tiles, each tile has its own supplier (see {@link #createTileSupplier()}) that is bound
+ * to the thread processing the tile. While the module is partitioned, all fields are resolved from the tile supplier
+ * bound to the calling thread, such that delta functions can access the supplier of their module as usual.
  *
  * @author cl
  */
@@ -30,14 +34,9 @@ public class FieldSupplier {
     private ChemicalEntity entity;
 
     /**
-     * The current full deltas.
+     * The current full and half deltas.
      */
-    private Map<ConcentrationDeltaIdentifier, ConcentrationDelta> fullDeltas;
-
-    /**
-     * The current half deltas.
-     */
-    private Map<ConcentrationDeltaIdentifier, ConcentrationDelta> halfDeltas;
+    private ConcentrationDeltaBuffer deltaBuffer;
 
     /**
      * The larges error as of yet.
@@ -49,21 +48,121 @@ public class FieldSupplier {
      */
     private boolean isStrutCalculation;
 
+    /**
+     * True while the tiles of the module are processed in parallel.
+     */
+    private volatile boolean partitioned;
+
+    /**
+     * The tile suppliers bound to the threads processing them.
+     */
+    private ThreadLocal<FieldSupplier> tileSuppliers;
+
+    /**
+     * The initial capacity of the deferred potential deltas of tile suppliers.
+     */
+    private static final int INITIAL_DEFERRED_CAPACITY = 64;
+
+    /**
+     * The updatables of potential deltas that are deferred until all tiles are processed (only for tile suppliers).
+     */
+    private Updatable[] deferredUpdatables;
+
+    /**
+     * The modules of the deferred potential deltas.
+     */
+    private UpdateModule[] deferredModules;
+
+    /**
+     * The subsections of the deferred potential deltas.
+     */
+    private CellSubsection[] deferredSubsections;
+
+    /**
+     * The {@link EntityIndex} of the entities of the deferred potential deltas.
+     */
+    private int[] deferredEntities;
+
+    /**
+     * The values of the deferred potential deltas.
+     */
+    private double[] deferredValues;
+
+    /**
+     * The number of deferred potential deltas.
+     */
+    private int numberOfDeferredDeltas;
+
     /**
      * Creates a new Field Supplier.
      */
     FieldSupplier() {
-        fullDeltas = new HashMap<>();
-        halfDeltas = new HashMap<>();
+        deltaBuffer = new ConcentrationDeltaBuffer();
         largestLocalError = LocalError.MINIMAL_EMPTY_ERROR;
     }
 
+    /**
+     * Returns the supplier bound to the calling thread if the module is partitioned or this supplier otherwise.
+     * @return The supplier responsible for the calling thread.
+     */
+    private FieldSupplier current() {
+        if (partitioned) {
+            FieldSupplier tileSupplier = tileSuppliers.get();
+            if (tileSupplier != null) {
+                return tileSupplier;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Creates a supplier for a tile of updatables that is processed in parallel to other tiles. Potential deltas
+     * handled by tile suppliers are deferred until {@link #flushPotentialDeltas()} is called.
+     * @return The new tile supplier.
+     */
+    public FieldSupplier createTileSupplier() {
+        FieldSupplier tileSupplier = new FieldSupplier();
+        tileSupplier.deferredUpdatables = new Updatable[INITIAL_DEFERRED_CAPACITY];
+        tileSupplier.deferredModules = new UpdateModule[INITIAL_DEFERRED_CAPACITY];
+        tileSupplier.deferredSubsections = new CellSubsection[INITIAL_DEFERRED_CAPACITY];
+        tileSupplier.deferredEntities = new int[INITIAL_DEFERRED_CAPACITY];
+        tileSupplier.deferredValues = new double[INITIAL_DEFERRED_CAPACITY];
+        return tileSupplier;
+    }
+
+    /**
+     * Sets whether the tiles of the module are currently processed in parallel. This has to be set before tile
+     * suppliers are bound and reset after all tiles have been processed.
+     * @param partitioned True, if the tiles of the module are currently processed in parallel.
+     */
+    public void setPartitioned(boolean partitioned) {
+        if (partitioned && tileSuppliers == null) {
+            tileSuppliers = new ThreadLocal<>();
+        }
+        this.partitioned = partitioned;
+    }
+
+    /**
+     * Binds the tile supplier to the calling thread.
+     * @param tileSupplier The tile supplier.
+     */
+    public void bindTileSupplier(FieldSupplier tileSupplier) {
+        tileSuppliers.set(tileSupplier);
+    }
+
+    /**
+     * Removes the tile supplier bound to the calling thread.
+     */
+    public void unbindTileSupplier() {
+        tileSuppliers.remove();
+    }
+
     /**
      * Returns the current updatable.
      * @return The current updatable.
      */
     public Updatable getCurrentUpdatable() {
-        return updatable;
+        return current().updatable;
     }
 
     /**
@@ -71,7 +170,7 @@ public class FieldSupplier {
      * @param updatable The current updatable.
      */
     public void setCurrentUpdatable(Updatable updatable) {
-        this.updatable = updatable;
+        current().updatable = updatable;
     }
 
     /**
@@ -79,7 +178,7 @@ public class FieldSupplier {
      * @return The current subsection.
      */
     public CellSubsection getCurrentSubsection() {
-        return subsection;
+        return current().subsection;
     }
 
     /**
@@ -87,7 +186,7 @@ public class FieldSupplier {
      * @param subsection The current subsection.
      */
     public void setCurrentSubsection(CellSubsection subsection) {
-        this.subsection = subsection;
+        current().subsection = subsection;
     }
 
     /**
@@ -95,7 +194,7 @@ public class FieldSupplier {
      * @return The current chemical entity.
      */
     public ChemicalEntity getCurrentEntity() {
-        return entity;
+        return current().entity;
     }
 
     /**
@@ -103,23 +202,15 @@ public class FieldSupplier {
      * @param entity The current chemical entity.
      */
     public void setCurrentEntity(ChemicalEntity entity) {
-        this.entity = entity;
-    }
-
-    /**
-     * Returns all currently available full deltas.
-     * @return All currently available full deltas.
-     */
-    public Map<ConcentrationDeltaIdentifier, ConcentrationDelta> getCurrentFullDeltas() {
-        return fullDeltas;
+        current().entity = entity;
     }
 
     /**
-     * Returns all currently available half deltas.
-     * @return All currently available half deltas.
+     * Returns the buffer of all currently available full and half deltas.
+     * @return The buffer of all currently available full and half deltas.
      */
-    public Map<ConcentrationDeltaIdentifier, ConcentrationDelta> getCurrentHalfDeltas() {
-        return halfDeltas;
+    public ConcentrationDeltaBuffer getDeltaBuffer() {
+        return current().deltaBuffer;
     }
 
     /**
@@ -127,7 +218,7 @@ public class FieldSupplier {
      * @return the largest error as of yet.
      */
     public LocalError getLargestLocalError() {
-        return largestLocalError;
+        return current().largestLocalError;
     }
 
     /**
@@ -135,14 +226,14 @@ public class FieldSupplier {
      * @param largestLocalError the largest error as of yet.
      */
     public void setLargestLocalError(LocalError largestLocalError) {
-        this.largestLocalError = largestLocalError;
+        current().largestLocalError = largestLocalError;
     }
 
     /**
      * Resets the error to the minimal error.
      */
     public void resetError() {
-        largestLocalError = LocalError.MINIMAL_EMPTY_ERROR;
+        current().largestLocalError = LocalError.MINIMAL_EMPTY_ERROR;
     }
 
     /**
@@ -150,7 +241,7 @@ public class FieldSupplier {
      * @return True if currently strut points (half deltas) are calculated.
      */
     public boolean isStrutCalculation() {
-        return isStrutCalculation;
+        return current().isStrutCalculation;
     }
 
     /**
@@ -158,15 +249,77 @@ public class FieldSupplier {
      * @param strutCalculation The current state of calculation.
      */
     public void setStrutCalculation(boolean strutCalculation) {
-        isStrutCalculation = strutCalculation;
+        current().isStrutCalculation = strutCalculation;
     }
 
     /**
      * Clears all full end half deltas.
      */
     public void clearDeltas() {
-        fullDeltas.clear();
-        halfDeltas.clear();
+        current().deltaBuffer.clear();
+    }
+
+    /**
+     * Assigns the potential delta to the updatable or defers it, if the calling thread processes a tile.
+     * @param updatable The updatable.
+     * @param delta The potential delta.
+     */
+    public void addPotentialDelta(Updatable updatable, ConcentrationDelta delta) {
+        addPotentialDelta(updatable, delta.getModule(), delta.getCellSubsection(), delta.getChemicalEntity(), delta.getValue());
+    }
+
+    /**
+     * Assigns the potential delta given as value to the updatable or defers it, if the calling thread processes a
+     * tile. No {@link ConcentrationDelta} is created.
+     * @param updatable The updatable.
+     * @param module The module that calculated the delta.
+     * @param subsection The subsection.
+     * @param entity The chemical entity.
+     * @param value The value of the delta.
+     */
+    public void addPotentialDelta(Updatable updatable, UpdateModule module, CellSubsection subsection, ChemicalEntity entity, double value) {
+        FieldSupplier supplier = current();
+        if (supplier.deferredUpdatables != null) {
+            supplier.deferPotentialDelta(updatable, module, subsection, EntityIndex.current().indexOf(entity), value);
+        } else {
+            updatable.getConcentrationManager().addPotentialDelta(module, subsection, entity, value);
+        }
+    }
+
+    private void deferPotentialDelta(Updatable updatable, UpdateModule module, CellSubsection subsection, int entityIndex, double value) {
+        if (numberOfDeferredDeltas == deferredUpdatables.length) {
+            int capacity = deferredUpdatables.length * 2;
+            deferredUpdatables = Arrays.copyOf(deferredUpdatables, capacity);
+            deferredModules = Arrays.copyOf(deferredModules, capacity);
+            deferredSubsections = Arrays.copyOf(deferredSubsections, capacity);
+            deferredEntities = Arrays.copyOf(deferredEntities, capacity);
+            deferredValues = Arrays.copyOf(deferredValues, capacity);
+        }
+        deferredUpdatables[numberOfDeferredDeltas] = updatable;
+        deferredModules[numberOfDeferredDeltas] = module;
+        deferredSubsections[numberOfDeferredDeltas] = subsection;
+        deferredEntities[numberOfDeferredDeltas] = entityIndex;
+        deferredValues[numberOfDeferredDeltas] = value;
+        numberOfDeferredDeltas++;
+    }
+
+    /**
+     * Assigns all deferred potential deltas of this tile supplier to their updatables, in the order they have been
+     * handled.
+     */
+    public void flushPotentialDeltas() {
+        if (deferredUpdatables == null) {
+            return;
+        }
+        for (int i = 0; i < numberOfDeferredDeltas; i++) {
+            deferredUpdatables[i].getConcentrationManager().addPotentialDelta(deferredModules[i], deferredSubsections[i],
+                    deferredEntities[i], deferredValues[i]);
+        }
+        // release references to updatables and modules
+        Arrays.fill(deferredUpdatables, 0, numberOfDeferredDeltas, null);
+        Arrays.fill(deferredModules, 0, numberOfDeferredDeltas, null);
+        Arrays.fill(deferredSubsections, 0, numberOfDeferredDeltas, null);
+        numberOfDeferredDeltas = 0;
     }
 
     @Override
@@ -175,8 +328,7 @@ public class FieldSupplier {
                 "updatable=" + updatable +
                 ", subsection=" + subsection +
                 ", entity=" + entity +
-                ", fullDeltas=" + fullDeltas +
-                ", halfDeltas=" + halfDeltas +
+                ", deltaBuffer=" + deltaBuffer +
                 ", largestLocalError=" + largestLocalError +
                 ", isStrutCalculation=" + isStrutCalculation +
                 '}';
@@ -11,12 +11,14 @@ import bio.singa.simulation.model.simulation.Updatable;
 
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Entity delta functions are {@link AbstractDeltaFunction}s which return only one concentration delta.
  * Mostly used for {@link EntitySpecific} {@link ConcentrationBasedModule}s, where the function is applied to every
  * {@link ChemicalEntity} in every {@link CellSubsection} and every {@link Updatable}. Each calculation returns
- * the change of the specific entity (e.g. for {@link Diffusion}).
+ * the change of the specific entity (e.g. for {@link Diffusion}). Functions may return the change as value only,
+ * such that no {@link ConcentrationDelta} has to be created.
  *
  * @author cl
  */
@@ -27,6 +29,11 @@ public class EntityDeltaFunction extends AbstractDeltaFunction<ConcentrationDelt
      */
     private final Function<ConcentrationContainer, ConcentrationDelta> function;
 
+    /**
+     * The function returning the value of the delta for the current entity and subsection.
+     */
+    private final ToDoubleFunction<ConcentrationContainer> valueFunction;
+
     /**
      * Creates a new entity delta function with the specified condition and function.
      * @param function The function.
@@ -35,14 +42,43 @@ public class EntityDeltaFunction extends AbstractDeltaFunction<ConcentrationDelt
     public EntityDeltaFunction(Function<ConcentrationContainer, ConcentrationDelta> function, Predicate<ConcentrationContainer> condition) {
         super(condition);
         this.function = function;
+        valueFunction = null;
+    }
+
+    /**
+     * Creates a new entity delta function with the specified condition and a function returning the value of the delta
+     * for the current entity and subsection of the supplier.
+     * @param valueFunction The function returning the value of the delta.
+     * @param condition The condition.
+     */
+    public EntityDeltaFunction(ToDoubleFunction<ConcentrationContainer> valueFunction, Predicate<ConcentrationContainer> condition) {
+        super(condition);
+        this.valueFunction = valueFunction;
+        function = null;
     }
 
     /**
      * Returns the function.
-     * @return The function.
+     * @return The function or null if the function only returns values.
      */
     public Function<ConcentrationContainer, ConcentrationDelta> getFunction() {
         return function;
     }
 
+    /**
+     * Returns the function returning the value of the delta.
+     * @return The function returning the value of the delta or null if the function returns deltas.
+     */
+    public ToDoubleFunction<ConcentrationContainer> getValueFunction() {
+        return valueFunction;
+    }
+
+    /**
+     * Returns true if the function only returns the value of the delta.
+     * @return True if the function only returns the value of the delta.
+     */
+    public boolean returnsValue() {
+        return valueFunction != null;
+    }
+
 }
@@ -1,24 +1,39 @@
 package bio.singa.simulation.model.modules.concentration.imlementations.reactions;
 
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
 import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
 import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaIdentifier;
+import bio.singa.simulation.model.modules.concentration.ConcentrationJacobian;
 import bio.singa.simulation.model.modules.concentration.functions.UpdatableDeltaFunction;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.deltas.ReactantDelta;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.KineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.Reactant;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.ReactantSet;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.ReactantBehavior;
+import bio.singa.simulation.model.sections.CellSubsection;
 import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.simulation.Updatable;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static bio.singa.features.units.UnitProvider.NANO_MOLE_PER_LITRE;
+
 /**
  * @author cl
  */
 public class Reaction extends ConcentrationBasedModule<UpdatableDeltaFunction> {
 
+    /**
+     * The relative step used to approximate derivatives of the velocity by finite differences.
+     */
+    private static final double DIFFERENCE_STEP = 1.5e-8;
+
     private KineticLaw kineticLaw;
     private ReactantBehavior reactantBehavior;
 
@@ -32,6 +47,14 @@ public class Reaction extends ConcentrationBasedModule<UpdatableDeltaFunction> {
         reactantBehavior.getReferencedEntities().forEach(this::addReferencedEntity);
     }
 
+    /**
+     * Restricts the calculation of this reaction to vesicles, after the reaction has been compiled to a
+     * {@link ReactionNetwork}, that calculates the deltas for all nodes.
+     */
+    void restrictToVesicles() {
+        setApplicationCondition(updatable -> updatable instanceof Vesicle);
+    }
+
     private Map<ConcentrationDeltaIdentifier, ConcentrationDelta> calculateDeltas(ConcentrationContainer concentrationContainer) {
         Map<ConcentrationDeltaIdentifier, ConcentrationDelta> deltas = new HashMap<>();
         List<ReactantSet> reactantSets = reactantBehavior.generateReactantSets(supplier.getCurrentUpdatable());
@@ -53,6 +76,81 @@ public class Reaction extends ConcentrationBasedModule<UpdatableDeltaFunction> {
         }
     }
 
+    @Override
+    public boolean providesJacobian() {
+        return true;
+    }
+
+    /**
+     * Determines the derivatives of the deltas with respect to the concentrations of all reactants, for each reactant
+     * set of the node. The derivatives of the velocity are approximated by forward differences of the kinetic law.
+     * Reactions in vesicles change concentrations of vesicles and nodes and are not considered.
+     *
+     * @param updatable The updatable.
+     * @param jacobian The jacobian of the updatable.
+     */
+    @Override
+    public void determineJacobian(Updatable updatable, ConcentrationJacobian jacobian) {
+        if (!(updatable instanceof AutomatonNode) || !getApplicationCondition().test(updatable)) {
+            return;
+        }
+        AutomatonNode node = (AutomatonNode) updatable;
+        ConcentrationContainer container = node.getConcentrationContainer();
+        ConcentrationContainer perturbedContainer = null;
+        double minimalStep = DIFFERENCE_STEP * UnitRegistry.concentration(1e-6, NANO_MOLE_PER_LITRE).getValue().doubleValue();
+        for (ReactantSet reactantSet : reactantBehavior.generateReactantSets(node)) {
+            // determine changed concentrations
+            List<Integer> rows = new ArrayList<>();
+            List<Double> coefficients = new ArrayList<>();
+            for (Reactant substrate : reactantSet.getSubstrates()) {
+                addRow(jacobian, container, substrate, -substrate.getStoichiometricNumber(), rows, coefficients);
+            }
+            for (Reactant product : reactantSet.getProducts()) {
+                addRow(jacobian, container, product, product.getStoichiometricNumber(), rows, coefficients);
+            }
+            if (rows.isEmpty()) {
+                continue;
+            }
+            if (perturbedContainer == null) {
+                perturbedContainer = container.fullCopy();
+            }
+            ReactionEvent event = new ReactionEvent(this, reactantSet);
+            double velocity = event.determineVelocity(node, perturbedContainer);
+            // derivatives with respect to every reactant
+            List<Reactant> reactants = new ArrayList<>(reactantSet.getSubstrates());
+            reactants.addAll(reactantSet.getProducts());
+            reactants.addAll(reactantSet.getCatalysts());
+            List<Integer> columns = new ArrayList<>();
+            for (Reactant reactant : reactants) {
+                CellSubsection subsection = container.getSubsection(reactant.getPreferredTopology());
+                if (subsection == null) {
+                    continue;
+                }
+                int column = jacobian.indexOf(subsection, reactant.getEntity());
+                if (columns.contains(column)) {
+                    continue;
+                }
+                columns.add(column);
+                double concentration = perturbedContainer.get(subsection, reactant.getEntity());
+                double step = Math.max(DIFFERENCE_STEP * Math.abs(concentration), minimalStep);
+                perturbedContainer.set(subsection, reactant.getEntity(), concentration + step);
+                double derivative = (event.determineVelocity(node, perturbedContainer) - velocity) / step;
+                perturbedContainer.set(subsection, reactant.getEntity(), concentration);
+                for (int i = 0; i < rows.size(); i++) {
+                    jacobian.add(rows.get(i), column, coefficients.get(i) * derivative);
+                }
+            }
+        }
+    }
+
+    private static void addRow(ConcentrationJacobian jacobian, ConcentrationContainer container, Reactant reactant, double coefficient, List<Integer> rows, List<Double> coefficients) {
+        CellSubsection subsection = container.getSubsection(reactant.getPreferredTopology());
+        if (subsection != null) {
+            rows.add(jacobian.indexOf(subsection, reactant.getEntity()));
+            coefficients.add(coefficient);
+        }
+    }
+
     public KineticLaw getKineticLaw() {
         return kineticLaw;
     }
@@ -27,6 +27,11 @@ public class ReactionEvent {
 
     private DeltaBehavior updatableBehavior;
 
+    /**
+     * The concentrations of the node used instead of the concentrations of the node itself, if set.
+     */
+    private ConcentrationContainer nodeContainer;
+
     public ReactionEvent(Reaction reaction, ReactantSet reactants) {
         this.reaction = reaction;
         this.reactants = reactants;
@@ -58,7 +63,29 @@ public class ReactionEvent {
         return deltas;
     }
 
+    /**
+     * Determines the velocity of the reaction in the node for the given concentrations, regardless of the presence
+     * of substrates.
+     *
+     * @param node The node.
+     * @param concentrations The concentrations of the node.
+     * @return The velocity.
+     */
+    public double determineVelocity(AutomatonNode node, ConcentrationContainer concentrations) {
+        setCurrentNode(node);
+        nodeContainer = concentrations;
+        updatableBehavior = new NodeBehavior(this);
+        try {
+            return reaction.getKineticLaw().determineVelocity(this);
+        } finally {
+            nodeContainer = null;
+        }
+    }
+
     public ConcentrationContainer getCurrentNodeContainer() {
+        if (nodeContainer != null) {
+            return nodeContainer;
+        }
         if (reaction.getSupplier().isStrutCalculation()) {
             return reaction.getScope().getHalfStepConcentration(currentNode);
         } else {
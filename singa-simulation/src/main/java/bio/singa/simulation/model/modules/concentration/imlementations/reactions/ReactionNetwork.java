@@ -0,0 +1,606 @@
+package bio.singa.simulation.model.modules.concentration.imlementations.reactions;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.chemistry.features.reactions.BackwardsRateConstant;
+import bio.singa.chemistry.features.reactions.ForwardsRateConstant;
+import bio.singa.chemistry.features.reactions.MichaelisConstant;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.chemistry.features.reactions.TurnoverNumber;
+import bio.singa.chemistry.features.reactions.ZeroOrderRateConstant;
+import bio.singa.features.model.Feature;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaIdentifier;
+import bio.singa.simulation.model.modules.concentration.ConcentrationJacobian;
+import bio.singa.simulation.model.modules.concentration.ModuleFactory;
+import bio.singa.simulation.model.modules.concentration.functions.UpdatableDeltaFunction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.IrreversibleKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.KineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.MichaelisMentenKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.kineticlaws.ReversibleKineticLaw;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.Reactant;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.behaviors.reactants.StaticReactantBehavior;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.CellTopology;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.sections.EntityIndex;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.Updatable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The reaction network combines all {@link Reaction}s with static reactants and mass action or Michaelis-Menten
+ * kinetics into a single module. During compilation (see {@link #compile(Simulation)}) every pair of topology and
+ * entity referenced by any of the reactions is assigned a species index, the stoichiometry of the reactions is stored
+ * as a sparse matrix (one row per reaction) and the kinetic laws are stored as a vector of rate law types with their
+ * rate constants. For each node, all reactions are evaluated in a single loop over primitive arrays and one delta is
+ * created for each species that changed, instead of creating reaction events and deltas for each reactant.
+ * <p>
+ * The network only calculates deltas for {@link AutomatonNode}s. Reactions in vesicles depend on the concentrations of
+ * the vesicles and all associated nodes, therefore compiled reactions remain in the simulation and are only applied
+ * to vesicles. Reactions with dynamic reactants or kinetic laws given as expressions are not compiled.
+ *
+ * @author cl
+ */
+public class ReactionNetwork extends ConcentrationBasedModule<UpdatableDeltaFunction> {
+
+    /**
+     * The logger
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ReactionNetwork.class);
+
+    /**
+     * v = kf * [S1] * ... * [Sn]
+     */
+    private static final int MASS_ACTION = 0;
+
+    /**
+     * v = kf * [S1] * ... * [Sn] - kb * [P1] * ... * [Pn]
+     */
+    private static final int REVERSIBLE_MASS_ACTION = 1;
+
+    /**
+     * v = kf
+     */
+    private static final int ZERO_ORDER = 2;
+
+    /**
+     * v = (kCat * [E] * [S]) / (km + [S])
+     */
+    private static final int MICHAELIS_MENTEN = 3;
+
+    /**
+     * The compiled reactions.
+     */
+    private final List<Reaction> reactions;
+
+    /**
+     * The topologies of the species.
+     */
+    private CellTopology[] speciesTopologies;
+
+    /**
+     * The entities of the species.
+     */
+    private ChemicalEntity[] speciesEntities;
+
+    /**
+     * The {@link EntityIndex} of the entities of the species.
+     */
+    private int[] speciesEntityIndices;
+
+    /**
+     * The stoichiometry matrix in compressed row storage, the coefficients of reaction r are stored from
+     * stoichiometryOffsets[r] (inclusive) to stoichiometryOffsets[r+1] (exclusive). Substrates have negative
+     * coefficients.
+     */
+    private int[] stoichiometryOffsets;
+    private int[] stoichiometrySpecies;
+    private double[] stoichiometryCoefficients;
+
+    /**
+     * The species, whose concentrations are multiplied in the forwards direction (the substrates) in compressed row
+     * storage.
+     */
+    private int[] substrateOffsets;
+    private int[] substrateSpecies;
+
+    /**
+     * The species, whose concentrations are multiplied in the backwards direction (the products) in compressed row
+     * storage.
+     */
+    private int[] productOffsets;
+    private int[] productSpecies;
+
+    /**
+     * The rate law of each reaction.
+     */
+    private int[] rateLaws;
+
+    /**
+     * The forwards rate constants (turnover numbers for Michaelis-Menten kinetics).
+     */
+    private RateConstant<?>[] forwardsRates;
+
+    /**
+     * The backwards rate constants.
+     */
+    private RateConstant<?>[] backwardsRates;
+
+    /**
+     * The Michaelis constants.
+     */
+    private double[] michaelisConstants;
+
+    /**
+     * The species of the enzyme of Michaelis-Menten kinetics.
+     */
+    private int[] enzymeSpecies;
+
+    /**
+     * The concentrations and deltas of all species, reused by each thread for every node.
+     */
+    private ThreadLocal<Scratch> scratch;
+
+    /**
+     * Creates a new reaction network. New networks should be created with {@link #compile(Simulation)}.
+     */
+    public ReactionNetwork() {
+        reactions = new ArrayList<>();
+    }
+
+    /**
+     * Compiles all compilable reactions of the simulation to a reaction network. The compiled reactions are
+     * subsequently only applied to vesicles. The network is neither added to the simulation, nor are any reactions
+     * compiled, if the simulation contains no compilable reaction.
+     *
+     * @param simulation The simulation.
+     * @return The network, or null if no reaction has been compiled.
+     */
+    public static ReactionNetwork compile(Simulation simulation) {
+        List<Reaction> compilableReactions = new ArrayList<>();
+        for (UpdateModule module : simulation.getModules()) {
+            if (module instanceof Reaction && isCompilable((Reaction) module)) {
+                compilableReactions.add((Reaction) module);
+            }
+        }
+        if (compilableReactions.isEmpty()) {
+            return null;
+        }
+        ReactionNetwork network = ModuleFactory.setupModule(ReactionNetwork.class,
+                ModuleFactory.Scope.SEMI_NEIGHBOURHOOD_DEPENDENT,
+                ModuleFactory.Specificity.UPDATABLE_SPECIFIC);
+        network.compileReactions(compilableReactions);
+        simulation.addModule(network);
+        logger.info("Compiled {} reactions with {} species to {}.", network.getNumberOfReactions(), network.getNumberOfSpecies(), network);
+        return network;
+    }
+
+    /**
+     * Returns true if the reaction can be compiled, i.e. it has static reactants and a mass action or Michaelis-Menten
+     * kinetic law with all required rates.
+     *
+     * @param reaction The reaction.
+     * @return True if the reaction can be compiled.
+     */
+    static boolean isCompilable(Reaction reaction) {
+        if (!(reaction.getReactantBehavior() instanceof StaticReactantBehavior)) {
+            return false;
+        }
+        KineticLaw kineticLaw = reaction.getKineticLaw();
+        if (kineticLaw == null) {
+            return false;
+        }
+        if (kineticLaw.getClass().equals(IrreversibleKineticLaw.class)) {
+            return findRate(reaction, ForwardsRateConstant.class) != null;
+        }
+        if (kineticLaw.getClass().equals(ReversibleKineticLaw.class)) {
+            return findRate(reaction, ForwardsRateConstant.class) != null && findRate(reaction, BackwardsRateConstant.class) != null;
+        }
+        if (kineticLaw.getClass().equals(MichaelisMentenKineticLaw.class)) {
+            return findRate(reaction, TurnoverNumber.class) != null && findFeature(reaction, MichaelisConstant.class) != null
+                    && !reaction.getReactantBehavior().getSubstrates().isEmpty()
+                    && !reaction.getReactantBehavior().getCatalysts().isEmpty();
+        }
+        return false;
+    }
+
+    private static RateConstant<?> findRate(Reaction reaction, Class<? extends Feature> featureClass) {
+        Feature<?> feature = findFeature(reaction, featureClass);
+        if (feature instanceof RateConstant) {
+            return (RateConstant<?>) feature;
+        }
+        return null;
+    }
+
+    private static Feature<?> findFeature(Reaction reaction, Class<? extends Feature> featureClass) {
+        for (Feature<?> feature : reaction.getFeatures()) {
+            if (featureClass.isInstance(feature)) {
+                return feature;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Assigns species indices and builds the stoichiometry matrix and rate law vector of the given reactions.
+     *
+     * @param compilableReactions The reactions.
+     */
+    private void compileReactions(List<Reaction> compilableReactions) {
+        reactions.addAll(compilableReactions);
+        int numberOfReactions = reactions.size();
+        Map<CellTopology, Map<ChemicalEntity, Integer>> speciesIndices = new HashMap<>();
+        List<CellTopology> topologies = new ArrayList<>();
+        List<ChemicalEntity> entities = new ArrayList<>();
+        List<Integer> stoichiometry = new ArrayList<>();
+        List<Double> coefficients = new ArrayList<>();
+        List<Integer> substrates = new ArrayList<>();
+        List<Integer> products = new ArrayList<>();
+        stoichiometryOffsets = new int[numberOfReactions + 1];
+        substrateOffsets = new int[numberOfReactions + 1];
+        productOffsets = new int[numberOfReactions + 1];
+        rateLaws = new int[numberOfReactions];
+        forwardsRates = new RateConstant<?>[numberOfReactions];
+        backwardsRates = new RateConstant<?>[numberOfReactions];
+        michaelisConstants = new double[numberOfReactions];
+        enzymeSpecies = new int[numberOfReactions];
+        boolean activityTracking = true;
+        for (int reactionIndex = 0; reactionIndex < numberOfReactions; reactionIndex++) {
+            Reaction reaction = reactions.get(reactionIndex);
+            StaticReactantBehavior behavior = (StaticReactantBehavior) reaction.getReactantBehavior();
+            // stoichiometry and rate law inputs
+            for (Reactant substrate : behavior.getSubstrates()) {
+                int species = indexOf(speciesIndices, topologies, entities, substrate);
+                stoichiometry.add(species);
+                coefficients.add(-substrate.getStoichiometricNumber());
+                substrates.add(species);
+            }
+            for (Reactant product : behavior.getProducts()) {
+                int species = indexOf(speciesIndices, topologies, entities, product);
+                stoichiometry.add(species);
+                coefficients.add(product.getStoichiometricNumber());
+                products.add(species);
+            }
+            stoichiometryOffsets[reactionIndex + 1] = stoichiometry.size();
+            substrateOffsets[reactionIndex + 1] = substrates.size();
+            productOffsets[reactionIndex + 1] = products.size();
+            // rate law
+            KineticLaw kineticLaw = reaction.getKineticLaw();
+            if (kineticLaw instanceof MichaelisMentenKineticLaw) {
+                rateLaws[reactionIndex] = MICHAELIS_MENTEN;
+                forwardsRates[reactionIndex] = findRate(reaction, TurnoverNumber.class);
+                michaelisConstants[reactionIndex] = ((MichaelisConstant) findFeature(reaction, MichaelisConstant.class)).getContent().getValue().doubleValue();
+                enzymeSpecies[reactionIndex] = indexOf(speciesIndices, topologies, entities, behavior.getCatalysts().get(0));
+            } else {
+                forwardsRates[reactionIndex] = findRate(reaction, ForwardsRateConstant.class);
+                if (kineticLaw instanceof ReversibleKineticLaw) {
+                    backwardsRates[reactionIndex] = findRate(reaction, BackwardsRateConstant.class);
+                    rateLaws[reactionIndex] = REVERSIBLE_MASS_ACTION;
+                } else {
+                    rateLaws[reactionIndex] = MASS_ACTION;
+                }
+                // zero order rates are returned regardless of the concentrations
+                if (forwardsRates[reactionIndex] instanceof ZeroOrderRateConstant || backwardsRates[reactionIndex] instanceof ZeroOrderRateConstant) {
+                    rateLaws[reactionIndex] = ZERO_ORDER;
+                }
+            }
+            activityTracking &= reaction.isActivityTracking();
+            addReferencedEntities(reaction.getReferencedEntities());
+            // nodes are calculated by the network
+            reaction.restrictToVesicles();
+        }
+        speciesTopologies = topologies.toArray(new CellTopology[0]);
+        speciesEntities = entities.toArray(new ChemicalEntity[0]);
+        speciesEntityIndices = new int[speciesEntities.length];
+        for (int species = 0; species < speciesEntities.length; species++) {
+            speciesEntityIndices[species] = EntityIndex.current().indexOf(speciesEntities[species]);
+        }
+        int numberOfSpecies = speciesEntities.length;
+        scratch = ThreadLocal.withInitial(() -> new Scratch(numberOfSpecies));
+        stoichiometrySpecies = toIntArray(stoichiometry);
+        stoichiometryCoefficients = new double[coefficients.size()];
+        for (int i = 0; i < coefficients.size(); i++) {
+            stoichiometryCoefficients[i] = coefficients.get(i);
+        }
+        substrateSpecies = toIntArray(substrates);
+        productSpecies = toIntArray(products);
+        setActivityTracking(activityTracking);
+        setApplicationCondition(updatable -> updatable instanceof AutomatonNode);
+        addDeltaFunction(new UpdatableDeltaFunction(this::calculateDeltas, container -> true));
+    }
+
+    private static int indexOf(Map<CellTopology, Map<ChemicalEntity, Integer>> speciesIndices, List<CellTopology> topologies, List<ChemicalEntity> entities, Reactant reactant) {
+        Map<ChemicalEntity, Integer> topologyIndices = speciesIndices.computeIfAbsent(reactant.getPreferredTopology(), topology -> new HashMap<>());
+        Integer species = topologyIndices.get(reactant.getEntity());
+        if (species == null) {
+            species = topologies.size();
+            topologies.add(reactant.getPreferredTopology());
+            entities.add(reactant.getEntity());
+            topologyIndices.put(reactant.getEntity(), species);
+        }
+        return species;
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < values.size(); i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Returns the compiled reactions.
+     *
+     * @return The compiled reactions.
+     */
+    public List<Reaction> getReactions() {
+        return reactions;
+    }
+
+    public int getNumberOfReactions() {
+        return reactions.size();
+    }
+
+    public int getNumberOfSpecies() {
+        return speciesEntities.length;
+    }
+
+    /**
+     * Returns the net stoichiometric coefficient of the entity in the topology for the given reaction, i.e. the
+     * coefficient in the stoichiometry matrix.
+     *
+     * @param reaction The reaction.
+     * @param topology The topology.
+     * @param entity The entity.
+     * @return The stoichiometric coefficient.
+     */
+    public double getStoichiometricCoefficient(Reaction reaction, CellTopology topology, ChemicalEntity entity) {
+        int reactionIndex = -1;
+        for (int index = 0; index < reactions.size(); index++) {
+            if (reactions.get(index) == reaction) {
+                reactionIndex = index;
+                break;
+            }
+        }
+        double coefficient = 0.0;
+        if (reactionIndex == -1) {
+            return coefficient;
+        }
+        for (int i = stoichiometryOffsets[reactionIndex]; i < stoichiometryOffsets[reactionIndex + 1]; i++) {
+            int species = stoichiometrySpecies[i];
+            if (speciesTopologies[species] == topology && speciesEntities[species].equals(entity)) {
+                coefficient += stoichiometryCoefficients[i];
+            }
+        }
+        return coefficient;
+    }
+
+    /**
+     * Reads the concentrations of all species from the container.
+     *
+     * @param container The container.
+     * @param concentrations The array the concentrations are written to.
+     * @return The concentrations.
+     */
+    private double[] collectConcentrations(ConcentrationContainer container, double[] concentrations) {
+        for (int species = 0; species < concentrations.length; species++) {
+            concentrations[species] = container.get(speciesTopologies[species], speciesEntityIndices[species]);
+        }
+        return concentrations;
+    }
+
+    /**
+     * Returns the current (full or half) scaled value of the rate.
+     *
+     * @param rate The rate.
+     * @param strutCalculation True if half scaled values are required.
+     * @return The scaled rate.
+     */
+    private static double scale(RateConstant<?> rate, boolean strutCalculation) {
+        return strutCalculation ? rate.getHalfScaledQuantity() : rate.getScaledQuantity();
+    }
+
+    /**
+     * Calculates the deltas of all species and passes them directly to {@link #handleDelta(Updatable, CellSubsection,
+     * ChemicalEntity, double)}, such that no map of deltas is created.
+     *
+     * @param container The container.
+     * @return An empty map.
+     */
+    private Map<ConcentrationDeltaIdentifier, ConcentrationDelta> calculateDeltas(ConcentrationContainer container) {
+        Scratch threadScratch = scratch.get();
+        double[] concentrations = collectConcentrations(container, threadScratch.concentrations);
+        double[] deltas = threadScratch.deltas;
+        Arrays.fill(deltas, 0.0);
+        boolean strutCalculation = supplier.isStrutCalculation();
+        for (int reaction = 0; reaction < rateLaws.length; reaction++) {
+            // reactions only take place if all substrates are present
+            if (!containsSubstrates(reaction, concentrations)) {
+                continue;
+            }
+            double velocity = determineVelocity(reaction, concentrations, strutCalculation);
+            for (int i = stoichiometryOffsets[reaction]; i < stoichiometryOffsets[reaction + 1]; i++) {
+                deltas[stoichiometrySpecies[i]] += velocity * stoichiometryCoefficients[i];
+            }
+        }
+        // one delta for each changed species
+        Updatable updatable = supplier.getCurrentUpdatable();
+        for (int species = 0; species < deltas.length; species++) {
+            if (!deltaIsValid(deltas[species])) {
+                continue;
+            }
+            CellSubsection subsection = container.getSubsection(speciesTopologies[species]);
+            if (subsection == null) {
+                continue;
+            }
+            handleDelta(updatable, subsection, speciesEntities[species], deltas[species]);
+        }
+        return Collections.emptyMap();
+    }
+
+    private boolean containsSubstrates(int reaction, double[] concentrations) {
+        for (int i = substrateOffsets[reaction]; i < substrateOffsets[reaction + 1]; i++) {
+            if (concentrations[substrateSpecies[i]] == 0.0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double determineVelocity(int reaction, double[] concentrations, boolean strutCalculation) {
+        switch (rateLaws[reaction]) {
+            case MASS_ACTION:
+                return scale(forwardsRates[reaction], strutCalculation) * multiply(substrateSpecies, substrateOffsets[reaction], substrateOffsets[reaction + 1], concentrations);
+            case REVERSIBLE_MASS_ACTION:
+                return scale(forwardsRates[reaction], strutCalculation) * multiply(substrateSpecies, substrateOffsets[reaction], substrateOffsets[reaction + 1], concentrations)
+                        - scale(backwardsRates[reaction], strutCalculation) * multiply(productSpecies, productOffsets[reaction], productOffsets[reaction + 1], concentrations);
+            case ZERO_ORDER:
+                return scale(forwardsRates[reaction], strutCalculation);
+            case MICHAELIS_MENTEN:
+                double substrate = concentrations[substrateSpecies[substrateOffsets[reaction]]];
+                double enzyme = concentrations[enzymeSpecies[reaction]];
+                return (scale(forwardsRates[reaction], strutCalculation) * enzyme * substrate) / (michaelisConstants[reaction] + substrate);
+            default:
+                throw new IllegalStateException("Unknown rate law " + rateLaws[reaction] + ".");
+        }
+    }
+
+    private static double multiply(int[] species, int from, int to, double[] concentrations) {
+        double product = 1.0;
+        for (int i = from; i < to; i++) {
+            product *= concentrations[species[i]];
+        }
+        return product;
+    }
+
+    /**
+     * Returns the derivative of the product of the concentrations of the given species with respect to the
+     * concentration of the given column species.
+     *
+     * @param species The species in compressed row storage.
+     * @param from The first index of the row (inclusive).
+     * @param to The last index of the row (exclusive).
+     * @param column The species the derivative is determined for.
+     * @param concentrations The concentrations of all species.
+     * @return The derivative.
+     */
+    private static double differentiate(int[] species, int from, int to, int column, double[] concentrations) {
+        double derivative = 0.0;
+        for (int i = from; i < to; i++) {
+            if (species[i] != column) {
+                continue;
+            }
+            double product = 1.0;
+            for (int j = from; j < to; j++) {
+                if (j != i) {
+                    product *= concentrations[species[j]];
+                }
+            }
+            derivative += product;
+        }
+        return derivative;
+    }
+
+    @Override
+    public boolean providesJacobian() {
+        return true;
+    }
+
+    /**
+     * Determines the derivatives of the deltas of all compiled reactions with respect to the concentrations of all
+     * species. The derivatives of the rate laws are determined analytically.
+     *
+     * @param updatable The updatable.
+     * @param jacobian The jacobian of the updatable.
+     */
+    @Override
+    public void determineJacobian(Updatable updatable, ConcentrationJacobian jacobian) {
+        if (!(updatable instanceof AutomatonNode)) {
+            return;
+        }
+        ConcentrationContainer container = updatable.getConcentrationContainer();
+        double[] concentrations = collectConcentrations(container, scratch.get().concentrations);
+        for (int reaction = 0; reaction < rateLaws.length; reaction++) {
+            if (rateLaws[reaction] == ZERO_ORDER) {
+                continue;
+            }
+            for (int species = 0; species < concentrations.length; species++) {
+                double derivative = differentiateVelocity(reaction, species, concentrations);
+                if (derivative == 0.0) {
+                    continue;
+                }
+                CellSubsection columnSubsection = container.getSubsection(speciesTopologies[species]);
+                if (columnSubsection == null) {
+                    continue;
+                }
+                int column = jacobian.indexOf(columnSubsection, speciesEntityIndices[species]);
+                for (int i = stoichiometryOffsets[reaction]; i < stoichiometryOffsets[reaction + 1]; i++) {
+                    CellSubsection rowSubsection = container.getSubsection(speciesTopologies[stoichiometrySpecies[i]]);
+                    if (rowSubsection != null) {
+                        int row = jacobian.indexOf(rowSubsection, speciesEntityIndices[stoichiometrySpecies[i]]);
+                        jacobian.add(row, column, stoichiometryCoefficients[i] * derivative);
+                    }
+                }
+            }
+        }
+    }
+
+    private double differentiateVelocity(int reaction, int species, double[] concentrations) {
+        switch (rateLaws[reaction]) {
+            case MASS_ACTION:
+                return forwardsRates[reaction].getScaledQuantity() * differentiate(substrateSpecies, substrateOffsets[reaction], substrateOffsets[reaction + 1], species, concentrations);
+            case REVERSIBLE_MASS_ACTION:
+                return forwardsRates[reaction].getScaledQuantity() * differentiate(substrateSpecies, substrateOffsets[reaction], substrateOffsets[reaction + 1], species, concentrations)
+                        - backwardsRates[reaction].getScaledQuantity() * differentiate(productSpecies, productOffsets[reaction], productOffsets[reaction + 1], species, concentrations);
+            case MICHAELIS_MENTEN:
+                int substrateSpecies = this.substrateSpecies[substrateOffsets[reaction]];
+                double kCat = forwardsRates[reaction].getScaledQuantity();
+                double km = michaelisConstants[reaction];
+                double substrate = concentrations[substrateSpecies];
+                double enzyme = concentrations[enzymeSpecies[reaction]];
+                double derivative = 0.0;
+                if (species == substrateSpecies) {
+                    derivative += kCat * enzyme * km / ((km + substrate) * (km + substrate));
+                }
+                if (species == enzymeSpecies[reaction]) {
+                    derivative += kCat * substrate / (km + substrate);
+                }
+                return derivative;
+            default:
+                return 0.0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getIdentifier() + " (" + reactions.size() + " reactions)";
+    }
+
+    /**
+     * The arrays used to evaluate the network for a single node.
+     */
+    private static final class Scratch {
+
+        private final double[] concentrations;
+        private final double[] deltas;
+
+        private Scratch(int numberOfSpecies) {
+            concentrations = new double[numberOfSpecies];
+            deltas = new double[numberOfSpecies];
+        }
+
+    }
+
+}
@@ -12,14 +12,15 @@ import bio.singa.simulation.model.parameters.Parameter;
 import tec.units.indriya.quantity.Quantities;
 import uk.co.cogitolearning.cogpar.*;
 
-import javax.measure.Quantity;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 import static tec.units.indriya.AbstractUnit.ONE;
 
 /**
+ * A kinetic law defined by an expression string. The expression is compiled once, variables are resolved to slots
+ * of the {@link CompiledExpression} and bound to the referenced features, parameters and reactants on first use.
+ * Evaluating the compiled expression does not modify the law, such that it can be evaluated concurrently.
+ *
  * @author cl
  */
 public class DynamicKineticLaw implements KineticLaw {
@@ -27,9 +28,15 @@ public class DynamicKineticLaw implements KineticLaw {
     private Reaction reaction;
 
     /**
-     * The expression that is evaluated.
+     * The compiled expression that is evaluated.
      */
-    private final ExpressionNode expression;
+    private final CompiledExpression expression;
+
+    /**
+     * The variables of the expression bound to their features, parameters and reactants, null if the references
+     * changed since the last evaluation.
+     */
+    private volatile Bindings bindings;
 
     /**
      * The original string of the expression.
@@ -54,7 +61,7 @@ public class DynamicKineticLaw implements KineticLaw {
     public DynamicKineticLaw(Reaction reaction, String kineticLawString) {
         this.reaction = reaction;
         expressionString = kineticLawString;
-        expression = new ExpressionParser().parse(kineticLawString);
+        expression = CompiledExpression.compile(new ExpressionParser().parse(kineticLawString));
         featureMap = new HashMap<>();
         concentrationMap = new HashMap<>();
         parameterMap = new HashMap<>();
@@ -62,32 +69,37 @@ public class DynamicKineticLaw implements KineticLaw {
 
     public void referenceReactant(String parameterIdentifier, Reactant reactant) {
         concentrationMap.put(parameterIdentifier, reactant);
+        bindings = null;
     }
 
     public void referenceReactant(Reactant reactant) {
         concentrationMap.put(reactant.getEntity().getIdentifier().toString(), reactant);
+        bindings = null;
     }
 
     public void referenceFeature(String parameterIdentifier, ScalableQuantitativeFeature feature) {
         featureMap.put(parameterIdentifier, feature);
+        bindings = null;
     }
 
     public void referenceFeature(ScalableQuantitativeFeature feature) {
         featureMap.put(feature.getDescriptor(), feature);
+        bindings = null;
     }
 
     public void referenceConstant(String parameterIdentifier, double constant) {
         parameterMap.put(parameterIdentifier, new Parameter<>(parameterIdentifier, Quantities.getQuantity(constant, ONE), Evidence.NO_EVIDENCE));
-        expression.accept(new SetVariable(parameterIdentifier, constant));
+        bindings = null;
     }
 
     public void referenceConstant(String parameterIdentifier, double constant, Evidence evidence) {
         parameterMap.put(parameterIdentifier, new Parameter<>(parameterIdentifier, Quantities.getQuantity(constant, ONE), evidence));
-        expression.accept(new SetVariable(parameterIdentifier, constant));
+        bindings = null;
     }
 
     public void referenceParameter(Parameter<?> parameter) {
         parameterMap.put(parameter.getIdentifier(), parameter);
+        bindings = null;
     }
 
     public Map<String, ScalableQuantitativeFeature> getFeatureMap() {
@@ -96,6 +108,7 @@ public class DynamicKineticLaw implements KineticLaw {
 
     public void setFeatureMap(Map<String, ScalableQuantitativeFeature> featureMap) {
         this.featureMap = featureMap;
+        bindings = null;
     }
 
     public Map<String, Reactant> getConcentrationMap() {
@@ -104,6 +117,7 @@ public class DynamicKineticLaw implements KineticLaw {
 
     public void setConcentrationMap(Map<String, Reactant> concentrationMap) {
         this.concentrationMap = concentrationMap;
+        bindings = null;
     }
 
     public String getExpressionString() {
@@ -116,65 +130,129 @@ public class DynamicKineticLaw implements KineticLaw {
 
     public void setParameterMap(Map<String, Parameter> parameterMap) {
         this.parameterMap = parameterMap;
+        bindings = null;
     }
 
     @Override
     public double determineVelocity(ReactionEvent reactionEvent) {
+        Bindings currentBindings = bindings;
+        if (currentBindings == null) {
+            currentBindings = bind();
+            bindings = currentBindings;
+        }
+        boolean strutCalculation = reaction.getSupplier().isStrutCalculation();
+        double[] slots = new double[expression.getNumberOfSlots()];
         // set features
-        for (Map.Entry<String, ScalableQuantitativeFeature> entry : featureMap.entrySet()) {
-            double value;
-            if (reaction.getSupplier().isStrutCalculation()) {
-                value = entry.getValue().getHalfScaledQuantity();
-            } else {
-                value = entry.getValue().getScaledQuantity();
-            }
-            SetVariable variable = new SetVariable(entry.getKey(), value);
-            expression.accept(variable);
+        for (int i = 0; i < currentBindings.features.length; i++) {
+            ScalableQuantitativeFeature<?> feature = currentBindings.features[i];
+            slots[currentBindings.featureSlots[i]] = strutCalculation ? feature.getHalfScaledQuantity() : feature.getScaledQuantity();
         }
         // set parameters
-        for (Map.Entry<String, Parameter> entry : parameterMap.entrySet()) {
-            entry.getValue().scale();
-            Quantity<?> parameterQuantity;
-            if (reaction.getSupplier().isStrutCalculation()) {
-                parameterQuantity = entry.getValue().getHalfScaledQuantity();
-            } else {
-                parameterQuantity = entry.getValue().getScaledQuantity();
-            }
-            SetVariable variable = new SetVariable(entry.getKey(), parameterQuantity.getValue().doubleValue());
-            expression.accept(variable);
+        for (int i = 0; i < currentBindings.parameters.length; i++) {
+            slots[currentBindings.parameterSlots[i]] = currentBindings.parameters[i].determineScaledValue(strutCalculation);
         }
         // set concentrations
-        for (Map.Entry<String, Reactant> entry : concentrationMap.entrySet()) {
-            Reactant reactant = entry.getValue();
-            List<ReactantConcentration> concentrations = reactionEvent.getUpdatableBehavior().collectReactants(concentrationMap.values());
-            double concentration = 0.0;
-            for (ReactantConcentration reactantConcentration : concentrations) {
-                if (reactantConcentration.getReactant().equals(reactant)) {
-                    concentration = reactantConcentration.getConcentration();
-                    break;
+        if (currentBindings.reactants.length > 0) {
+            List<ReactantConcentration> concentrations = reactionEvent.getUpdatableBehavior().collectReactants(currentBindings.referencedReactants);
+            for (int i = 0; i < currentBindings.reactants.length; i++) {
+                Reactant reactant = currentBindings.reactants[i];
+                double concentration = 0.0;
+                for (ReactantConcentration reactantConcentration : concentrations) {
+                    if (reactantConcentration.getReactant().equals(reactant)) {
+                        concentration = reactantConcentration.getConcentration();
+                        break;
+                    }
                 }
+                if (reactant.getPreferredConcentrationUnit() != null) {
+                    concentration = UnitRegistry.concentration(concentration).to(reactant.getPreferredConcentrationUnit()).getValue().doubleValue();
+                }
+                slots[currentBindings.reactantSlots[i]] = concentration;
             }
-            if (reactant.getPreferredConcentrationUnit() != null) {
-                concentration = UnitRegistry.concentration(concentration).to(reactant.getPreferredConcentrationUnit()).getValue().doubleValue();
-            }
-            SetVariable variable = new SetVariable(entry.getKey(), concentration);
-            expression.accept(variable);
         }
         // calculate
-        return evaluate();
+        return evaluate(slots);
+    }
+
+    /**
+     * Binds each variable of the expression to the referenced feature, parameter or reactant. If the same identifier
+     * is referenced multiple times, reactants take precedence over parameters and parameters over features.
+     *
+     * @return The bindings.
+     */
+    private Bindings bind() {
+        int numberOfSlots = expression.getNumberOfSlots();
+        Object[] sources = new Object[numberOfSlots];
+        for (Map.Entry<String, ScalableQuantitativeFeature> entry : featureMap.entrySet()) {
+            assignSource(sources, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Parameter> entry : parameterMap.entrySet()) {
+            assignSource(sources, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Reactant> entry : concentrationMap.entrySet()) {
+            assignSource(sources, entry.getKey(), entry.getValue());
+        }
+        List<Integer> featureSlots = new ArrayList<>();
+        List<Integer> parameterSlots = new ArrayList<>();
+        List<Integer> reactantSlots = new ArrayList<>();
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            Object source = sources[slot];
+            if (source instanceof ScalableQuantitativeFeature) {
+                featureSlots.add(slot);
+            } else if (source instanceof Parameter) {
+                parameterSlots.add(slot);
+            } else if (source instanceof Reactant) {
+                reactantSlots.add(slot);
+            } else {
+                throw new ModuleCalculationException("Could not calculate expression" + expressionString + ". " +
+                        "Variable '" + expression.getVariable(slot) + "' was not initialized.");
+            }
+        }
+        Bindings bindings = new Bindings();
+        bindings.featureSlots = toArray(featureSlots);
+        bindings.features = new ScalableQuantitativeFeature[featureSlots.size()];
+        for (int i = 0; i < featureSlots.size(); i++) {
+            bindings.features[i] = (ScalableQuantitativeFeature<?>) sources[featureSlots.get(i)];
+        }
+        bindings.parameterSlots = toArray(parameterSlots);
+        bindings.parameters = new Parameter[parameterSlots.size()];
+        for (int i = 0; i < parameterSlots.size(); i++) {
+            bindings.parameters[i] = (Parameter<?>) sources[parameterSlots.get(i)];
+        }
+        bindings.reactantSlots = toArray(reactantSlots);
+        bindings.reactants = new Reactant[reactantSlots.size()];
+        for (int i = 0; i < reactantSlots.size(); i++) {
+            bindings.reactants[i] = (Reactant) sources[reactantSlots.get(i)];
+        }
+        bindings.referencedReactants = Arrays.asList(bindings.reactants);
+        return bindings;
+    }
+
+    private void assignSource(Object[] sources, String identifier, Object source) {
+        int slot = expression.getSlot(identifier);
+        if (slot != -1) {
+            sources[slot] = source;
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
     }
 
     /**
-     * Evaluates the expression and returns the result. If not all parameters have been set or the expression evaluates
-     * to NaN an error is logged.
+     * Evaluates the expression and returns the result. If the expression evaluates to NaN an error is logged.
      *
+     * @param slots The values of all variables.
      * @return The result of the evaluated expression.
      */
-    private double evaluate() {
+    private double evaluate(double[] slots) {
         double value;
         try {
-            value = expression.getValue();
-        } catch (ParserException | EvaluationException e) {
+            value = expression.evaluate(slots);
+        } catch (EvaluationException e) {
             throw new ModuleCalculationException("Could not calculate expression" + expressionString + ". " + e.getMessage());
         }
         if (Double.isNaN(value)) {
@@ -183,4 +261,19 @@ public class DynamicKineticLaw implements KineticLaw {
         return value;
     }
 
+    /**
+     * The variables of the expression grouped by the type of their values.
+     */
+    private static class Bindings {
+
+        private int[] featureSlots;
+        private ScalableQuantitativeFeature<?>[] features;
+        private int[] parameterSlots;
+        private Parameter<?>[] parameters;
+        private int[] reactantSlots;
+        private Reactant[] reactants;
+        private List<Reactant> referencedReactants;
+
+    }
+
 }
@@ -8,7 +8,6 @@ import bio.singa.features.model.FeatureProvider;
 import bio.singa.simulation.features.Cargoes;
 import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
 import bio.singa.simulation.model.modules.concentration.ModuleBuilder;
 import bio.singa.simulation.model.modules.concentration.ModuleFactory;
 import bio.singa.simulation.model.modules.concentration.functions.EntityDeltaFunction;
@@ -16,6 +15,7 @@ import bio.singa.simulation.model.modules.concentration.scope.DependentUpdate;
 import bio.singa.simulation.model.modules.concentration.specifity.EntitySpecific;
 import bio.singa.simulation.model.sections.CellSubsection;
 import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.sections.EntityIndex;
 import bio.singa.simulation.model.simulation.Simulation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,20 +73,22 @@ public class Diffusion extends ConcentrationBasedModule<EntityDeltaFunction> {
         addReferencedEntities(cargoes);
     }
 
-    private ConcentrationDelta calculateDelta(ConcentrationContainer concentrationContainer) {
+    private double calculateDelta(ConcentrationContainer concentrationContainer) {
         AutomatonNode node = (AutomatonNode) supplier.getCurrentUpdatable();
         ChemicalEntity entity = supplier.getCurrentEntity();
         CellSubsection subsection = supplier.getCurrentSubsection();
         final double currentConcentration = concentrationContainer.get(subsection, entity);
         final double diffusivity = getScaledFeature(entity, Diffusivity.class);
+        final int entityIndex = EntityIndex.current().lookup(entity);
         // calculate entering term
         int numberOfNeighbors = 0;
         double concentration = 0;
         // traverse each neighbouring cells
         for (AutomatonNode neighbour : node.getNeighbours()) {
-            if (neighbour.getConcentrationContainer().getReferencedSubsections().contains(subsection)) {
+            ConcentrationContainer neighbourContainer = neighbour.getConcentrationContainer();
+            if (neighbourContainer.containsSubsection(subsection)) {
                 // if the neighbour actually contains the same subsection
-                double availableConcentration = neighbour.getConcentrationContainer().get(subsection, entity);
+                double availableConcentration = neighbourContainer.get(subsection, entityIndex);
                 concentration += availableConcentration;
                 numberOfNeighbors++;
             }
@@ -96,9 +98,7 @@ public class Diffusion extends ConcentrationBasedModule<EntityDeltaFunction> {
         // calculate leaving amount
         final double leavingConcentration = numberOfNeighbors * diffusivity * currentConcentration;
         // calculate next concentration
-        final double delta = enteringConcentration - leavingConcentration;
-        // return delta
-        return new ConcentrationDelta(this, subsection, entity, delta);
+        return enteringConcentration - leavingConcentration;
     }
 
     private boolean onlyForReferencedEntities(ConcentrationContainer container) {
@@ -1,20 +1,28 @@
 package bio.singa.simulation.model.modules.concentration.scope;
 
+import bio.singa.features.units.ScalingContext;
+import bio.singa.mathematics.topology.grids.rectangular.RectangularCoordinate;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.modules.concentration.*;
 import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
 import bio.singa.simulation.model.modules.concentration.specifity.UpdateSpecificity;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.EntityIndex;
 import bio.singa.simulation.model.sections.ConcentrationContainer;
 import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.model.simulation.UpdateScheduler;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Dependent Updatable {@link ConcentrationBasedModule}s require an integer state of basically all updatables in a
  * simulation. First all updates for all updatables are calculated. Afterwards all half step concentrations are
  * determined and further all errors are calculated, looking for the {@link Updatable} with the largest
- * {@link LocalError} (e.g. {@link Diffusion}).
+ * {@link LocalError} (e.g. {@link Diffusion}). If a partition parallelism is set in the {@link UpdateScheduler}, the
+ * updatables are partitioned into square tiles of the graph that are processed in parallel, each with its own
+ * {@link FieldSupplier}. Deltas and errors of all tiles are merged in the order of the tiles.
  *
  * @author cl
  */
@@ -25,6 +33,27 @@ public class DependentUpdate implements UpdateScope {
      */
     private Map<Updatable, ConcentrationContainer> halfConcentrations;
 
+    /**
+     * The storage of the half concentrations of the tile processed by the calling thread.
+     */
+    private final ThreadLocal<Map<Updatable, ConcentrationContainer>> tileHalfConcentrations;
+
+    /**
+     * The tiles the updatables are partitioned into, if tiles are processed in parallel.
+     */
+    private final List<Tile> tiles;
+
+    /**
+     * The scaling context of the thread processing the tiles, captured for each call, since the context may change
+     * between calls (e.g. for each sub-step of a multi-rate integration).
+     */
+    private volatile ScalingContext tileScalingContext;
+
+    /**
+     * The entity index of the thread processing the tiles.
+     */
+    private volatile EntityIndex tileEntityIndex;
+
     /**
      * The associated module.
      */
@@ -37,6 +66,8 @@ public class DependentUpdate implements UpdateScope {
     public DependentUpdate(ConcentrationBasedModule<?> module) {
         this.module = module;
         halfConcentrations = new HashMap<>();
+        tileHalfConcentrations = new ThreadLocal<>();
+        tiles = new ArrayList<>();
     }
 
     /**
@@ -57,6 +88,20 @@ public class DependentUpdate implements UpdateScope {
 
     @Override
     public void processAllUpdatables(Collection<Updatable> updatables) {
+        UpdateScheduler scheduler = module.getSimulation().getScheduler();
+        if (scheduler.getPartitionParallelism() > 1) {
+            processTiles(updatables, scheduler);
+        } else {
+            processUpdatables(updatables, halfConcentrations);
+        }
+    }
+
+    /**
+     * Calculates full and half step deltas for the given updatables and determines the largest local error.
+     * @param updatables The updatables.
+     * @param halfConcentrations The storage of the half concentrations.
+     */
+    private void processUpdatables(Collection<Updatable> updatables, Map<Updatable, ConcentrationContainer> halfConcentrations) {
         // calculate all full updates first
         supply().setStrutCalculation(false);
         for (Updatable updatable : updatables) {
@@ -65,23 +110,102 @@ public class DependentUpdate implements UpdateScope {
                 specify().processContainer(updatable.getConcentrationContainer());
             }
         }
+        // stages of embedded integrators only require full step deltas
+        if (module.isStageCalculation()) {
+            return;
+        }
         // explicitly calculate half step concentrations
-        determineHalfStepConcentrations();
+        determineHalfStepConcentrations(halfConcentrations);
         supply().setStrutCalculation(true);
-        for (ConcentrationDeltaIdentifier identifier : supply().getCurrentFullDeltas().keySet()) {
-            supply().setCurrentUpdatable(identifier.getUpdatable());
-            specify().processContainer(getHalfStepConcentration(identifier.getUpdatable()), identifier.getSubsection(), identifier.getEntity());
+        ConcentrationDeltaBuffer deltaBuffer = supply().getDeltaBuffer();
+        // half step calculations may append new slots, only full deltas are revisited
+        int numberOfSlots = deltaBuffer.size();
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            if (!deltaBuffer.hasFullDelta(slot)) {
+                continue;
+            }
+            Updatable updatable = deltaBuffer.getUpdatable(slot);
+            supply().setCurrentUpdatable(updatable);
+            specify().processContainer(getHalfStepConcentration(updatable), deltaBuffer.getSubsection(slot), deltaBuffer.getEntity(slot));
         }
         // set largest local error
         supply().setLargestLocalError(module.determineLargestLocalError());
         // clear used deltas
-        supply().getCurrentFullDeltas().clear();
-        supply().getCurrentHalfDeltas().clear();
+        supply().clearDeltas();
+    }
+
+    /**
+     * Partitions the updatables into tiles of the graph and processes the tiles in parallel. Afterwards, potential
+     * deltas are assigned and the local error is determined in the order of the tiles, such that the result does not
+     * depend on the order in which the tiles have been processed.
+     * @param updatables The updatables.
+     * @param scheduler The scheduler providing the partition pool.
+     */
+    private void processTiles(Collection<Updatable> updatables, UpdateScheduler scheduler) {
+        List<Tile> activeTiles = partitionIntoTiles(updatables, scheduler.getPartitionTileSize());
+        tileScalingContext = ScalingContext.current();
+        tileEntityIndex = EntityIndex.current();
+        supply().setPartitioned(true);
+        try {
+            scheduler.invokePartitions(module, activeTiles);
+        } finally {
+            supply().setPartitioned(false);
+        }
+        // merge results in the order of the tiles
+        LocalError largestLocalError = LocalError.MINIMAL_EMPTY_ERROR;
+        for (Tile tile : activeTiles) {
+            tile.supplier.flushPotentialDeltas();
+            LocalError tileError = tile.supplier.getLargestLocalError();
+            if (tileError.getValue() > largestLocalError.getValue()) {
+                largestLocalError = tileError;
+            }
+        }
+        supply().setLargestLocalError(largestLocalError);
+    }
+
+    /**
+     * Assigns each updatable to a tile. Automaton nodes are assigned to square tiles of the grid, all other updatables
+     * are assigned to an additional tile. The tiles are retained between calls.
+     * @param updatables The updatables.
+     * @param tileSize The edge length of the tiles.
+     * @return All tiles that have been assigned at least one updatable.
+     */
+    private List<Tile> partitionIntoTiles(Collection<Updatable> updatables, int tileSize) {
+        AutomatonGraph graph = module.getSimulation().getGraph();
+        int tileColumns = 0;
+        int tileRows = 0;
+        if (graph != null) {
+            tileColumns = (graph.getNumberOfColumns() + tileSize - 1) / tileSize;
+            tileRows = (graph.getNumberOfRows() + tileSize - 1) / tileSize;
+        }
+        int numberOfTiles = tileColumns * tileRows + 1;
+        while (tiles.size() < numberOfTiles) {
+            tiles.add(new Tile());
+        }
+        for (Tile tile : tiles) {
+            tile.updatables.clear();
+        }
+        for (Updatable updatable : updatables) {
+            int tileIndex = numberOfTiles - 1;
+            if (graph != null && updatable instanceof AutomatonNode) {
+                RectangularCoordinate coordinate = ((AutomatonNode) updatable).getIdentifier();
+                tileIndex = (coordinate.getRow() / tileSize) * tileColumns + coordinate.getColumn() / tileSize;
+            }
+            tiles.get(tileIndex).updatables.add(updatable);
+        }
+        List<Tile> activeTiles = new ArrayList<>();
+        for (int tileIndex = 0; tileIndex < numberOfTiles; tileIndex++) {
+            Tile tile = tiles.get(tileIndex);
+            if (!tile.updatables.isEmpty()) {
+                activeTiles.add(tile);
+            }
+        }
+        return activeTiles;
     }
 
     @Override
     public void processUpdatable(Updatable updatable) {
-        processAllUpdatables(module.getSimulation().getUpdatables());
+        processAllUpdatables(module.getActiveUpdatables());
     }
 
     @Override
@@ -93,40 +217,97 @@ public class DependentUpdate implements UpdateScope {
 
     /**
      * Determines all half step concentrations for each calculated full delta.
+     * @param halfConcentrations The storage of the half concentrations.
      */
-    private void determineHalfStepConcentrations() {
+    private void determineHalfStepConcentrations(Map<Updatable, ConcentrationContainer> halfConcentrations) {
         // clean up previous values
         halfConcentrations.clear();
         // for each full delta
-        for (Map.Entry<ConcentrationDeltaIdentifier, ConcentrationDelta> entry : supply().getCurrentFullDeltas().entrySet()) {
+        ConcentrationDeltaBuffer deltaBuffer = supply().getDeltaBuffer();
+        for (int slot = 0; slot < deltaBuffer.size(); slot++) {
+            if (!deltaBuffer.hasFullDelta(slot)) {
+                continue;
+            }
             // get required values
-            final ConcentrationDeltaIdentifier identifier = entry.getKey();
-            final ConcentrationDelta fullDelta = entry.getValue();
-            final Updatable updatable = identifier.getUpdatable();
-            ConcentrationContainer container;
+            final Updatable updatable = deltaBuffer.getUpdatable(slot);
+            final CellSubsection subsection = deltaBuffer.getSubsection(slot);
+            final int entityIndex = deltaBuffer.getEntityIndex(slot);
+            ConcentrationContainer container = halfConcentrations.get(updatable);
             // check if container has been initialized
-            if (halfConcentrations.containsKey(updatable)) {
-                container = halfConcentrations.get(updatable);
-            } else {
+            if (container == null) {
                 container = updatable.getConcentrationContainer().fullCopy();
                 halfConcentrations.put(updatable, container);
             }
             // get full concentration
-            double fullConcentration = updatable.getConcentrationContainer().get(identifier.getSubsection(), identifier.getEntity());
+            double fullConcentration = updatable.getConcentrationContainer().get(subsection, entityIndex);
             // add half of the full delta
-            double halfStepConcentration = fullConcentration + (fullDelta.getValue() * 0.5);
+            double halfStepConcentration = fullConcentration + (deltaBuffer.getFullDelta(slot) * 0.5);
             // update concentration
-            container.set(identifier.getSubsection(), identifier.getEntity(), halfStepConcentration);
+            container.set(subsection, entityIndex, halfStepConcentration);
         }
     }
 
     @Override
     public ConcentrationContainer getHalfStepConcentration(Updatable updatable) {
-        ConcentrationContainer container = halfConcentrations.get(updatable);
+        Map<Updatable, ConcentrationContainer> currentHalfConcentrations = tileHalfConcentrations.get();
+        if (currentHalfConcentrations == null) {
+            currentHalfConcentrations = halfConcentrations;
+        }
+        ConcentrationContainer container = currentHalfConcentrations.get(updatable);
         if (container == null) {
             throw new IllegalStateException("No half concentration container has been defined for " + updatable + ".");
         }
         return container;
     }
 
+    /**
+     * A tile of updatables that is processed by a single thread, using its own field supplier and half step
+     * concentrations.
+     */
+    private class Tile implements Callable<Void> {
+
+        /**
+         * The supplier of this tile.
+         */
+        private final FieldSupplier supplier;
+
+        /**
+         * The updatables of this tile.
+         */
+        private final List<Updatable> updatables;
+
+        /**
+         * The storage of the half concentrations of this tile.
+         */
+        private final Map<Updatable, ConcentrationContainer> halfConcentrations;
+
+        /**
+         * Creates a new empty tile.
+         */
+        private Tile() {
+            supplier = supply().createTileSupplier();
+            updatables = new ArrayList<>();
+            halfConcentrations = new HashMap<>();
+        }
+
+        @Override
+        public Void call() {
+            ScalingContext previousContext = ScalingContext.bind(tileScalingContext);
+            EntityIndex previousIndex = EntityIndex.bind(tileEntityIndex);
+            supply().bindTileSupplier(supplier);
+            tileHalfConcentrations.set(halfConcentrations);
+            try {
+                supplier.resetError();
+                processUpdatables(updatables, halfConcentrations);
+            } finally {
+                ScalingContext.bind(previousContext);
+                EntityIndex.bind(previousIndex);
+                tileHalfConcentrations.remove();
+                supply().unbindTileSupplier();
+            }
+            return null;
+        }
+
+    }
+
 }
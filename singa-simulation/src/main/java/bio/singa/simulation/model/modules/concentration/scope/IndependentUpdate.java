@@ -1,8 +1,7 @@
 package bio.singa.simulation.model.modules.concentration.scope;
 
-import bio.singa.chemistry.entities.ChemicalEntity;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaBuffer;
 import bio.singa.simulation.model.modules.concentration.FieldSupplier;
 import bio.singa.simulation.model.modules.concentration.specifity.UpdateSpecificity;
 import bio.singa.simulation.model.sections.CellSubsection;
@@ -73,6 +72,10 @@ public class IndependentUpdate implements UpdateScope {
         // calculate full step deltas
         supply().setStrutCalculation(false);
         specify().processContainer(updatable.getConcentrationContainer());
+        // stages of embedded integrators only require full step deltas
+        if (module.isStageCalculation()) {
+            return;
+        }
         // explicitly calculate half step concentrations
         determineHalfStepConcentration();
         // calculate half step deltas
@@ -81,8 +84,7 @@ public class IndependentUpdate implements UpdateScope {
         // set largest local error
         supply().setLargestLocalError(module.determineLargestLocalError());
         // clear used deltas
-        supply().getCurrentFullDeltas().clear();
-        supply().getCurrentHalfDeltas().clear();
+        supply().clearDeltas();
     }
 
     @Override
@@ -99,16 +101,20 @@ public class IndependentUpdate implements UpdateScope {
         // initialize the container
         halfConcentration = supply().getCurrentUpdatable().getConcentrationContainer().fullCopy();
         // for each full delta
-        for (ConcentrationDelta fullDelta : supply().getCurrentFullDeltas().values()) {
+        ConcentrationDeltaBuffer deltaBuffer = supply().getDeltaBuffer();
+        for (int slot = 0; slot < deltaBuffer.size(); slot++) {
+            if (!deltaBuffer.hasFullDelta(slot)) {
+                continue;
+            }
             // get required values
-            final CellSubsection currentSubsection = fullDelta.getCellSubsection();
-            final ChemicalEntity currentEntity = fullDelta.getChemicalEntity();
+            final CellSubsection currentSubsection = deltaBuffer.getSubsection(slot);
+            final int entityIndex = deltaBuffer.getEntityIndex(slot);
             // get full concentration
-            double fullConcentration = halfConcentration.get(currentSubsection, currentEntity);
+            double fullConcentration = halfConcentration.get(currentSubsection, entityIndex);
             // add half of the full delta
-            double halfStepConcentration = fullConcentration + (fullDelta.getValue() * 0.5);
+            double halfStepConcentration = fullConcentration + (deltaBuffer.getFullDelta(slot) * 0.5);
             // update concentration
-            halfConcentration.set(currentSubsection, currentEntity, halfStepConcentration);
+            halfConcentration.set(currentSubsection, entityIndex, halfStepConcentration);
         }
     }
 
@@ -3,11 +3,11 @@ package bio.singa.simulation.model.modules.concentration.scope;
 import bio.singa.simulation.model.agents.pointlike.Vesicle;
 import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaIdentifier;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaBuffer;
 import bio.singa.simulation.model.modules.concentration.FieldSupplier;
 import bio.singa.simulation.model.modules.concentration.imlementations.transport.MembraneDiffusion;
 import bio.singa.simulation.model.modules.concentration.specifity.UpdateSpecificity;
+import bio.singa.simulation.model.sections.CellSubsection;
 import bio.singa.simulation.model.sections.ConcentrationContainer;
 import bio.singa.simulation.model.simulation.Updatable;
 
@@ -78,8 +78,12 @@ public class SemiDependentUpdate implements UpdateScope {
         // calculate full step deltas
         supply().setStrutCalculation(false);
         specify().processContainer(updatable.getConcentrationContainer());
+        // stages of embedded integrators only require full step deltas
+        if (module.isStageCalculation()) {
+            return;
+        }
         // if at least one delta has been determined
-        if (!supply().getCurrentFullDeltas().isEmpty()) {
+        if (!supply().getDeltaBuffer().hasNoFullDeltas()) {
             // explicitly calculate half step concentrations
             determineHalfStepConcentrations();
             // calculate half step deltas
@@ -88,8 +92,7 @@ public class SemiDependentUpdate implements UpdateScope {
             // set largest local error
             supply().setLargestLocalError(module.determineLargestLocalError());
             // clear used deltas
-            supply().getCurrentFullDeltas().clear();
-            supply().getCurrentHalfDeltas().clear();
+            supply().clearDeltas();
         }
     }
 
@@ -107,25 +110,27 @@ public class SemiDependentUpdate implements UpdateScope {
         // clean up previous values
         halfConcentrations.clear();
         // for each full delta
-        for (Map.Entry<ConcentrationDeltaIdentifier, ConcentrationDelta> entry : supply().getCurrentFullDeltas().entrySet()) {
+        ConcentrationDeltaBuffer deltaBuffer = supply().getDeltaBuffer();
+        for (int slot = 0; slot < deltaBuffer.size(); slot++) {
+            if (!deltaBuffer.hasFullDelta(slot)) {
+                continue;
+            }
             // get required values
-            final ConcentrationDeltaIdentifier identifier = entry.getKey();
-            final ConcentrationDelta fullDelta = entry.getValue();
-            final Updatable updatable = identifier.getUpdatable();
-            ConcentrationContainer container;
+            final Updatable updatable = deltaBuffer.getUpdatable(slot);
+            final CellSubsection subsection = deltaBuffer.getSubsection(slot);
+            final int entityIndex = deltaBuffer.getEntityIndex(slot);
+            ConcentrationContainer container = halfConcentrations.get(updatable);
             // check if container has already been initialized
-            if (halfConcentrations.containsKey(updatable)) {
-                container = halfConcentrations.get(updatable);
-            } else {
+            if (container == null) {
                 container = updatable.getConcentrationContainer().fullCopy();
                 halfConcentrations.put(updatable, container);
             }
             // get full concentration
-            double fullConcentration = container.get(identifier.getSubsection(), identifier.getEntity());
+            double fullConcentration = container.get(subsection, entityIndex);
             // add half of the full delta
-            double halfStepConcentration = fullConcentration + (fullDelta.getValue() * 0.5);
+            double halfStepConcentration = fullConcentration + (deltaBuffer.getFullDelta(slot) * 0.5);
             // update concentration
-            container.set(identifier.getSubsection(), identifier.getEntity(), halfStepConcentration);
+            container.set(subsection, entityIndex, halfStepConcentration);
         }
     }
 
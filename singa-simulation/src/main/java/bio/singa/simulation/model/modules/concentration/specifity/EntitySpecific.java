@@ -3,7 +3,6 @@ package bio.singa.simulation.model.modules.concentration.specifity;
 import bio.singa.chemistry.entities.ChemicalEntity;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
 import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaIdentifier;
 import bio.singa.simulation.model.modules.concentration.FieldSupplier;
 import bio.singa.simulation.model.modules.concentration.functions.AbstractDeltaFunction;
 import bio.singa.simulation.model.modules.concentration.functions.EntityDeltaFunction;
@@ -74,9 +73,16 @@ public class EntitySpecific implements UpdateSpecificity<EntityDeltaFunction> {
             // test condition
             if (deltaFunction.getCondition().test(container)) {
                 // apply function
-                ConcentrationDelta delta = deltaFunction.getFunction().apply(container);
-                if (module.deltaIsValid(delta)) {
-                    module.handleDelta(new ConcentrationDeltaIdentifier(supply().getCurrentUpdatable(), supply().getCurrentSubsection(), supply().getCurrentEntity()), delta);
+                if (deltaFunction.returnsValue()) {
+                    double value = deltaFunction.getValueFunction().applyAsDouble(container);
+                    if (module.deltaIsValid(value)) {
+                        module.handleDelta(supply().getCurrentUpdatable(), supply().getCurrentSubsection(), supply().getCurrentEntity(), value);
+                    }
+                } else {
+                    ConcentrationDelta delta = deltaFunction.getFunction().apply(container);
+                    if (module.deltaIsValid(delta)) {
+                        module.handleDelta(supply().getCurrentUpdatable(), supply().getCurrentSubsection(), delta);
+                    }
                 }
             }
         }
@@ -3,7 +3,6 @@ package bio.singa.simulation.model.modules.concentration.specifity;
 import bio.singa.chemistry.entities.ChemicalEntity;
 import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
 import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaIdentifier;
 import bio.singa.simulation.model.modules.concentration.FieldSupplier;
 import bio.singa.simulation.model.modules.concentration.functions.AbstractDeltaFunction;
 import bio.singa.simulation.model.modules.concentration.functions.SectionDeltaFunction;
@@ -73,7 +72,7 @@ public class SectionSpecific implements UpdateSpecificity<SectionDeltaFunction>
                 for (ConcentrationDelta delta : deltas) {
                     supply().setCurrentEntity(delta.getChemicalEntity());
                     if (module.deltaIsValid(delta)) {
-                        module.handleDelta(new ConcentrationDeltaIdentifier(supply().getCurrentUpdatable(), supply().getCurrentSubsection(), supply().getCurrentEntity()), delta);
+                        module.handleDelta(supply().getCurrentUpdatable(), supply().getCurrentSubsection(), delta);
                     }
                 }
             }
@@ -7,15 +7,18 @@ import bio.singa.features.parameters.Environment;
 import bio.singa.features.units.UnitRegistry;
 import bio.singa.mathematics.vectors.Vector2D;
 import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleDisplacements;
 import bio.singa.simulation.model.modules.UpdateModule;
 import bio.singa.simulation.model.modules.concentration.ModuleState;
 import bio.singa.simulation.model.parameters.FeatureManager;
+import bio.singa.simulation.model.simulation.ModuleMetrics;
 import bio.singa.simulation.model.simulation.Simulation;
 import bio.singa.simulation.model.simulation.UpdateScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -33,6 +36,11 @@ public class DisplacementBasedModule implements UpdateModule {
 
     private static final double DEFAULT_DISPLACEMENT_CUTOFF_FACTOR = 1.0/10.0;
 
+    /**
+     * The number of vesicles in each chunk of batched modules.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
     /**
      * The simulation.
      */
@@ -52,6 +60,23 @@ public class DisplacementBasedModule implements UpdateModule {
     private double displacementCutoffFactor = DEFAULT_DISPLACEMENT_CUTOFF_FACTOR;
     private double displacementCutoff;
 
+    /**
+     * The metrics of this module, null if no metrics are collected.
+     */
+    private ModuleMetrics metrics;
+
+    /**
+     * The number of vesicles in each chunk of batched modules.
+     */
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * The displacements calculated by batched modules in the current pass.
+     */
+    private double[] batchDeltaX;
+    private double[] batchDeltaY;
+    private int batchSize;
+
     public DisplacementBasedModule() {
         deltaFunctions = new HashMap<>();
         displacementCutoff = Environment.convertSystemToSimulationScale(UnitRegistry.getSpace().multiply(displacementCutoffFactor));
@@ -63,6 +88,7 @@ public class DisplacementBasedModule implements UpdateModule {
     @Override
     public void run() {
         UpdateScheduler scheduler = getSimulation().getScheduler();
+        metrics = getSimulation().getMetrics().isEnabled() ? getSimulation().getMetrics().getModuleMetrics(this) : null;
         while (state == PENDING || state == REQUIRING_RECALCULATION) {
             switch (state) {
                 case PENDING:
@@ -82,8 +108,6 @@ public class DisplacementBasedModule implements UpdateModule {
                     break;
             }
         }
-        scheduler.getCountDownLatch().countDown();
-        logger.debug("Module finished {}, latch at {}.", Thread.currentThread().getName(), scheduler.getCountDownLatch().getCount());
     }
 
     public void setIdentifier(String identifier) {
@@ -99,18 +123,120 @@ public class DisplacementBasedModule implements UpdateModule {
 
     }
 
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of vesicles in each chunk of batched modules. Chunks are processed in parallel by the partition
+     * pool of the {@link UpdateScheduler}, if a partition parallelism is set. The random numbers drawn for a vesicle
+     * depend on the chunk it is assigned to, therefore the chunk size (but not the number of threads) affects the
+     * results of stochastic modules.
+     *
+     * @param chunkSize The chunk size.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size has to be at least 1.");
+        }
+        this.chunkSize = chunkSize;
+    }
+
     @Override
     public void calculateUpdates() {
-        processAllVesicles(simulation.getVesicleLayer().getVesicles());
+        if (isBatched()) {
+            processBatch(simulation.getVesicleLayer().getDisplacements());
+        } else {
+            processAllVesicles(simulation.getVesicleLayer().getVesicles());
+        }
         evaluateModuleState();
     }
 
+    /**
+     * Returns true if the displacements of this module are calculated in batches (see
+     * {@link #calculateDisplacements(VesicleDisplacements, SplittableRandom, int, int, double[], double[])}) instead of
+     * using delta functions for each vesicle.
+     *
+     * @return True if the module is batched.
+     */
+    protected boolean isBatched() {
+        return false;
+    }
+
+    /**
+     * Prepares the batched calculation, e.g. by resolving scaling factors. This method is called once for each
+     * calculation in the thread of the module, before any chunks are processed.
+     *
+     * @param vesicles The vesicles.
+     */
+    protected void prepareBatch(VesicleDisplacements vesicles) {
+
+    }
+
+    /**
+     * Calculates the displacements (simulation scale) of the vesicles in the given range. Chunks may be processed
+     * concurrently, implementations may only write the given range of the arrays.
+     *
+     * @param vesicles The vesicles.
+     * @param random The random stream of the chunk.
+     * @param from The index of the first vesicle (inclusive).
+     * @param to The index of the last vesicle (exclusive).
+     * @param deltaX The displacements in x direction.
+     * @param deltaY The displacements in y direction.
+     * @return The number of displaced vesicles.
+     */
+    protected int calculateDisplacements(VesicleDisplacements vesicles, SplittableRandom random, int from, int to, double[] deltaX, double[] deltaY) {
+        return 0;
+    }
+
+    private void processBatch(VesicleDisplacements vesicles) {
+        batchSize = vesicles.size();
+        if (batchDeltaX == null || batchDeltaX.length < batchSize) {
+            batchDeltaX = new double[batchSize];
+            batchDeltaY = new double[batchSize];
+        }
+        prepareBatch(vesicles);
+        int numberOfChunks = (batchSize + chunkSize - 1) / chunkSize;
+        int displacedVesicles = 0;
+        if (numberOfChunks > 1 && updateScheduler.getPartitionParallelism() > 1) {
+            List<Callable<Integer>> chunks = new ArrayList<>(numberOfChunks);
+            for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+                final int chunkIndex = chunk;
+                chunks.add(() -> calculateChunk(vesicles, chunkIndex));
+            }
+            for (int displacedInChunk : updateScheduler.invokePartitions(this, chunks)) {
+                displacedVesicles += displacedInChunk;
+            }
+        } else {
+            for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+                displacedVesicles += calculateChunk(vesicles, chunk);
+            }
+        }
+        vesicles.addDeltas(batchDeltaX, batchDeltaY, batchSize);
+        if (metrics != null) {
+            metrics.recordProcessedUpdatables(batchSize);
+            metrics.recordProducedDeltas(displacedVesicles);
+        }
+    }
+
+    private int calculateChunk(VesicleDisplacements vesicles, int chunk) {
+        int from = chunk * chunkSize;
+        int to = Math.min(from + chunkSize, batchSize);
+        Arrays.fill(batchDeltaX, from, to, 0.0);
+        Arrays.fill(batchDeltaY, from, to, 0.0);
+        SplittableRandom random = simulation.getRandomStreams().getStream(this, "chunk " + chunk);
+        return calculateDisplacements(vesicles, random, from, to, batchDeltaX, batchDeltaY);
+    }
+
     public void processAllVesicles(List<Vesicle> vesicles) {
         // determine deltas
         for (Vesicle vesicle : vesicles) {
             logger.trace("Determining delta for {}.", vesicle.getStringIdentifier());
             determineDeltas(vesicle);
         }
+        if (metrics != null) {
+            metrics.recordProcessedUpdatables(vesicles.size());
+        }
     }
 
     public void determineDeltas(Vesicle vesicle) {
@@ -120,6 +246,9 @@ public class DisplacementBasedModule implements UpdateModule {
                 DisplacementDelta spatialDelta = entry.getKey().apply(vesicle);
                 logDelta(vesicle, spatialDelta);
                 vesicle.addPotentialSpatialDelta(spatialDelta);
+                if (metrics != null) {
+                    metrics.recordProducedDelta();
+                }
             }
         }
     }
@@ -191,6 +320,19 @@ public class DisplacementBasedModule implements UpdateModule {
     }
 
     protected void evaluateModuleState() {
+        if (isBatched()) {
+            double squaredCutoff = displacementCutoff * displacementCutoff;
+            for (int index = 0; index < batchSize; index++) {
+                double squaredLength = batchDeltaX[index] * batchDeltaX[index] + batchDeltaY[index] * batchDeltaY[index];
+                if (squaredLength > squaredCutoff) {
+                    logger.trace("Recalculation required for module {} displacement magnitude {} exceeding threshold {}.", this, Math.sqrt(squaredLength), displacementCutoff);
+                    state = ModuleState.REQUIRING_RECALCULATION;
+                    return;
+                }
+            }
+            state = ModuleState.SUCCEEDED;
+            return;
+        }
         for (Vesicle vesicle : simulation.getVesicleLayer().getVesicles()) {
             if (vesicle.getSpatialDelta(this) != null) {
                 Vector2D displacement = vesicle.getSpatialDelta(this).getDeltaVector();
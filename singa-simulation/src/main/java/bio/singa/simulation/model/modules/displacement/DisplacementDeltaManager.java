@@ -102,11 +102,23 @@ public class DisplacementDeltaManager {
      * @return The next position.
      */
     public Vector2D calculateTotalDisplacement() {
+        return calculateTotalDisplacement(0.0, 0.0);
+    }
+
+    /**
+     * Calculates the total displacement resulting from the given displacement (e.g. calculated by batched modules) and
+     * the potential deltas and sets the result as the next position.
+     * @param deltaX The initial displacement in x direction.
+     * @param deltaY The initial displacement in y direction.
+     * @return The next position.
+     */
+    public Vector2D calculateTotalDisplacement(double deltaX, double deltaY) {
         // FIXME calculates total displacement AND sets next position
-        Vector2D totalDisplacement = new Vector2D(0.0, 0.0);
         for (DisplacementDelta potentialSpatialDelta : potentialSpatialDeltas) {
-            totalDisplacement = totalDisplacement.add(potentialSpatialDelta.getDeltaVector());
+            deltaX += potentialSpatialDelta.getDeltaVector().getX();
+            deltaY += potentialSpatialDelta.getDeltaVector().getY();
         }
+        Vector2D totalDisplacement = new Vector2D(deltaX, deltaY);
         nextPosition = currentPosition.add(totalDisplacement);
         return totalDisplacement;
     }
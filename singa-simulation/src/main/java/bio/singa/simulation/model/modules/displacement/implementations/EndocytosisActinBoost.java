@@ -2,7 +2,6 @@ package bio.singa.simulation.model.modules.displacement.implementations;
 
 import bio.singa.features.parameters.Environment;
 import bio.singa.features.quantities.MolarConcentration;
-import bio.singa.features.units.UnitRegistry;
 import bio.singa.mathematics.vectors.Vector2D;
 import bio.singa.simulation.features.ActinBoostVelocity;
 import bio.singa.simulation.features.BoostMediatingEntity;
@@ -11,10 +10,6 @@ import bio.singa.simulation.model.agents.pointlike.VesicleStateRegistry;
 import bio.singa.simulation.model.modules.displacement.DisplacementBasedModule;
 import bio.singa.simulation.model.modules.displacement.DisplacementDelta;
 import bio.singa.simulation.model.sections.CellTopology;
-import tec.units.indriya.quantity.Quantities;
-
-import javax.measure.Quantity;
-import javax.measure.quantity.Length;
 
 /**
  * @author cl
@@ -45,12 +40,11 @@ public class EndocytosisActinBoost extends DisplacementBasedModule {
             vesicle.setState(VesicleStateRegistry.UNATTACHED);
         }
         double systemSpeed = scaledVelocity * pullingEntity;
-        Quantity<Length> distance = Quantities.getQuantity(systemSpeed, UnitRegistry.getSpaceUnit());
         // determine direction
         Vector2D centre = simulation.getMembraneLayer().getMicrotubuleOrganizingCentre().getCircleRepresentation().getMidpoint();
         Vector2D direction = centre.subtract(vesicle.getPosition()).normalize();
         // determine delta
-        Vector2D delta = direction.multiply(Environment.convertSystemToSimulationScale(distance));
+        Vector2D delta = direction.multiply(Environment.convertSpaceToSimulationScale(systemSpeed));
         return new DisplacementDelta(this, delta);
     }
 
@@ -2,16 +2,13 @@ package bio.singa.simulation.model.modules.displacement.implementations;
 
 import bio.singa.chemistry.features.diffusivity.Diffusivity;
 import bio.singa.features.parameters.Environment;
-import bio.singa.features.units.UnitRegistry;
-import bio.singa.mathematics.vectors.Vector2D;
-import bio.singa.mathematics.vectors.Vectors;
-import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleDisplacements;
 import bio.singa.simulation.model.agents.pointlike.VesicleStateRegistry;
 import bio.singa.simulation.model.modules.displacement.DisplacementBasedModule;
-import bio.singa.simulation.model.modules.displacement.DisplacementDelta;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tec.units.indriya.quantity.Quantities;
+
+import java.util.SplittableRandom;
 
 /**
  * @author cl
@@ -25,17 +22,48 @@ public class VesicleCytoplasmDiffusion extends DisplacementBasedModule {
 
     private static final double SQRT2 = Math.sqrt(2.0);
 
+    /**
+     * The scaling of the square root of the diffusivity to the standard deviation of the displacement.
+     */
+    private double scaling;
+
+    /**
+     * The identifier of the state of diffusing vesicles.
+     */
+    private int diffusingState;
+
     public VesicleCytoplasmDiffusion() {
-        // delta function
-        addDeltaFunction(this::calculateDisplacement, vesicle -> vesicle.getState() == VesicleStateRegistry.UNATTACHED);
         // feature
         getRequiredFeatures().add(Diffusivity.class);
     }
 
-    public DisplacementDelta calculateDisplacement(Vesicle vesicle) {
-        double scaling = SQRT2 * Environment.convertSystemToSimulationScale(Quantities.getQuantity(Math.sqrt(vesicle.getFeature(Diffusivity.class).getScaledQuantity()), UnitRegistry.getSpaceUnit()));
-        Vector2D gaussian = Vectors.generateStandardGaussian2DVector();
-        return new DisplacementDelta(this, gaussian.multiply(scaling));
+    @Override
+    protected boolean isBatched() {
+        return true;
+    }
+
+    @Override
+    protected void prepareBatch(VesicleDisplacements vesicles) {
+        scaling = SQRT2 * Environment.convertSpaceToSimulationScale(1.0);
+        diffusingState = vesicles.getStateIdentifier(VesicleStateRegistry.UNATTACHED);
+    }
+
+    @Override
+    protected int calculateDisplacements(VesicleDisplacements vesicles, SplittableRandom random, int from, int to, double[] deltaX, double[] deltaY) {
+        int displacedVesicles = 0;
+        for (int index = from; index < to; index++) {
+            if (vesicles.getState(index) != diffusingState) {
+                continue;
+            }
+            // Box-Muller transform, drawing both gaussian components at once
+            double radius = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()));
+            double angle = 2.0 * Math.PI * random.nextDouble();
+            double standardDeviation = scaling * Math.sqrt(vesicles.getDiffusivity(index));
+            deltaX[index] = radius * Math.cos(angle) * standardDeviation;
+            deltaY[index] = radius * Math.sin(angle) * standardDeviation;
+            displacedVesicles++;
+        }
+        return displacedVesicles;
     }
 
     @Override
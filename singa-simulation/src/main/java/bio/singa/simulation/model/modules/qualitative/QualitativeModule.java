@@ -70,8 +70,6 @@ public abstract class QualitativeModule implements UpdateModule {
                     break;
             }
         }
-        scheduler.getCountDownLatch().countDown();
-        logger.debug("Module finished {}, latch at {}.", Thread.currentThread().getName(), scheduler.getCountDownLatch().getCount());
     }
 
     @Override
@@ -130,6 +128,15 @@ public abstract class QualitativeModule implements UpdateModule {
         return referencedChemicalEntities;
     }
 
+    /**
+     * Adds a referenced chemical entity.
+     *
+     * @param chemicalEntity The chemical entity.
+     */
+    protected void addReferencedEntity(ChemicalEntity chemicalEntity) {
+        referencedChemicalEntities.add(chemicalEntity);
+    }
+
     @Override
     public void checkFeatures() {
         for (Class<? extends Feature> featureClass : getRequiredFeatures()) {
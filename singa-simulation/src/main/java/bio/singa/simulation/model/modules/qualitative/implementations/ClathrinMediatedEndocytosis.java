@@ -4,6 +4,9 @@ import bio.singa.chemistry.entities.ChemicalEntity;
 import bio.singa.features.quantities.MolarConcentration;
 import bio.singa.features.units.UnitRegistry;
 import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.checkpoints.CheckpointInput;
+import bio.singa.simulation.checkpoints.CheckpointOutput;
+import bio.singa.simulation.checkpoints.CheckpointedModule;
 import bio.singa.simulation.features.*;
 import bio.singa.simulation.model.agents.pointlike.Vesicle;
 import bio.singa.simulation.model.agents.pointlike.VesicleStateRegistry;
@@ -20,16 +23,17 @@ import org.slf4j.LoggerFactory;
 import javax.measure.Quantity;
 import javax.measure.quantity.Length;
 import javax.measure.quantity.Time;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
 
 import static bio.singa.simulation.model.sections.CellTopology.MEMBRANE;
 
 /**
  * @author cl
  */
-public class ClathrinMediatedEndocytosis extends QualitativeModule {
+public class ClathrinMediatedEndocytosis extends QualitativeModule implements CheckpointedModule {
 
     private static final Logger logger = LoggerFactory.getLogger(ClathrinMediatedEndocytosis.class);
 
@@ -127,6 +131,7 @@ public class ClathrinMediatedEndocytosis extends QualitativeModule {
      * creates pre aspiring pits
      */
     private void prepareAspiringPits() {
+        SplittableRandom random = simulation.getRandomStreams().getStream(this, "pit formation");
         for (MembraneSegment segment : segments) {
             // probability = rate (1/area*time) * area * time step
             double probability = getFeature(PitFormationRate.class).getContent()
@@ -134,8 +139,8 @@ public class ClathrinMediatedEndocytosis extends QualitativeModule {
                     .multiply(UnitRegistry.getTime())
                     .getValue().doubleValue();
             // roll if event happens
-            if (ThreadLocalRandom.current().nextDouble() < probability) {
-                initializeAspiringPit(segment);
+            if (random.nextDouble() < probability) {
+                initializeAspiringPit(segment, random);
             }
         }
     }
@@ -144,15 +149,16 @@ public class ClathrinMediatedEndocytosis extends QualitativeModule {
      * Prepares a new aspiring pit.
      *
      * @param segment The segment where the pit should spawn.
+     * @param random The source of randomness.
      */
-    private void initializeAspiringPit(MembraneSegment segment) {
+    private void initializeAspiringPit(MembraneSegment segment, SplittableRandom random) {
         // choose random point on that site, spawn a little on the inside
-        Vector2D spawnSite = segment.getSegment().getRandomPoint();
+        Vector2D spawnSite = segment.getSegment().getRandomPoint(random);
         spawnSite = spawnSite.add(simulation.getMembraneLayer().getMicrotubuleOrganizingCentre().getCircleRepresentation().getMidpoint().subtract(spawnSite).normalize());
         // sample maturation time
-        Quantity<Time> checkpointTime = simulation.getElapsedTime().add(FeatureRandomizer.varyTime(getFeature(EndocytosisCheckpointTime.class).getContent()));
+        Quantity<Time> checkpointTime = simulation.getElapsedTime().add(FeatureRandomizer.varyTime(getFeature(EndocytosisCheckpointTime.class).getContent(), random));
         // sample vesicle radius
-        Quantity<Length> spawnRadius = FeatureRandomizer.varyLength(getFeature(VesicleRadius.class).getContent()).to(UnitRegistry.getSpaceUnit());
+        Quantity<Length> spawnRadius = FeatureRandomizer.varyLength(getFeature(VesicleRadius.class).getContent(), random).to(UnitRegistry.getSpaceUnit());
         // initial concentration
         double pitArea = spawnRadius.multiply(spawnRadius).multiply(Math.PI).getValue().doubleValue();
         ChemicalEntity cargo = getFeature(Cargo.class).getContent();
@@ -198,10 +204,11 @@ public class ClathrinMediatedEndocytosis extends QualitativeModule {
      * adds pre maturing pit to maturing pit and it removes from aspiring pit, also clears pre maturing pits
      */
     private void spawnMaturingPits() {
+        SplittableRandom random = simulation.getRandomStreams().getStream(this, "pit maturation");
         for (Pit preMaturingPit : preMaturingPits) {
             logger.trace("Clathrin-coated pit at {} entered maturation stage.", preMaturingPit.spawnSite);
             // determine new checkpoint
-            preMaturingPit.setCheckpointTime(simulation.getElapsedTime().add(FeatureRandomizer.varyTime(getFeature(MaturationTime.class).getContent())));
+            preMaturingPit.setCheckpointTime(simulation.getElapsedTime().add(FeatureRandomizer.varyTime(getFeature(MaturationTime.class).getContent(), random)));
             maturingPits.add(preMaturingPit);
             aspiringPits.remove(preMaturingPit);
         }
@@ -303,6 +310,50 @@ public class ClathrinMediatedEndocytosis extends QualitativeModule {
         return aspiringPits;
     }
 
+    public List<Pit> getMaturingPits() {
+        return maturingPits;
+    }
+
+    @Override
+    public void writeCheckpoint(CheckpointOutput output) throws IOException {
+        writePits(aspiringPits, output);
+        writePits(maturingPits, output);
+    }
+
+    private void writePits(List<Pit> pits, CheckpointOutput output) throws IOException {
+        output.writeInt(pits.size());
+        for (Pit pit : pits) {
+            output.writeTime(pit.getCheckpointTime());
+            output.writeVector(pit.getSpawnSite());
+            output.writeLength(pit.getSpawnRadius());
+            output.writeConcentration(pit.getCargoConcentration());
+            output.writeUpdatable(pit.getAssociatedNode());
+        }
+    }
+
+    @Override
+    public void readCheckpoint(CheckpointInput input) throws IOException {
+        onReset();
+        readPits(aspiringPits, input);
+        readPits(maturingPits, input);
+    }
+
+    private void readPits(List<Pit> pits, CheckpointInput input) throws IOException {
+        pits.clear();
+        ChemicalEntity cargo = getFeature(Cargo.class).getContent();
+        int numberOfPits = input.readInt();
+        for (int pit = 0; pit < numberOfPits; pit++) {
+            Quantity<Time> checkpointTime = input.readTime();
+            Vector2D spawnSite = input.readVector();
+            Quantity<Length> spawnRadius = input.readLength();
+            double cargoConcentration = input.readConcentration();
+            AutomatonNode node = input.readNode();
+            // the addition delta is determined again before it is applied
+            ConcentrationDelta additionDelta = new ConcentrationDelta(this, node.getConcentrationContainer().getMembraneSubsection(), cargo, 0.0);
+            pits.add(new Pit(checkpointTime, spawnSite, spawnRadius, cargoConcentration, node, additionDelta));
+        }
+    }
+
     public class Pit {
 
         // randomized next spawn time
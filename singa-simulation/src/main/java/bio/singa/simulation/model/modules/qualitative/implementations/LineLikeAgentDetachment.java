@@ -8,7 +8,7 @@ import bio.singa.simulation.model.modules.qualitative.QualitativeModule;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
 
 /**
  * @author cl
@@ -27,20 +27,22 @@ public class LineLikeAgentDetachment extends QualitativeModule {
     @Override
     public void calculateUpdates() {
         String vesicleState = getFeature(AppliedVesicleState.class).getContent();
-        for (Vesicle vesicle : simulation.getVesicleLayer().getVesicles()) {
+        List<Vesicle> vesicles = simulation.getVesicleLayer().getVesicles();
+        for (int index = 0; index < vesicles.size(); index++) {
+            Vesicle vesicle = vesicles.get(index);
             // continue if state does not match
             if (!vesicle.getState().equals(vesicleState)) {
                 continue;
             }
-            if (detachmentEventHappened()) {
+            if (detachmentEventHappened(simulation.getRandomStreams().getStream(this, index))) {
                 detachingVesicles.add(vesicle);
             }
         }
         state = ModuleState.SUCCEEDED_WITH_PENDING_CHANGES;
     }
 
-    private boolean detachmentEventHappened() {
-        return ThreadLocalRandom.current().nextDouble() < getFeature(DetachmentProbability.class).getScaledQuantity();
+    private boolean detachmentEventHappened(SplittableRandom random) {
+        return random.nextDouble() < getFeature(DetachmentProbability.class).getScaledQuantity();
     }
 
     @Override
@@ -6,6 +6,9 @@ import bio.singa.core.utility.Pair;
 import bio.singa.features.parameters.Environment;
 import bio.singa.features.quantities.MolarConcentration;
 import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.checkpoints.CheckpointInput;
+import bio.singa.simulation.checkpoints.CheckpointOutput;
+import bio.singa.simulation.checkpoints.CheckpointedModule;
 import bio.singa.simulation.features.*;
 import bio.singa.simulation.model.agents.pointlike.Vesicle;
 import bio.singa.simulation.model.agents.pointlike.VesicleStateRegistry;
@@ -25,17 +28,18 @@ import tec.units.indriya.ComparableQuantity;
 import javax.measure.Quantity;
 import javax.measure.quantity.Length;
 import javax.measure.quantity.Time;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
 
 
 /**
  * @author cl
  */
-public class VesicleFusion extends QualitativeModule {
+public class VesicleFusion extends QualitativeModule implements CheckpointedModule {
 
     private static final Logger logger = LoggerFactory.getLogger(VesicleFusion.class);
 
@@ -73,7 +77,10 @@ public class VesicleFusion extends QualitativeModule {
         for (ChemicalEntity qSnare : qSnares.getContent()) {
             for (ChemicalEntity rSnare : rSnares.getContent()) {
                 Pair<ChemicalEntity> pair = new Pair<>(qSnare, rSnare);
-                complexes.put(pair, ComplexEntity.from(qSnare, rSnare));
+                ComplexEntity complex = ComplexEntity.from(qSnare, rSnare);
+                complexes.put(pair, complex);
+                // complexes emerge during the simulation and are resolved by their identifier when restoring checkpoints
+                addReferencedEntity(complex);
             }
         }
     }
@@ -115,6 +122,39 @@ public class VesicleFusion extends QualitativeModule {
         }
     }
 
+    @Override
+    public void writeCheckpoint(CheckpointOutput output) throws IOException {
+        output.writeInt(tetheredVesicles.size());
+        for (Map.Entry<Vesicle, Quantity<Time>> entry : tetheredVesicles.entrySet()) {
+            Vesicle vesicle = entry.getKey();
+            output.writeUpdatable(vesicle);
+            output.writeTime(entry.getValue());
+            output.writeUpdatable(tetheredNodes.get(vesicle));
+            ConcentrationPool reservedSnares = occupiedSnares.get(vesicle);
+            output.writeBoolean(reservedSnares != null);
+            if (reservedSnares != null) {
+                output.writeConcentrationPool(reservedSnares);
+            }
+        }
+    }
+
+    @Override
+    public void readCheckpoint(CheckpointInput input) throws IOException {
+        onReset();
+        tetheredVesicles.clear();
+        tetheredNodes.clear();
+        occupiedSnares.clear();
+        int numberOfVesicles = input.readInt();
+        for (int index = 0; index < numberOfVesicles; index++) {
+            Vesicle vesicle = input.readVesicle();
+            tetheredVesicles.put(vesicle, input.readTime());
+            tetheredNodes.put(vesicle, input.readNode());
+            if (input.readBoolean()) {
+                occupiedSnares.put(vesicle, input.readConcentrationPool());
+            }
+        }
+    }
+
     private void fuse(Vesicle tetheredVesicle) {
         // merge concentrations
         ConcentrationContainer vesicleContainer = tetheredVesicle.getConcentrationManager().getOriginalConcentrations();
@@ -161,7 +201,8 @@ public class VesicleFusion extends QualitativeModule {
     private void tetherVesicles() {
         List<Vesicle> vesicles = simulation.getVesicleLayer().getVesicles();
         // for each vesicle
-        for (Vesicle vesicle : vesicles) {
+        for (int index = 0; index < vesicles.size(); index++) {
+            Vesicle vesicle = vesicles.get(index);
             if (vesicle.getState() == VesicleStateRegistry.ACTIN_PROPELLED ||
                     vesicle.getState() == VesicleStateRegistry.MEMBRANE_TETHERED) {
                 continue;
@@ -180,7 +221,7 @@ public class VesicleFusion extends QualitativeModule {
                         ComparableQuantity<Length> threshold = (ComparableQuantity<Length>) getFeature(AttachmentDistance.class).getContent().add(vesicle.getRadius());
                         Quantity<Length> distance = Environment.convertSimulationToSystemScale(currentDistance);
                         if (threshold.isGreaterThanOrEqualTo(distance)) {
-                            TetheringSnares tetheringSnares = prepareTethering(node, vesicle);
+                            TetheringSnares tetheringSnares = prepareTethering(node, vesicle, index);
                             if (snaresMatch(tetheringSnares)) {
                                 tetheringVesicles.put(vesicle, tetheringSnares);
                                 break nodesLoop;
@@ -192,8 +233,8 @@ public class VesicleFusion extends QualitativeModule {
         }
     }
 
-    private TetheringSnares prepareTethering(AutomatonNode node, Vesicle vesicle) {
-        return new TetheringSnares(countSnares(vesicle, getFeature(MatchingRSnares.class).getContent()), countSnares(node, getFeature(MatchingQSnares.class).getContent()), node);
+    private TetheringSnares prepareTethering(AutomatonNode node, Vesicle vesicle, int vesicleIndex) {
+        return new TetheringSnares(countSnares(vesicle, getFeature(MatchingRSnares.class).getContent()), countSnares(node, getFeature(MatchingQSnares.class).getContent()), node, vesicleIndex);
     }
 
     private Map<ChemicalEntity, Integer> countSnares(Updatable updatable, List<ChemicalEntity> entitiesToCount) {
@@ -225,12 +266,13 @@ public class VesicleFusion extends QualitativeModule {
         int fusionPairs = getFeature(SNAREFusionPairs.class).getContent().getValue().intValue();
         List<ChemicalEntity> qSnareEntities = new ArrayList<>(tetheringSnares.getQSnares().keySet());
         List<ChemicalEntity> rSnareEntities = new ArrayList<>(tetheringSnares.getRSnares().keySet());
+        SplittableRandom random = simulation.getRandomStreams().getStream(this, tetheringSnares.getVesicleIndex());
         for (int occupiedSnareCounter = 0; occupiedSnareCounter < fusionPairs; occupiedSnareCounter++) {
             // choose qSnare at random
-            int qSnareIndex = ThreadLocalRandom.current().nextInt(qSnareEntities.size());
+            int qSnareIndex = random.nextInt(qSnareEntities.size());
             ChemicalEntity qSnare = qSnareEntities.get(qSnareIndex);
             // choose rSnare at random
-            int rSnareIndex = ThreadLocalRandom.current().nextInt(rSnareEntities.size());
+            int rSnareIndex = random.nextInt(rSnareEntities.size());
             ChemicalEntity rSnare = rSnareEntities.get(rSnareIndex);
             // reserve complex
             ComplexEntity snareComplex = complexes.get(new Pair<>(qSnare, rSnare));
@@ -266,10 +308,16 @@ public class VesicleFusion extends QualitativeModule {
         private Map<ChemicalEntity, Integer> qSnares;
         private AutomatonNode tetheringTarget;
 
-        TetheringSnares(Map<ChemicalEntity, Integer> rSnares, Map<ChemicalEntity, Integer> qSnares, AutomatonNode tetheringTarget) {
+        /**
+         * The index of the vesicle in the vesicle layer, when tethering was decided.
+         */
+        private int vesicleIndex;
+
+        TetheringSnares(Map<ChemicalEntity, Integer> rSnares, Map<ChemicalEntity, Integer> qSnares, AutomatonNode tetheringTarget, int vesicleIndex) {
             this.rSnares = rSnares;
             this.qSnares = qSnares;
             this.tetheringTarget = tetheringTarget;
+            this.vesicleIndex = vesicleIndex;
         }
 
         Map<ChemicalEntity, Integer> getRSnares() {
@@ -283,6 +331,10 @@ public class VesicleFusion extends QualitativeModule {
         AutomatonNode getTetheringTarget() {
             return tetheringTarget;
         }
+
+        int getVesicleIndex() {
+            return vesicleIndex;
+        }
     }
 
 }
@@ -46,6 +46,22 @@ public class Parameter<QuantityType extends Quantity<QuantityType>> {
         }
     }
 
+    /**
+     * Determines the value of this parameter scaled to the current time step, without changing the scaled quantities
+     * stored in this parameter. This is safe to be called concurrently for parameters that are shared between
+     * modules.
+     *
+     * @param halfStep True if the value should be scaled to half of the current time step.
+     * @return The scaled value.
+     */
+    public double determineScaledValue(boolean halfStep) {
+        if (UnitRegistry.getTimeExponent(quantity.getUnit()) != 0) {
+            double scaledValue = UnitRegistry.scale(quantity).getValue().doubleValue();
+            return halfStep ? scaledValue * 0.5 : scaledValue;
+        }
+        return quantity.getValue().doubleValue();
+    }
+
     public String getIdentifier() {
         return identifier;
     }
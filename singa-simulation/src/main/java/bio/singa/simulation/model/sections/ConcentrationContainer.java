@@ -10,34 +10,45 @@ import bio.singa.simulation.model.modules.concentration.imlementations.reactions
 import javax.measure.Quantity;
 import java.util.*;
 
-import static bio.singa.simulation.model.sections.CellTopology.INNER;
-import static bio.singa.simulation.model.sections.CellTopology.OUTER;
+import static bio.singa.simulation.model.sections.CellTopology.*;
 
 /**
  * The concentration container manages the concentrations of one updatable. {@link MolarConcentration}s of
  * {@link ChemicalEntity}s can be set and got by the {@link CellSubsection} or {@link CellTopology}.
- * If no relevant concentration was registered an empty concentration will be returned.
+ * If no relevant concentration was registered an empty concentration will be returned. Subsections and their
+ * concentration pools are stored by the ordinal of their topology.
  *
  * @author cl
  */
 public class ConcentrationContainer {
 
     /**
-     * The mapping of topology to subsection.
+     * The number of possible topologies.
      */
-    private Map<CellTopology, CellSubsection> subsectionTopology;
+    private static final int NUMBER_OF_TOPOLOGIES = CellTopology.values().length;
 
     /**
-     * The mapping of the subsection to the corresponding concentration pool.
+     * The subsections by ordinal of the topology.
      */
-    private Map<CellSubsection, ConcentrationPool> concentrations;
+    private final CellSubsection[] subsections;
+
+    /**
+     * The concentration pools by ordinal of the topology.
+     */
+    private final ConcentrationPool[] pools;
+
+    /**
+     * All referenced subsections.
+     */
+    private final Set<CellSubsection> referencedSubsections;
 
     /**
      * Creates a new concentration container.
      */
     public ConcentrationContainer() {
-        subsectionTopology = new HashMap<>();
-        concentrations = new HashMap<>();
+        subsections = new CellSubsection[NUMBER_OF_TOPOLOGIES];
+        pools = new ConcentrationPool[NUMBER_OF_TOPOLOGIES];
+        referencedSubsections = new LinkedHashSet<>();
     }
 
     /**
@@ -58,8 +69,15 @@ public class ConcentrationContainer {
      * @param concentrationPool The concentration pool.
      */
     public void putSubsectionPool(CellSubsection subsection, CellTopology topology, ConcentrationPool concentrationPool) {
-        subsectionTopology.put(topology, subsection);
-        concentrations.put(subsection, concentrationPool);
+        // subsections share their pool if they are referenced by multiple topologies
+        for (int i = 0; i < NUMBER_OF_TOPOLOGIES; i++) {
+            if (subsection.equals(subsections[i])) {
+                pools[i] = concentrationPool;
+            }
+        }
+        subsections[topology.ordinal()] = subsection;
+        pools[topology.ordinal()] = concentrationPool;
+        updateReferencedSubsections();
     }
 
     /**
@@ -68,23 +86,29 @@ public class ConcentrationContainer {
      * @param subsection The subsection to remove.
      */
     public void removeSubsection(CellSubsection subsection) {
-        concentrations.remove(subsection);
-        subsectionTopology.remove(getTopologyFromSubsection(subsection));
+        for (int i = 0; i < NUMBER_OF_TOPOLOGIES; i++) {
+            if (Objects.equals(subsection, subsections[i])) {
+                subsections[i] = null;
+                pools[i] = null;
+            }
+        }
+        updateReferencedSubsections();
     }
 
     /**
-     * Returns the topology referenced to the subsection and null otherwise.
+     * Returns the index of the topology referenced to the subsection and -1 otherwise.
      *
      * @param subsection The subsection.
-     * @return the topology referenced to the subsection and null otherwise.
+     * @return the index of the topology referenced to the subsection and -1 otherwise.
      */
-    private CellTopology getTopologyFromSubsection(CellSubsection subsection) {
-        for (Map.Entry<CellTopology, CellSubsection> entry : subsectionTopology.entrySet()) {
-            if (Objects.equals(subsection, entry.getValue())) {
-                return entry.getKey();
+    private int getTopologyIndex(CellSubsection subsection) {
+        for (int i = 0; i < NUMBER_OF_TOPOLOGIES; i++) {
+            CellSubsection current = subsections[i];
+            if (current == subsection || (current != null && current.equals(subsection))) {
+                return i;
             }
         }
-        return null;
+        return -1;
     }
 
     /**
@@ -93,12 +117,30 @@ public class ConcentrationContainer {
      * @param topology The topology to remove.
      */
     public void removeSubsection(CellTopology topology) {
-        CellSubsection subsection = subsectionTopology.get(topology);
-        concentrations.remove(subsection);
-        subsectionTopology.remove(getTopologyFromSubsection(subsection));
+        removeSubsection(subsections[topology.ordinal()]);
+    }
+
+    private void updateReferencedSubsections() {
+        referencedSubsections.clear();
+        for (CellSubsection subsection : subsections) {
+            if (subsection != null) {
+                referencedSubsections.add(subsection);
+            }
+        }
     }
 
+    /**
+     * Returns a mapping of all subsections to their concentration pools.
+     *
+     * @return A mapping of all subsections to their concentration pools.
+     */
     public Map<CellSubsection, ConcentrationPool> getConcentrations() {
+        Map<CellSubsection, ConcentrationPool> concentrations = new LinkedHashMap<>();
+        for (int i = 0; i < NUMBER_OF_TOPOLOGIES; i++) {
+            if (subsections[i] != null) {
+                concentrations.put(subsections[i], pools[i]);
+            }
+        }
         return concentrations;
     }
 
@@ -108,7 +150,17 @@ public class ConcentrationContainer {
      * @return All subsections, referenced in this container.
      */
     public Set<CellSubsection> getReferencedSubsections() {
-        return concentrations.keySet();
+        return Collections.unmodifiableSet(referencedSubsections);
+    }
+
+    /**
+     * Returns true if the subsection is referenced in this container.
+     *
+     * @param subsection The subsection.
+     * @return True if the subsection is referenced in this container.
+     */
+    public boolean containsSubsection(CellSubsection subsection) {
+        return getTopologyIndex(subsection) != -1;
     }
 
     /**
@@ -117,7 +169,7 @@ public class ConcentrationContainer {
      * @return All concentration pools in this container.
      */
     public Collection<ConcentrationPool> getPoolsOfConcentration() {
-        return concentrations.values();
+        return getConcentrations().values();
     }
 
     /**
@@ -127,7 +179,7 @@ public class ConcentrationContainer {
      */
     public Set<ChemicalEntity> getReferencedEntities() {
         Set<ChemicalEntity> chemicalEntities = new HashSet<>();
-        for (ConcentrationPool concentrationPool : concentrations.values()) {
+        for (ConcentrationPool concentrationPool : getPoolsOfConcentration()) {
             chemicalEntities.addAll(concentrationPool.getReferencedEntities());
         }
         return chemicalEntities;
@@ -174,13 +226,28 @@ public class ConcentrationContainer {
      * @return The topology and concentration pool for the subsection.
      */
     public Map.Entry<CellTopology, ConcentrationPool> getPool(CellSubsection subsection) {
-        CellTopology topology = getTopologyFromSubsection(subsection);
-        if (topology != null) {
-            return new AbstractMap.SimpleEntry<>(topology, concentrations.get(subsection));
+        int topologyIndex = getTopologyIndex(subsection);
+        if (topologyIndex != -1) {
+            return new AbstractMap.SimpleEntry<>(CellTopology.values()[topologyIndex], pools[topologyIndex]);
         }
         return null;
     }
 
+    /**
+     * Returns the {@link EntityIndex} of the pool of the subsection or the index bound to the calling thread if the
+     * subsection is not part of this container.
+     *
+     * @param subsection The subsection.
+     * @return The entity index of the subsection.
+     */
+    public EntityIndex getEntityIndex(CellSubsection subsection) {
+        int topologyIndex = getTopologyIndex(subsection);
+        if (topologyIndex == -1) {
+            return EntityIndex.current();
+        }
+        return pools[topologyIndex].getEntityIndex();
+    }
+
     /**
      * Returns the subsection and concentration pool for the topology.
      *
@@ -188,9 +255,9 @@ public class ConcentrationContainer {
      * @return The subsection and concentration pool for the topology.
      */
     public Map.Entry<CellSubsection, ConcentrationPool> getPool(CellTopology topology) {
-        CellSubsection subsection = subsectionTopology.get(topology);
+        CellSubsection subsection = subsections[topology.ordinal()];
         if (subsection != null) {
-            return new AbstractMap.SimpleEntry<>(subsection, concentrations.get(subsection));
+            return new AbstractMap.SimpleEntry<>(subsection, pools[topology.ordinal()]);
         }
         return null;
     }
@@ -203,11 +270,26 @@ public class ConcentrationContainer {
      * @return The concentration of the entity in the corresponding subsection.
      */
     public double get(CellSubsection subsection, ChemicalEntity entity) {
-        ConcentrationPool concentrationPool = concentrations.get(subsection);
-        if (concentrationPool == null) {
+        int topologyIndex = getTopologyIndex(subsection);
+        if (topologyIndex == -1) {
+            return 0.0;
+        }
+        return pools[topologyIndex].get(entity);
+    }
+
+    /**
+     * Returns the concentration of the entity with the given {@link EntityIndex} in the corresponding subsection.
+     *
+     * @param subsection The subsection.
+     * @param entityIndex The index of the entity.
+     * @return The concentration of the entity in the corresponding subsection.
+     */
+    public double get(CellSubsection subsection, int entityIndex) {
+        int topologyIndex = getTopologyIndex(subsection);
+        if (topologyIndex == -1) {
             return 0.0;
         }
-        return concentrationPool.get(entity);
+        return pools[topologyIndex].get(entityIndex);
     }
 
     /**
@@ -218,11 +300,26 @@ public class ConcentrationContainer {
      * @return The concentration of the entity in the corresponding topology.
      */
     public double get(CellTopology topology, ChemicalEntity entity) {
-        CellSubsection subsection = subsectionTopology.get(topology);
-        if (subsection == null) {
+        ConcentrationPool pool = pools[topology.ordinal()];
+        if (pool == null) {
             return 0.0;
         }
-        return get(subsection, entity);
+        return pool.get(entity);
+    }
+
+    /**
+     * Returns the concentration of the entity with the given {@link EntityIndex} in the corresponding topology.
+     *
+     * @param topology The topology.
+     * @param entityIndex The index of the entity.
+     * @return The concentration of the entity in the corresponding topology.
+     */
+    public double get(CellTopology topology, int entityIndex) {
+        ConcentrationPool pool = pools[topology.ordinal()];
+        if (pool == null) {
+            return 0.0;
+        }
+        return pool.get(entityIndex);
     }
 
     public double sumOf(DynamicChemicalEntity dynamicEntity) {
@@ -248,11 +345,39 @@ public class ConcentrationContainer {
      * @param concentration The concentration.
      */
     public void set(CellSubsection subsection, ChemicalEntity entity, double concentration) {
-        concentrations.get(subsection).set(entity, concentration);
+        pools[getTopologyIndex(subsection)].set(entity, concentration);
+    }
+
+    /**
+     * Sets the concentration of the entity with the given {@link EntityIndex} in the given subsection.
+     *
+     * @param subsection The subsection.
+     * @param entityIndex The index of the entity.
+     * @param concentration The concentration.
+     */
+    public void set(CellSubsection subsection, int entityIndex, double concentration) {
+        pools[getTopologyIndex(subsection)].set(entityIndex, concentration);
+    }
+
+    /**
+     * Restores the concentration of the entity with the given {@link EntityIndex} in the given subsection to the
+     * concentration in the source container (see {@link ConcentrationPool#restore(int, ConcentrationPool)}).
+     *
+     * @param subsection The subsection.
+     * @param entityIndex The index of the entity.
+     * @param source The container to restore from.
+     */
+    public void restore(CellSubsection subsection, int entityIndex, ConcentrationContainer source) {
+        int topologyIndex = getTopologyIndex(subsection);
+        int sourceTopologyIndex = source.getTopologyIndex(subsection);
+        if (topologyIndex == -1 || sourceTopologyIndex == -1) {
+            return;
+        }
+        pools[topologyIndex].restore(entityIndex, source.pools[sourceTopologyIndex]);
     }
 
     public void initialize(CellSubsection subsection, ChemicalEntity entity, Quantity<MolarConcentration> concentration) {
-        concentrations.get(subsection).set(entity, concentration.to(UnitRegistry.getConcentrationUnit()).getValue().doubleValue());
+        set(subsection, entity, concentration.to(UnitRegistry.getConcentrationUnit()).getValue().doubleValue());
     }
 
     /**
@@ -263,11 +388,11 @@ public class ConcentrationContainer {
      * @param concentration The concentration.
      */
     public void set(CellTopology topology, ChemicalEntity entity, double concentration) {
-        set(subsectionTopology.get(topology), entity, concentration);
+        pools[topology.ordinal()].set(entity, concentration);
     }
 
     public void initialize(CellTopology topology, ChemicalEntity entity, Quantity<MolarConcentration> concentration) {
-        initialize(subsectionTopology.get(topology), entity, concentration);
+        initialize(subsections[topology.ordinal()], entity, concentration);
     }
 
     /**
@@ -277,7 +402,7 @@ public class ConcentrationContainer {
      * @return The subsection.
      */
     public CellSubsection getSubsection(CellTopology topology) {
-        return subsectionTopology.get(topology);
+        return subsections[topology.ordinal()];
     }
 
     /**
@@ -286,7 +411,7 @@ public class ConcentrationContainer {
      * @return The inner subsection.
      */
     public CellSubsection getInnerSubsection() {
-        return subsectionTopology.get(INNER);
+        return subsections[INNER.ordinal()];
     }
 
     /**
@@ -295,7 +420,7 @@ public class ConcentrationContainer {
      * @return The outer subsection.
      */
     public CellSubsection getOuterSubsection() {
-        return subsectionTopology.get(OUTER);
+        return subsections[OUTER.ordinal()];
     }
 
     /**
@@ -304,7 +429,21 @@ public class ConcentrationContainer {
      * @return The membrane subsection.
      */
     public CellSubsection getMembraneSubsection() {
-        return subsectionTopology.get(CellTopology.MEMBRANE);
+        return subsections[MEMBRANE.ordinal()];
+    }
+
+    /**
+     * Transfers the concentrations of all pools to the given entity index (see
+     * {@link ConcentrationPool#reindex(EntityIndex)}).
+     *
+     * @param entityIndex The entity index to transfer to.
+     */
+    public void reindex(EntityIndex entityIndex) {
+        for (ConcentrationPool pool : pools) {
+            if (pool != null) {
+                pool.reindex(entityIndex);
+            }
+        }
     }
 
     /**
@@ -314,9 +453,15 @@ public class ConcentrationContainer {
      */
     public ConcentrationContainer emptyCopy() {
         ConcentrationContainer concentrationContainer = new ConcentrationContainer();
-        for (Map.Entry<CellTopology, CellSubsection> entry : subsectionTopology.entrySet()) {
-            concentrationContainer.initializeSubsection(entry.getValue(), entry.getKey());
+        // topologies sharing a pool share the copied pool
+        Map<ConcentrationPool, ConcentrationPool> copies = new IdentityHashMap<>();
+        for (int i = 0; i < NUMBER_OF_TOPOLOGIES; i++) {
+            if (subsections[i] != null) {
+                concentrationContainer.subsections[i] = subsections[i];
+                concentrationContainer.pools[i] = copies.computeIfAbsent(pools[i], pool -> new ConcentrationPool(pool.getEntityIndex()));
+            }
         }
+        concentrationContainer.updateReferencedSubsections();
         return concentrationContainer;
     }
 
@@ -327,11 +472,15 @@ public class ConcentrationContainer {
      */
     public ConcentrationContainer fullCopy() {
         ConcentrationContainer concentrationContainer = new ConcentrationContainer();
-        for (Map.Entry<CellTopology, CellSubsection> entry : subsectionTopology.entrySet()) {
-            CellTopology topology = entry.getKey();
-            CellSubsection subsection = subsectionTopology.get(topology);
-            concentrationContainer.putSubsectionPool(subsection, topology, getPool(subsection).getValue().fullCopy());
+        // topologies sharing a pool share the copied pool
+        Map<ConcentrationPool, ConcentrationPool> copies = new IdentityHashMap<>();
+        for (int i = 0; i < NUMBER_OF_TOPOLOGIES; i++) {
+            if (subsections[i] != null) {
+                concentrationContainer.subsections[i] = subsections[i];
+                concentrationContainer.pools[i] = copies.computeIfAbsent(pools[i], ConcentrationPool::fullCopy);
+            }
         }
+        concentrationContainer.referencedSubsections.addAll(referencedSubsections);
         return concentrationContainer;
     }
 
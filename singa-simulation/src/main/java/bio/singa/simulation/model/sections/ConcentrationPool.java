@@ -3,27 +3,65 @@ package bio.singa.simulation.model.sections;
 import bio.singa.chemistry.entities.ChemicalEntity;
 import bio.singa.features.quantities.MolarConcentration;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * The concentration pool manages the {@link MolarConcentration} of {@link ChemicalEntity}s in {@link CellSubsection}s.
+ * Concentrations are stored in a primitive array, addressed by the {@link EntityIndex} of each entity. Each pool
+ * refers to the entity index it has been created with (the index bound to the creating thread), methods accepting
+ * entities resolve them using this index, methods accepting entity indices expect indices of this index. Copies share
+ * the arrays with their source until either of them is modified (copy on write), such that copies of pools that are
+ * only read or only modified in few places are cheap.
  *
  * @author cl
  */
 public class ConcentrationPool {
 
     /**
-     * The associated concentrations.
+     * The minimal capacity of the arrays.
      */
-    private Map<ChemicalEntity, Double> concentrations;
+    private static final int MINIMAL_CAPACITY = 8;
 
     /**
-     * Creates a new, empty concentration pool.
+     * The index of the entities in this pool.
+     */
+    private EntityIndex entityIndex;
+
+    /**
+     * The associated concentrations, by entity index.
+     */
+    private double[] concentrations;
+
+    /**
+     * True for each entity index that has been set in this pool.
+     */
+    private boolean[] referenced;
+
+    /**
+     * True if the arrays may be shared with other pools, they are copied before the next modification.
+     */
+    private boolean shared;
+
+    /**
+     * Creates a new, empty concentration pool, using the {@link EntityIndex} bound to the calling thread.
      */
     public ConcentrationPool() {
-        concentrations = new HashMap<>();
+        this(EntityIndex.current());
+    }
+
+    /**
+     * Creates a new, empty concentration pool, using the given {@link EntityIndex}.
+     * @param entityIndex The entity index.
+     */
+    public ConcentrationPool(EntityIndex entityIndex) {
+        this.entityIndex = entityIndex;
+        int capacity = Math.max(entityIndex.size(), MINIMAL_CAPACITY);
+        concentrations = new double[capacity];
+        referenced = new boolean[capacity];
     }
 
     /**
@@ -31,7 +69,11 @@ public class ConcentrationPool {
      * @param concentrationPool The pool to copy.
      */
     private ConcentrationPool(ConcentrationPool concentrationPool) {
-        concentrations = new HashMap<>(concentrationPool.concentrations);
+        entityIndex = concentrationPool.entityIndex;
+        concentrations = concentrationPool.concentrations;
+        referenced = concentrationPool.referenced;
+        concentrationPool.shared = true;
+        shared = true;
     }
 
     /**
@@ -39,11 +81,82 @@ public class ConcentrationPool {
      * @return All entities referenced in this map.
      */
     public Set<ChemicalEntity> getReferencedEntities() {
-        return concentrations.keySet();
+        Set<ChemicalEntity> entities = new LinkedHashSet<>();
+        for (int index = 0; index < referenced.length; index++) {
+            if (referenced[index]) {
+                entities.add(entityIndex.getEntity(index));
+            }
+        }
+        return entities;
     }
 
+    /**
+     * Returns a copy of all concentrations in this pool mapped to their entities.
+     * @return A copy of all concentrations.
+     */
     public Map<ChemicalEntity, Double> getConcentrations() {
-        return concentrations;
+        Map<ChemicalEntity, Double> map = new LinkedHashMap<>();
+        for (int index = 0; index < referenced.length; index++) {
+            if (referenced[index]) {
+                map.put(entityIndex.getEntity(index), concentrations[index]);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Returns the entity index of this pool.
+     * @return The entity index.
+     */
+    public EntityIndex getEntityIndex() {
+        return entityIndex;
+    }
+
+    /**
+     * Transfers the concentrations of this pool to the given entity index, such that they can be addressed by the
+     * indices of the target index afterwards. Nothing is done if the pool already uses the target index.
+     * @param targetIndex The entity index to transfer to.
+     */
+    public void reindex(EntityIndex targetIndex) {
+        if (targetIndex == entityIndex) {
+            return;
+        }
+        int capacity = Math.max(targetIndex.size(), MINIMAL_CAPACITY);
+        double[] targetConcentrations = new double[capacity];
+        boolean[] targetReferenced = new boolean[capacity];
+        for (int index = 0; index < referenced.length; index++) {
+            if (referenced[index]) {
+                int targetEntityIndex = targetIndex.indexOf(entityIndex.getEntity(index));
+                if (targetEntityIndex >= targetConcentrations.length) {
+                    int grownCapacity = Math.max(targetEntityIndex + 1, targetConcentrations.length * 2);
+                    targetConcentrations = Arrays.copyOf(targetConcentrations, grownCapacity);
+                    targetReferenced = Arrays.copyOf(targetReferenced, grownCapacity);
+                }
+                targetConcentrations[targetEntityIndex] = concentrations[index];
+                targetReferenced[targetEntityIndex] = true;
+            }
+        }
+        entityIndex = targetIndex;
+        concentrations = targetConcentrations;
+        referenced = targetReferenced;
+        shared = false;
+    }
+
+    /**
+     * Returns the number of entity indices this pool is able to hold without growing.
+     * @return The capacity of this pool.
+     */
+    public int getCapacity() {
+        return concentrations.length;
+    }
+
+    /**
+     * Returns true if the concentration of the entity with the given {@link EntityIndex} has been set in this pool.
+     * @param entityIndex The index of the entity.
+     * @return True if the entity is referenced in this pool.
+     */
+    public boolean isReferenced(int entityIndex) {
+        return entityIndex >= 0 && entityIndex < referenced.length && referenced[entityIndex];
     }
 
     /**
@@ -52,7 +165,19 @@ public class ConcentrationPool {
      * @return The concentration of a entity.
      */
     public double get(ChemicalEntity entity) {
-        return concentrations.getOrDefault(entity, 0.0);
+        return get(entityIndex.lookup(entity));
+    }
+
+    /**
+     * Returns the concentration of the entity with the given {@link EntityIndex}.
+     * @param entityIndex The index of the entity.
+     * @return The concentration of the entity.
+     */
+    public double get(int entityIndex) {
+        if (entityIndex < 0 || entityIndex >= concentrations.length) {
+            return 0.0;
+        }
+        return concentrations[entityIndex];
     }
 
     /**
@@ -61,15 +186,50 @@ public class ConcentrationPool {
      * @param concentration The concentration (this should be scaled to the subsection volume).
      */
     public void set(ChemicalEntity entity, double concentration) {
-        concentrations.put(entity, concentration);
+        set(entityIndex.indexOf(entity), concentration);
+    }
+
+    /**
+     * Sets the concentration of the entity with the given {@link EntityIndex}.
+     * @param entityIndex The index of the entity.
+     * @param concentration The concentration (this should be scaled to the subsection volume).
+     */
+    public void set(int entityIndex, double concentration) {
+        if (entityIndex >= concentrations.length) {
+            int capacity = Math.max(entityIndex + 1, concentrations.length * 2);
+            concentrations = Arrays.copyOf(concentrations, capacity);
+            referenced = Arrays.copyOf(referenced, capacity);
+            shared = false;
+        } else if (shared) {
+            concentrations = concentrations.clone();
+            referenced = referenced.clone();
+            shared = false;
+        }
+        concentrations[entityIndex] = concentration;
+        referenced[entityIndex] = true;
+    }
+
+    /**
+     * Restores the concentration of the entity with the given {@link EntityIndex} to the concentration in the source
+     * pool, including whether the entity is referenced.
+     * @param entityIndex The index of the entity.
+     * @param source The pool to restore from.
+     */
+    public void restore(int entityIndex, ConcentrationPool source) {
+        if (source.isReferenced(entityIndex)) {
+            set(entityIndex, source.get(entityIndex));
+        } else if (isReferenced(entityIndex)) {
+            set(entityIndex, 0.0);
+            referenced[entityIndex] = false;
+        }
     }
 
     /**
-     * Creates a copy of this concentration pool.
+     * Creates a copy of this concentration pool. The concentrations are only copied as soon as either pool is modified.
      * @return The concentration pool.
      */
     public ConcentrationPool fullCopy() {
         return new ConcentrationPool(this);
     }
-    
+
 }
@@ -0,0 +1,157 @@
+package bio.singa.simulation.model.sections;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The entity index assigns a dense, stable integer index to each {@link ChemicalEntity}. {@link ConcentrationPool}s
+ * use these indices to store concentrations in primitive arrays. Each {@link bio.singa.simulation.model.simulation.Simulation}
+ * owns an entity index, the entities referenced by the simulation are registered during its initialization, entities
+ * that emerge later (e.g. complexes that are formed during simulation) are registered as soon as their concentration
+ * is set for the first time. Hence, the arrays of all pools are only as large as the number of entities of the
+ * simulation, regardless of how many simulations have been set up in the same JVM.
+ * <p>
+ * Similar to the {@link bio.singa.features.units.ScalingContext}, the index of a simulation is bound to all threads
+ * that are working on the simulation (see {@link #bind(EntityIndex)}). Without a bound index, {@link #current()}
+ * refers to a global index, that is used e.g. to set up concentrations before the simulation is initialized. Pools
+ * remember the index they have been created with and are transferred to the index of the simulation during its
+ * initialization (see {@link ConcentrationPool#reindex(EntityIndex)}).
+ *
+ * @author cl
+ */
+public final class EntityIndex {
+
+    /**
+     * The index that is returned for entities that have not been registered.
+     */
+    public static final int UNREGISTERED = -1;
+
+    /**
+     * The index used if no index is bound to the calling thread.
+     */
+    private static final EntityIndex globalIndex = new EntityIndex();
+
+    /**
+     * The index bound to each thread.
+     */
+    private static final ThreadLocal<EntityIndex> boundIndex = new ThreadLocal<>();
+
+    /**
+     * The mapping of entities to indices.
+     */
+    private final ConcurrentHashMap<ChemicalEntity, Integer> indices;
+
+    /**
+     * The entities by their index.
+     */
+    private volatile ChemicalEntity[] entities;
+
+    /**
+     * Creates a new, empty entity index.
+     */
+    public EntityIndex() {
+        indices = new ConcurrentHashMap<>();
+        entities = new ChemicalEntity[16];
+    }
+
+    /**
+     * Returns the entity index bound to the calling thread or the global index if no index is bound.
+     *
+     * @return The entity index of the calling thread.
+     */
+    public static EntityIndex current() {
+        EntityIndex index = boundIndex.get();
+        return index != null ? index : globalIndex;
+    }
+
+    /**
+     * Binds the entity index to the calling thread. Binding null restores the global index.
+     *
+     * @param index The index to bind.
+     * @return The index previously bound to the calling thread (possibly null).
+     */
+    public static EntityIndex bind(EntityIndex index) {
+        EntityIndex previous = boundIndex.get();
+        if (index == null) {
+            boundIndex.remove();
+        } else {
+            boundIndex.set(index);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the index of the given entity, registering the entity if it has not been registered before.
+     *
+     * @param entity The entity.
+     * @return The index of the entity.
+     */
+    public int indexOf(ChemicalEntity entity) {
+        Integer index = indices.get(entity);
+        if (index != null) {
+            return index;
+        }
+        return register(entity);
+    }
+
+    /**
+     * Returns the index of the given entity or {@link #UNREGISTERED} if the entity has not been registered before.
+     *
+     * @param entity The entity.
+     * @return The index of the entity.
+     */
+    public int lookup(ChemicalEntity entity) {
+        Integer index = indices.get(entity);
+        return index != null ? index : UNREGISTERED;
+    }
+
+    /**
+     * Registers all given entities.
+     *
+     * @param entities The entities.
+     */
+    public void registerAll(Collection<? extends ChemicalEntity> entities) {
+        for (ChemicalEntity entity : entities) {
+            indexOf(entity);
+        }
+    }
+
+    /**
+     * Returns the entity with the given index.
+     *
+     * @param index The index.
+     * @return The entity.
+     */
+    public ChemicalEntity getEntity(int index) {
+        return entities[index];
+    }
+
+    /**
+     * Returns the number of registered entities.
+     *
+     * @return The number of registered entities.
+     */
+    public int size() {
+        return indices.size();
+    }
+
+    private synchronized int register(ChemicalEntity entity) {
+        Integer index = indices.get(entity);
+        if (index != null) {
+            return index;
+        }
+        int nextIndex = indices.size();
+        ChemicalEntity[] currentEntities = entities;
+        if (nextIndex == currentEntities.length) {
+            currentEntities = Arrays.copyOf(currentEntities, nextIndex * 2);
+        }
+        currentEntities[nextIndex] = entity;
+        entities = currentEntities;
+        indices.put(entity, nextIndex);
+        return nextIndex;
+    }
+
+}
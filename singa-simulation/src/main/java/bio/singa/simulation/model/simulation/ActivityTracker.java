@@ -0,0 +1,169 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+
+import java.util.*;
+
+/**
+ * The activity tracker determines which {@link Updatable}s need to be processed by a {@link ConcentrationBasedModule}
+ * that uses activity tracking (see {@link ConcentrationBasedModule#setActivityTracking(boolean)}). After the deltas
+ * of an epoch have been applied, an updatable remains active for a module if the module contributed any delta to
+ * the updatable, if the concentrations of the updatable changed, or if the concentrations of any neighbouring
+ * {@link AutomatonNode} (following the adjacency of the graph) or associated {@link Vesicle} changed. Updatables
+ * that are no automaton nodes are always active.
+ * <p>
+ * Skipping the remaining updatables assumes a constant time step and modules whose deltas only depend on the
+ * concentrations of the updatable and its neighbours. Under these conditions those modules would only calculate
+ * deltas below their delta cutoff again. Since deltas scale with the time step, a larger time step can lift skipped
+ * deltas above the cutoff, therefore the {@link UpdateScheduler} activates all updatables whenever the time step is
+ * increased. All updatables are also active in the first epoch and after {@link #activateAll()} has been called, e.g.
+ * if concentrations have been modified from outside of the modules.
+ *
+ * @author cl
+ */
+public class ActivityTracker {
+
+    /**
+     * The simulation.
+     */
+    private final Simulation simulation;
+
+    /**
+     * The updatables whose concentrations changed during the last epoch.
+     */
+    private final Set<Updatable> changedUpdatables;
+
+    /**
+     * The updatables each tracked module contributed deltas to during the last epoch.
+     */
+    private final Map<UpdateModule, Set<Updatable>> contributedUpdatables;
+
+    /**
+     * The updatables each tracked module needs to process in the current epoch.
+     */
+    private final Map<UpdateModule, List<Updatable>> activeUpdatables;
+
+    /**
+     * True if all updatables need to be processed in the next epoch.
+     */
+    private boolean allActive;
+
+    /**
+     * Creates a new activity tracker for the given simulation.
+     *
+     * @param simulation The simulation.
+     */
+    public ActivityTracker(Simulation simulation) {
+        this.simulation = simulation;
+        changedUpdatables = new HashSet<>();
+        contributedUpdatables = new HashMap<>();
+        activeUpdatables = new HashMap<>();
+        allActive = true;
+    }
+
+    /**
+     * Activates all updatables for the next epoch.
+     */
+    public void activateAll() {
+        allActive = true;
+    }
+
+    /**
+     * Returns true if any module of the simulation uses activity tracking.
+     *
+     * @return True if any module of the simulation uses activity tracking.
+     */
+    public boolean isTrackingAnyModule() {
+        return !contributedUpdatables.isEmpty();
+    }
+
+    /**
+     * Determines the updatables each tracked module needs to process in the upcoming epoch. This needs to be called
+     * before the modules are calculated. Skipping updatables is only exact if the time step did not grow since the
+     * last epoch, otherwise {@link #activateAll()} needs to be called beforehand.
+     */
+    void prepareEpoch() {
+        List<Updatable> updatables = simulation.getUpdatables();
+        Set<Updatable> awakeUpdatables = allActive ? Collections.emptySet() : determineAwakeUpdatables();
+        for (UpdateModule module : simulation.getModules()) {
+            if (!isTracked(module)) {
+                continue;
+            }
+            Set<Updatable> contributed = contributedUpdatables.computeIfAbsent(module, key -> new HashSet<>());
+            List<Updatable> active = activeUpdatables.computeIfAbsent(module, key -> new ArrayList<>());
+            active.clear();
+            for (Updatable updatable : updatables) {
+                if (allActive || !(updatable instanceof AutomatonNode) || awakeUpdatables.contains(updatable) || contributed.contains(updatable)) {
+                    active.add(updatable);
+                }
+            }
+            contributed.clear();
+        }
+        changedUpdatables.clear();
+        allActive = false;
+    }
+
+    /**
+     * Determines all updatables that changed during the last epoch and their neighbours.
+     *
+     * @return The updatables that changed during the last epoch and their neighbours.
+     */
+    private Set<Updatable> determineAwakeUpdatables() {
+        Set<Updatable> awakeUpdatables = new HashSet<>();
+        for (Updatable changedUpdatable : changedUpdatables) {
+            awakeUpdatables.add(changedUpdatable);
+            if (changedUpdatable instanceof AutomatonNode) {
+                awakeUpdatables.addAll(((AutomatonNode) changedUpdatable).getNeighbours());
+            } else if (changedUpdatable instanceof Vesicle) {
+                awakeUpdatables.addAll(((Vesicle) changedUpdatable).getAssociatedNodes().keySet());
+            }
+        }
+        return awakeUpdatables;
+    }
+
+    /**
+     * Records the deltas that are going to be applied to the updatable. This needs to be called before the deltas
+     * are applied.
+     *
+     * @param updatable The updatable.
+     */
+    void recordAppliedDeltas(Updatable updatable) {
+        changedUpdatables.add(updatable);
+        ConcentrationDeltaManager manager = updatable.getConcentrationManager();
+        for (int delta = 0; delta < manager.getNumberOfFinalDeltas(); delta++) {
+            Set<Updatable> contributed = contributedUpdatables.get(manager.getFinalDeltaModule(delta));
+            if (contributed != null) {
+                contributed.add(updatable);
+            }
+        }
+    }
+
+    /**
+     * Returns the updatables the module needs to process in the current epoch.
+     *
+     * @param module The module.
+     * @return The active updatables.
+     */
+    public List<Updatable> getActiveUpdatables(UpdateModule module) {
+        List<Updatable> active = activeUpdatables.get(module);
+        if (active == null) {
+            return simulation.getUpdatables();
+        }
+        return active;
+    }
+
+    /**
+     * Returns true if the module uses activity tracking.
+     *
+     * @param module The module.
+     * @return True if the module uses activity tracking.
+     */
+    private static boolean isTracked(UpdateModule module) {
+        return module instanceof ConcentrationBasedModule && ((ConcentrationBasedModule<?>) module).isActivityTracking();
+    }
+
+}
@@ -0,0 +1,321 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.features.formatter.TimeFormatter;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.checkpoints.CheckpointInput;
+import bio.singa.simulation.checkpoints.CheckpointOutput;
+import bio.singa.simulation.checkpoints.CheckpointedIntegrator;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Adaptive step integrators calculate a step of the {@link ConcentrationBasedModule}s from a sequence of stages, that
+ * yields two solutions of different order. Their difference estimates the error of the step, which is compared to the
+ * tolerance (the recalculation cutoff of the scheduler relative to the concentration and an optional absolute
+ * tolerance). The time step is rescaled based on the ratio between error and tolerance. If the error exceeds the
+ * tolerance the epoch is recalculated with a smaller time step, otherwise the solution of higher order is accepted and
+ * the next epoch is calculated with the rescaled time step. All other modules are calculated once per epoch, before
+ * the stages are evaluated. The proposed time step is part of checkpoints.
+ *
+ * @author cl
+ */
+public abstract class AdaptiveStepIntegrator implements CheckpointedIntegrator {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveStepIntegrator.class);
+
+    /**
+     * The safety factor applied to the optimal time step.
+     */
+    private static final double SAFETY_FACTOR = 0.9;
+
+    /**
+     * The smallest factor the time step is rescaled with.
+     */
+    private static final double MINIMAL_SCALING_FACTOR = 0.2;
+
+    /**
+     * The largest factor the time step is rescaled with.
+     */
+    private static final double MAXIMAL_SCALING_FACTOR = 5.0;
+
+    /**
+     * The absolute tolerance added to the relative tolerance of each concentration.
+     */
+    private double absoluteTolerance;
+
+    /**
+     * The time step proposed for the next epoch.
+     */
+    private Quantity<Time> proposedTimeStep;
+
+    /**
+     * The number of rejected steps.
+     */
+    private long rejectedSteps;
+
+    public double getAbsoluteTolerance() {
+        return absoluteTolerance;
+    }
+
+    /**
+     * Sets the absolute tolerance (in the internal concentration unit), that is added to the relative tolerance of
+     * each concentration. An absolute tolerance limits the influence of concentrations close to zero on the time step.
+     *
+     * @param absoluteTolerance The absolute tolerance.
+     */
+    public void setAbsoluteTolerance(double absoluteTolerance) {
+        if (absoluteTolerance < 0.0) {
+            throw new IllegalArgumentException("The absolute tolerance can not be negative.");
+        }
+        this.absoluteTolerance = absoluteTolerance;
+    }
+
+    /**
+     * Returns the number of steps that have been rejected, because the estimated error exceeded the tolerance.
+     *
+     * @return The number of rejected steps.
+     */
+    public long getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+    @Override
+    public boolean controlsTimeStep() {
+        return true;
+    }
+
+    @Override
+    public void writeCheckpoint(Simulation simulation, CheckpointOutput output) throws IOException {
+        output.writeBoolean(proposedTimeStep != null);
+        if (proposedTimeStep != null) {
+            output.writeTime(proposedTimeStep);
+        }
+        output.writeLong(rejectedSteps);
+    }
+
+    @Override
+    public void readCheckpoint(Simulation simulation, CheckpointInput input) throws IOException {
+        proposedTimeStep = input.readBoolean() ? input.readTime() : null;
+        rejectedSteps = input.readLong();
+    }
+
+    /**
+     * Returns the order of the solution of lower order, that determines how the error changes with the time step.
+     *
+     * @return The order of the embedded solution.
+     */
+    protected abstract int getEmbeddedOrder();
+
+    /**
+     * Calculates the stages of a step for the current time step. Both solutions have to be compared for every
+     * concentration that has been changed using the error estimate. All concentrations have to be reverted to the
+     * original concentrations afterwards.
+     *
+     * @param scheduler The scheduler.
+     * @param concentrationModules The concentration based modules.
+     * @param estimate The error estimate.
+     * @return The step, whose deltas are assigned if the step is accepted.
+     */
+    protected abstract Step calculateStep(UpdateScheduler scheduler, List<UpdateModule> concentrationModules, ErrorEstimate estimate);
+
+    @Override
+    public void integrate(UpdateScheduler scheduler) {
+        applyProposedTimeStep(scheduler);
+        List<UpdateModule> concentrationModules = new ArrayList<>();
+        List<UpdateModule> otherModules = new ArrayList<>();
+        for (UpdateModule module : scheduler.getModules()) {
+            if (module instanceof ConcentrationBasedModule) {
+                concentrationModules.add(module);
+            } else {
+                otherModules.add(module);
+            }
+        }
+        for (Updatable updatable : scheduler.getUpdatables()) {
+            updatable.getConcentrationManager().backupConcentrations();
+        }
+        while (true) {
+            // calculate all other modules once
+            do {
+                scheduler.runPass(otherModules);
+                scheduler.spatialDisplacementIsValid();
+            } while (scheduler.recalculationRequired());
+            Map<Updatable, List<ConcentrationDelta>> discreteDeltas = removePotentialDeltas(scheduler);
+            // calculate stages
+            ErrorEstimate estimate = new ErrorEstimate(absoluteTolerance, scheduler.getRecalculationCutoff());
+            Step step = calculateStep(scheduler, concentrationModules, estimate);
+            scheduler.setLargestGlobalError(estimate.relativeError);
+            double scalingFactor = determineScalingFactor(estimate.errorRatio);
+            if (estimate.errorRatio <= 1.0) {
+                logger.debug("Accepted step with error ratio {}.", estimate.errorRatio);
+                step.assignDeltas();
+                for (Map.Entry<Updatable, List<ConcentrationDelta>> entry : discreteDeltas.entrySet()) {
+                    for (ConcentrationDelta delta : entry.getValue()) {
+                        entry.getKey().addPotentialDelta(delta);
+                    }
+                }
+                proposedTimeStep = UnitRegistry.getTime().multiply(scalingFactor);
+                return;
+            }
+            logger.debug("Rejected step with error ratio {}.", estimate.errorRatio);
+            rejectedSteps++;
+            scheduler.getSimulation().getVesicleLayer().clearUpdates();
+            // requires reset in the next pass
+            scheduler.rescaleTimeStep(scalingFactor);
+        }
+    }
+
+    /**
+     * Calculates the concentration based modules for the current concentrations of all updatables, only determining
+     * full step deltas. The deltas are removed from the updatables.
+     *
+     * @param scheduler The scheduler.
+     * @param concentrationModules The concentration based modules.
+     * @return The deltas of each updatable.
+     */
+    protected Map<Updatable, List<ConcentrationDelta>> evaluateStage(UpdateScheduler scheduler, List<UpdateModule> concentrationModules) {
+        for (UpdateModule module : concentrationModules) {
+            module.resetState();
+            ((ConcentrationBasedModule<?>) module).setStageCalculation(true);
+        }
+        try {
+            scheduler.runPass(concentrationModules);
+        } finally {
+            for (UpdateModule module : concentrationModules) {
+                ((ConcentrationBasedModule<?>) module).setStageCalculation(false);
+            }
+        }
+        return removePotentialDeltas(scheduler);
+    }
+
+    /**
+     * Removes the potential deltas of all updatables, such that they can be assigned after all stages have been
+     * evaluated.
+     *
+     * @param scheduler The scheduler.
+     * @return The potential deltas of each updatable.
+     */
+    private static Map<Updatable, List<ConcentrationDelta>> removePotentialDeltas(UpdateScheduler scheduler) {
+        Map<Updatable, List<ConcentrationDelta>> deltas = new LinkedHashMap<>();
+        for (Updatable updatable : scheduler.getUpdatables()) {
+            ConcentrationDeltaManager manager = updatable.getConcentrationManager();
+            if (!manager.hasNoPotentialDeltas()) {
+                deltas.put(updatable, manager.getPotentialDeltas());
+                manager.clearPotentialDeltas();
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Sets the time step that has been proposed after the previous epoch, limited to the maximal time step of the
+     * simulation.
+     *
+     * @param scheduler The scheduler.
+     */
+    private void applyProposedTimeStep(UpdateScheduler scheduler) {
+        if (proposedTimeStep == null) {
+            return;
+        }
+        Quantity<Time> currentTimeStep = UnitRegistry.getTime();
+        double factor = proposedTimeStep.to(currentTimeStep.getUnit()).getValue().doubleValue() / currentTimeStep.getValue().doubleValue();
+        Quantity<Time> maximalTimeStep = scheduler.getSimulation().getMaximalTimeStep();
+        if (maximalTimeStep != null) {
+            double maximalFactor = maximalTimeStep.to(currentTimeStep.getUnit()).getValue().doubleValue() / currentTimeStep.getValue().doubleValue();
+            factor = Math.min(factor, maximalFactor);
+        }
+        proposedTimeStep = null;
+        if (factor != 1.0) {
+            scheduler.rescaleTimeStep(factor);
+            logger.debug("Time step for epoch {} is {}.", scheduler.getSimulation().getEpoch(), TimeFormatter.formatTime(UnitRegistry.getTime()));
+        }
+    }
+
+    /**
+     * Determines the factor the time step is rescaled with, such that the expected error ratio of the next step is
+     * close to one.
+     *
+     * @param errorRatio The error ratio of the current step.
+     * @return The scaling factor.
+     */
+    private double determineScalingFactor(double errorRatio) {
+        if (errorRatio == 0.0) {
+            return MAXIMAL_SCALING_FACTOR;
+        }
+        double factor = SAFETY_FACTOR * Math.pow(errorRatio, -1.0 / (getEmbeddedOrder() + 1));
+        return Math.min(MAXIMAL_SCALING_FACTOR, Math.max(MINIMAL_SCALING_FACTOR, factor));
+    }
+
+    /**
+     * A calculated step.
+     */
+    protected interface Step {
+
+        /**
+         * Assigns the deltas of the solution of higher order as potential deltas.
+         */
+        void assignDeltas();
+
+    }
+
+    /**
+     * The error of a step, determined by comparing both solutions for every changed concentration.
+     */
+    protected static class ErrorEstimate {
+
+        private final double absoluteTolerance;
+        private final double relativeTolerance;
+
+        /**
+         * The largest ratio between error and tolerance.
+         */
+        private double errorRatio;
+
+        /**
+         * The largest error relative to the concentration.
+         */
+        private double relativeError;
+
+        private ErrorEstimate(double absoluteTolerance, double relativeTolerance) {
+            this.absoluteTolerance = absoluteTolerance;
+            this.relativeTolerance = relativeTolerance;
+        }
+
+        /**
+         * Compares both solutions for a single concentration. Negative concentrations are never acceptable.
+         *
+         * @param originalConcentration The concentration at the start of the step.
+         * @param concentration The concentration of the solution of higher order.
+         * @param embeddedConcentration The concentration of the solution of lower order.
+         */
+        protected void compare(double originalConcentration, double concentration, double embeddedConcentration) {
+            if (concentration < 0.0) {
+                errorRatio = Double.POSITIVE_INFINITY;
+                return;
+            }
+            double error = Math.abs(concentration - embeddedConcentration);
+            double magnitude = Math.max(Math.abs(originalConcentration), Math.abs(concentration));
+            double tolerance = absoluteTolerance + relativeTolerance * magnitude;
+            if (tolerance == 0.0) {
+                return;
+            }
+            errorRatio = Math.max(errorRatio, error / tolerance);
+            if (magnitude != 0.0) {
+                relativeError = Math.max(relativeError, error / magnitude);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,336 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.sections.EntityIndex;
+
+import java.util.*;
+
+/**
+ * The embedded Runge-Kutta integrator calculates the deltas of all {@link ConcentrationBasedModule}s for a sequence of
+ * stages, where the concentrations of each stage result from the deltas of the previous stages (weighted according to
+ * the {@link Tableau}). Two solutions of different order are combined from the same stages, their difference estimates
+ * the error of the step without any additional calculations (see {@link AdaptiveStepIntegrator}).
+ *
+ * @author cl
+ */
+public class EmbeddedRungeKuttaIntegrator extends AdaptiveStepIntegrator {
+
+    /**
+     * The tableau of the method.
+     */
+    private final Tableau tableau;
+
+    /**
+     * Creates a new integrator using the Dormand-Prince method.
+     */
+    public EmbeddedRungeKuttaIntegrator() {
+        this(Tableau.DORMAND_PRINCE);
+    }
+
+    /**
+     * Creates a new integrator using the given method.
+     *
+     * @param tableau The tableau of the method.
+     */
+    public EmbeddedRungeKuttaIntegrator(Tableau tableau) {
+        this.tableau = tableau;
+    }
+
+    public Tableau getTableau() {
+        return tableau;
+    }
+
+    @Override
+    protected int getEmbeddedOrder() {
+        return tableau.embeddedOrder;
+    }
+
+    @Override
+    protected Step calculateStep(UpdateScheduler scheduler, List<UpdateModule> concentrationModules, ErrorEstimate estimate) {
+        Map<Updatable, UpdatableStages> stages = new LinkedHashMap<>();
+        try {
+            for (int stage = 0; stage < tableau.getNumberOfStages(); stage++) {
+                // set the concentrations of the current stage
+                if (stage > 0) {
+                    for (UpdatableStages updatableStages : stages.values()) {
+                        updatableStages.prepareStage(tableau.a[stage]);
+                    }
+                }
+                // collect stage deltas
+                for (Map.Entry<Updatable, List<ConcentrationDelta>> entry : evaluateStage(scheduler, concentrationModules).entrySet()) {
+                    UpdatableStages updatableStages = stages.get(entry.getKey());
+                    if (updatableStages == null) {
+                        updatableStages = new UpdatableStages(entry.getKey().getConcentrationManager(), tableau.getNumberOfStages());
+                        stages.put(entry.getKey(), updatableStages);
+                    }
+                    for (ConcentrationDelta delta : entry.getValue()) {
+                        updatableStages.addDelta(stage, delta);
+                    }
+                }
+            }
+        } finally {
+            for (UpdatableStages updatableStages : stages.values()) {
+                updatableStages.manager.revertToOriginalConcentrations();
+            }
+        }
+        // compare the solutions of both orders for every concentration that has been changed
+        for (UpdatableStages updatableStages : stages.values()) {
+            ConcentrationContainer originalConcentrations = updatableStages.manager.getOriginalConcentrations();
+            for (Map.Entry<DeltaKey, double[]> entry : updatableStages.entryDeltas.entrySet()) {
+                DeltaKey key = entry.getKey();
+                double originalConcentration = originalConcentrations.get(key.subsection, key.entityIndex);
+                estimate.compare(originalConcentration,
+                        originalConcentration + combine(tableau.b, entry.getValue()),
+                        originalConcentration + combine(tableau.bStar, entry.getValue()));
+            }
+        }
+        return () -> assignDeltas(stages.values());
+    }
+
+    /**
+     * Assigns the deltas of the higher order solution for each module as potential deltas.
+     *
+     * @param stages The deltas of all stages for each updatable.
+     */
+    private void assignDeltas(Collection<UpdatableStages> stages) {
+        for (UpdatableStages updatableStages : stages) {
+            for (Map.Entry<DeltaKey, double[]> entry : updatableStages.moduleDeltas.entrySet()) {
+                DeltaKey key = entry.getKey();
+                double value = combine(tableau.b, entry.getValue());
+                if (value != 0.0) {
+                    updatableStages.manager.addPotentialDelta(new ConcentrationDelta(key.module, key.subsection, key.entity, value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the weighted sum of the stage deltas.
+     *
+     * @param weights The weights.
+     * @param stageDeltas The stage deltas.
+     * @return The weighted sum.
+     */
+    private static double combine(double[] weights, double[] stageDeltas) {
+        double sum = 0.0;
+        for (int stage = 0; stage < weights.length; stage++) {
+            sum += weights[stage] * stageDeltas[stage];
+        }
+        return sum;
+    }
+
+    /**
+     * The Butcher tableau of an embedded Runge-Kutta method.
+     */
+    public static final class Tableau {
+
+        /**
+         * The Bogacki-Shampine method of order 3 with embedded solution of order 2.
+         */
+        public static final Tableau BOGACKI_SHAMPINE = new Tableau("Bogacki-Shampine", 3, 2,
+                new double[][]{
+                        {},
+                        {1.0 / 2.0},
+                        {0.0, 3.0 / 4.0},
+                        {2.0 / 9.0, 1.0 / 3.0, 4.0 / 9.0}},
+                new double[]{2.0 / 9.0, 1.0 / 3.0, 4.0 / 9.0, 0.0},
+                new double[]{7.0 / 24.0, 1.0 / 4.0, 1.0 / 3.0, 1.0 / 8.0});
+
+        /**
+         * The Cash-Karp method of order 5 with embedded solution of order 4.
+         */
+        public static final Tableau CASH_KARP = new Tableau("Cash-Karp", 5, 4,
+                new double[][]{
+                        {},
+                        {1.0 / 5.0},
+                        {3.0 / 40.0, 9.0 / 40.0},
+                        {3.0 / 10.0, -9.0 / 10.0, 6.0 / 5.0},
+                        {-11.0 / 54.0, 5.0 / 2.0, -70.0 / 27.0, 35.0 / 27.0},
+                        {1631.0 / 55296.0, 175.0 / 512.0, 575.0 / 13824.0, 44275.0 / 110592.0, 253.0 / 4096.0}},
+                new double[]{37.0 / 378.0, 0.0, 250.0 / 621.0, 125.0 / 594.0, 0.0, 512.0 / 1771.0},
+                new double[]{2825.0 / 27648.0, 0.0, 18575.0 / 48384.0, 13525.0 / 55296.0, 277.0 / 14336.0, 1.0 / 4.0});
+
+        /**
+         * The Dormand-Prince method of order 5 with embedded solution of order 4.
+         */
+        public static final Tableau DORMAND_PRINCE = new Tableau("Dormand-Prince", 5, 4,
+                new double[][]{
+                        {},
+                        {1.0 / 5.0},
+                        {3.0 / 40.0, 9.0 / 40.0},
+                        {44.0 / 45.0, -56.0 / 15.0, 32.0 / 9.0},
+                        {19372.0 / 6561.0, -25360.0 / 2187.0, 64448.0 / 6561.0, -212.0 / 729.0},
+                        {9017.0 / 3168.0, -355.0 / 33.0, 46732.0 / 5247.0, 49.0 / 176.0, -5103.0 / 18656.0},
+                        {35.0 / 384.0, 0.0, 500.0 / 1113.0, 125.0 / 192.0, -2187.0 / 6784.0, 11.0 / 84.0}},
+                new double[]{35.0 / 384.0, 0.0, 500.0 / 1113.0, 125.0 / 192.0, -2187.0 / 6784.0, 11.0 / 84.0, 0.0},
+                new double[]{5179.0 / 57600.0, 0.0, 7571.0 / 16695.0, 393.0 / 640.0, -92097.0 / 339200.0, 187.0 / 2100.0, 1.0 / 40.0});
+
+        private final String name;
+        private final int order;
+        private final int embeddedOrder;
+
+        /**
+         * The weights of previous stages for each stage.
+         */
+        private final double[][] a;
+
+        /**
+         * The weights of the solution of higher order.
+         */
+        private final double[] b;
+
+        /**
+         * The weights of the solution of lower order.
+         */
+        private final double[] bStar;
+
+        /**
+         * Creates a new tableau.
+         *
+         * @param name The name of the method.
+         * @param order The order of the solution.
+         * @param embeddedOrder The order of the embedded solution.
+         * @param a The weights of previous stages for each stage.
+         * @param b The weights of the solution of higher order.
+         * @param bStar The weights of the solution of lower order.
+         */
+        public Tableau(String name, int order, int embeddedOrder, double[][] a, double[] b, double[] bStar) {
+            if (a.length != b.length || b.length != bStar.length) {
+                throw new IllegalArgumentException("The number of stages of the tableau " + name + " is inconsistent.");
+            }
+            for (int stage = 0; stage < a.length; stage++) {
+                if (a[stage].length != stage) {
+                    throw new IllegalArgumentException("Stage " + stage + " of the tableau " + name + " requires " + stage + " weights.");
+                }
+            }
+            this.name = name;
+            this.order = order;
+            this.embeddedOrder = embeddedOrder;
+            this.a = a;
+            this.b = b;
+            this.bStar = bStar;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getOrder() {
+            return order;
+        }
+
+        public int getEmbeddedOrder() {
+            return embeddedOrder;
+        }
+
+        public int getNumberOfStages() {
+            return b.length;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + order + "(" + embeddedOrder + ")";
+        }
+
+    }
+
+    /**
+     * The deltas of each stage for a single updatable, for each module and combined for each concentration.
+     */
+    private static class UpdatableStages {
+
+        private final ConcentrationDeltaManager manager;
+        private final int numberOfStages;
+
+        /**
+         * The deltas of each stage for each module, subsection and entity.
+         */
+        private final Map<DeltaKey, double[]> moduleDeltas;
+
+        /**
+         * The deltas of each stage for each subsection and entity.
+         */
+        private final Map<DeltaKey, double[]> entryDeltas;
+
+        /**
+         * The concentrations of the current stage.
+         */
+        private ConcentrationContainer stageConcentrations;
+
+        private UpdatableStages(ConcentrationDeltaManager manager, int numberOfStages) {
+            this.manager = manager;
+            this.numberOfStages = numberOfStages;
+            moduleDeltas = new LinkedHashMap<>();
+            entryDeltas = new LinkedHashMap<>();
+        }
+
+        private void addDelta(int stage, ConcentrationDelta delta) {
+            CellSubsection subsection = delta.getCellSubsection();
+            ChemicalEntity entity = delta.getChemicalEntity();
+            int entityIndex = EntityIndex.current().indexOf(entity);
+            moduleDeltas.computeIfAbsent(new DeltaKey(delta.getModule(), subsection, entity, entityIndex), key -> new double[numberOfStages])[stage] += delta.getValue();
+            entryDeltas.computeIfAbsent(new DeltaKey(null, subsection, entity, entityIndex), key -> new double[numberOfStages])[stage] += delta.getValue();
+        }
+
+        /**
+         * Sets the concentrations of the updatable to the original concentrations and the weighted deltas of all
+         * previous stages.
+         *
+         * @param weights The weights of the previous stages.
+         */
+        private void prepareStage(double[] weights) {
+            ConcentrationContainer originalConcentrations = manager.getOriginalConcentrations();
+            if (stageConcentrations == null) {
+                stageConcentrations = originalConcentrations.fullCopy();
+            }
+            for (Map.Entry<DeltaKey, double[]> entry : entryDeltas.entrySet()) {
+                DeltaKey key = entry.getKey();
+                double concentration = originalConcentrations.get(key.subsection, key.entityIndex) + combine(weights, entry.getValue());
+                stageConcentrations.set(key.subsection, key.entityIndex, concentration);
+            }
+            manager.setConcentrationContainer(stageConcentrations);
+        }
+
+    }
+
+    /**
+     * Identifies the deltas of a module (or of all modules if no module is given) for an entity in a subsection.
+     */
+    private static final class DeltaKey {
+
+        private final UpdateModule module;
+        private final CellSubsection subsection;
+        private final ChemicalEntity entity;
+        private final int entityIndex;
+
+        private DeltaKey(UpdateModule module, CellSubsection subsection, ChemicalEntity entity, int entityIndex) {
+            this.module = module;
+            this.subsection = subsection;
+            this.entity = entity;
+            this.entityIndex = entityIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            DeltaKey deltaKey = (DeltaKey) o;
+            return entityIndex == deltaKey.entityIndex &&
+                    module == deltaKey.module &&
+                    Objects.equals(subsection, deltaKey.subsection);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(module), subsection, entityIndex);
+        }
+
+    }
+
+}
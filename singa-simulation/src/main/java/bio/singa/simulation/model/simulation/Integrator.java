@@ -0,0 +1,28 @@
+package bio.singa.simulation.model.simulation;
+
+/**
+ * An integrator determines how the {@link bio.singa.simulation.model.modules.UpdateModule}s of a simulation are
+ * calculated for a single epoch. After the integration the potential deltas of all updatables need to contain the
+ * accepted updates for the current time step and the time step needs to be the one the updates have been
+ * calculated for.
+ *
+ * @author cl
+ */
+public interface Integrator {
+
+    /**
+     * Calculates all modules of the scheduler for the current epoch, until the numerical error is acceptable.
+     *
+     * @param scheduler The scheduler.
+     */
+    void integrate(UpdateScheduler scheduler);
+
+    /**
+     * Returns true, if the integrator determines the time step of subsequent epochs on its own. Otherwise the
+     * simulation increases the time step, if the previous global error was small.
+     *
+     * @return True, if the integrator controls the time step.
+     */
+    boolean controlsTimeStep();
+
+}
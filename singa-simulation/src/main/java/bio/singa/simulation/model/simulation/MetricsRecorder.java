@@ -0,0 +1,270 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static tec.units.indriya.unit.MetricPrefix.MILLI;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * This class dumps the {@link SimulationMetrics} of a simulation to a file each time an event is received. The events
+ * can be scheduled by using the {@link SimulationManager#setUpdateEmissionCondition(Predicate)}.
+ * <p>
+ * In the {@link Format#CSV} format a row is appended for each metric of the simulation and each module, with the
+ * columns epoch, elapsed time (in milliseconds), source ("simulation" or the identifier of the module), metric and
+ * value. In the {@link Format#JSON} format the file is replaced by a document containing the current metrics. Times
+ * are given in nanoseconds. The recorder needs to be closed after the simulation finished (this is done by the
+ * {@link SimulationManager}), the final metrics are dumped on closing.
+ *
+ * @author cl
+ */
+public class MetricsRecorder implements UpdateEventListener<GraphUpdatedEvent>, Closeable {
+
+    /**
+     * The formats metrics can be dumped in.
+     */
+    public enum Format {
+        CSV, JSON
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRecorder.class);
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final String VALUE_SEPARATOR = ",";
+    private static final String CSV_HEADER = "epoch,elapsed_time_ms,source,metric,value";
+    private static final String SIMULATION_SOURCE = "simulation";
+
+    /**
+     * The simulation.
+     */
+    private final Simulation simulation;
+
+    /**
+     * The file.
+     */
+    private final Path file;
+
+    /**
+     * The format.
+     */
+    private final Format format;
+
+    /**
+     * The writer of csv files.
+     */
+    private BufferedWriter csvWriter;
+
+    /**
+     * The epoch of the last dump.
+     */
+    private long lastDumpedEpoch = -1;
+
+    /**
+     * True if the recorder has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Creates a new metrics recorder, writing the metrics of the given simulation to the given file.
+     *
+     * @param simulation The simulation.
+     * @param file The file.
+     * @param format The format.
+     */
+    public MetricsRecorder(Simulation simulation, Path file, Format format) {
+        this.simulation = simulation;
+        this.file = file;
+        this.format = format;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        if (closed) {
+            throw new IllegalStateException("The recorder for " + file + " has already been closed.");
+        }
+        dump(event.getElapsedTime().to(MILLI(SECOND)).getValue().doubleValue());
+    }
+
+    /**
+     * Dumps the current metrics.
+     *
+     * @param elapsedTime The elapsed time in milliseconds.
+     */
+    private void dump(double elapsedTime) {
+        long epoch = simulation.getEpoch();
+        try {
+            if (format == Format.CSV) {
+                appendCsv(epoch, elapsedTime);
+            } else {
+                writeJson(epoch, elapsedTime);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write metrics to " + file + ".", e);
+        }
+        lastDumpedEpoch = epoch;
+    }
+
+    private void appendCsv(long epoch, double elapsedTime) throws IOException {
+        if (csvWriter == null) {
+            csvWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            csvWriter.write(CSV_HEADER);
+            csvWriter.write(LINE_SEPARATOR);
+        }
+        String prefix = epoch + VALUE_SEPARATOR + elapsedTime + VALUE_SEPARATOR;
+        appendCsvRows(prefix + SIMULATION_SOURCE + VALUE_SEPARATOR, simulationValues(simulation.getMetrics()));
+        for (ModuleMetrics moduleMetrics : simulation.getMetrics().getModuleMetrics()) {
+            appendCsvRows(prefix + escapeCsv(moduleMetrics.getModuleIdentifier()) + VALUE_SEPARATOR, moduleValues(moduleMetrics));
+        }
+        csvWriter.flush();
+    }
+
+    private void appendCsvRows(String prefix, Map<String, Long> values) throws IOException {
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            csvWriter.write(prefix);
+            csvWriter.write(entry.getKey());
+            csvWriter.write(VALUE_SEPARATOR);
+            csvWriter.write(String.valueOf(entry.getValue()));
+            csvWriter.write(LINE_SEPARATOR);
+        }
+    }
+
+    private void writeJson(long epoch, double elapsedTime) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{").append(LINE_SEPARATOR);
+        builder.append("  \"epoch\": ").append(epoch).append(",").append(LINE_SEPARATOR);
+        builder.append("  \"elapsed_time_ms\": ").append(elapsedTime).append(",").append(LINE_SEPARATOR);
+        builder.append("  \"simulation\": ");
+        appendJsonObject(builder, simulationValues(simulation.getMetrics()), null);
+        builder.append(",").append(LINE_SEPARATOR);
+        builder.append("  \"modules\": [");
+        boolean first = true;
+        for (ModuleMetrics moduleMetrics : simulation.getMetrics().getModuleMetrics()) {
+            builder.append(first ? "" : ",").append(LINE_SEPARATOR).append("    ");
+            appendJsonObject(builder, moduleValues(moduleMetrics), moduleMetrics.getModuleIdentifier());
+            first = false;
+        }
+        builder.append(LINE_SEPARATOR).append("  ]").append(LINE_SEPARATOR);
+        builder.append("}").append(LINE_SEPARATOR);
+        // replace previous dump
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporaryFile, builder.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void appendJsonObject(StringBuilder builder, Map<String, Long> values, String module) {
+        builder.append("{");
+        boolean first = true;
+        if (module != null) {
+            builder.append("\"module\": \"").append(escapeJson(module)).append("\"");
+            first = false;
+        }
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            builder.append(first ? "" : ", ").append("\"").append(entry.getKey()).append("\": ").append(entry.getValue());
+            first = false;
+        }
+        builder.append("}");
+    }
+
+    private static Map<String, Long> simulationValues(SimulationMetrics metrics) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("epochs", metrics.getEpochs());
+        values.put("epoch_time_ns", metrics.getEpochTime());
+        values.put("last_epoch_time_ns", metrics.getLastEpochTime());
+        values.put("passes", metrics.getPasses());
+        values.put("recalculation_passes", metrics.getRecalculationPasses());
+        values.put("last_epoch_recalculation_passes", metrics.getLastEpochRecalculationPasses());
+        values.put("time_step_increases", metrics.getTimeStepIncreases());
+        values.put("time_step_decreases", metrics.getTimeStepDecreases());
+        values.put("global_error_evaluations", metrics.getGlobalErrorEvaluations());
+        values.put("global_error_time_ns", metrics.getGlobalErrorTime());
+        values.put("vesicle_associations", metrics.getVesicleAssociations());
+        values.put("vesicle_association_time_ns", metrics.getVesicleAssociationTime());
+        return values;
+    }
+
+    private static Map<String, Long> moduleValues(ModuleMetrics metrics) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("calculations", metrics.getCalculations());
+        values.put("time_ns", metrics.getTime());
+        values.put("last_epoch_time_ns", metrics.getLastEpochTime());
+        values.put("processed_updatables", metrics.getProcessedUpdatables());
+        values.put("produced_deltas", metrics.getProducedDeltas());
+        values.put("triggered_interrupts", metrics.getTriggeredInterrupts());
+        return values;
+    }
+
+    private static String escapeCsv(String value) {
+        if (value.contains(VALUE_SEPARATOR) || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String escapeJson(String value) {
+        StringBuilder builder = new StringBuilder();
+        for (char character : value.toCharArray()) {
+            switch (character) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                default:
+                    if (character < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) character));
+                    } else {
+                        builder.append(character);
+                    }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Dumps the final metrics, if they changed since the last event, and closes the file.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (simulation.getEpoch() != lastDumpedEpoch) {
+                dump(simulation.getElapsedTime().to(MILLI(SECOND)).getValue().doubleValue());
+            }
+        } finally {
+            if (csvWriter != null) {
+                try {
+                    csvWriter.close();
+                } catch (IOException e) {
+                    logger.error("Unable to close metrics file {}.", file, e);
+                }
+            }
+        }
+    }
+
+}
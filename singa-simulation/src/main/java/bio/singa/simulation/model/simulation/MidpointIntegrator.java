@@ -0,0 +1,37 @@
+package bio.singa.simulation.model.simulation;
+
+/**
+ * The midpoint integrator calculates full and half step deltas in each module to evaluate the local error of the
+ * module. Afterwards all modules are calculated a second time at the resulting half step concentrations and the global
+ * error is evaluated by comparing the full step concentrations to the concentrations resulting from twice the half
+ * step deltas. If any error exceeds the recalculation cutoff, the time step is decreased by a fixed factor and the
+ * epoch is recalculated.
+ *
+ * @author cl
+ */
+public class MidpointIntegrator implements Integrator {
+
+    @Override
+    public void integrate(UpdateScheduler scheduler) {
+        for (Updatable updatable : scheduler.getUpdatables()) {
+            updatable.getConcentrationManager().backupConcentrations();
+        }
+        // until all models passed
+        do {
+            scheduler.runPass(scheduler.getModules());
+            if (!scheduler.wasInterrupted()) {
+                // perform only if every module passed individually
+                // evaluate total concentration change
+                scheduler.evaluateGlobalNumericalAccuracy();
+            }
+            // evaluate total spatial displacement
+            scheduler.spatialDisplacementIsValid();
+        } while (scheduler.recalculationRequired());
+    }
+
+    @Override
+    public boolean controlsTimeStep() {
+        return false;
+    }
+
+}
@@ -0,0 +1,202 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.simulation.model.modules.UpdateModule;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics collected for a single {@link UpdateModule} (see {@link SimulationMetrics}). Wall times include all
+ * passes and recalculations required by the module. Counters are updated concurrently by the threads calculating the
+ * module, all values are accumulated since the metrics have been created or reset, except for the wall time of the
+ * last epoch.
+ *
+ * @author cl
+ */
+public class ModuleMetrics {
+
+    /**
+     * The module.
+     */
+    private final UpdateModule module;
+
+    /**
+     * The wall time (in nanoseconds) of all calculations.
+     */
+    private final LongAdder time;
+
+    /**
+     * The wall time (in nanoseconds) of the calculations in the current epoch.
+     */
+    private final LongAdder epochTime;
+
+    /**
+     * The wall time (in nanoseconds) of the calculations in the last finished epoch.
+     */
+    private volatile long lastEpochTime;
+
+    /**
+     * The number of times the module has been calculated.
+     */
+    private final LongAdder calculations;
+
+    /**
+     * The number of updatables processed by the module.
+     */
+    private final LongAdder processedUpdatables;
+
+    /**
+     * The number of deltas produced by the module.
+     */
+    private final LongAdder producedDeltas;
+
+    /**
+     * The number of interrupts triggered by the module.
+     */
+    private final LongAdder triggeredInterrupts;
+
+    /**
+     * Creates new metrics for the given module.
+     *
+     * @param module The module.
+     */
+    ModuleMetrics(UpdateModule module) {
+        this.module = module;
+        time = new LongAdder();
+        epochTime = new LongAdder();
+        calculations = new LongAdder();
+        processedUpdatables = new LongAdder();
+        producedDeltas = new LongAdder();
+        triggeredInterrupts = new LongAdder();
+    }
+
+    public UpdateModule getModule() {
+        return module;
+    }
+
+    /**
+     * Returns the identifier of the module or the name of its class, if no identifier is set.
+     *
+     * @return The identifier of the module.
+     */
+    public String getModuleIdentifier() {
+        String identifier = module.getIdentifier();
+        return identifier != null ? identifier : module.getClass().getSimpleName();
+    }
+
+    /**
+     * Returns the wall time (in nanoseconds) of all calculations of the module.
+     *
+     * @return The wall time.
+     */
+    public long getTime() {
+        return time.sum();
+    }
+
+    /**
+     * Returns the wall time (in nanoseconds) of the calculations of the module in the last finished epoch.
+     *
+     * @return The wall time of the last epoch.
+     */
+    public long getLastEpochTime() {
+        return lastEpochTime;
+    }
+
+    /**
+     * Returns the number of times the module has been calculated, including recalculations.
+     *
+     * @return The number of calculations.
+     */
+    public long getCalculations() {
+        return calculations.sum();
+    }
+
+    /**
+     * Returns the number of updatables (nodes and vesicles) processed by the module.
+     *
+     * @return The number of processed updatables.
+     */
+    public long getProcessedUpdatables() {
+        return processedUpdatables.sum();
+    }
+
+    /**
+     * Returns the number of deltas produced by the module.
+     *
+     * @return The number of produced deltas.
+     */
+    public long getProducedDeltas() {
+        return producedDeltas.sum();
+    }
+
+    /**
+     * Returns the number of interrupts triggered by the module (see
+     * {@link UpdateScheduler#interruptAllBut(Thread, UpdateModule)}).
+     *
+     * @return The number of triggered interrupts.
+     */
+    public long getTriggeredInterrupts() {
+        return triggeredInterrupts.sum();
+    }
+
+    /**
+     * Records that the given number of updatables has been processed by the module.
+     *
+     * @param numberOfUpdatables The number of processed updatables.
+     */
+    public void recordProcessedUpdatables(int numberOfUpdatables) {
+        processedUpdatables.add(numberOfUpdatables);
+    }
+
+    /**
+     * Records that a delta has been produced by the module.
+     */
+    public void recordProducedDelta() {
+        producedDeltas.increment();
+    }
+
+    /**
+     * Records that the given number of deltas has been produced by the module.
+     *
+     * @param numberOfDeltas The number of produced deltas.
+     */
+    public void recordProducedDeltas(int numberOfDeltas) {
+        producedDeltas.add(numberOfDeltas);
+    }
+
+    void recordCalculation(long nanos) {
+        time.add(nanos);
+        epochTime.add(nanos);
+        calculations.increment();
+    }
+
+    void recordInterrupt() {
+        triggeredInterrupts.increment();
+    }
+
+    void finishEpoch() {
+        lastEpochTime = epochTime.sumThenReset();
+    }
+
+    void reset() {
+        time.reset();
+        epochTime.reset();
+        lastEpochTime = 0;
+        calculations.reset();
+        processedUpdatables.reset();
+        producedDeltas.reset();
+        triggeredInterrupts.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "ModuleMetrics{" +
+                "module=" + getModuleIdentifier() +
+                ", time=" + getTime() +
+                ", calculations=" + getCalculations() +
+                ", processedUpdatables=" + getProcessedUpdatables() +
+                ", producedDeltas=" + getProducedDeltas() +
+                ", triggeredInterrupts=" + getTriggeredInterrupts() +
+                '}';
+    }
+
+}
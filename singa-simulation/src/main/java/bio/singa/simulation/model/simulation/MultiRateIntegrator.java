@@ -0,0 +1,436 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.features.formatter.TimeFormatter;
+import bio.singa.features.units.ScalingContext;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.checkpoints.CheckpointInput;
+import bio.singa.simulation.checkpoints.CheckpointOutput;
+import bio.singa.simulation.checkpoints.CheckpointedIntegrator;
+import bio.singa.simulation.exceptions.CheckpointException;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+import bio.singa.simulation.model.modules.displacement.DisplacementBasedModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tec.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.io.IOException;
+import java.util.*;
+
+import static bio.singa.simulation.model.modules.concentration.ModuleState.SUCCEEDED_WITH_PENDING_CHANGES;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * The multi rate integrator calculates slow modules with their own time step, instead of the global time step that is
+ * determined by the fastest processes of the simulation. Slow modules are declared by assigning a time step to them
+ * (see {@link #setTimeStep(UpdateModule, Quantity)}), all other modules are calculated in every epoch by the fast
+ * integrator (the {@link MidpointIntegrator} by default).
+ * <p>
+ * Slow modules are treated by Strang splitting: Each slow module is calculated as a separate sub step at the start of
+ * an epoch, before the fast modules are calculated. The first sub step covers half of the time step of the module,
+ * every following sub step covers the full time step (the second half of the previous and the first half of the next
+ * interval), such that the slow process is applied centered between the sub cycled fast epochs. The time covered by
+ * each sub step is determined from the elapsed time of the simulation, changes of the global time step are therefore
+ * compensated in the following sub step. During a sub step the module is calculated in its own
+ * {@link ScalingContext}, where the time step is the time covered by the sub step. If the local error of the module is
+ * too large, the module decreases the time step of its context and the time step of the module is adapted
+ * accordingly. The deltas of slow modules are applied directly after each sub step.
+ * <p>
+ * The time stepping of slow modules and the state of the fast integrator (if it is a {@link CheckpointedIntegrator})
+ * are part of checkpoints. Slow modules have to be declared before a checkpoint is restored.
+ *
+ * @author cl
+ */
+public class MultiRateIntegrator implements CheckpointedIntegrator {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MultiRateIntegrator.class);
+
+    /**
+     * The factor the adapted time step of a module is increased with after each successful sub step, until the
+     * declared time step is reached.
+     */
+    private static final double TIME_STEP_RECOVERY = 1.1;
+
+    /**
+     * The factor the remaining time of a sub step may exceed the time step of a module, before the remaining time is
+     * split into multiple sub steps.
+     */
+    private static final double MAXIMAL_STEP_EXTENSION = 1.5;
+
+    /**
+     * The integrator calculating the fast modules.
+     */
+    private final Integrator fastIntegrator;
+
+    /**
+     * The time stepping of each slow module.
+     */
+    private final Map<UpdateModule, ModuleStepping> slowModules;
+
+    /**
+     * The number of calculations of each module.
+     */
+    private final Map<UpdateModule, Long> evaluations;
+
+    /**
+     * Creates a new multi rate integrator, calculating fast modules with the {@link MidpointIntegrator}.
+     */
+    public MultiRateIntegrator() {
+        this(new MidpointIntegrator());
+    }
+
+    /**
+     * Creates a new multi rate integrator, calculating fast modules with the given integrator.
+     *
+     * @param fastIntegrator The integrator of the fast modules.
+     */
+    public MultiRateIntegrator(Integrator fastIntegrator) {
+        this.fastIntegrator = Objects.requireNonNull(fastIntegrator);
+        // reactions built with the default identifier are equal, but may be calculated with different time steps
+        slowModules = new IdentityHashMap<>();
+        evaluations = new IdentityHashMap<>();
+    }
+
+    public Integrator getFastIntegrator() {
+        return fastIntegrator;
+    }
+
+    /**
+     * Declares the module as slow module, that is calculated with the given time step. Passing null calculates the
+     * module in every epoch again.
+     *
+     * @param module The module.
+     * @param timeStep The time step of the module.
+     */
+    public void setTimeStep(UpdateModule module, Quantity<Time> timeStep) {
+        if (timeStep == null) {
+            slowModules.remove(module);
+            return;
+        }
+        double seconds = toSeconds(timeStep);
+        if (seconds <= 0.0) {
+            throw new IllegalArgumentException("The time step of module " + module + " has to be positive.");
+        }
+        slowModules.put(module, new ModuleStepping(seconds));
+    }
+
+    /**
+     * Returns the current time step of the module, that might have been decreased to satisfy the local error of the
+     * module, or null if the module is calculated in every epoch.
+     *
+     * @param module The module.
+     * @return The time step of the module.
+     */
+    public Quantity<Time> getTimeStep(UpdateModule module) {
+        ModuleStepping stepping = slowModules.get(module);
+        if (stepping == null) {
+            return null;
+        }
+        return Quantities.getQuantity(stepping.currentStep, SECOND);
+    }
+
+    /**
+     * Returns the number of epochs or sub steps the module has been calculated in.
+     *
+     * @param module The module.
+     * @return The number of calculations.
+     */
+    public long getEvaluations(UpdateModule module) {
+        return evaluations.getOrDefault(module, 0L);
+    }
+
+    @Override
+    public void integrate(UpdateScheduler scheduler) {
+        double time = toSeconds(scheduler.getSimulation().getElapsedTime());
+        double timeStep = toSeconds(UnitRegistry.getTime());
+        List<UpdateModule> fastModules = new ArrayList<>();
+        for (UpdateModule module : scheduler.getModules()) {
+            ModuleStepping stepping = slowModules.get(module);
+            if (stepping == null) {
+                fastModules.add(module);
+            } else if (stepping.isDue(time, timeStep)) {
+                calculateSubSteps(scheduler, module, stepping, time, timeStep);
+            }
+        }
+        for (UpdateModule module : fastModules) {
+            evaluations.merge(module, 1L, Long::sum);
+        }
+        // calculate fast modules
+        scheduler.resetEpochState();
+        scheduler.setEpochModules(fastModules);
+        try {
+            fastIntegrator.integrate(scheduler);
+        } finally {
+            scheduler.setEpochModules(null);
+        }
+    }
+
+    /**
+     * Calculates the sub steps of the slow module, until the process of the module is applied up to the middle of
+     * its upcoming interval. Usually a single sub step is sufficient, if the time step of the module had to be
+     * decreased below the planned time step, multiple sub steps are calculated.
+     *
+     * @param scheduler The scheduler.
+     * @param module The module.
+     * @param stepping The time stepping of the module.
+     * @param time The elapsed time (in seconds).
+     * @param timeStep The global time step (in seconds).
+     */
+    private void calculateSubSteps(UpdateScheduler scheduler, UpdateModule module, ModuleStepping stepping, double time, double timeStep) {
+        double targetTime = stepping.determineTargetTime(time, timeStep);
+        // ignore remaining times caused by rounding
+        while (targetTime - stepping.coveredTime > 1e-9 * timeStep) {
+            double plannedStep = stepping.determinePlannedStep(targetTime);
+            double actualStep = calculateSubStep(scheduler, module, plannedStep, timeStep);
+            stepping.advance(plannedStep, actualStep);
+        }
+    }
+
+    /**
+     * Calculates a sub step of the slow module and applies the resulting deltas.
+     *
+     * @param scheduler The scheduler.
+     * @param module The module.
+     * @param plannedStep The time step of the sub step (in seconds).
+     * @param timeStep The global time step (in seconds).
+     * @return The time step the module has actually been calculated with (in seconds).
+     */
+    private double calculateSubStep(UpdateScheduler scheduler, UpdateModule module, double plannedStep, double timeStep) {
+        scheduler.resetEpochState();
+        for (Updatable updatable : scheduler.getUpdatables()) {
+            updatable.getConcentrationManager().backupConcentrations();
+        }
+        List<UpdateModule> subStepModules = Collections.singletonList(module);
+        double actualStep;
+        ScalingContext previousContext = ScalingContext.bind(ScalingContext.create());
+        try {
+            UnitRegistry.setTime(UnitRegistry.getTime().multiply(plannedStep / timeStep));
+            logger.debug("Calculating {} with time step of {}.", module, TimeFormatter.formatTime(UnitRegistry.getTime()));
+            do {
+                scheduler.runPass(subStepModules);
+                scheduler.spatialDisplacementIsValid();
+            } while (scheduler.recalculationRequired());
+            actualStep = toSeconds(UnitRegistry.getTime());
+            if (module.getState() == SUCCEEDED_WITH_PENDING_CHANGES) {
+                module.onCompletion();
+            }
+        } finally {
+            ScalingContext.bind(previousContext);
+        }
+        module.resetState();
+        evaluations.merge(module, 1L, Long::sum);
+        applyDeltas(scheduler, module);
+        return actualStep;
+    }
+
+    /**
+     * Applies the deltas of the sub step, such that the following calculations refer to the resulting
+     * concentrations and positions.
+     *
+     * @param scheduler The scheduler.
+     * @param module The module of the sub step.
+     */
+    private void applyDeltas(UpdateScheduler scheduler, UpdateModule module) {
+        Simulation simulation = scheduler.getSimulation();
+        boolean trackActivity = simulation.getActivityTracker().isTrackingAnyModule();
+        for (Updatable updatable : scheduler.getUpdatables()) {
+            ConcentrationDeltaManager manager = updatable.getConcentrationManager();
+            // observed updatables retain potential deltas after shifting, they would be applied again
+            manager.shiftDeltas();
+            manager.clearPotentialDeltas();
+            if (manager.hasDeltas()) {
+                if (trackActivity) {
+                    simulation.getActivityTracker().recordAppliedDeltas(updatable);
+                }
+                manager.applyDeltas();
+            }
+        }
+        if (module instanceof DisplacementBasedModule && simulation.getVesicleLayer() != null) {
+            simulation.getVesicleLayer().applyDeltas();
+            simulation.getVesicleLayer().associateVesicles();
+        }
+    }
+
+    @Override
+    public boolean controlsTimeStep() {
+        return fastIntegrator.controlsTimeStep();
+    }
+
+    @Override
+    public void writeCheckpoint(Simulation simulation, CheckpointOutput output) throws IOException {
+        List<UpdateModule> modules = simulation.getModules();
+        output.writeInt(slowModules.size());
+        for (Map.Entry<UpdateModule, ModuleStepping> entry : slowModules.entrySet()) {
+            writeModule(modules, entry.getKey(), output);
+            output.writeDouble(entry.getValue().currentStep);
+            output.writeDouble(entry.getValue().coveredTime);
+        }
+        output.writeInt(evaluations.size());
+        for (Map.Entry<UpdateModule, Long> entry : evaluations.entrySet()) {
+            writeModule(modules, entry.getKey(), output);
+            output.writeLong(entry.getValue());
+        }
+        output.writeBoolean(fastIntegrator instanceof CheckpointedIntegrator);
+        if (fastIntegrator instanceof CheckpointedIntegrator) {
+            ((CheckpointedIntegrator) fastIntegrator).writeCheckpoint(simulation, output);
+        }
+    }
+
+    @Override
+    public void readCheckpoint(Simulation simulation, CheckpointInput input) throws IOException {
+        List<UpdateModule> modules = simulation.getModules();
+        int numberOfSlowModules = input.readInt();
+        for (int index = 0; index < numberOfSlowModules; index++) {
+            UpdateModule module = readModule(modules, input);
+            ModuleStepping stepping = slowModules.get(module);
+            if (stepping == null) {
+                throw new CheckpointException("The module " + module + " is no slow module of the integrator.");
+            }
+            stepping.currentStep = input.readDouble();
+            stepping.coveredTime = input.readDouble();
+        }
+        evaluations.clear();
+        int numberOfEvaluations = input.readInt();
+        for (int index = 0; index < numberOfEvaluations; index++) {
+            evaluations.put(readModule(modules, input), input.readLong());
+        }
+        boolean checkpointedFastIntegrator = input.readBoolean();
+        if (checkpointedFastIntegrator != fastIntegrator instanceof CheckpointedIntegrator) {
+            throw new CheckpointException("The fast integrator " + fastIntegrator.getClass().getSimpleName() + " does not match the checkpoint.");
+        }
+        if (checkpointedFastIntegrator) {
+            ((CheckpointedIntegrator) fastIntegrator).readCheckpoint(simulation, input);
+        }
+    }
+
+    /**
+     * Writes the index of the module in the simulation and its identifier. Modules are referenced by index, since
+     * modules built with the default identifier are equal.
+     *
+     * @param modules The modules of the simulation.
+     * @param module The module.
+     * @param output The checkpoint output.
+     * @throws IOException If the module could not be written.
+     */
+    private static void writeModule(List<UpdateModule> modules, UpdateModule module, CheckpointOutput output) throws IOException {
+        int moduleIndex = -1;
+        for (int index = 0; index < modules.size(); index++) {
+            if (modules.get(index) == module) {
+                moduleIndex = index;
+                break;
+            }
+        }
+        output.writeInt(moduleIndex);
+        output.writeOptionalUTF(module.getIdentifier());
+    }
+
+    private static UpdateModule readModule(List<UpdateModule> modules, CheckpointInput input) throws IOException {
+        int index = input.readInt();
+        String identifier = input.readOptionalUTF();
+        if (index < 0 || index >= modules.size() || !Objects.equals(modules.get(index).getIdentifier(), identifier)) {
+            throw new CheckpointException("The module " + identifier + " could not be found in the simulation.");
+        }
+        return modules.get(index);
+    }
+
+    private static double toSeconds(Quantity<Time> time) {
+        return time.to(SECOND).getValue().doubleValue();
+    }
+
+    /**
+     * The time stepping of a slow module.
+     */
+    private static class ModuleStepping {
+
+        /**
+         * The declared time step (in seconds).
+         */
+        private final double declaredStep;
+
+        /**
+         * The current time step (in seconds).
+         */
+        private double currentStep;
+
+        /**
+         * The time up to which the process of the module has been applied (in seconds) or NaN before the first sub
+         * step.
+         */
+        private double coveredTime;
+
+        private ModuleStepping(double declaredStep) {
+            this.declaredStep = declaredStep;
+            currentStep = declaredStep;
+            coveredTime = Double.NaN;
+        }
+
+        /**
+         * Returns true, if the next sub step is due in the epoch starting at the given time, i.e. the start of the
+         * next interval of the module is closer to the start of this epoch than to the start of the next epoch.
+         *
+         * @param time The elapsed time.
+         * @param timeStep The global time step.
+         * @return True, if a sub step is due.
+         */
+        private boolean isDue(double time, double timeStep) {
+            if (Double.isNaN(coveredTime)) {
+                return true;
+            }
+            return time + 0.5 * timeStep >= coveredTime + 0.5 * currentStep;
+        }
+
+        /**
+         * Determines the time up to which the process is applied by the upcoming sub steps, i.e. the middle of the
+         * upcoming interval.
+         *
+         * @param time The elapsed time.
+         * @param timeStep The global time step.
+         * @return The target time.
+         */
+        private double determineTargetTime(double time, double timeStep) {
+            if (Double.isNaN(coveredTime)) {
+                coveredTime = time;
+            }
+            return time + 0.5 * Math.max(currentStep, timeStep);
+        }
+
+        /**
+         * Determines the time step of the next sub step. The remaining time is covered by a single sub step, unless it
+         * is considerably larger than the current time step of the module.
+         *
+         * @param targetTime The target time.
+         * @return The planned time step.
+         */
+        private double determinePlannedStep(double targetTime) {
+            double remainingTime = targetTime - coveredTime;
+            if (remainingTime > MAXIMAL_STEP_EXTENSION * currentStep) {
+                return currentStep;
+            }
+            return remainingTime;
+        }
+
+        /**
+         * Advances the covered time by the actual time step of the sub step. If the actual time step had to be
+         * decreased, it is used as the time step of the module, otherwise the time step recovers towards the
+         * declared time step.
+         *
+         * @param plannedStep The planned time step.
+         * @param actualStep The time step the module has been calculated with.
+         */
+        private void advance(double plannedStep, double actualStep) {
+            coveredTime += actualStep;
+            if (actualStep < plannedStep) {
+                currentStep = actualStep;
+            } else {
+                currentStep = Math.min(declaredStep, currentStep * TIME_STEP_RECOVERY);
+            }
+        }
+
+    }
+
+}
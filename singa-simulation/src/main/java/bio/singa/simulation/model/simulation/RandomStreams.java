@@ -0,0 +1,176 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.simulation.model.modules.UpdateModule;
+
+import java.util.SplittableRandom;
+
+/**
+ * The random streams provide the sources of randomness for all stochastic decisions of a {@link Simulation}. Streams
+ * are derived from a single seed and do not share any state, such that no contention arises between threads.
+ * <p>
+ * Streams used during the epochs are counter based, i.e. they are determined by the seed, the name of the stream
+ * (usually the identifier of the module), an optional key (usually the index of the agent in its layer), the epoch
+ * and the index of the pass in the epoch (see {@link UpdateScheduler#getPass()}). Each module and agent therefore
+ * draws the same numbers regardless of the number of threads or the order in which agents are processed, and a
+ * recalculation of a module in the same pass (e.g. with a reduced time step) reuses the numbers of the first
+ * calculation. Streams used to set up the simulation are sequential and only determined by the seed and their name
+ * (see {@link #getSetupStream(String)}).
+ * <p>
+ * Unless a seed is set explicitly, a random seed is chosen, such that subsequent runs differ. Runs are bit-reproducible
+ * for a given seed, if the agents (e.g. vesicles) are created in the same order. Agents are keyed by their index in
+ * their layer rather than by their identifiers, since identifiers of vesicles are generated from a counter that is
+ * shared by all simulations in the JVM.
+ *
+ * @author cl
+ */
+public class RandomStreams {
+
+    /**
+     * The golden ratio increment of SplitMix64.
+     */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * The simulation.
+     */
+    private final Simulation simulation;
+
+    /**
+     * The seed of all streams.
+     */
+    private volatile long seed;
+
+    /**
+     * Creates new random streams for the given simulation with a random seed.
+     *
+     * @param simulation The simulation.
+     */
+    public RandomStreams(Simulation simulation) {
+        this.simulation = simulation;
+        seed = mix(System.nanoTime(), System.identityHashCode(this));
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the seed of all streams. The seed should be set before the simulation is set up, setup streams that have
+     * already been retrieved are not affected.
+     *
+     * @param seed The seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the stream of the given module for decisions concerning the given agent in the current pass.
+     *
+     * @param module The module.
+     * @param agentIdentifier The identifier of the agent (e.g. of a vesicle or node).
+     * @return The stream.
+     */
+    public SplittableRandom getStream(UpdateModule module, String agentIdentifier) {
+        return getStream(getStreamName(module), agentIdentifier);
+    }
+
+    /**
+     * Returns the stream of the given module for decisions concerning the agent with the given index in its layer
+     * (e.g. the index of a vesicle in the {@link bio.singa.simulation.model.agents.pointlike.VesicleLayer}) in the
+     * current pass.
+     *
+     * @param module The module.
+     * @param agentIndex The index of the agent.
+     * @return The stream.
+     */
+    public SplittableRandom getStream(UpdateModule module, int agentIndex) {
+        return getStream(getStreamName(module), agentIndex);
+    }
+
+    /**
+     * Returns the stream of the given module for the current pass. The stream should only be used if the decisions of
+     * the module are drawn sequentially in a deterministic order.
+     *
+     * @param module The module.
+     * @return The stream.
+     */
+    public SplittableRandom getStream(UpdateModule module) {
+        return getStream(getStreamName(module), null);
+    }
+
+    /**
+     * Returns the stream with the given name for decisions concerning the given key in the current pass.
+     *
+     * @param streamName The name of the stream.
+     * @param key The key, e.g. the identifier of an agent, or null.
+     * @return The stream.
+     */
+    public SplittableRandom getStream(String streamName, String key) {
+        long hash = mix(seed, streamName.hashCode());
+        if (key != null) {
+            hash = mix(hash, key.hashCode());
+        }
+        return determineStream(hash);
+    }
+
+    /**
+     * Returns the stream with the given name for decisions concerning the given index in the current pass.
+     *
+     * @param streamName The name of the stream.
+     * @param index The index, e.g. of an agent in its layer.
+     * @return The stream.
+     */
+    public SplittableRandom getStream(String streamName, int index) {
+        return determineStream(mix(mix(seed, streamName.hashCode()), index));
+    }
+
+    /**
+     * Returns a sequential stream with the given name, that is only determined by the seed and the name. Setup streams
+     * should be retrieved once and reused for all decisions of the setup step, e.g. the initialization of filaments.
+     *
+     * @param streamName The name of the stream.
+     * @return The stream.
+     */
+    public SplittableRandom getSetupStream(String streamName) {
+        return new SplittableRandom(mix(mix(seed, streamName.hashCode()), -1));
+    }
+
+    /**
+     * Returns a value drawn from the standard normal distribution using the given source of randomness.
+     *
+     * @param random The source of randomness.
+     * @return The standard gaussian value.
+     */
+    public static double nextGaussian(SplittableRandom random) {
+        // Box-Muller transform, 1 - u is in (0, 1], such that the logarithm is finite
+        double radius = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()));
+        return radius * Math.cos(2.0 * Math.PI * random.nextDouble());
+    }
+
+    private SplittableRandom determineStream(long hash) {
+        hash = mix(hash, simulation.getEpoch());
+        hash = mix(hash, simulation.getScheduler().getPass());
+        return new SplittableRandom(hash);
+    }
+
+    private static String getStreamName(UpdateModule module) {
+        String identifier = module.getIdentifier();
+        return identifier != null ? identifier : module.getClass().getName();
+    }
+
+    /**
+     * Combines the hash with the value using the finalizer of SplitMix64.
+     *
+     * @param hash The current hash.
+     * @param value The value.
+     * @return The combined hash.
+     */
+    private static long mix(long hash, long value) {
+        long z = hash + (value + 1) * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
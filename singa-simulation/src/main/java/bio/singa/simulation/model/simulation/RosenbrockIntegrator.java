@@ -0,0 +1,267 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.mathematics.algorithms.matrix.LUDecomposition;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationBasedModule;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.modules.concentration.ConcentrationDeltaManager;
+import bio.singa.simulation.model.modules.concentration.ConcentrationJacobian;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import bio.singa.simulation.model.sections.EntityIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * The Rosenbrock integrator treats stiff systems of reactions, where fast reactions would force explicit methods to
+ * very small time steps, even if the concentrations are close to equilibrium. The two stage Rosenbrock method of
+ * second order (ROS2, Verwer et al. 1999) solves a linear system {@code (I - gamma * J) k = f} for each stage, where J
+ * is the jacobian of the deltas of each updatable. The jacobian is determined once per step by every
+ * {@link ConcentrationBasedModule} that {@link ConcentrationBasedModule#providesJacobian() provides a jacobian}, all
+ * other deltas are treated explicitly. Since the method is a W-method, an approximate jacobian (e.g. ignoring
+ * coupling between updatables) still yields a solution of second order. The first stage is a solution of first order
+ * and is used to estimate the error of the step.
+ *
+ * @author cl
+ */
+public class RosenbrockIntegrator extends AdaptiveStepIntegrator {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RosenbrockIntegrator.class);
+
+    /**
+     * The diagonal coefficient of the method, that guarantees L-stability.
+     */
+    private static final double GAMMA = 1.0 + 1.0 / Math.sqrt(2.0);
+
+    @Override
+    protected int getEmbeddedOrder() {
+        return 1;
+    }
+
+    @Override
+    protected Step calculateStep(UpdateScheduler scheduler, List<UpdateModule> concentrationModules, ErrorEstimate estimate) {
+        Map<Updatable, UpdatableSystem> systems = new LinkedHashMap<>();
+        try {
+            // first stage
+            Map<Updatable, List<ConcentrationDelta>> firstDeltas = evaluateStage(scheduler, concentrationModules);
+            for (Map.Entry<Updatable, List<ConcentrationDelta>> entry : firstDeltas.entrySet()) {
+                UpdatableSystem system = new UpdatableSystem(entry.getKey());
+                system.determineJacobian(concentrationModules);
+                system.addDeltas(0, entry.getValue());
+                system.factorize();
+                systems.put(entry.getKey(), system);
+            }
+            for (UpdatableSystem system : systems.values()) {
+                system.solveFirstStage();
+                system.prepareSecondStage();
+            }
+            // second stage
+            Map<Updatable, List<ConcentrationDelta>> secondDeltas = evaluateStage(scheduler, concentrationModules);
+            for (Map.Entry<Updatable, List<ConcentrationDelta>> entry : secondDeltas.entrySet()) {
+                UpdatableSystem system = systems.get(entry.getKey());
+                if (system == null) {
+                    // concentrations that only changed in the second stage are treated explicitly
+                    system = new UpdatableSystem(entry.getKey());
+                    system.factorize();
+                    system.solveFirstStage();
+                    systems.put(entry.getKey(), system);
+                }
+                system.addDeltas(1, entry.getValue());
+            }
+            for (UpdatableSystem system : systems.values()) {
+                system.solveSecondStage();
+            }
+        } finally {
+            for (UpdatableSystem system : systems.values()) {
+                system.manager.revertToOriginalConcentrations();
+            }
+        }
+        // compare the solution of second order to the solution of first order
+        for (UpdatableSystem system : systems.values()) {
+            ConcentrationContainer originalConcentrations = system.manager.getOriginalConcentrations();
+            for (int index = 0; index < system.jacobian.size(); index++) {
+                double originalConcentration = originalConcentrations.get(system.jacobian.getSubsection(index), system.jacobian.getEntityIndex(index));
+                estimate.compare(originalConcentration,
+                        originalConcentration + system.getDelta(index),
+                        originalConcentration + system.firstStage[index]);
+            }
+        }
+        return () -> {
+            for (UpdatableSystem system : systems.values()) {
+                system.assignDeltas();
+            }
+        };
+    }
+
+    /**
+     * The linear system and the stages of a single updatable.
+     */
+    private static class UpdatableSystem {
+
+        private final Updatable updatable;
+        private final ConcentrationDeltaManager manager;
+
+        /**
+         * The jacobian, also assigning the index of each changed concentration.
+         */
+        private final ConcentrationJacobian jacobian;
+
+        /**
+         * The weights of each module for each index, used to attribute the deltas of the step to the modules.
+         */
+        private final List<Map<UpdateModule, Double>> moduleWeights;
+
+        /**
+         * The deltas of each stage for each index.
+         */
+        private final double[][] stageDeltas;
+
+        /**
+         * The factorized matrix {@code I - gamma * J} or null, if no derivatives are known.
+         */
+        private LUDecomposition decomposition;
+
+        /**
+         * The solution of the first stage.
+         */
+        private double[] firstStage;
+
+        /**
+         * The solution of the second stage.
+         */
+        private double[] secondStage;
+
+        private UpdatableSystem(Updatable updatable) {
+            this.updatable = updatable;
+            manager = updatable.getConcentrationManager();
+            jacobian = new ConcentrationJacobian();
+            moduleWeights = new ArrayList<>();
+            stageDeltas = new double[2][];
+        }
+
+        private void determineJacobian(List<UpdateModule> concentrationModules) {
+            for (UpdateModule module : concentrationModules) {
+                ConcentrationBasedModule<?> concentrationModule = (ConcentrationBasedModule<?>) module;
+                if (concentrationModule.providesJacobian()) {
+                    concentrationModule.determineJacobian(updatable, jacobian);
+                    // concentrations referenced first by this module are attributed to it, even without deltas
+                    while (moduleWeights.size() < jacobian.size()) {
+                        Map<UpdateModule, Double> weights = new LinkedHashMap<>();
+                        weights.put(module, 0.0);
+                        moduleWeights.add(weights);
+                    }
+                }
+            }
+        }
+
+        private void addDeltas(int stage, List<ConcentrationDelta> deltas) {
+            for (ConcentrationDelta delta : deltas) {
+                int index = jacobian.indexOf(delta.getCellSubsection(), delta.getChemicalEntity());
+                while (moduleWeights.size() <= index) {
+                    moduleWeights.add(new LinkedHashMap<>());
+                }
+                moduleWeights.get(index).merge(delta.getModule(), Math.abs(delta.getValue()), Double::sum);
+                stageDeltas[stage] = ensureCapacity(stageDeltas[stage]);
+                stageDeltas[stage][index] += delta.getValue();
+            }
+        }
+
+        private void factorize() {
+            if (!jacobian.hasNoDerivatives()) {
+                decomposition = LUDecomposition.calculateLUDecomposition(jacobian.shiftedIdentity(GAMMA));
+                if (decomposition.isSingular()) {
+                    logger.debug("Jacobian of {} is singular, using explicit stages.", updatable.getStringIdentifier());
+                    decomposition = null;
+                }
+            }
+        }
+
+        private void solveFirstStage() {
+            firstStage = solve(ensureCapacity(stageDeltas[0]));
+        }
+
+        /**
+         * Sets the concentrations of the updatable to the original concentrations and the solution of the first stage.
+         */
+        private void prepareSecondStage() {
+            ConcentrationContainer originalConcentrations = manager.getOriginalConcentrations();
+            ConcentrationContainer stageConcentrations = originalConcentrations.fullCopy();
+            for (int index = 0; index < firstStage.length; index++) {
+                double concentration = originalConcentrations.get(jacobian.getSubsection(index), jacobian.getEntityIndex(index)) + firstStage[index];
+                stageConcentrations.set(jacobian.getSubsection(index), jacobian.getEntityIndex(index), concentration);
+            }
+            manager.setConcentrationContainer(stageConcentrations);
+        }
+
+        private void solveSecondStage() {
+            firstStage = ensureCapacity(firstStage);
+            double[] rightHandSide = ensureCapacity(stageDeltas[1]);
+            for (int index = 0; index < rightHandSide.length; index++) {
+                rightHandSide[index] -= 2.0 * firstStage[index];
+            }
+            secondStage = solve(rightHandSide);
+        }
+
+        /**
+         * Solves the linear system for the given right hand side. Indices that have been assigned after the
+         * factorization are not coupled to any other concentration.
+         *
+         * @param rightHandSide The right hand side.
+         * @return The solution.
+         */
+        private double[] solve(double[] rightHandSide) {
+            if (decomposition == null) {
+                return rightHandSide.clone();
+            }
+            int dimension = decomposition.getDimension();
+            double[] solution = rightHandSide.clone();
+            System.arraycopy(decomposition.solve(Arrays.copyOf(rightHandSide, dimension)), 0, solution, 0, dimension);
+            return solution;
+        }
+
+        private double[] ensureCapacity(double[] values) {
+            if (values == null) {
+                return new double[jacobian.size()];
+            }
+            if (values.length < jacobian.size()) {
+                return Arrays.copyOf(values, jacobian.size());
+            }
+            return values;
+        }
+
+        private double getDelta(int index) {
+            return 1.5 * firstStage[index] + 0.5 * secondStage[index];
+        }
+
+        /**
+         * Assigns the delta of the step for every concentration, attributed to the modules according to their share
+         * of the stage deltas.
+         */
+        private void assignDeltas() {
+            for (int index = 0; index < moduleWeights.size(); index++) {
+                double value = getDelta(index);
+                if (value == 0.0) {
+                    continue;
+                }
+                Map<UpdateModule, Double> weights = moduleWeights.get(index);
+                double totalWeight = 0.0;
+                for (double weight : weights.values()) {
+                    totalWeight += weight;
+                }
+                for (Map.Entry<UpdateModule, Double> entry : weights.entrySet()) {
+                    double share = totalWeight == 0.0 ? 1.0 / weights.size() : entry.getValue() / totalWeight;
+                    if (share != 0.0) {
+                        manager.addPotentialDelta(new ConcentrationDelta(entry.getKey(), jacobian.getSubsection(index),
+                                EntityIndex.current().getEntity(jacobian.getEntityIndex(index)), share * value));
+                    }
+                }
+            }
+        }
+
+    }
+
+}
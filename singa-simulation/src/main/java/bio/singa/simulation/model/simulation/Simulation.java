@@ -6,6 +6,7 @@ import bio.singa.features.formatter.TimeFormatter;
 import bio.singa.features.identifiers.SimpleStringIdentifier;
 import bio.singa.features.model.Feature;
 import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.ScalingContext;
 import bio.singa.features.units.UnitRegistry;
 import bio.singa.mathematics.geometry.faces.Rectangle;
 import bio.singa.mathematics.vectors.Vector2D;
@@ -17,9 +18,11 @@ import bio.singa.simulation.model.graphs.AutomatonGraph;
 import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.modules.UpdateModule;
 import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionNetwork;
 import bio.singa.simulation.model.modules.displacement.DisplacementBasedModule;
 import bio.singa.simulation.model.rules.AssignmentRule;
 import bio.singa.simulation.model.rules.AssignmentRules;
+import bio.singa.simulation.model.sections.EntityIndex;
 import bio.singa.simulation.model.sections.concentration.ConcentrationInitializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,9 +33,6 @@ import javax.measure.Quantity;
 import javax.measure.quantity.Time;
 import java.util.*;
 
-import static tec.units.indriya.unit.MetricPrefix.MICRO;
-import static tec.units.indriya.unit.Units.SECOND;
-
 /**
  * @author cl
  */
@@ -96,6 +96,31 @@ public class Simulation {
 
     private UpdateScheduler scheduler;
 
+    /**
+     * The tracker of updatables that need to be processed by modules using activity tracking.
+     */
+    private ActivityTracker activityTracker;
+
+    /**
+     * The metrics collected during the calculation of epochs.
+     */
+    private SimulationMetrics metrics;
+
+    /**
+     * The sources of randomness for stochastic modules and agents.
+     */
+    private RandomStreams randomStreams;
+
+    /**
+     * The scaling context of this simulation (null if the global unit registry is used).
+     */
+    private ScalingContext scalingContext;
+
+    /**
+     * The indices of the chemical entities of this simulation.
+     */
+    private final EntityIndex entityIndex;
+
     private List<UpdateModule> modules;
 
     private ConcentrationInitializer concentrationInitializer;
@@ -107,6 +132,11 @@ public class Simulation {
     private boolean initializationDone;
     private boolean vesiclesWillMove;
 
+    /**
+     * True if reactions are compiled to a {@link ReactionNetwork} during initialization.
+     */
+    private boolean reactionNetworkCompilation;
+
     /**
      * Creates a new plain simulation.
      */
@@ -121,20 +151,40 @@ public class Simulation {
         observedUpdatables = new HashSet<>();
         vesicleLayer = new VesicleLayer(this);
         scheduler = new UpdateScheduler(this);
+        activityTracker = new ActivityTracker(this);
+        metrics = new SimulationMetrics();
+        randomStreams = new RandomStreams(this);
         observedDeltas = new HashMap<>();
+        entityIndex = new EntityIndex();
     }
 
     /**
-     * Calculates the next epoch.
+     * Calculates the next epoch. The {@link EntityIndex} of this simulation and, if this simulation uses its own
+     * {@link ScalingContext}, the scaling context are bound to the calling thread (and all threads calculating modules)
+     * during the calculation.
      */
     public void nextEpoch() {
-        logger.debug("Starting epoch {} ({}).", epoch, elapsedTime);
-        if (!initializationDone) {
-            initializeModules();
-            initializeConcentrations();
-            initializeVesicleLayer();
-            initializationDone = true;
+        EntityIndex previousIndex = EntityIndex.bind(entityIndex);
+        try {
+            if (scalingContext == null) {
+                calculateNextEpoch();
+                return;
+            }
+            ScalingContext previousContext = ScalingContext.bind(scalingContext);
+            try {
+                calculateNextEpoch();
+            } finally {
+                ScalingContext.bind(previousContext);
+            }
+        } finally {
+            EntityIndex.bind(previousIndex);
         }
+    }
+
+    private void calculateNextEpoch() {
+        logger.debug("Starting epoch {} ({}).", epoch, elapsedTime);
+        initialize();
+        long epochStart = System.nanoTime();
         // clear observed nodes if necessary
         if (!observedUpdatables.isEmpty()) {
             for (Updatable observedUpdatable : observedUpdatables) {
@@ -142,9 +192,10 @@ public class Simulation {
                 if (!observedDeltas.containsKey(observedUpdatable)) {
                     observedDeltas.put(observedUpdatable, new ArrayList<>());
                 }
+                double timeStep = UnitRegistry.getTimeInMicroseconds();
                 for (ConcentrationDelta delta : observedUpdatable.getConcentrationManager().getPotentialDeltas()) {
                     // adjust to time step
-                    observedDeltas.get(observedUpdatable).add(delta.multiply(1.0 / UnitRegistry.getTime().to(MICRO(SECOND)).getValue().doubleValue()));
+                    observedDeltas.get(observedUpdatable).add(delta.multiply(1.0 / timeStep));
                 }
                 // clear them
                 observedUpdatable.getConcentrationManager().clearPotentialDeltas();
@@ -154,9 +205,13 @@ public class Simulation {
         scheduler.nextEpoch();
         // apply generated deltas
         logger.debug("Applying deltas.");
+        boolean trackActivity = activityTracker.isTrackingAnyModule();
         for (Updatable updatable : updatables) {
             if (updatable.getConcentrationManager().hasDeltas()) {
                 logger.trace("Deltas in {}:", updatable.getStringIdentifier());
+                if (trackActivity) {
+                    activityTracker.recordAppliedDeltas(updatable);
+                }
                 updatable.getConcentrationManager().applyDeltas();
             }
         }
@@ -165,7 +220,13 @@ public class Simulation {
             // move vesicles
             vesicleLayer.applyDeltas();
             // associate nodes
-            vesicleLayer.associateVesicles();
+            if (metrics.isEnabled()) {
+                long associationStart = System.nanoTime();
+                vesicleLayer.associateVesicles();
+                metrics.recordVesicleAssociation(System.nanoTime() - associationStart);
+            } else {
+                vesicleLayer.associateVesicles();
+            }
 
         }
 
@@ -175,11 +236,39 @@ public class Simulation {
         if (timeStepShouldIncrease()) {
             scheduler.increaseTimeStep();
         }
-
+        if (metrics.isEnabled()) {
+            metrics.recordEpoch(System.nanoTime() - epochStart);
+        }
     }
 
 
+    /**
+     * Initializes entity indices, modules, concentrations and the vesicle layer, if this has not been done before. This
+     * is done automatically before the first epoch is calculated.
+     */
+    public void initialize() {
+        if (!initializationDone) {
+            EntityIndex previousIndex = EntityIndex.bind(entityIndex);
+            try {
+                if (reactionNetworkCompilation) {
+                    ReactionNetwork.compile(this);
+                }
+                initializeEntityIndices();
+                initializeModules();
+                initializeConcentrations();
+                initializeVesicleLayer();
+                initializationDone = true;
+            } finally {
+                EntityIndex.bind(previousIndex);
+            }
+        }
+    }
+
     private boolean timeStepShouldIncrease() {
+        // the integrator chooses the next time step itself
+        if (scheduler.getIntegrator().controlsTimeStep()) {
+            return false;
+        }
         // if time step was reduced in this epoch there is no need to test if it should increase
         if (scheduler.timeStepWasAlteredInThisEpoch()) {
             return false;
@@ -217,6 +306,13 @@ public class Simulation {
         return false;
     }
 
+    private void initializeEntityIndices() {
+        // assign indices to all known entities, such that concentrations can be stored in dense arrays
+        entityIndex.registerAll(getAllChemicalEntities());
+        // concentrations that have been set up before initialization refer to the global index
+        collectUpdatables();
+    }
+
     private void initializeModules() {
         logger.info("Initializing modules:");
         for (UpdateModule module : getModules()) {
@@ -254,6 +350,7 @@ public class Simulation {
             Vector2D bottomRight = new Vector2D(position.getX() + offset, position.getY() + offset);
             node.setSpatialRepresentation(new Rectangle(topLeft, bottomRight));
         }
+        graph.invalidateNodeLocator();
     }
 
     private void initializeVesicleLayer() {
@@ -310,15 +407,24 @@ public class Simulation {
         return concentrationInitializer;
     }
 
+    /**
+     * Collects the updatables of this simulation (nodes and vesicles) and transfers their concentrations to the
+     * {@link EntityIndex} of this simulation if they have been created using another index.
+     */
     public void collectUpdatables() {
         updatables = new ArrayList<>(graph.getNodes());
         updatables.addAll(vesicleLayer.getVesicles());
+        for (Updatable updatable : updatables) {
+            updatable.getConcentrationContainer().reindex(entityIndex);
+        }
     }
 
     /**
      * Apply all referenced assignment rules.
      */
     public void applyAssignmentRules() {
+        // concentrations are modified outside of modules
+        activityTracker.activateAll();
         for (AssignmentRule rule : assignmentRules) {
             for (AutomatonNode bioNode : graph.getNodes()) {
                 rule.applyRule(bioNode);
@@ -368,6 +474,99 @@ public class Simulation {
         this.scheduler = scheduler;
     }
 
+    /**
+     * Returns the tracker of updatables that need to be processed by modules using activity tracking.
+     *
+     * @return The activity tracker.
+     */
+    public ActivityTracker getActivityTracker() {
+        return activityTracker;
+    }
+
+    /**
+     * Returns the metrics collected during the calculation of epochs.
+     *
+     * @return The metrics.
+     */
+    public SimulationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the sources of randomness for stochastic modules and agents. Set a seed to obtain reproducible runs.
+     *
+     * @return The random streams.
+     */
+    public RandomStreams getRandomStreams() {
+        return randomStreams;
+    }
+
+    /**
+     * Returns true if reactions are compiled to a {@link ReactionNetwork} during initialization.
+     *
+     * @return True if reactions are compiled.
+     */
+    public boolean isReactionNetworkCompilation() {
+        return reactionNetworkCompilation;
+    }
+
+    /**
+     * Sets whether reactions with static reactants and mass action or Michaelis-Menten kinetics are compiled to a
+     * {@link ReactionNetwork} during initialization, such that all reactions in a node are evaluated at once. This has
+     * to be set before the first epoch is calculated.
+     *
+     * @param reactionNetworkCompilation True if reactions should be compiled.
+     */
+    public void setReactionNetworkCompilation(boolean reactionNetworkCompilation) {
+        this.reactionNetworkCompilation = reactionNetworkCompilation;
+    }
+
+    /**
+     * Returns the indices of the chemical entities of this simulation. The index is bound to all threads calculating
+     * this simulation (see {@link EntityIndex#bind(EntityIndex)}).
+     *
+     * @return The entity index.
+     */
+    public EntityIndex getEntityIndex() {
+        return entityIndex;
+    }
+
+    /**
+     * Returns the scaling context of this simulation or null if the global unit registry is used.
+     *
+     * @return The scaling context.
+     */
+    public ScalingContext getScalingContext() {
+        return scalingContext;
+    }
+
+    /**
+     * Sets the scaling context of this simulation. Simulations with their own scaling context hold their own time
+     * step, spatial scale ({@link Environment}) and scaled features, such that multiple simulations can be calculated
+     * concurrently. Values that depend on the time step or spatial scale (e.g. {@link UnitRegistry#getTime()} or
+     * {@link Environment#getSimulationScale()}) refer to the context if it is bound to the calling thread (see
+     * {@link ScalingContext#bind(ScalingContext)}).
+     *
+     * @param scalingContext The scaling context.
+     */
+    public void setScalingContext(ScalingContext scalingContext) {
+        this.scalingContext = scalingContext;
+    }
+
+    /**
+     * Creates a new scaling context for this simulation from the current state of the unit registry and environment.
+     *
+     * @return The new scaling context.
+     */
+    public ScalingContext useOwnScalingContext() {
+        scalingContext = ScalingContext.create();
+        return scalingContext;
+    }
+
+    public Quantity<Time> getMaximalTimeStep() {
+        return maximalTimeStep;
+    }
+
     public void setMaximalTimeStep(Quantity<Time> maximalTimeStep) {
         this.maximalTimeStep = maximalTimeStep;
         logger.info("Maximal timestep set to {}.", TimeFormatter.formatTime(maximalTimeStep));
@@ -385,6 +584,15 @@ public class Simulation {
         return elapsedTime;
     }
 
+    /**
+     * Sets the elapsed time, e.g. if the simulation is resumed from a checkpoint.
+     *
+     * @param elapsedTime The elapsed time.
+     */
+    public void setElapsedTime(ComparableQuantity<Time> elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
     public AutomatonGraph getGraph() {
         return graph;
     }
@@ -393,6 +601,15 @@ public class Simulation {
         return epoch;
     }
 
+    /**
+     * Sets the current epoch, e.g. if the simulation is resumed from a checkpoint.
+     *
+     * @param epoch The epoch.
+     */
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
     /**
      * Returns the chemical entities.
      *
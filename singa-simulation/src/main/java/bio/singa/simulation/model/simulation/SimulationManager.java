@@ -3,9 +3,15 @@ package bio.singa.simulation.model.simulation;
 import bio.singa.core.events.UpdateEventListener;
 import bio.singa.features.formatter.TimeFormatter;
 import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.checkpoints.CheckpointWriter;
+import bio.singa.simulation.checkpoints.Checkpoints;
+import bio.singa.simulation.events.BackpressureStrategy;
 import bio.singa.simulation.events.GraphEventEmitter;
 import bio.singa.simulation.events.GraphUpdatedEvent;
 import bio.singa.simulation.events.NodeEventEmitter;
+import bio.singa.simulation.events.SimulationSnapshot;
+import bio.singa.simulation.events.SnapshotEventPipeline;
+import bio.singa.simulation.events.SnapshotSubscription;
 import bio.singa.simulation.events.UpdatableUpdatedEvent;
 import bio.singa.simulation.model.graphs.AutomatonGraph;
 import bio.singa.simulation.model.graphs.AutomatonNode;
@@ -17,6 +23,10 @@ import tec.units.indriya.quantity.Quantities;
 
 import javax.measure.Quantity;
 import javax.measure.quantity.Time;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.function.Predicate;
@@ -27,8 +37,8 @@ import static tec.units.indriya.unit.Units.SECOND;
 
 /**
  * Changes in simulations can be observed by tagging {@link AutomatonNode}s of the {@link AutomatonGraph}. As a standard
- * implementation there is the {@link FlatUpdateRecorder} that can be added to the Simulation that will write log files
- * to the specified file locations.
+ * implementation there is the {@link FlatUpdateRecorder} that can be added as snapshot listener (see
+ * {@link #addSnapshotListener(UpdateEventListener)}) and will write log files to the specified file locations.
  *
  * @author cl
  */
@@ -68,6 +78,11 @@ public class SimulationManager implements Runnable {
      */
     private GraphEventEmitter graphEventEmitter;
 
+    /**
+     * The pipeline passing snapshots to asynchronous listeners (null if no snapshot listener has been added).
+     */
+    private SnapshotEventPipeline snapshotPipeline;
+
     /**
      * The time for the next update to be issued. (For FPS based emission).
      */
@@ -82,6 +97,21 @@ public class SimulationManager implements Runnable {
 
     private Quantity<Time> terminationTime;
 
+    /**
+     * The writer of checkpoints (null if no checkpoints are written).
+     */
+    private CheckpointWriter checkpointWriter;
+
+    /**
+     * The condition determining when checkpoints should be written.
+     */
+    private Predicate<Simulation> checkpointCondition;
+
+    /**
+     * The time for the next checkpoint to be written (in simulation time).
+     */
+    private ComparableQuantity<Time> scheduledCheckpointTime;
+
     private boolean keepPlatformOpen = DEFAULT_KEEP_PLATFORM_OPEN;
 
     private CountDownLatch terminationLatch;
@@ -103,6 +133,21 @@ public class SimulationManager implements Runnable {
         emitCondition = s -> true;
     }
 
+    /**
+     * Creates a new simulation manager for the given simulation, resuming the simulation from the given checkpoint.
+     * The simulation has to be set up in the same way as the simulation the checkpoint was taken from (see
+     * {@link Checkpoints}).
+     *
+     * @param simulation The simulation.
+     * @param checkpoint The checkpoint file.
+     * @return The simulation manager.
+     * @throws IOException If the checkpoint could not be read.
+     */
+    public static SimulationManager resumeFromCheckpoint(Simulation simulation, Path checkpoint) throws IOException {
+        Checkpoints.restore(simulation, checkpoint);
+        return new SimulationManager(simulation);
+    }
+
     /**
      * Adds a new listener for node based events.
      *
@@ -136,6 +181,44 @@ public class SimulationManager implements Runnable {
         return graphEventEmitter.getListeners();
     }
 
+    /**
+     * Adds a new listener receiving snapshots of the observed updatables on a dedicated thread, whenever events are
+     * emitted. The simulation waits if {@link SnapshotEventPipeline#DEFAULT_CAPACITY} snapshots are pending for the
+     * listener.
+     *
+     * @param listener The listener.
+     * @return The subscription of the listener.
+     */
+    public SnapshotSubscription addSnapshotListener(UpdateEventListener<SimulationSnapshot> listener) {
+        return addSnapshotListener(listener, BackpressureStrategy.BLOCK, SnapshotEventPipeline.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Adds a new listener receiving snapshots of the observed updatables on a dedicated thread, whenever events are
+     * emitted (see {@link SnapshotEventPipeline}).
+     *
+     * @param listener The listener.
+     * @param strategy The strategy applied if the given number of snapshots are pending for the listener.
+     * @param capacity The number of snapshots that can be pending.
+     * @return The subscription of the listener.
+     */
+    public SnapshotSubscription addSnapshotListener(UpdateEventListener<SimulationSnapshot> listener, BackpressureStrategy strategy, int capacity) {
+        logger.info("Added {} to snapshot listeners.", listener.getClass().getSimpleName());
+        return getSnapshotPipeline().addListener(listener, strategy, capacity);
+    }
+
+    /**
+     * Returns the pipeline passing snapshots to asynchronous listeners, the pipeline is created if required.
+     *
+     * @return The snapshot pipeline.
+     */
+    public SnapshotEventPipeline getSnapshotPipeline() {
+        if (snapshotPipeline == null) {
+            snapshotPipeline = new SnapshotEventPipeline(simulation);
+        }
+        return snapshotPipeline;
+    }
+
     /**
      * Sets a condition determining when the simulation should be terminated.
      *
@@ -208,6 +291,55 @@ public class SimulationManager implements Runnable {
         };
     }
 
+    /**
+     * Sets a condition determining when checkpoints should be written by the given writer. Checkpoints are written
+     * after the epoch has been calculated.
+     *
+     * @param checkpointWriter The checkpoint writer.
+     * @param checkpointCondition The checkpoint condition.
+     */
+    public void setCheckpointing(CheckpointWriter checkpointWriter, Predicate<Simulation> checkpointCondition) {
+        this.checkpointWriter = checkpointWriter;
+        this.checkpointCondition = checkpointCondition;
+    }
+
+    /**
+     * Schedules checkpoints to be written to the given file every time the given number of epochs have passed.
+     *
+     * @param file The checkpoint file.
+     * @param numberOfEpochs The number of epochs between checkpoints.
+     */
+    public void setCheckpointingToEpochs(Path file, long numberOfEpochs) {
+        if (numberOfEpochs < 1) {
+            throw new IllegalArgumentException("The number of epochs between checkpoints has to be at least 1.");
+        }
+        setCheckpointing(new CheckpointWriter(file), s -> s.getEpoch() % numberOfEpochs == 0);
+    }
+
+    /**
+     * Schedules checkpoints to be written to the given file every time the given time (simulation time) has passed.
+     *
+     * @param file The checkpoint file.
+     * @param timePassed The (simulation) time passed between checkpoints.
+     */
+    public void setCheckpointingToTimePassed(Path file, Quantity<Time> timePassed) {
+        scheduledCheckpointTime = null;
+        setCheckpointing(new CheckpointWriter(file), s -> {
+            ComparableQuantity<Time> currentTime = s.getElapsedTime();
+            if (scheduledCheckpointTime == null) {
+                scheduledCheckpointTime = currentTime.add(timePassed);
+            } else if (currentTime.isGreaterThanOrEqualTo(scheduledCheckpointTime)) {
+                scheduledCheckpointTime = currentTime.add(timePassed);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public CheckpointWriter getCheckpointWriter() {
+        return checkpointWriter;
+    }
+
     public SimulationStatus getSimulationStatus() {
         return simulationStatus;
     }
@@ -243,6 +375,20 @@ public class SimulationManager implements Runnable {
 
     @Override
     public void run() {
+        try {
+            calculateUntilTermination();
+        } catch (Exception e) {
+            logger.error("Encountered an exception during simulation: ", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Calculates epochs until the termination condition is met, emitting events according to the emission
+     * condition. In contrast to {@link #run()}, exceptions are passed to the caller. Worker threads are shut down and
+     * recorders are closed in any case.
+     */
+    public void calculateUntilTermination() {
         try {
             while (terminationCondition.test(simulation)) {
                 if (emitCondition.test(simulation)) {
@@ -252,26 +398,48 @@ public class SimulationManager implements Runnable {
                         emitNodeEvent(simulation, updatable);
                         logger.debug("Emitted next epoch event for node {}.", updatable.getStringIdentifier());
                     }
+                    if (snapshotPipeline != null) {
+                        snapshotPipeline.emit();
+                    }
                     simulation.clearPreviouslyObservedDeltas();
                     if (terminationTime != null) {
                         estimateRuntime();
                     }
                 }
                 simulation.nextEpoch();
+                if (checkpointWriter != null && checkpointCondition.test(simulation)) {
+                    checkpointWriter.checkpoint(simulation);
+                }
             }
-        } catch (Exception e) {
-            logger.error("Encountered an exception during simulation: ", e);
-            System.exit(1);
-        }
-        logger.info("Simulation finished.");
-        // close writers
-        for (UpdateEventListener<UpdatableUpdatedEvent> nodeEventListener : getNodeListeners()) {
-            if (nodeEventListener instanceof FlatUpdateRecorder) {
-                ((FlatUpdateRecorder) nodeEventListener).closeWriters();
+            logger.info("Simulation finished.");
+        } finally {
+            // stop worker threads
+            simulation.getScheduler().shutdown();
+            // process pending snapshots
+            if (snapshotPipeline != null) {
+                snapshotPipeline.close();
+            }
+            // close writers
+            for (UpdateEventListener<GraphUpdatedEvent> graphEventListener : getGraphListeners()) {
+                if (graphEventListener instanceof Closeable) {
+                    try {
+                        ((Closeable) graphEventListener).close();
+                    } catch (IOException | UncheckedIOException e) {
+                        // remaining listeners are closed regardless
+                        logger.error("Unable to close {}.", graphEventListener, e);
+                    }
+                }
+            }
+            if (checkpointWriter != null) {
+                try {
+                    checkpointWriter.close();
+                } catch (UncheckedIOException e) {
+                    logger.error("Unable to write checkpoint to {}.", checkpointWriter.getFile(), e);
+                }
+            }
+            if (terminationLatch != null) {
+                terminationLatch.countDown();
             }
-        }
-        if (terminationLatch != null) {
-            terminationLatch.countDown();
         }
     }
 
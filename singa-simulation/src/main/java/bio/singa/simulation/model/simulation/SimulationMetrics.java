@@ -0,0 +1,279 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.simulation.model.modules.UpdateModule;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The simulation metrics break down where the time of each epoch is spent. For each {@link UpdateModule} the wall time,
+ * the number of processed updatables, the number of produced deltas and the number of triggered interrupts are
+ * collected (see {@link ModuleMetrics}). For the simulation the number of epochs, passes and recalculation passes, the
+ * number of time step increases and decreases as well as the time spent evaluating the global error and associating
+ * vesicles to nodes are collected.
+ * <p>
+ * Metrics are collected by default, the overhead is limited to a few counters for each module and pass and a counter
+ * for each delta. Collection can be disabled by {@link #setEnabled(boolean)}. The metrics can be written to files
+ * periodically using a {@link MetricsRecorder}.
+ *
+ * @author cl
+ */
+public class SimulationMetrics {
+
+    /**
+     * True if metrics are collected.
+     */
+    private volatile boolean enabled;
+
+    /**
+     * The metrics of each module in the order the modules were first recorded.
+     */
+    private final List<ModuleMetrics> moduleMetrics;
+
+    /**
+     * The metrics of each module by identity (modules are equal if their identifiers are equal).
+     */
+    private final Map<UpdateModule, ModuleMetrics> moduleMetricsIndex;
+
+    private final LongAdder epochs;
+    private final LongAdder epochTime;
+    private volatile long lastEpochTime;
+
+    private final LongAdder passes;
+    private final LongAdder recalculationPasses;
+    private final LongAdder epochRecalculationPasses;
+    private volatile long lastEpochRecalculationPasses;
+
+    private final LongAdder timeStepIncreases;
+    private final LongAdder timeStepDecreases;
+
+    private final LongAdder globalErrorEvaluations;
+    private final LongAdder globalErrorTime;
+
+    private final LongAdder vesicleAssociations;
+    private final LongAdder vesicleAssociationTime;
+
+    /**
+     * Creates new, enabled simulation metrics.
+     */
+    public SimulationMetrics() {
+        enabled = true;
+        moduleMetrics = new ArrayList<>();
+        moduleMetricsIndex = new IdentityHashMap<>();
+        epochs = new LongAdder();
+        epochTime = new LongAdder();
+        passes = new LongAdder();
+        recalculationPasses = new LongAdder();
+        epochRecalculationPasses = new LongAdder();
+        timeStepIncreases = new LongAdder();
+        timeStepDecreases = new LongAdder();
+        globalErrorEvaluations = new LongAdder();
+        globalErrorTime = new LongAdder();
+        vesicleAssociations = new LongAdder();
+        vesicleAssociationTime = new LongAdder();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the collection of metrics. Previously collected metrics are retained.
+     *
+     * @param enabled True if metrics should be collected.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the metrics of the given module, the metrics are created if the module has not been recorded before.
+     *
+     * @param module The module.
+     * @return The metrics of the module.
+     */
+    public synchronized ModuleMetrics getModuleMetrics(UpdateModule module) {
+        ModuleMetrics metrics = moduleMetricsIndex.get(module);
+        if (metrics == null) {
+            metrics = new ModuleMetrics(module);
+            moduleMetricsIndex.put(module, metrics);
+            moduleMetrics.add(metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of all recorded modules.
+     *
+     * @return The metrics of all modules.
+     */
+    public synchronized List<ModuleMetrics> getModuleMetrics() {
+        return new ArrayList<>(moduleMetrics);
+    }
+
+    /**
+     * Returns the number of calculated epochs.
+     *
+     * @return The number of epochs.
+     */
+    public long getEpochs() {
+        return epochs.sum();
+    }
+
+    /**
+     * Returns the wall time (in nanoseconds) of all epochs.
+     *
+     * @return The wall time of all epochs.
+     */
+    public long getEpochTime() {
+        return epochTime.sum();
+    }
+
+    /**
+     * Returns the wall time (in nanoseconds) of the last epoch.
+     *
+     * @return The wall time of the last epoch.
+     */
+    public long getLastEpochTime() {
+        return lastEpochTime;
+    }
+
+    /**
+     * Returns the number of passes, i.e. the number of times the modules have been calculated by the integrator.
+     *
+     * @return The number of passes.
+     */
+    public long getPasses() {
+        return passes.sum();
+    }
+
+    /**
+     * Returns the number of passes that were required, because the previous pass has been rejected.
+     *
+     * @return The number of recalculation passes.
+     */
+    public long getRecalculationPasses() {
+        return recalculationPasses.sum();
+    }
+
+    /**
+     * Returns the number of recalculation passes of the last epoch.
+     *
+     * @return The number of recalculation passes of the last epoch.
+     */
+    public long getLastEpochRecalculationPasses() {
+        return lastEpochRecalculationPasses;
+    }
+
+    public long getTimeStepIncreases() {
+        return timeStepIncreases.sum();
+    }
+
+    public long getTimeStepDecreases() {
+        return timeStepDecreases.sum();
+    }
+
+    /**
+     * Returns the number of evaluations of the global error.
+     *
+     * @return The number of global error evaluations.
+     */
+    public long getGlobalErrorEvaluations() {
+        return globalErrorEvaluations.sum();
+    }
+
+    /**
+     * Returns the wall time (in nanoseconds) spent evaluating the global error.
+     *
+     * @return The wall time of the global error evaluation.
+     */
+    public long getGlobalErrorTime() {
+        return globalErrorTime.sum();
+    }
+
+    /**
+     * Returns the number of times vesicles have been associated to nodes.
+     *
+     * @return The number of vesicle associations.
+     */
+    public long getVesicleAssociations() {
+        return vesicleAssociations.sum();
+    }
+
+    /**
+     * Returns the wall time (in nanoseconds) spent associating vesicles to nodes.
+     *
+     * @return The wall time of the vesicle association.
+     */
+    public long getVesicleAssociationTime() {
+        return vesicleAssociationTime.sum();
+    }
+
+    /**
+     * Resets all metrics.
+     */
+    public synchronized void reset() {
+        moduleMetrics.forEach(ModuleMetrics::reset);
+        epochs.reset();
+        epochTime.reset();
+        lastEpochTime = 0;
+        passes.reset();
+        recalculationPasses.reset();
+        epochRecalculationPasses.reset();
+        lastEpochRecalculationPasses = 0;
+        timeStepIncreases.reset();
+        timeStepDecreases.reset();
+        globalErrorEvaluations.reset();
+        globalErrorTime.reset();
+        vesicleAssociations.reset();
+        vesicleAssociationTime.reset();
+    }
+
+    void recordEpoch(long nanos) {
+        epochs.increment();
+        epochTime.add(nanos);
+        lastEpochTime = nanos;
+        lastEpochRecalculationPasses = epochRecalculationPasses.sumThenReset();
+        for (ModuleMetrics metrics : getModuleMetrics()) {
+            metrics.finishEpoch();
+        }
+    }
+
+    void recordPass(boolean recalculation) {
+        passes.increment();
+        if (recalculation) {
+            recalculationPasses.increment();
+            epochRecalculationPasses.increment();
+        }
+    }
+
+    void recordCalculation(UpdateModule module, long nanos) {
+        getModuleMetrics(module).recordCalculation(nanos);
+    }
+
+    void recordInterrupt(UpdateModule module) {
+        getModuleMetrics(module).recordInterrupt();
+    }
+
+    void recordTimeStepIncrease() {
+        timeStepIncreases.increment();
+    }
+
+    void recordTimeStepDecrease() {
+        timeStepDecreases.increment();
+    }
+
+    void recordGlobalErrorEvaluation(long nanos) {
+        globalErrorEvaluations.increment();
+        globalErrorTime.add(nanos);
+    }
+
+    void recordVesicleAssociation(long nanos) {
+        vesicleAssociations.increment();
+        vesicleAssociationTime.add(nanos);
+    }
+
+}
@@ -2,9 +2,12 @@ package bio.singa.simulation.model.simulation;
 
 import bio.singa.features.formatter.TimeFormatter;
 import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.features.units.ScalingContext;
 import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.exceptions.ModuleCalculationException;
 import bio.singa.simulation.model.modules.UpdateModule;
 import bio.singa.simulation.model.modules.concentration.LocalError;
+import bio.singa.simulation.model.sections.EntityIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tec.units.indriya.AbstractUnit;
@@ -14,11 +17,18 @@ import javax.measure.Quantity;
 import javax.measure.quantity.Frequency;
 import javax.measure.quantity.Time;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static bio.singa.simulation.model.modules.concentration.ModuleState.SUCCEEDED_WITH_PENDING_CHANGES;
 
 /**
+ * The update scheduler runs all {@link UpdateModule}s of a {@link Simulation} for each epoch, evaluates the numerical
+ * accuracy of the resulting deltas and adjusts the time step accordingly. By default every module is calculated in a
+ * new thread for each pass. Setting a parallelism (see {@link #setParallelism(int)}) uses a long lived pool of worker
+ * threads that is reused across passes and epochs instead. The passes required for each epoch are determined by the
+ * {@link Integrator} (see {@link #setIntegrator(Integrator)}).
+ *
  * @author cl
  */
 public class UpdateScheduler {
@@ -30,6 +40,16 @@ public class UpdateScheduler {
      */
     private static final double DEFAULT_RECALCULATION_CUTOFF = 0.01;
 
+    /**
+     * The parallelism signifying that each module is calculated in a new thread.
+     */
+    public static final int THREAD_PER_MODULE = 0;
+
+    /**
+     * The default edge length (in nodes) of tiles used to partition neighbourhood dependent modules.
+     */
+    public static final int DEFAULT_PARTITION_TILE_SIZE = 32;
+
     private Simulation simulation;
     private List<Updatable> updatables;
 
@@ -49,8 +69,55 @@ public class UpdateScheduler {
     private CountDownLatch countDownLatch;
 
     private final Deque<UpdateModule> modules;
+
+    /**
+     * The modules calculated by the integrator in the current epoch or null, if all modules are calculated.
+     */
+    private Collection<UpdateModule> epochModules;
+
     private final List<Thread> threads;
 
+    /**
+     * The number of worker threads used to calculate modules or {@link #THREAD_PER_MODULE}.
+     */
+    private int parallelism = THREAD_PER_MODULE;
+
+    /**
+     * The pool of worker threads, only initialized if a parallelism is set.
+     */
+    private ExecutorService workerPool;
+
+    /**
+     * The number of threads processing the tiles of a single neighbourhood dependent module, 1 processes all
+     * updatables of a module in the thread of the module.
+     */
+    private int partitionParallelism = 1;
+
+    /**
+     * The edge length (in nodes) of tiles used to partition neighbourhood dependent modules.
+     */
+    private int partitionTileSize = DEFAULT_PARTITION_TILE_SIZE;
+
+    /**
+     * The pool processing tiles of modules, only initialized if a partition parallelism is set.
+     */
+    private ForkJoinPool partitionPool;
+
+    /**
+     * The accumulated time (in nanoseconds) each module required for its calculations in the current epoch.
+     */
+    private final Map<UpdateModule, Long> moduleExecutionTimes;
+
+    /**
+     * The exception thrown by any module during the current pass.
+     */
+    private volatile RuntimeException moduleFailure;
+
+    /**
+     * The index of the current pass in the current epoch.
+     */
+    private volatile int pass;
+
     private double previousError;
     private Quantity<Time> previousTimeStep;
     private Quantity<Frequency> accuracyGain;
@@ -59,11 +126,18 @@ public class UpdateScheduler {
     private boolean globalErrorAcceptable;
     private boolean calculateGlobalError;
 
+    /**
+     * The integration scheme used to calculate the modules for each epoch.
+     */
+    private Integrator integrator;
+
     public UpdateScheduler(Simulation simulation) {
         this.simulation = simulation;
         modules = new ArrayDeque<>(simulation.getModules());
         threads = Collections.synchronizedList(new ArrayList<>());
+        moduleExecutionTimes = new ConcurrentHashMap<>();
         largestLocalError = LocalError.MINIMAL_EMPTY_ERROR;
+        integrator = new MidpointIntegrator();
     }
 
     public double getRecalculationCutoff() {
@@ -74,6 +148,69 @@ public class UpdateScheduler {
         this.recalculationCutoff = recalculationCutoff;
     }
 
+    /**
+     * Returns the integration scheme used to calculate the modules for each epoch.
+     *
+     * @return The integrator.
+     */
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    /**
+     * Sets the integration scheme used to calculate the modules for each epoch. By default the
+     * {@link MidpointIntegrator} is used.
+     *
+     * @param integrator The integrator.
+     */
+    public void setIntegrator(Integrator integrator) {
+        this.integrator = Objects.requireNonNull(integrator);
+    }
+
+    Simulation getSimulation() {
+        return simulation;
+    }
+
+    List<Updatable> getUpdatables() {
+        return updatables;
+    }
+
+    /**
+     * Returns the modules that are calculated by the integrator in the current epoch. Unless restricted by
+     * {@link #setEpochModules(Collection)}, these are all modules of the simulation.
+     *
+     * @return The modules of the current epoch.
+     */
+    Collection<UpdateModule> getModules() {
+        if (epochModules != null) {
+            return epochModules;
+        }
+        return modules;
+    }
+
+    /**
+     * Restricts the modules that are calculated by the integrator, null restores all modules of the simulation.
+     *
+     * @param epochModules The modules of the current epoch.
+     */
+    void setEpochModules(Collection<UpdateModule> epochModules) {
+        this.epochModules = epochModules;
+    }
+
+    void setLargestGlobalError(double largestGlobalError) {
+        this.largestGlobalError = largestGlobalError;
+    }
+
+    /**
+     * Returns the index of the current pass in the current epoch, starting at zero for the first pass. Each
+     * recalculation and each pass determining the half step concentrations increments the index.
+     *
+     * @return The index of the current pass.
+     */
+    public int getPass() {
+        return Math.max(0, pass);
+    }
+
     public long getTimestepsDecreased() {
         return timestepsDecreased;
     }
@@ -82,68 +219,172 @@ public class UpdateScheduler {
         return timestepsIncreased;
     }
 
-    public void nextEpoch() {
-        // initialize fields
-        timeStepAlteredInThisEpoch = false;
-        previousError = 0;
-        largestLocalError = LocalError.MINIMAL_EMPTY_ERROR;
-        previousTimeStep = UnitRegistry.getTime();
-        simulation.collectUpdatables();
-        updatables = simulation.getUpdatables();
-        moduleIterator = modules.iterator();
-        globalErrorAcceptable = true;
-        calculateGlobalError = true;
+    /**
+     * Returns the number of worker threads used to calculate modules or {@link #THREAD_PER_MODULE} if each module is
+     * calculated in a new thread.
+     *
+     * @return The parallelism.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
 
-        for (Updatable updatable : updatables) {
-            updatable.getConcentrationManager().backupConcentrations();
+    /**
+     * Sets the number of worker threads used to calculate modules. The workers are kept alive across epochs until
+     * {@link #shutdown()} is called. Using {@link #THREAD_PER_MODULE} creates a new thread for each module for each
+     * pass of the calculation.
+     *
+     * @param parallelism The number of worker threads.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < THREAD_PER_MODULE) {
+            throw new IllegalArgumentException("The parallelism of the scheduler can not be negative.");
         }
+        shutdown();
+        this.parallelism = parallelism;
+    }
 
-        // until all models passed
-        do {
-            if (timeStepRescaled || interrupted || !globalErrorAcceptable) {
-                largestLocalError = LocalError.MINIMAL_EMPTY_ERROR;
-                resetCalculation();
-            }
-            timeStepRescaled = false;
-            interrupted = false;
+    /**
+     * Returns the number of threads processing the tiles of a single neighbourhood dependent module.
+     *
+     * @return The partition parallelism.
+     */
+    public int getPartitionParallelism() {
+        return partitionParallelism;
+    }
 
-            countDownLatch = new CountDownLatch(getNumberOfModules());
-            logger.debug("Starting with latch at {}.", countDownLatch.getCount());
+    /**
+     * Sets the number of threads processing the tiles of a single neighbourhood dependent module. The updatables of
+     * those modules are partitioned into tiles of the graph that are processed in parallel, deltas are merged in the
+     * order of the tiles afterwards. A parallelism of 1 processes all updatables in the thread of the module.
+     *
+     * @param partitionParallelism The partition parallelism.
+     */
+    public synchronized void setPartitionParallelism(int partitionParallelism) {
+        if (partitionParallelism < 1) {
+            throw new IllegalArgumentException("The partition parallelism of the scheduler has to be at least 1.");
+        }
+        if (partitionPool != null) {
+            partitionPool.shutdown();
+            partitionPool = null;
+        }
+        this.partitionParallelism = partitionParallelism;
+    }
 
-            int i = 0;
+    /**
+     * Returns the edge length (in nodes) of tiles used to partition neighbourhood dependent modules.
+     *
+     * @return The partition tile size.
+     */
+    public int getPartitionTileSize() {
+        return partitionTileSize;
+    }
 
-            synchronized (threads) {
-                while (moduleIterator.hasNext()) {
-                    i++;
-                    UpdateModule module = moduleIterator.next();
-                    Thread thread = new Thread(module, "Module " + module.toString() + " (Thread " + i + ")");
-                    if (!interrupted) {
-                        threads.add(thread);
-                        thread.start();
-                    } else {
-                        logger.debug("Skipping module {}, decreasing latch to {}.", i, countDownLatch.getCount());
-                        countDownLatch.countDown();
-                    }
+    /**
+     * Sets the edge length (in nodes) of tiles used to partition neighbourhood dependent modules.
+     *
+     * @param partitionTileSize The partition tile size.
+     */
+    public void setPartitionTileSize(int partitionTileSize) {
+        if (partitionTileSize < 1) {
+            throw new IllegalArgumentException("The partition tile size has to be at least 1.");
+        }
+        this.partitionTileSize = partitionTileSize;
+    }
+
+    /**
+     * Returns the pool processing tiles of modules, the pool is created if required.
+     *
+     * @return The partition pool.
+     */
+    public synchronized ForkJoinPool getPartitionPool() {
+        if (partitionPool == null) {
+            logger.debug("Starting partition pool with parallelism {}.", partitionParallelism);
+            partitionPool = new ForkJoinPool(partitionParallelism);
+        }
+        return partitionPool;
+    }
+
+    /**
+     * Processes the partitions of a module in the partition pool and waits for all of them to complete. Waiting is
+     * not interruptible: if the calling thread is interrupted by {@link #interruptAllBut(Thread, UpdateModule)} in the
+     * meantime, the interruption has already been recorded by the scheduler and the pass is repeated, therefore the
+     * interrupt flag is cleared. Exceptions of partitions are rethrown after all partitions completed.
+     *
+     * @param module The module the partitions belong to.
+     * @param partitions The partitions.
+     * @param <ResultType> The type of the results of the partitions.
+     * @return The results of the partitions (in the order of the partitions).
+     */
+    public <ResultType> List<ResultType> invokePartitions(UpdateModule module, List<? extends Callable<ResultType>> partitions) {
+        ForkJoinPool pool = getPartitionPool();
+        List<ForkJoinTask<ResultType>> tasks = new ArrayList<>(partitions.size());
+        for (Callable<ResultType> partition : partitions) {
+            ForkJoinTask<ResultType> task = ForkJoinTask.adapt(partition);
+            tasks.add(task);
+            pool.execute(task);
+        }
+        for (ForkJoinTask<ResultType> task : tasks) {
+            task.quietlyJoin();
+        }
+        if (Thread.interrupted()) {
+            logger.debug("Module {} was interrupted while processing its partitions.", module);
+        }
+        List<ResultType> results = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<ResultType> task : tasks) {
+            if (task.isCompletedAbnormally()) {
+                Throwable cause = task.getException();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
                 }
+                throw new ModuleCalculationException("Calculation of partitions of module " + module + " failed.", cause);
             }
+            results.add(task.getRawResult());
+        }
+        return results;
+    }
 
-            try {
-                countDownLatch.await();
-                threads.clear();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Returns the time (in nanoseconds) each module required for its calculations during the last epoch, including
+     * all recalculations.
+     *
+     * @return The execution time of each module.
+     */
+    public Map<UpdateModule, Long> getModuleExecutionTimes() {
+        return Collections.unmodifiableMap(moduleExecutionTimes);
+    }
 
-            if (!interrupted) {
-                // perform only if every module passed individually
-                // evaluate total concentration change
-                evaluateGlobalNumericalAccuracy();
-            }
+    /**
+     * Stops all worker threads, if any. The pools are recreated if further epochs are calculated.
+     */
+    public synchronized void shutdown() {
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+        if (partitionPool != null) {
+            partitionPool.shutdown();
+            partitionPool = null;
+        }
+    }
+
+    public void nextEpoch() {
+        // initialize fields
+        resetEpochState();
+        pass = -1;
+        simulation.collectUpdatables();
+        updatables = simulation.getUpdatables();
+        // determine updatables that need to be processed by modules using activity tracking
+        simulation.getActivityTracker().prepareEpoch();
+        moduleIterator = modules.iterator();
+        moduleExecutionTimes.clear();
 
-            // evaluate total spatial displacement
-            spatialDisplacementIsValid();
+        // calculate all modules with the current integration scheme
+        integrator.integrate(this);
 
-        } while (recalculationRequired());
         // System.out.println("accepted local error: "+largestLocalError.getValue());
         // resolve pending changes
         for (UpdateModule updateModule : modules) {
@@ -159,7 +400,177 @@ public class UpdateScheduler {
         modules.forEach(UpdateModule::resetState);
     }
 
+    /**
+     * Resets the error evaluation and the record of time step changes, such that the following calculation is
+     * evaluated as if the epoch just started.
+     */
+    void resetEpochState() {
+        timeStepAlteredInThisEpoch = false;
+        timeStepRescaled = false;
+        interrupted = false;
+        previousError = 0;
+        largestLocalError = LocalError.MINIMAL_EMPTY_ERROR;
+        previousTimeStep = UnitRegistry.getTime();
+        globalErrorAcceptable = true;
+        calculateGlobalError = true;
+    }
+
+    /**
+     * Calculates the given modules once. If a recalculation was required by the previous pass, the calculation is
+     * reset beforehand.
+     *
+     * @param passModules The modules to calculate.
+     */
+    void runPass(Collection<UpdateModule> passModules) {
+        pass++;
+        if (simulation.getMetrics().isEnabled()) {
+            // passes calculating the half step concentrations for the global error are no recalculations
+            simulation.getMetrics().recordPass(timeStepRescaled || interrupted || (!globalErrorAcceptable && calculateGlobalError));
+        }
+        if (recalculationRequired()) {
+            largestLocalError = LocalError.MINIMAL_EMPTY_ERROR;
+            resetCalculation();
+        }
+        timeStepRescaled = false;
+        interrupted = false;
+
+        moduleIterator = passModules.iterator();
+        countDownLatch = new CountDownLatch(passModules.size());
+        logger.debug("Starting with latch at {}.", countDownLatch.getCount());
+
+        if (parallelism == THREAD_PER_MODULE) {
+            startModuleThreads();
+        } else {
+            submitModulesToWorkers();
+        }
+
+        try {
+            countDownLatch.await();
+            threads.clear();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        if (moduleFailure != null) {
+            RuntimeException failure = moduleFailure;
+            moduleFailure = null;
+            throw new ModuleCalculationException("Calculation of modules failed in epoch " + simulation.getEpoch() + ".", failure);
+        }
+    }
+
+    /**
+     * Starts a new thread for every remaining module.
+     */
+    private void startModuleThreads() {
+        int i = 0;
+        synchronized (threads) {
+            while (moduleIterator.hasNext()) {
+                i++;
+                UpdateModule module = moduleIterator.next();
+                Thread thread = new Thread(scheduled(module, false), "Module " + module.toString() + " (Thread " + i + ")");
+                if (!interrupted) {
+                    threads.add(thread);
+                    thread.start();
+                } else {
+                    logger.debug("Skipping module {}, decreasing latch to {}.", i, countDownLatch.getCount());
+                    countDownLatch.countDown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Submits every remaining module to the pool of worker threads.
+     */
+    private void submitModulesToWorkers() {
+        if (workerPool == null) {
+            workerPool = createWorkerPool();
+        }
+        int i = 0;
+        while (moduleIterator.hasNext()) {
+            i++;
+            UpdateModule module = moduleIterator.next();
+            if (!interrupted) {
+                workerPool.execute(scheduled(module, true));
+            } else {
+                logger.debug("Skipping module {}, decreasing latch to {}.", i, countDownLatch.getCount());
+                countDownLatch.countDown();
+            }
+        }
+    }
+
+    /**
+     * Creates a fixed pool of daemon worker threads.
+     *
+     * @return The worker pool.
+     */
+    private ExecutorService createWorkerPool() {
+        logger.debug("Starting {} worker threads.", parallelism);
+        AtomicInteger workerCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "Module worker " + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Wraps the module, such that the time required for its calculation is added to the execution times (and the
+     * {@link SimulationMetrics}, if enabled) and the latch is counted down as soon as the module finished. Pooled
+     * workers register themselves as long as they process the module, such that they can be interrupted by
+     * {@link #interruptAllBut(Thread, UpdateModule)}. The executing thread is bound to the {@link ScalingContext} and
+     * the {@link EntityIndex} of the thread that scheduled the module.
+     *
+     * @param module The module.
+     * @param registerWorker True if the executing thread needs to be registered.
+     * @return The wrapped module.
+     */
+    private Runnable scheduled(UpdateModule module, boolean registerWorker) {
+        final CountDownLatch latch = countDownLatch;
+        final ScalingContext scalingContext = ScalingContext.current();
+        final EntityIndex entityIndex = EntityIndex.current();
+        final SimulationMetrics metrics = simulation.getMetrics();
+        return () -> {
+            Thread currentThread = Thread.currentThread();
+            if (registerWorker) {
+                threads.add(currentThread);
+            }
+            ScalingContext previousContext = ScalingContext.bind(scalingContext);
+            EntityIndex previousIndex = EntityIndex.bind(entityIndex);
+            long start = System.nanoTime();
+            try {
+                module.run();
+            } catch (RuntimeException e) {
+                logger.error("Module {} failed in {}.", module, currentThread.getName(), e);
+                moduleFailure = e;
+            } finally {
+                long time = System.nanoTime() - start;
+                moduleExecutionTimes.merge(module, time, Long::sum);
+                if (metrics.isEnabled()) {
+                    metrics.recordCalculation(module, time);
+                }
+                ScalingContext.bind(previousContext);
+                EntityIndex.bind(previousIndex);
+                if (registerWorker) {
+                    threads.remove(currentThread);
+                }
+                latch.countDown();
+                logger.debug("Module finished {}, latch at {}.", currentThread.getName(), latch.getCount());
+            }
+        };
+    }
+
     public void evaluateGlobalNumericalAccuracy() {
+        if (!simulation.getMetrics().isEnabled()) {
+            determineGlobalNumericalAccuracy();
+            return;
+        }
+        long start = System.nanoTime();
+        determineGlobalNumericalAccuracy();
+        simulation.getMetrics().recordGlobalErrorEvaluation(System.nanoTime() - start);
+    }
+
+    private void determineGlobalNumericalAccuracy() {
         if (calculateGlobalError) {
             // calculate half step concentrations for subsequent evaluation
             // for each node
@@ -223,7 +634,7 @@ public class UpdateScheduler {
         return largestLocalError;
     }
 
-    public void setLargestLocalError(LocalError localError, UpdateModule associatedModule, double associatedConcentration) {
+    public synchronized void setLargestLocalError(LocalError localError, UpdateModule associatedModule, double associatedConcentration) {
         if (localError.getValue() > largestLocalError.getValue()) {
             largestLocalError = localError;
             localErrorModule = associatedModule;
@@ -243,6 +654,10 @@ public class UpdateScheduler {
         return largestGlobalError;
     }
 
+    boolean wasInterrupted() {
+        return interrupted;
+    }
+
     public boolean timeStepWasRescaled() {
         return timeStepRescaled;
     }
@@ -256,20 +671,45 @@ public class UpdateScheduler {
     }
 
     public void increaseTimeStep() {
-        UnitRegistry.setTime(UnitRegistry.getTime().multiply(1.1));
-        logger.debug("Increasing time step to {}.", TimeFormatter.formatTime(UnitRegistry.getTime()));
-        timestepsIncreased++;
+        rescaleTimeStep(1.1);
     }
 
     public synchronized void decreaseTimeStep() {
+        rescaleTimeStep(0.9);
+    }
+
+    /**
+     * Multiplies the time step with the given factor. Decreasing the time step requires the current calculation to
+     * be repeated, increasing the time step only affects subsequent epochs and activates all updatables for the
+     * next epoch (see {@link ActivityTracker}).
+     *
+     * @param factor The factor.
+     */
+    synchronized void rescaleTimeStep(double factor) {
+        if (factor >= 1.0) {
+            UnitRegistry.setTime(UnitRegistry.getTime().multiply(factor));
+            logger.debug("Increasing time step to {}.", TimeFormatter.formatTime(UnitRegistry.getTime()));
+            timestepsIncreased++;
+            if (factor > 1.0) {
+                // updatables skipped for the previous time step could exceed the delta cutoff with a larger one
+                simulation.getActivityTracker().activateAll();
+            }
+            if (simulation.getMetrics().isEnabled()) {
+                simulation.getMetrics().recordTimeStepIncrease();
+            }
+            return;
+        }
         // if time step is rescaled for the very fist time this epoch remember the initial error and time step
         if (!timeStepWasAlteredInThisEpoch()) {
             previousError = largestLocalError.getValue();
             previousTimeStep = UnitRegistry.getTime();
         }
-        UnitRegistry.setTime(UnitRegistry.getTime().multiply(0.9));
+        UnitRegistry.setTime(UnitRegistry.getTime().multiply(factor));
         logger.debug("Decreasing time step to {}.", TimeFormatter.formatTime(UnitRegistry.getTime()));
         timestepsDecreased++;
+        if (simulation.getMetrics().isEnabled()) {
+            simulation.getMetrics().recordTimeStepDecrease();
+        }
         timeStepRescaled = true;
         timeStepAlteredInThisEpoch = true;
     }
@@ -314,6 +754,9 @@ public class UpdateScheduler {
         if (!interrupted) {
             logger.debug("Module {} triggered interrupt.", callingModule);
             interrupted = true;
+            if (simulation.getMetrics().isEnabled()) {
+                simulation.getMetrics().recordInterrupt(callingModule);
+            }
             List<String> interruptedThreads = new ArrayList<>();
             synchronized (threads) {
                 for (Thread thread : threads) {
@@ -354,7 +797,7 @@ public class UpdateScheduler {
         moduleIterator = modules.iterator();
     }
 
-    private boolean spatialDisplacementIsValid() {
+    boolean spatialDisplacementIsValid() {
         if (simulation.getVesicleLayer().getVesicles().isEmpty()) {
             return true;
         }
@@ -0,0 +1,92 @@
+package bio.singa.simulation.trajectories.columnar;
+
+import bio.singa.features.formatter.ConcentrationFormatter;
+import bio.singa.features.formatter.GeneralConcentrationFormatter;
+import bio.singa.features.formatter.GeneralQuantityFormatter;
+import bio.singa.features.formatter.QuantityFormatter;
+import bio.singa.simulation.trajectories.Recorders;
+import tec.units.indriya.quantity.Quantities;
+
+import javax.measure.quantity.Time;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static tec.units.indriya.unit.MetricPrefix.MILLI;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * Converts columnar trajectory files to the concentration files written by the
+ * {@link bio.singa.simulation.trajectories.flat.FlatUpdateRecorder} (one "_concentrations.csv" file per updatable,
+ * using the same header and formatting). Deltas are not part of columnar trajectory files, therefore no delta files
+ * are written.
+ *
+ * @author cl
+ */
+public class ColumnarTrajectoryConverter {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final String VALUE_SEPARATOR = ",";
+
+    private static final String CONCENTRATION_HEADER = String.join(VALUE_SEPARATOR, "elapsed time", "species", "compartment", "concentration")
+            .concat(LINE_SEPARATOR);
+
+    private ColumnarTrajectoryConverter() {
+
+    }
+
+    /**
+     * Writes the concentration files of all updatables in the trajectory file to the given directory.
+     *
+     * @param trajectoryFile The trajectory file.
+     * @param directory The target directory.
+     * @return The written files.
+     * @throws IOException If any file could not be read or written.
+     */
+    public static List<Path> toCsv(Path trajectoryFile, Path directory) throws IOException {
+        QuantityFormatter<Time> timeFormatter = new GeneralQuantityFormatter<>(MILLI(SECOND), false);
+        GeneralConcentrationFormatter concentrationFormatter = ConcentrationFormatter.create(MOLE_PER_LITRE);
+        Recorders.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (ColumnarTrajectoryReader reader = ColumnarTrajectoryReader.open(trajectoryFile)) {
+            double[] times = reader.readTimes(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            String[] formattedTimes = new String[times.length];
+            for (int row = 0; row < times.length; row++) {
+                formattedTimes[row] = timeFormatter.format(Quantities.getQuantity(times[row], SECOND));
+            }
+            // group columns by updatable, retaining their order
+            Map<String, List<Integer>> updatableColumns = new LinkedHashMap<>();
+            List<TrajectoryColumn> columns = reader.getColumns();
+            for (int column = 0; column < columns.size(); column++) {
+                updatableColumns.computeIfAbsent(columns.get(column).getUpdatableIdentifier(), key -> new ArrayList<>()).add(column);
+            }
+            for (Map.Entry<String, List<Integer>> entry : updatableColumns.entrySet()) {
+                List<Integer> columnIndices = entry.getValue();
+                double[][] values = new double[columnIndices.size()][];
+                for (int i = 0; i < columnIndices.size(); i++) {
+                    values[i] = reader.readColumn(columnIndices.get(i), Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                }
+                Path file = directory.resolve(entry.getKey() + "_concentrations.csv");
+                try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                    writer.write(CONCENTRATION_HEADER);
+                    for (int row = 0; row < times.length; row++) {
+                        for (int i = 0; i < columnIndices.size(); i++) {
+                            TrajectoryColumn column = columns.get(columnIndices.get(i));
+                            writer.write(formattedTimes[row] + VALUE_SEPARATOR +
+                                    column.getEntityIdentifier() + VALUE_SEPARATOR +
+                                    column.getSubsectionIdentifier() + VALUE_SEPARATOR +
+                                    concentrationFormatter.format(Quantities.getQuantity(values[i][row], MOLE_PER_LITRE)) +
+                                    LINE_SEPARATOR);
+                        }
+                    }
+                }
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+}
@@ -0,0 +1,47 @@
+package bio.singa.simulation.trajectories.columnar;
+
+/**
+ * Constants describing the layout of columnar trajectory files.
+ * <pre>
+ * file   = magic (long) | version (int) | header length (int) | header | block*
+ * header = number of columns (int) | (updatable (UTF) | subsection (UTF) | entity (UTF))*
+ * block  = number of rows (int) | times (double[rows]) | values of column 0 (double[rows]) | ... | values of column n
+ * </pre>
+ * Times are stored in seconds and concentrations in mol/l. Blocks are written once they are full or when the
+ * recorder is closed, a trailing incomplete block is ignored by the reader.
+ *
+ * @author cl
+ */
+final class ColumnarTrajectoryFormat {
+
+    /**
+     * The magic number identifying trajectory files ("SINGATRC").
+     */
+    static final long MAGIC = 0x53494E4741545243L;
+
+    /**
+     * The version of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The number of bytes preceding the header.
+     */
+    static final int PREAMBLE_BYTES = Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private ColumnarTrajectoryFormat() {
+
+    }
+
+    /**
+     * Returns the number of bytes of a block.
+     *
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @return The number of bytes.
+     */
+    static long blockBytes(int rows, int columns) {
+        return Integer.BYTES + (long) Double.BYTES * rows * (columns + 1);
+    }
+
+}
@@ -0,0 +1,301 @@
+package bio.singa.simulation.trajectories.columnar;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The columnar trajectory reader provides random access to files written by the {@link ColumnarTrajectoryRecorder}.
+ * When the file is opened, only the header and the time range of each block is read. Values are read on demand for
+ * single columns or all columns of an entity, restricted to a time range, such that only the requested parts of the
+ * file are accessed. Times are given in seconds and concentrations in mol/l.
+ *
+ * @author cl
+ */
+public class ColumnarTrajectoryReader implements Closeable {
+
+    /**
+     * The channel.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The columns.
+     */
+    private final List<TrajectoryColumn> columns;
+
+    /**
+     * The index of each column.
+     */
+    private final Map<TrajectoryColumn, Integer> columnIndices;
+
+    /**
+     * The position of each block in the file.
+     */
+    private final long[] blockPositions;
+
+    /**
+     * The number of rows of each block.
+     */
+    private final int[] blockRows;
+
+    /**
+     * The first time of each block.
+     */
+    private final double[] blockFirstTimes;
+
+    /**
+     * The last time of each block.
+     */
+    private final double[] blockLastTimes;
+
+    /**
+     * The total number of rows.
+     */
+    private final int numberOfTimePoints;
+
+    private ColumnarTrajectoryReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer preamble = read(0, ColumnarTrajectoryFormat.PREAMBLE_BYTES);
+        if (preamble.getLong() != ColumnarTrajectoryFormat.MAGIC) {
+            throw new IOException("The file is no columnar trajectory file.");
+        }
+        int version = preamble.getInt();
+        if (version != ColumnarTrajectoryFormat.VERSION) {
+            throw new IOException("Unsupported trajectory file version " + version + ".");
+        }
+        int headerBytes = preamble.getInt();
+        ByteBuffer header = read(ColumnarTrajectoryFormat.PREAMBLE_BYTES, headerBytes);
+        columns = new ArrayList<>();
+        columnIndices = new HashMap<>();
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(header.array()))) {
+            int numberOfColumns = input.readInt();
+            for (int column = 0; column < numberOfColumns; column++) {
+                TrajectoryColumn trajectoryColumn = new TrajectoryColumn(input.readUTF(), input.readUTF(), input.readUTF());
+                columns.add(trajectoryColumn);
+                columnIndices.put(trajectoryColumn, column);
+            }
+        }
+
+        // index blocks
+        List<Long> positions = new ArrayList<>();
+        List<Integer> rows = new ArrayList<>();
+        long position = ColumnarTrajectoryFormat.PREAMBLE_BYTES + headerBytes;
+        long size = channel.size();
+        while (position + Integer.BYTES <= size) {
+            int currentRows = read(position, Integer.BYTES).getInt();
+            long blockBytes = ColumnarTrajectoryFormat.blockBytes(currentRows, columns.size());
+            if (currentRows < 1 || position + blockBytes > size) {
+                // incomplete block
+                break;
+            }
+            positions.add(position);
+            rows.add(currentRows);
+            position += blockBytes;
+        }
+        int numberOfBlocks = positions.size();
+        blockPositions = new long[numberOfBlocks];
+        blockRows = new int[numberOfBlocks];
+        blockFirstTimes = new double[numberOfBlocks];
+        blockLastTimes = new double[numberOfBlocks];
+        int totalRows = 0;
+        for (int block = 0; block < numberOfBlocks; block++) {
+            blockPositions[block] = positions.get(block);
+            blockRows[block] = rows.get(block);
+            blockFirstTimes[block] = read(timePosition(block, 0), Double.BYTES).getDouble();
+            blockLastTimes[block] = read(timePosition(block, blockRows[block] - 1), Double.BYTES).getDouble();
+            totalRows += blockRows[block];
+        }
+        numberOfTimePoints = totalRows;
+    }
+
+    /**
+     * Opens a trajectory file.
+     *
+     * @param file The file.
+     * @return The reader.
+     * @throws IOException If the file could not be read or is no trajectory file.
+     */
+    public static ColumnarTrajectoryReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new ColumnarTrajectoryReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns all columns.
+     *
+     * @return All columns.
+     */
+    public List<TrajectoryColumn> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Returns the index of the column or -1 if there is no such column.
+     *
+     * @param updatableIdentifier The identifier of the updatable.
+     * @param subsectionIdentifier The identifier of the subsection.
+     * @param entityIdentifier The identifier of the entity.
+     * @return The index of the column.
+     */
+    public int getColumnIndex(String updatableIdentifier, String subsectionIdentifier, String entityIdentifier) {
+        return columnIndices.getOrDefault(new TrajectoryColumn(updatableIdentifier, subsectionIdentifier, entityIdentifier), -1);
+    }
+
+    /**
+     * Returns the number of recorded time points.
+     *
+     * @return The number of recorded time points.
+     */
+    public int getNumberOfTimePoints() {
+        return numberOfTimePoints;
+    }
+
+    /**
+     * Returns all recorded times between the given times (inclusive).
+     *
+     * @param fromTime The first time (in seconds).
+     * @param toTime The last time (in seconds).
+     * @return The times.
+     * @throws IOException If the file could not be read.
+     */
+    public double[] readTimes(double fromTime, double toTime) throws IOException {
+        List<int[]> selection = selectRows(fromTime, toTime);
+        double[] times = new double[count(selection)];
+        int offset = 0;
+        for (int[] rows : selection) {
+            int length = rows[2] - rows[1];
+            read(timePosition(rows[0], rows[1]), length * Double.BYTES).asDoubleBuffer().get(times, offset, length);
+            offset += length;
+        }
+        return times;
+    }
+
+    /**
+     * Returns the values of the column at all recorded times between the given times (inclusive).
+     *
+     * @param column The index of the column.
+     * @param fromTime The first time (in seconds).
+     * @param toTime The last time (in seconds).
+     * @return The values.
+     * @throws IOException If the file could not be read.
+     */
+    public double[] readColumn(int column, double fromTime, double toTime) throws IOException {
+        if (column < 0 || column >= columns.size()) {
+            throw new IndexOutOfBoundsException("There is no column " + column + ".");
+        }
+        List<int[]> selection = selectRows(fromTime, toTime);
+        double[] values = new double[count(selection)];
+        int offset = 0;
+        for (int[] rows : selection) {
+            int length = rows[2] - rows[1];
+            read(valuePosition(rows[0], column, rows[1]), length * Double.BYTES).asDoubleBuffer().get(values, offset, length);
+            offset += length;
+        }
+        return values;
+    }
+
+    /**
+     * Returns the values of all columns referencing the entity at all recorded times between the given times
+     * (inclusive).
+     *
+     * @param entityIdentifier The identifier of the entity.
+     * @param fromTime The first time (in seconds).
+     * @param toTime The last time (in seconds).
+     * @return The values by column.
+     * @throws IOException If the file could not be read.
+     */
+    public Map<TrajectoryColumn, double[]> readEntity(String entityIdentifier, double fromTime, double toTime) throws IOException {
+        Map<TrajectoryColumn, double[]> values = new LinkedHashMap<>();
+        for (int column = 0; column < columns.size(); column++) {
+            TrajectoryColumn trajectoryColumn = columns.get(column);
+            if (trajectoryColumn.getEntityIdentifier().equals(entityIdentifier)) {
+                values.put(trajectoryColumn, readColumn(column, fromTime, toTime));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Determines the rows of each block that are within the given time range.
+     *
+     * @return A list of (block, first row, last row exclusive).
+     */
+    private List<int[]> selectRows(double fromTime, double toTime) throws IOException {
+        List<int[]> selection = new ArrayList<>();
+        // first block that could contain the first time
+        int low = 0;
+        int high = blockLastTimes.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (blockLastTimes[middle] < fromTime) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        for (int block = low; block < blockPositions.length && blockFirstTimes[block] <= toTime; block++) {
+            int rows = blockRows[block];
+            double[] times = new double[rows];
+            read(timePosition(block, 0), rows * Double.BYTES).asDoubleBuffer().get(times);
+            int firstRow = 0;
+            while (firstRow < rows && times[firstRow] < fromTime) {
+                firstRow++;
+            }
+            int lastRow = firstRow;
+            while (lastRow < rows && times[lastRow] <= toTime) {
+                lastRow++;
+            }
+            if (lastRow > firstRow) {
+                selection.add(new int[]{block, firstRow, lastRow});
+            }
+        }
+        return selection;
+    }
+
+    private static int count(List<int[]> selection) {
+        int count = 0;
+        for (int[] rows : selection) {
+            count += rows[2] - rows[1];
+        }
+        return count;
+    }
+
+    private long timePosition(int block, int row) {
+        return blockPositions[block] + Integer.BYTES + (long) Double.BYTES * row;
+    }
+
+    private long valuePosition(int block, int column, int row) {
+        int rows = blockRows[block];
+        return blockPositions[block] + Integer.BYTES + (long) Double.BYTES * (rows + (long) column * rows + row);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of trajectory file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
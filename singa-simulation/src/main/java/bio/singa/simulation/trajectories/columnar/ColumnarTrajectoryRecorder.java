@@ -0,0 +1,296 @@
+package bio.singa.simulation.trajectories.columnar;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.Updatable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * The columnar trajectory recorder writes the concentrations of a set of updatables to a single binary file each time
+ * a {@link GraphUpdatedEvent} is received. The columns of the file (each combination of updatable, subsection and
+ * chemical entity) are determined when the first event is received, rows (time points) are buffered and written in
+ * blocks, storing the values of each column consecutively (see {@link ColumnarTrajectoryFormat}). The file can be read
+ * using the {@link ColumnarTrajectoryReader} and converted to the layout of the
+ * {@link bio.singa.simulation.trajectories.flat.FlatUpdateRecorder} using the {@link ColumnarTrajectoryConverter}.
+ * The recorder needs to be closed after the simulation finished (this is done by the
+ * {@link bio.singa.simulation.model.simulation.SimulationManager}).
+ *
+ * @author cl
+ */
+public class ColumnarTrajectoryRecorder implements UpdateEventListener<GraphUpdatedEvent>, Closeable {
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ColumnarTrajectoryRecorder.class);
+
+    /**
+     * The default number of rows per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    /**
+     * The simulation.
+     */
+    private final Simulation simulation;
+
+    /**
+     * The file.
+     */
+    private final Path file;
+
+    /**
+     * The number of rows per block.
+     */
+    private final int blockSize;
+
+    /**
+     * The recorded updatables (null if the observed updatables of the simulation are recorded).
+     */
+    private List<Updatable> updatables;
+
+    /**
+     * The updatable of each column.
+     */
+    private Updatable[] columnUpdatables;
+
+    /**
+     * The subsection of each column.
+     */
+    private CellSubsection[] columnSubsections;
+
+    /**
+     * The entity of each column.
+     */
+    private ChemicalEntity[] columnEntities;
+
+    /**
+     * The buffered times.
+     */
+    private double[] times;
+
+    /**
+     * The buffered values by column and row.
+     */
+    private double[][] values;
+
+    /**
+     * The number of buffered rows.
+     */
+    private int rows;
+
+    /**
+     * The buffer used to write blocks.
+     */
+    private ByteBuffer blockBuffer;
+
+    /**
+     * The channel.
+     */
+    private FileChannel channel;
+
+    /**
+     * True if the recorder has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Creates a new recorder for the observed updatables of the simulation.
+     *
+     * @param simulation The simulation.
+     * @param file The file.
+     */
+    public ColumnarTrajectoryRecorder(Simulation simulation, Path file) {
+        this(simulation, file, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new recorder for the observed updatables of the simulation.
+     *
+     * @param simulation The simulation.
+     * @param file The file.
+     * @param blockSize The number of rows per block.
+     */
+    public ColumnarTrajectoryRecorder(Simulation simulation, Path file, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size has to be at least 1.");
+        }
+        this.simulation = simulation;
+        this.file = file;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Records the given updatables instead of the observed updatables of the simulation. This has to be called before
+     * the first event is received.
+     *
+     * @param updatables The updatables.
+     */
+    public void setUpdatables(Collection<? extends Updatable> updatables) {
+        if (channel != null) {
+            throw new IllegalStateException("The recorded updatables can not be changed after recording started.");
+        }
+        this.updatables = new ArrayList<>(updatables);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        if (closed) {
+            throw new IllegalStateException("The recorder for " + file + " has already been closed.");
+        }
+        try {
+            if (channel == null) {
+                initialize();
+            }
+            double concentrationFactor = UnitRegistry.concentration(1.0).to(MOLE_PER_LITRE).getValue().doubleValue();
+            times[rows] = event.getElapsedTime().to(SECOND).getValue().doubleValue();
+            for (int column = 0; column < columnUpdatables.length; column++) {
+                values[column][rows] = columnUpdatables[column].getConcentrationContainer()
+                        .get(columnSubsections[column], columnEntities[column]) * concentrationFactor;
+            }
+            rows++;
+            if (rows == blockSize) {
+                writeBlock();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write trajectory to " + file + ".", e);
+        }
+    }
+
+    /**
+     * Determines the columns and writes the header.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    private void initialize() throws IOException {
+        List<Updatable> recordedUpdatables = updatables != null ? updatables : new ArrayList<>(simulation.getObservedUpdatables());
+        recordedUpdatables.sort(Comparator.comparing(Updatable::getStringIdentifier));
+        List<Updatable> updatableColumns = new ArrayList<>();
+        List<CellSubsection> subsectionColumns = new ArrayList<>();
+        List<ChemicalEntity> entityColumns = new ArrayList<>();
+        for (Updatable updatable : recordedUpdatables) {
+            List<ChemicalEntity> entities = new ArrayList<>(updatable.getConcentrationContainer().getReferencedEntities());
+            entities.sort(Comparator.comparing(entity -> entity.getIdentifier().toString()));
+            List<CellSubsection> subsections = new ArrayList<>(updatable.getAllReferencedSections());
+            subsections.sort(Comparator.comparing(CellSubsection::getIdentifier));
+            for (ChemicalEntity entity : entities) {
+                for (CellSubsection subsection : subsections) {
+                    updatableColumns.add(updatable);
+                    subsectionColumns.add(subsection);
+                    entityColumns.add(entity);
+                }
+            }
+        }
+        int columns = updatableColumns.size();
+        columnUpdatables = updatableColumns.toArray(new Updatable[0]);
+        columnSubsections = subsectionColumns.toArray(new CellSubsection[0]);
+        columnEntities = entityColumns.toArray(new ChemicalEntity[0]);
+        times = new double[blockSize];
+        values = new double[columns][blockSize];
+        blockBuffer = ByteBuffer.allocate((int) ColumnarTrajectoryFormat.blockBytes(blockSize, columns));
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+            header.writeInt(columns);
+            for (int column = 0; column < columns; column++) {
+                header.writeUTF(columnUpdatables[column].getStringIdentifier());
+                header.writeUTF(columnSubsections[column].getIdentifier());
+                header.writeUTF(columnEntities[column].getIdentifier().toString());
+            }
+        }
+        ByteBuffer preamble = ByteBuffer.allocate(ColumnarTrajectoryFormat.PREAMBLE_BYTES + headerBytes.size());
+        preamble.putLong(ColumnarTrajectoryFormat.MAGIC)
+                .putInt(ColumnarTrajectoryFormat.VERSION)
+                .putInt(headerBytes.size())
+                .put(headerBytes.toByteArray())
+                .flip();
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        writeFully(preamble);
+        logger.info("Recording {} columns of {} updatables to {}.", columns, recordedUpdatables.size(), file);
+    }
+
+    /**
+     * Writes the buffered rows as a block.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    private void writeBlock() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        blockBuffer.clear();
+        blockBuffer.putInt(rows);
+        blockBuffer.asDoubleBuffer().put(times, 0, rows);
+        int position = Integer.BYTES + Double.BYTES * rows;
+        for (double[] columnValues : values) {
+            blockBuffer.position(position);
+            blockBuffer.asDoubleBuffer().put(columnValues, 0, rows);
+            position += Double.BYTES * rows;
+        }
+        blockBuffer.position(position);
+        blockBuffer.flip();
+        writeFully(blockBuffer);
+        rows = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes all buffered rows to the file.
+     */
+    public void flush() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            writeBlock();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write trajectory to " + file + ".", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (channel == null) {
+            return;
+        }
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to close trajectory file " + file + ".", e);
+        }
+        channel = null;
+        logger.info("Trajectory successfully written to {}.", file);
+    }
+
+}
@@ -0,0 +1,55 @@
+package bio.singa.simulation.trajectories.columnar;
+
+import java.util.Objects;
+
+/**
+ * A column of a columnar trajectory file, referencing the concentration of a chemical entity in a subsection of an
+ * updatable by their identifiers.
+ *
+ * @author cl
+ */
+public class TrajectoryColumn {
+
+    private final String updatableIdentifier;
+    private final String subsectionIdentifier;
+    private final String entityIdentifier;
+
+    public TrajectoryColumn(String updatableIdentifier, String subsectionIdentifier, String entityIdentifier) {
+        this.updatableIdentifier = updatableIdentifier;
+        this.subsectionIdentifier = subsectionIdentifier;
+        this.entityIdentifier = entityIdentifier;
+    }
+
+    public String getUpdatableIdentifier() {
+        return updatableIdentifier;
+    }
+
+    public String getSubsectionIdentifier() {
+        return subsectionIdentifier;
+    }
+
+    public String getEntityIdentifier() {
+        return entityIdentifier;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TrajectoryColumn that = (TrajectoryColumn) o;
+        return Objects.equals(updatableIdentifier, that.updatableIdentifier) &&
+                Objects.equals(subsectionIdentifier, that.subsectionIdentifier) &&
+                Objects.equals(entityIdentifier, that.entityIdentifier);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(updatableIdentifier, subsectionIdentifier, entityIdentifier);
+    }
+
+    @Override
+    public String toString() {
+        return updatableIdentifier + "/" + subsectionIdentifier + "/" + entityIdentifier;
+    }
+
+}
@@ -1,13 +1,9 @@
 package bio.singa.simulation.trajectories.flat;
 
-import bio.singa.chemistry.entities.ChemicalEntity;
 import bio.singa.core.events.UpdateEventListener;
 import bio.singa.features.formatter.*;
 import bio.singa.features.quantities.MolarConcentration;
-import bio.singa.simulation.events.UpdatableUpdatedEvent;
-import bio.singa.simulation.model.modules.concentration.ConcentrationDelta;
-import bio.singa.simulation.model.sections.CellSubsection;
-import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.events.SimulationSnapshot;
 import bio.singa.simulation.model.simulation.SimulationManager;
 import bio.singa.simulation.model.simulation.Updatable;
 import bio.singa.simulation.trajectories.Recorders;
@@ -17,15 +13,14 @@ import org.slf4j.LoggerFactory;
 import javax.measure.Unit;
 import javax.measure.quantity.Time;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
 import static bio.singa.simulation.trajectories.Recorders.appendTimestampedFolder;
@@ -35,13 +30,16 @@ import static tec.units.indriya.unit.Units.SECOND;
 
 /**
  * This class can be used to write the concentration of chemical entities of a node and the changes applied to the node
- * to a file. The updates are written each time a event is received. The events can be scheduled by using the
- * {@link SimulationManager#setUpdateEmissionCondition(Predicate)}. A node is observed by calling
- * {@link FlatUpdateRecorder#addUpdatableToObserve(Updatable)}.
+ * to a file. The recorder receives {@link SimulationSnapshot}s (see
+ * {@link SimulationManager#addSnapshotListener(UpdateEventListener)}), such that files are written on the thread of
+ * the recorder, without stalling the simulation. The updates are written each time a snapshot is received. The
+ * snapshots can be scheduled by using the {@link SimulationManager#setUpdateEmissionCondition(Predicate)}. A node is
+ * observed by calling {@link FlatUpdateRecorder#addUpdatableToObserve(Updatable)}, the node needs to be observed by
+ * the simulation as well, to be part of the snapshots.
  *
  * @author cl
  */
-public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedEvent> {
+public class FlatUpdateRecorder implements UpdateEventListener<SimulationSnapshot>, Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(FlatUpdateRecorder.class);
 
@@ -62,14 +60,14 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
     private Path directory;
 
     /**
-     * The writers for concentration files.
+     * The writers for concentration files, referenced by the identifier of the updatable.
      */
-    private Map<Updatable, BufferedWriter> concentrationWriters;
+    private Map<String, BufferedWriter> concentrationWriters;
 
     /**
-     * The writers for deltas or changes.
+     * The writers for deltas or changes, referenced by the identifier of the updatable.
      */
-    private Map<Updatable, BufferedWriter> deltaWriters;
+    private Map<String, BufferedWriter> deltaWriters;
 
     /**
      * The formatter for time based values.
@@ -81,8 +79,6 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
      */
     private GeneralConcentrationFormatter concentrationFormatter = ConcentrationFormatter.create(MOLE_PER_LITRE);
 
-    private Simulation simulation;
-
     public FlatUpdateRecorder() {
         concentrationWriters = new HashMap<>();
         deltaWriters = new HashMap<>();
@@ -122,12 +118,12 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
         // add concentration writers
         Path concentrationFile = Recorders.createFile(directory, updatable.getStringIdentifier() + "_concentrations.csv");
         BufferedWriter concentrationWriter = Files.newBufferedWriter(concentrationFile);
-        concentrationWriters.put(updatable, concentrationWriter);
+        concentrationWriters.put(updatable.getStringIdentifier(), concentrationWriter);
         writeConcentrationFileHeader(updatable);
         // add delta writers
         Path deltaFile = Recorders.createFile(directory, updatable.getStringIdentifier() + "_deltas.csv");
         BufferedWriter deltaWriter = Files.newBufferedWriter(deltaFile);
-        deltaWriters.put(updatable, deltaWriter);
+        deltaWriters.put(updatable.getStringIdentifier(), deltaWriter);
         writeDeltaFileHeader(updatable);
     }
 
@@ -138,7 +134,7 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
      * @throws IOException If the file could not be written.
      */
     private void writeDeltaFileHeader(Updatable updatable) throws IOException {
-        appendDeltaContent(updatable, deltaHeader);
+        deltaWriters.get(updatable.getStringIdentifier()).write(deltaHeader);
     }
 
     /**
@@ -148,29 +144,7 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
      * @throws IOException If the file could not be written.
      */
     private void writeConcentrationFileHeader(Updatable updatable) throws IOException {
-        appendConcentrationContent(updatable, concentrationHeader);
-    }
-
-    /**
-     * Appends content to the concentration file associated to a node.
-     *
-     * @param node The corresponding node.
-     * @param content The content to be written.
-     * @throws IOException The the file could not be written.
-     */
-    private void appendConcentrationContent(Updatable node, String content) throws IOException {
-        concentrationWriters.get(node).write(content);
-    }
-
-    /**
-     * Appends content to the delta file associated to a node.
-     *
-     * @param node The corresponding node.
-     * @param content The content to be written.
-     * @throws IOException The the file could not be written.
-     */
-    private void appendDeltaContent(Updatable node, String content) throws IOException {
-        deltaWriters.get(node).write(content);
+        concentrationWriters.get(updatable.getStringIdentifier()).write(concentrationHeader);
     }
 
     /**
@@ -195,65 +169,75 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
     }
 
     @Override
-    public void onEventReceived(UpdatableUpdatedEvent event) {
-        appendConcentrationContent(event);
-        appendDeltaContent(event);
+    public void close() {
+        closeWriters();
     }
 
-    /**
-     * Appends the latest concentrations to the prepared files.
-     *
-     * @param event The event.
-     */
-    private void appendConcentrationContent(UpdatableUpdatedEvent event) {
-        Updatable node = event.getUpdatable();
-        Set<CellSubsection> referencedSections = node.getAllReferencedSections();
-        StringBuilder sb = new StringBuilder();
-
-        for (ChemicalEntity entity : node.getConcentrationContainer().getReferencedEntities()) {
-            for (CellSubsection cellSection : referencedSections) {
-                sb.append(timeFormatter.format(event.getTime())).append(VALUE_SEPARATOR)
-                        .append(entity.getIdentifier()).append(VALUE_SEPARATOR)
-                        .append(cellSection.getIdentifier()).append(VALUE_SEPARATOR)
-                        .append(concentrationFormatter.format(node.getConcentrationContainer().get(cellSection, entity)))
-                        .append(LINE_SEPARATOR);
-            }
-        }
-
+    @Override
+    public void onEventReceived(SimulationSnapshot snapshot) {
+        String time = timeFormatter.format(snapshot.getElapsedTime());
         try {
-            appendConcentrationContent(node, sb.toString());
+            appendConcentrationContent(snapshot, time);
+            appendDeltaContent(snapshot, time);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Appends the latest deltas to the prepared files.
+     * Appends the concentrations of the snapshot to the prepared files.
      *
-     * @param event The event.
+     * @param snapshot The snapshot.
+     * @param time The formatted time of the snapshot.
+     * @throws IOException If the files could not be written.
      */
-    private void appendDeltaContent(UpdatableUpdatedEvent event) {
-        Updatable updatable = event.getUpdatable();
-        List<ConcentrationDelta> previousObservedDeltas = simulation.getPreviousObservedDeltas(updatable);
-
-        String collect = previousObservedDeltas.stream()
-                .collect(Collectors.groupingBy(delta -> delta.getModule().toString() + VALUE_SEPARATOR +
-                        delta.getCellSubsection().getIdentifier() + VALUE_SEPARATOR +
-                        delta.getChemicalEntity().getIdentifier()))
-                .entrySet()
-                .stream()
-                .map(entry -> timeFormatter.format(event.getTime()) + VALUE_SEPARATOR
-                        + entry.getKey() + VALUE_SEPARATOR
-                        + concentrationFormatter.format(entry.getValue().stream()
-                        .mapToDouble(ConcentrationDelta::getValue)
-                        .average()
-                        .orElse(Double.NaN)))
-                .collect(Collectors.joining(LINE_SEPARATOR, "", LINE_SEPARATOR));
+    private void appendConcentrationContent(SimulationSnapshot snapshot, String time) throws IOException {
+        for (int slot = 0; slot < snapshot.size(); slot++) {
+            BufferedWriter writer = concentrationWriters.get(snapshot.getUpdatableIdentifier(snapshot.getUpdatableIndex(slot)));
+            if (writer == null) {
+                // not observed by this recorder
+                continue;
+            }
+            writer.write(time + VALUE_SEPARATOR
+                    + snapshot.getEntity(slot).getIdentifier() + VALUE_SEPARATOR
+                    + snapshot.getSubsection(slot).getIdentifier() + VALUE_SEPARATOR
+                    + concentrationFormatter.format(snapshot.getConcentration(slot))
+                    + LINE_SEPARATOR);
+        }
+    }
 
-        try {
-            appendDeltaContent(updatable, collect);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Appends the average of the deltas of the snapshot for each module, subsection and entity to the prepared files.
+     *
+     * @param snapshot The snapshot.
+     * @param time The formatted time of the snapshot.
+     * @throws IOException If the files could not be written.
+     */
+    private void appendDeltaContent(SimulationSnapshot snapshot, String time) throws IOException {
+        // sum and count of the deltas for each group of each updatable
+        Map<String, Map<String, double[]>> groupedDeltas = new LinkedHashMap<>();
+        for (int deltaSlot = 0; deltaSlot < snapshot.getNumberOfDeltas(); deltaSlot++) {
+            String updatableIdentifier = snapshot.getUpdatableIdentifier(snapshot.getDeltaUpdatableIndex(deltaSlot));
+            if (!deltaWriters.containsKey(updatableIdentifier)) {
+                continue;
+            }
+            String group = snapshot.getDeltaModule(deltaSlot) + VALUE_SEPARATOR
+                    + snapshot.getDeltaSubsection(deltaSlot).getIdentifier() + VALUE_SEPARATOR
+                    + snapshot.getDeltaEntity(deltaSlot).getIdentifier();
+            double[] sumAndCount = groupedDeltas.computeIfAbsent(updatableIdentifier, identifier -> new LinkedHashMap<>())
+                    .computeIfAbsent(group, key -> new double[2]);
+            sumAndCount[0] += snapshot.getDeltaValue(deltaSlot);
+            sumAndCount[1]++;
+        }
+        for (Map.Entry<String, Map<String, double[]>> updatableEntry : groupedDeltas.entrySet()) {
+            BufferedWriter writer = deltaWriters.get(updatableEntry.getKey());
+            for (Map.Entry<String, double[]> groupEntry : updatableEntry.getValue().entrySet()) {
+                double[] sumAndCount = groupEntry.getValue();
+                writer.write(time + VALUE_SEPARATOR
+                        + groupEntry.getKey() + VALUE_SEPARATOR
+                        + concentrationFormatter.format(sumAndCount[0] / sumAndCount[1])
+                        + LINE_SEPARATOR);
+            }
         }
     }
 
@@ -262,12 +246,8 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
     }
 
     public interface DirectoryStep {
-        SimulationStep directory(String directory, boolean timeStamped);
-        SimulationStep directory(String directory);
-    }
-
-    public interface SimulationStep {
-        ConcentrationUnitStep simulation(Simulation simulation);
+        ConcentrationUnitStep directory(String directory, boolean timeStamped);
+        ConcentrationUnitStep directory(String directory);
     }
 
     public interface ConcentrationUnitStep {
@@ -288,7 +268,7 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
         FlatUpdateRecorder build();
     }
 
-    public static class EpochUpdateWriterBuilder implements WorkspaceStep, DirectoryStep, SimulationStep, ConcentrationUnitStep, TimeUnitStep, BuildStep {
+    public static class EpochUpdateWriterBuilder implements WorkspaceStep, DirectoryStep, ConcentrationUnitStep, TimeUnitStep, BuildStep {
 
         private FlatUpdateRecorder writer;
 
@@ -303,23 +283,17 @@ public class FlatUpdateRecorder implements UpdateEventListener<UpdatableUpdatedE
         }
 
         @Override
-        public SimulationStep directory(String directory, boolean timestamped) {
+        public ConcentrationUnitStep directory(String directory, boolean timestamped) {
             writer.directory = writer.workspacePath.resolve(directory);
             writer.createFolderStructure(timestamped);
             return this;
         }
 
         @Override
-        public SimulationStep directory(String directory) {
+        public ConcentrationUnitStep directory(String directory) {
             return directory(directory, true);
         }
 
-        @Override
-        public ConcentrationUnitStep simulation(Simulation simulation) {
-            writer.simulation = simulation;
-            return this;
-        }
-
         @Override
         public TimeUnitStep concentrationFormat(GeneralConcentrationFormatter concentrationFormatter) {
             writer.concentrationFormatter = concentrationFormatter;
@@ -8,13 +8,21 @@ import bio.singa.simulation.model.simulation.Simulation;
 
 import javax.measure.Unit;
 import javax.measure.quantity.Time;
+import java.io.Closeable;
 
 /**
+ * The nested update recorder collects the concentrations and positions of all updatables each time a
+ * {@link GraphUpdatedEvent} is received. By default all snapshots are kept in memory. If the recorder is created with
+ * {@link StreamingTrajectories}, snapshots are downsampled and spilled according to their configuration and
+ * {@link #getTrajectories()} exports the retained snapshots. If the updatables of the simulation change (e.g. for
+ * vesicles), streaming trajectories start a new segment with the changed columns.
+ *
  * @author cl
  */
-public class NestedUpdateRecorder implements UpdateEventListener<GraphUpdatedEvent> {
+public class NestedUpdateRecorder implements UpdateEventListener<GraphUpdatedEvent>, Closeable {
 
     private Trajectories trajectories;
+    private StreamingTrajectories streamingTrajectories;
     private Simulation simulation;
 
     public NestedUpdateRecorder(Simulation simulation) {
@@ -27,14 +35,43 @@ public class NestedUpdateRecorder implements UpdateEventListener<GraphUpdatedEve
         trajectories = new Trajectories(timeUnit, concentrationUnit);
     }
 
+    public NestedUpdateRecorder(Simulation simulation, StreamingTrajectories streamingTrajectories) {
+        this.simulation = simulation;
+        this.streamingTrajectories = streamingTrajectories;
+    }
+
+    /**
+     * Returns the recorded trajectories. For streaming trajectories, the retained snapshots are exported on every call.
+     *
+     * @return The recorded trajectories.
+     */
     public Trajectories getTrajectories() {
+        if (streamingTrajectories != null) {
+            return streamingTrajectories.toTrajectories();
+        }
         return trajectories;
     }
 
+    public StreamingTrajectories getStreamingTrajectories() {
+        return streamingTrajectories;
+    }
+
     @Override
     public void onEventReceived(GraphUpdatedEvent event) {
+        if (streamingTrajectories != null) {
+            streamingTrajectories.addSnapshot(event.getElapsedTime().to(streamingTrajectories.getTimeUnit()).getValue().doubleValue(),
+                    simulation.getUpdatables());
+            return;
+        }
         trajectories.addTrajectoryData(event.getElapsedTime().to(trajectories.getTimeUnit()).getValue().doubleValue(),
                 TrajectoryData.of(simulation.getUpdatables(), trajectories.getConcentrationUnit()));
     }
 
+    @Override
+    public void close() {
+        if (streamingTrajectories != null) {
+            streamingTrajectories.close();
+        }
+    }
+
 }
@@ -0,0 +1,574 @@
+package bio.singa.simulation.trajectories.nested;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.sections.ConcentrationPool;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.trajectories.Recorders;
+
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Streaming trajectories store snapshots of the concentrations and positions of updatables. In contrast to
+ * {@link Trajectories}, snapshots are stored as rows of primitive values, whose columns (updatable, subsection and
+ * entity) are determined by the first snapshot of a segment. Whenever the updatables or their referenced entities
+ * change (e.g. vesicles that are added or removed), the current segment is completed and a new segment with its own
+ * columns is started.
+ * <p>
+ * Retained snapshots are buffered in chunks, once a chunk is full it is appended to the spill file of its segment in
+ * the spill directory, if a spill directory has been given. The chunks of completed segments are spilled as well, such
+ * that only then the memory footprint is bounded by the chunk size and the columns of each segment. Without a spill
+ * directory all retained snapshots are kept in memory, such that the memory footprint grows with the number of
+ * retained snapshots and is only reduced by downsampling snapshots with a {@link TrajectoryRetentionPolicy}.
+ * <p>
+ * At the end of a simulation the retained snapshots can be exported to {@link Trajectories} or streamed snapshot by
+ * snapshot using {@link #forEachSnapshot(BiConsumer)}. Snapshots pending in an incomplete envelope are only retained
+ * after {@link #close()} has been called or a new segment has been started.
+ *
+ * @author cl
+ */
+public class StreamingTrajectories implements Closeable {
+
+    /**
+     * The default number of snapshots per chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 128;
+
+    private final Unit<Time> timeUnit;
+    private final Unit<MolarConcentration> concentrationUnit;
+    private final TrajectoryRetentionPolicy retentionPolicy;
+    private final int chunkSize;
+    private final Path spillDirectory;
+
+    /**
+     * The segments in temporal order.
+     */
+    private final List<Segment> segments;
+
+    /**
+     * The segment receiving snapshots.
+     */
+    private Segment currentSegment;
+
+    /**
+     * The number of received snapshots.
+     */
+    private long receivedSnapshots;
+
+    private boolean closed;
+
+    /**
+     * Creates new streaming trajectories.
+     *
+     * @param timeUnit The time unit.
+     * @param concentrationUnit The concentration unit.
+     * @param retentionPolicy The retention policy.
+     * @param chunkSize The number of snapshots kept in memory before they are spilled.
+     * @param spillDirectory The directory for spill files (null to keep all retained snapshots in memory, such that
+     * only downsampling limits the memory footprint).
+     */
+    public StreamingTrajectories(Unit<Time> timeUnit, Unit<MolarConcentration> concentrationUnit, TrajectoryRetentionPolicy retentionPolicy,
+                                 int chunkSize, Path spillDirectory) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size has to be at least 1.");
+        }
+        this.timeUnit = timeUnit;
+        this.concentrationUnit = concentrationUnit;
+        this.retentionPolicy = retentionPolicy;
+        this.chunkSize = chunkSize;
+        this.spillDirectory = spillDirectory;
+        segments = new ArrayList<>();
+        if (spillDirectory != null) {
+            Recorders.createDirectories(spillDirectory);
+        }
+    }
+
+    public Unit<Time> getTimeUnit() {
+        return timeUnit;
+    }
+
+    public Unit<MolarConcentration> getConcentrationUnit() {
+        return concentrationUnit;
+    }
+
+    public TrajectoryRetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    /**
+     * Returns the number of received snapshots.
+     *
+     * @return The number of received snapshots.
+     */
+    public long getNumberOfReceivedSnapshots() {
+        return receivedSnapshots;
+    }
+
+    /**
+     * Returns the number of retained snapshots.
+     *
+     * @return The number of retained snapshots.
+     */
+    public long getNumberOfRetainedSnapshots() {
+        long retainedSnapshots = 0;
+        for (Segment segment : segments) {
+            retainedSnapshots += segment.snapshots.size();
+        }
+        return retainedSnapshots;
+    }
+
+    /**
+     * Returns the number of segments, i.e. the number of times the updatables or their referenced entities changed
+     * plus one.
+     *
+     * @return The number of segments.
+     */
+    public int getNumberOfSegments() {
+        return segments.size();
+    }
+
+    /**
+     * Adds a snapshot of the given updatables. If the updatables or their referenced entities differ from the columns
+     * of the current segment, the current segment is completed and a new segment is started.
+     *
+     * @param time The time (in the time unit of the trajectories).
+     * @param updatables The updatables.
+     */
+    public void addSnapshot(double time, Collection<? extends Updatable> updatables) {
+        if (closed) {
+            throw new IllegalStateException("The trajectories have already been closed.");
+        }
+        if (currentSegment == null || !currentSegment.hasSameColumns(updatables)) {
+            if (currentSegment != null) {
+                currentSegment.complete();
+            }
+            currentSegment = new Segment(segments.size(), updatables);
+            segments.add(currentSegment);
+        }
+        currentSegment.addSnapshot(time);
+        receivedSnapshots++;
+    }
+
+    /**
+     * Passes all retained snapshots in temporal order to the consumer.
+     *
+     * @param consumer The consumer of time and snapshot.
+     */
+    public void forEachSnapshot(BiConsumer<Double, TrajectoryData> consumer) {
+        for (Segment segment : segments) {
+            segment.forEach(segment.snapshots, consumer);
+        }
+    }
+
+    /**
+     * Exports all retained snapshots.
+     *
+     * @return The trajectories.
+     */
+    public Trajectories toTrajectories() {
+        Trajectories trajectories = new Trajectories(timeUnit, concentrationUnit);
+        forEachSnapshot(trajectories::addTrajectoryData);
+        return trajectories;
+    }
+
+    /**
+     * Exports the minimal values of all envelopes.
+     *
+     * @return The trajectories.
+     */
+    public Trajectories toMinimumTrajectories() {
+        requireEnvelope();
+        Trajectories trajectories = new Trajectories(timeUnit, concentrationUnit);
+        for (Segment segment : segments) {
+            segment.forEach(segment.minima, trajectories::addTrajectoryData);
+        }
+        return trajectories;
+    }
+
+    /**
+     * Exports the maximal values of all envelopes.
+     *
+     * @return The trajectories.
+     */
+    public Trajectories toMaximumTrajectories() {
+        requireEnvelope();
+        Trajectories trajectories = new Trajectories(timeUnit, concentrationUnit);
+        for (Segment segment : segments) {
+            segment.forEach(segment.maxima, trajectories::addTrajectoryData);
+        }
+        return trajectories;
+    }
+
+    private void requireEnvelope() {
+        if (retentionPolicy.getKind() != TrajectoryRetentionPolicy.Kind.ENVELOPE) {
+            throw new IllegalStateException("Envelopes are only retained using the envelope retention policy.");
+        }
+    }
+
+    /**
+     * Retains the snapshots of an incomplete envelope and closes the spill files. Retained snapshots can still be
+     * exported afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (currentSegment != null) {
+            currentSegment.complete();
+        }
+    }
+
+    /**
+     * Deletes all spill files.
+     */
+    public void deleteSpillFiles() {
+        for (Segment segment : segments) {
+            for (Series series : Arrays.asList(segment.snapshots, segment.minima, segment.maxima)) {
+                if (series != null) {
+                    series.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * A segment of snapshots sharing the same updatables and referenced entities, i.e. the same columns.
+     */
+    private class Segment {
+
+        /**
+         * The updatables.
+         */
+        private final Updatable[] updatables;
+
+        /**
+         * The index of the updatable of each column.
+         */
+        private final int[] columnUpdatables;
+
+        /**
+         * The subsection of each column.
+         */
+        private final CellSubsection[] columnSubsections;
+
+        /**
+         * The entity of each column.
+         */
+        private final ChemicalEntity[] columnEntities;
+
+        /**
+         * The current snapshot (time, positions and values).
+         */
+        private final double[] currentRow;
+
+        /**
+         * The retained snapshots.
+         */
+        private final Series snapshots;
+
+        /**
+         * The minimal values of each envelope (only for envelope retention).
+         */
+        private Series minima;
+
+        /**
+         * The maximal values of each envelope (only for envelope retention).
+         */
+        private Series maxima;
+
+        /**
+         * The minimal values of the current envelope.
+         */
+        private double[] envelopeMinimum;
+
+        /**
+         * The maximal values of the current envelope.
+         */
+        private double[] envelopeMaximum;
+
+        /**
+         * The number of snapshots in the current envelope.
+         */
+        private int envelopeSize;
+
+        private Segment(int index, Collection<? extends Updatable> updatables) {
+            this.updatables = updatables.toArray(new Updatable[0]);
+            List<Integer> updatableIndices = new ArrayList<>();
+            List<CellSubsection> subsections = new ArrayList<>();
+            List<ChemicalEntity> entities = new ArrayList<>();
+            for (int updatableIndex = 0; updatableIndex < this.updatables.length; updatableIndex++) {
+                for (Map.Entry<CellSubsection, ConcentrationPool> entry : this.updatables[updatableIndex].getConcentrationContainer().getConcentrations().entrySet()) {
+                    for (ChemicalEntity entity : entry.getValue().getReferencedEntities()) {
+                        updatableIndices.add(updatableIndex);
+                        subsections.add(entry.getKey());
+                        entities.add(entity);
+                    }
+                }
+            }
+            columnUpdatables = updatableIndices.stream().mapToInt(Integer::intValue).toArray();
+            columnSubsections = subsections.toArray(new CellSubsection[0]);
+            columnEntities = entities.toArray(new ChemicalEntity[0]);
+            int width = 1 + 2 * this.updatables.length + columnEntities.length;
+            currentRow = new double[width];
+            snapshots = new Series("snapshots-" + index, width);
+            if (retentionPolicy.getKind() == TrajectoryRetentionPolicy.Kind.ENVELOPE) {
+                minima = new Series("minima-" + index, width);
+                maxima = new Series("maxima-" + index, width);
+                envelopeMinimum = new double[width];
+                envelopeMaximum = new double[width];
+            }
+        }
+
+        /**
+         * Returns true if the updatables and their referenced entities correspond to the columns of this segment.
+         *
+         * @param updatables The updatables.
+         * @return True if the updatables correspond to the columns.
+         */
+        private boolean hasSameColumns(Collection<? extends Updatable> updatables) {
+            if (updatables.size() != this.updatables.length) {
+                return false;
+            }
+            int index = 0;
+            int column = 0;
+            for (Updatable updatable : updatables) {
+                if (updatable != this.updatables[index]) {
+                    return false;
+                }
+                for (Map.Entry<CellSubsection, ConcentrationPool> entry : updatable.getConcentrationContainer().getConcentrations().entrySet()) {
+                    for (ChemicalEntity entity : entry.getValue().getReferencedEntities()) {
+                        if (column == columnEntities.length || columnUpdatables[column] != index
+                                || !entry.getKey().equals(columnSubsections[column]) || !entity.equals(columnEntities[column])) {
+                            return false;
+                        }
+                        column++;
+                    }
+                }
+                index++;
+            }
+            return column == columnEntities.length;
+        }
+
+        private void addSnapshot(double time) {
+            double concentrationFactor = UnitRegistry.concentration(1.0).to(concentrationUnit).getValue().doubleValue();
+            currentRow[0] = time;
+            int position = 1;
+            for (Updatable updatable : updatables) {
+                Vector2D vector = updatable.getPosition();
+                currentRow[position++] = vector != null ? vector.getX() : Double.NaN;
+                currentRow[position++] = vector != null ? vector.getY() : Double.NaN;
+            }
+            for (int column = 0; column < columnEntities.length; column++) {
+                currentRow[position++] = updatables[columnUpdatables[column]].getConcentrationContainer()
+                        .get(columnSubsections[column], columnEntities[column]) * concentrationFactor;
+            }
+            retain();
+        }
+
+        private void retain() {
+            switch (retentionPolicy.getKind()) {
+                case ALL:
+                    snapshots.add(currentRow);
+                    break;
+                case EVERY_NTH:
+                    if (receivedSnapshots % retentionPolicy.getInterval() == 0) {
+                        snapshots.add(currentRow);
+                    }
+                    break;
+                case ENVELOPE:
+                    if (envelopeSize == 0) {
+                        System.arraycopy(currentRow, 0, envelopeMinimum, 0, currentRow.length);
+                        System.arraycopy(currentRow, 0, envelopeMaximum, 0, currentRow.length);
+                    } else {
+                        for (int i = 1; i < currentRow.length; i++) {
+                            envelopeMinimum[i] = Math.min(envelopeMinimum[i], currentRow[i]);
+                            envelopeMaximum[i] = Math.max(envelopeMaximum[i], currentRow[i]);
+                        }
+                    }
+                    envelopeSize++;
+                    if (envelopeSize == retentionPolicy.getInterval()) {
+                        completeEnvelope();
+                    }
+                    break;
+            }
+        }
+
+        private void completeEnvelope() {
+            // envelopes are reported at the time of their last snapshot
+            envelopeMinimum[0] = currentRow[0];
+            envelopeMaximum[0] = currentRow[0];
+            snapshots.add(currentRow);
+            minima.add(envelopeMinimum);
+            maxima.add(envelopeMaximum);
+            envelopeSize = 0;
+        }
+
+        /**
+         * Retains the snapshots of an incomplete envelope (envelopes do not span segments, since their columns differ)
+         * and spills the buffered chunks.
+         */
+        private void complete() {
+            if (envelopeSize > 0) {
+                completeEnvelope();
+            }
+            for (Series series : Arrays.asList(snapshots, minima, maxima)) {
+                if (series != null) {
+                    series.complete();
+                }
+            }
+        }
+
+        private void forEach(Series series, BiConsumer<Double, TrajectoryData> consumer) {
+            if (series == null) {
+                return;
+            }
+            series.forEachRow(row -> consumer.accept(row[0], toTrajectoryData(row)));
+        }
+
+        private TrajectoryData toTrajectoryData(double[] row) {
+            TrajectoryData data = new TrajectoryData();
+            TrajactoryDataPoint[] points = new TrajactoryDataPoint[updatables.length];
+            for (int index = 0; index < updatables.length; index++) {
+                double x = row[1 + 2 * index];
+                double y = row[2 + 2 * index];
+                points[index] = new TrajactoryDataPoint(Double.isNaN(x) ? null : new Vector2D(x, y));
+                data.getConcentrationData().put(updatables[index], points[index]);
+            }
+            int offset = 1 + 2 * updatables.length;
+            for (int column = 0; column < columnEntities.length; column++) {
+                points[columnUpdatables[column]].getConcentrations()
+                        .computeIfAbsent(columnSubsections[column], subsection -> new HashMap<>())
+                        .put(columnEntities[column], row[offset + column]);
+            }
+            return data;
+        }
+
+    }
+
+    /**
+     * A series of rows, of which at most one chunk is kept in memory if a spill directory is given and no chunk is kept
+     * in memory once the series has been completed.
+     */
+    private class Series {
+
+        private final List<double[][]> retainedChunks;
+        private double[][] chunk;
+        private final Path spillFile;
+        private final int width;
+        private int rowsInChunk;
+        private long spilledRows;
+
+        private Series(String name, int width) {
+            this.width = width;
+            retainedChunks = new ArrayList<>();
+            chunk = new double[chunkSize][width];
+            spillFile = spillDirectory != null ? spillDirectory.resolve(name + ".bin") : null;
+            if (spillFile != null) {
+                try {
+                    Files.deleteIfExists(spillFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to reset spill file " + spillFile + ".", e);
+                }
+            }
+        }
+
+        private long size() {
+            return spilledRows + rowsInChunk;
+        }
+
+        private void add(double[] row) {
+            if (rowsInChunk == chunk.length) {
+                if (spillFile != null) {
+                    spill();
+                } else {
+                    retainedChunks.add(chunk);
+                    spilledRows += rowsInChunk;
+                    chunk = new double[chunkSize][row.length];
+                    rowsInChunk = 0;
+                }
+            }
+            System.arraycopy(row, 0, chunk[rowsInChunk], 0, row.length);
+            rowsInChunk++;
+        }
+
+        private void spill() {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+                for (int row = 0; row < rowsInChunk; row++) {
+                    for (double value : chunk[row]) {
+                        output.writeDouble(value);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to spill trajectories to " + spillFile + ".", e);
+            }
+            spilledRows += rowsInChunk;
+            rowsInChunk = 0;
+        }
+
+        /**
+         * Spills the rows of the current chunk and releases it. Without spill file the chunk is trimmed to its rows.
+         */
+        private void complete() {
+            if (spillFile != null) {
+                if (rowsInChunk > 0) {
+                    spill();
+                }
+                chunk = new double[0][];
+            } else {
+                chunk = Arrays.copyOf(chunk, rowsInChunk);
+            }
+        }
+
+        private void forEachRow(Consumer<double[]> consumer) {
+            double[] row = new double[width];
+            for (double[][] retainedChunk : retainedChunks) {
+                for (double[] retainedRow : retainedChunk) {
+                    System.arraycopy(retainedRow, 0, row, 0, row.length);
+                    consumer.accept(row);
+                }
+            }
+            if (spillFile != null && spilledRows > 0) {
+                try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)))) {
+                    for (long spilledRow = 0; spilledRow < spilledRows; spilledRow++) {
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = input.readDouble();
+                        }
+                        consumer.accept(row);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read spilled trajectories from " + spillFile + ".", e);
+                }
+            }
+            for (int chunkRow = 0; chunkRow < rowsInChunk; chunkRow++) {
+                System.arraycopy(chunk[chunkRow], 0, row, 0, row.length);
+                consumer.accept(row);
+            }
+        }
+
+        private void delete() {
+            if (spillFile != null) {
+                try {
+                    Files.deleteIfExists(spillFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to delete spill file " + spillFile + ".", e);
+                }
+            }
+        }
+
+    }
+
+}
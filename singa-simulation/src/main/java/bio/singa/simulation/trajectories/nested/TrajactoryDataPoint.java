@@ -24,6 +24,11 @@ public class TrajactoryDataPoint {
         concentrations = new HashMap<>();
     }
 
+    TrajactoryDataPoint(Vector2D position) {
+        this();
+        this.position = position;
+    }
+
     public Map<CellSubsection, Map<ChemicalEntity, Double>> getConcentrations() {
         return concentrations;
     }
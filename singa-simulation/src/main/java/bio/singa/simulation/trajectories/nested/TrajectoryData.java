@@ -13,7 +13,7 @@ public class TrajectoryData {
 
     private Map<Updatable, TrajactoryDataPoint> concentrationData;
 
-    private TrajectoryData() {
+    TrajectoryData() {
         concentrationData = new HashMap<>();
     }
 
@@ -0,0 +1,90 @@
+package bio.singa.simulation.trajectories.nested;
+
+/**
+ * The retention policy determines which snapshots are retained by {@link StreamingTrajectories}.
+ *
+ * @author cl
+ */
+public class TrajectoryRetentionPolicy {
+
+    /**
+     * The kinds of retention.
+     */
+    public enum Kind {
+
+        /**
+         * Every snapshot is retained.
+         */
+        ALL,
+
+        /**
+         * Every nth snapshot is retained.
+         */
+        EVERY_NTH,
+
+        /**
+         * The last snapshot of every n consecutive snapshots is retained, additionally the minimal and maximal values
+         * over those n snapshots are retained.
+         */
+        ENVELOPE
+
+    }
+
+    private final Kind kind;
+    private final int interval;
+
+    private TrajectoryRetentionPolicy(Kind kind, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("The retention interval has to be at least 1.");
+        }
+        this.kind = kind;
+        this.interval = interval;
+    }
+
+    /**
+     * Retains every snapshot.
+     *
+     * @return The policy.
+     */
+    public static TrajectoryRetentionPolicy all() {
+        return new TrajectoryRetentionPolicy(Kind.ALL, 1);
+    }
+
+    /**
+     * Retains the first and every nth snapshot after the first.
+     *
+     * @param n The interval.
+     * @return The policy.
+     */
+    public static TrajectoryRetentionPolicy everyNth(int n) {
+        return new TrajectoryRetentionPolicy(Kind.EVERY_NTH, n);
+    }
+
+    /**
+     * Retains the last snapshot of every n consecutive snapshots as well as the minimal and maximal values of those n
+     * snapshots.
+     *
+     * @param n The number of snapshots summarized.
+     * @return The policy.
+     */
+    public static TrajectoryRetentionPolicy envelope(int n) {
+        return new TrajectoryRetentionPolicy(Kind.ENVELOPE, n);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    @Override
+    public String toString() {
+        return "TrajectoryRetentionPolicy{" +
+                "kind=" + kind +
+                ", interval=" + interval +
+                '}';
+    }
+
+}
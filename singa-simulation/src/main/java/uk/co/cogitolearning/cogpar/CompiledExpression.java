@@ -0,0 +1,221 @@
+/*
+ * This software and all files contained in it are distrubted under the MIT license.
+ *
+ * Copyright (c) 2013 Cogito Learning Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package uk.co.cogitolearning.cogpar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled form of an expression tree. Compiling resolves each variable to a slot index and turns the tree into
+ * nested functions that read variable values from an array of slots. In contrast to the expression tree, a compiled
+ * expression holds no state, such that it can be evaluated concurrently with different slot arrays.
+ */
+public final class CompiledExpression {
+
+    /**
+     * A compiled sub-expression evaluated against an array of slots.
+     */
+    private interface SlotFunction {
+
+        double evaluate(double[] slots);
+
+    }
+
+    /**
+     * The names of the variables by slot index.
+     */
+    private final String[] variables;
+
+    /**
+     * The root of the compiled expression.
+     */
+    private final SlotFunction root;
+
+    private CompiledExpression(String[] variables, SlotFunction root) {
+        this.variables = variables;
+        this.root = root;
+    }
+
+    /**
+     * Compiles the given expression tree.
+     *
+     * @param expression the expression tree
+     * @return the compiled expression
+     */
+    public static CompiledExpression compile(ExpressionNode expression) {
+        List<String> variables = new ArrayList<>();
+        SlotFunction root = compile(expression, variables);
+        return new CompiledExpression(variables.toArray(new String[0]), root);
+    }
+
+    /**
+     * Returns the number of variable slots.
+     *
+     * @return the number of variable slots
+     */
+    public int getNumberOfSlots() {
+        return variables.length;
+    }
+
+    /**
+     * Returns the name of the variable in the given slot.
+     *
+     * @param slot the slot index
+     * @return the name of the variable
+     */
+    public String getVariable(int slot) {
+        return variables[slot];
+    }
+
+    /**
+     * Returns the slot index of the variable with the given name or -1 if the expression does not contain the
+     * variable.
+     *
+     * @param name the name of the variable
+     * @return the slot index
+     */
+    public int getSlot(String name) {
+        for (int slot = 0; slot < variables.length; slot++) {
+            if (variables[slot].equals(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Evaluates the expression with the given variable values.
+     *
+     * @param slots the values of the variables by slot index
+     * @return value of expression
+     */
+    public double evaluate(double[] slots) {
+        return root.evaluate(slots);
+    }
+
+    private static SlotFunction compile(ExpressionNode node, List<String> variables) {
+        switch (node.getType()) {
+            case ExpressionNode.CONSTANT_NODE:
+                final double constant = node.getValue();
+                return slots -> constant;
+            case ExpressionNode.VARIABLE_NODE:
+                String name = ((VariableExpressionNode) node).getName();
+                int index = variables.indexOf(name);
+                if (index == -1) {
+                    index = variables.size();
+                    variables.add(name);
+                }
+                final int slot = index;
+                return slots -> slots[slot];
+            case ExpressionNode.ADDITION_NODE:
+                return compileAddition((SequenceExpressionNode) node, variables);
+            case ExpressionNode.MULTIPLICATION_NODE:
+                return compileMultiplication((SequenceExpressionNode) node, variables);
+            case ExpressionNode.EXPONENTIATION_NODE:
+                ExponentiationExpressionNode exponentiation = (ExponentiationExpressionNode) node;
+                final SlotFunction base = compile(exponentiation.getBase(), variables);
+                final SlotFunction exponent = compile(exponentiation.getExponent(), variables);
+                return slots -> Math.pow(base.evaluate(slots), exponent.evaluate(slots));
+            case ExpressionNode.FUNCTION_NODE:
+                FunctionExpressionNode functionNode = (FunctionExpressionNode) node;
+                final int function = functionNode.getFunction();
+                final SlotFunction argument = compile(functionNode.getArgument(), variables);
+                return slots -> FunctionExpressionNode.apply(function, argument.evaluate(slots));
+            default:
+                throw new ParserException("Unexpected node type " + node.getType() + " can not be compiled.");
+        }
+    }
+
+    private static SlotFunction compileAddition(SequenceExpressionNode node, List<String> variables) {
+        final SlotFunction[] terms = compileTerms(node, variables);
+        final boolean[] positive = collectSigns(node);
+        if (terms.length == 2) {
+            final SlotFunction first = positive[0] ? terms[0] : negate(terms[0]);
+            final SlotFunction second = terms[1];
+            if (positive[1]) {
+                return slots -> first.evaluate(slots) + second.evaluate(slots);
+            }
+            return slots -> first.evaluate(slots) - second.evaluate(slots);
+        }
+        return slots -> {
+            double sum = 0.0;
+            for (int i = 0; i < terms.length; i++) {
+                if (positive[i]) {
+                    sum += terms[i].evaluate(slots);
+                } else {
+                    sum -= terms[i].evaluate(slots);
+                }
+            }
+            return sum;
+        };
+    }
+
+    private static SlotFunction compileMultiplication(SequenceExpressionNode node, List<String> variables) {
+        final SlotFunction[] terms = compileTerms(node, variables);
+        final boolean[] positive = collectSigns(node);
+        if (terms.length == 2 && positive[0]) {
+            final SlotFunction first = terms[0];
+            final SlotFunction second = terms[1];
+            if (positive[1]) {
+                return slots -> first.evaluate(slots) * second.evaluate(slots);
+            }
+            return slots -> first.evaluate(slots) / second.evaluate(slots);
+        }
+        return slots -> {
+            double product = 1.0;
+            for (int i = 0; i < terms.length; i++) {
+                if (positive[i]) {
+                    product *= terms[i].evaluate(slots);
+                } else {
+                    product /= terms[i].evaluate(slots);
+                }
+            }
+            return product;
+        };
+    }
+
+    private static SlotFunction negate(SlotFunction term) {
+        return slots -> 0.0 - term.evaluate(slots);
+    }
+
+    private static SlotFunction[] compileTerms(SequenceExpressionNode node, List<String> variables) {
+        List<SequenceExpressionNode.Term> terms = node.getTerms();
+        SlotFunction[] functions = new SlotFunction[terms.size()];
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = compile(terms.get(i).expression, variables);
+        }
+        return functions;
+    }
+
+    private static boolean[] collectSigns(SequenceExpressionNode node) {
+        List<SequenceExpressionNode.Term> terms = node.getTerms();
+        boolean[] positive = new boolean[terms.size()];
+        for (int i = 0; i < positive.length; i++) {
+            positive[i] = terms.get(i).positive;
+        }
+        return positive;
+    }
+
+}
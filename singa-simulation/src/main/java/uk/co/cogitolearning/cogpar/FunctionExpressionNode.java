@@ -166,37 +166,62 @@ public class FunctionExpressionNode implements ExpressionNode {
      * value.
      */
     public double getValue() {
+        return apply(function, argument.getValue());
+    }
+
+    /**
+     * Applies the function with the given id to the value.
+     *
+     * @param function the id of the function to apply
+     * @param value the argument of the function
+     * @return the result of the function
+     */
+    static double apply(int function, double value) {
         switch (function) {
             case SIN:
-                return Math.sin(argument.getValue());
+                return Math.sin(value);
             case COS:
-                return Math.cos(argument.getValue());
+                return Math.cos(value);
             case TAN:
-                return Math.tan(argument.getValue());
+                return Math.tan(value);
             case ASIN:
-                return Math.asin(argument.getValue());
+                return Math.asin(value);
             case ACOS:
-                return Math.acos(argument.getValue());
+                return Math.acos(value);
             case ATAN:
-                return Math.atan(argument.getValue());
+                return Math.atan(value);
             case SQRT:
-                return Math.sqrt(argument.getValue());
+                return Math.sqrt(value);
             case EXP:
-                return Math.exp(argument.getValue());
+                return Math.exp(value);
             case LN:
-                return Math.log(argument.getValue());
+                return Math.log(value);
             case LOG:
-                return Math.log(argument.getValue()) * 0.43429448190325182765;
+                return Math.log(value) * 0.43429448190325182765;
             case LOG2:
-                return Math.log(argument.getValue()) * 1.442695040888963407360;
+                return Math.log(value) * 1.442695040888963407360;
             case ABS:
-                return Math.abs(argument.getValue());
+                return Math.abs(value);
 
         }
 
         throw new EvaluationException("Invalid function id " + function + "!");
     }
 
+    /**
+     * @return the id of the function to apply to the argument
+     */
+    int getFunction() {
+        return function;
+    }
+
+    /**
+     * @return the argument of the function
+     */
+    public ExpressionNode getArgument() {
+        return argument;
+    }
+
     /**
      * Implementation of the visitor design pattern.
      * Calls visit on the visitor and then passes the visitor on to the accept
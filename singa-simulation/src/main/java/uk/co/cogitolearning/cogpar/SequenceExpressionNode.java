@@ -25,6 +25,8 @@
 package uk.co.cogitolearning.cogpar;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A base class for AdditionExpressionNode and MultiplicationExpressionNode.
@@ -65,6 +67,13 @@ public abstract class SequenceExpressionNode implements ExpressionNode {
         terms.add(new Term(positive, node));
     }
 
+    /**
+     * @return the list of terms in the sequence
+     */
+    public List<Term> getTerms() {
+        return Collections.unmodifiableList(terms);
+    }
+
     /**
      * An inner class that defines a pair containing an ExpressionNode and a
      * boolean flag.
@@ -0,0 +1,312 @@
+package bio.singa.simulation.checkpoints;
+
+import bio.singa.chemistry.annotations.Annotation;
+import bio.singa.chemistry.annotations.AnnotationType;
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.chemistry.entities.ComplexEntity;
+import bio.singa.chemistry.entities.Protein;
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.identifiers.UniProtIdentifier;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.exceptions.CheckpointException;
+import bio.singa.simulation.features.*;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
+import bio.singa.simulation.model.agents.pointlike.VesicleStateRegistry;
+import bio.singa.simulation.model.agents.surfacelike.MembraneLayer;
+import bio.singa.simulation.model.agents.surfacelike.MembraneTracer;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.modules.qualitative.implementations.VesicleFusion;
+import bio.singa.simulation.model.sections.CellRegion;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.sections.CellSubsections;
+import bio.singa.simulation.model.sections.CellTopology;
+import bio.singa.simulation.model.sections.concentration.ConcentrationInitializer;
+import bio.singa.simulation.model.simulation.EmbeddedRungeKuttaIntegrator;
+import bio.singa.simulation.model.simulation.MultiRateIntegrator;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.SimulationManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.AbstractUnit.ONE;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.MetricPrefix.MILLI;
+import static tec.units.indriya.unit.MetricPrefix.NANO;
+import static tec.units.indriya.unit.Units.METRE;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class CheckpointsTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldResumeFromCheckpoint() throws IOException {
+        Path file = Files.createTempDirectory("junit-tests").resolve("simulation.checkpoint");
+        Simulation simulation = createDecaySimulation(AutomatonGraphs.singularGraph());
+        simulation.getRandomStreams().setSeed(42);
+        for (int epoch = 0; epoch < 50; epoch++) {
+            simulation.nextEpoch();
+        }
+        Checkpoints.write(simulation, file);
+        double checkpointConcentration = getConcentration(simulation, "A");
+        double checkpointTime = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        double checkpointTimeStep = UnitRegistry.getTime().to(SECOND).getValue().doubleValue();
+        for (int epoch = 0; epoch < 50; epoch++) {
+            simulation.nextEpoch();
+        }
+        double expectedConcentration = getConcentration(simulation, "A");
+        double expectedTime = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        UnitRegistry.reinitialize();
+
+        Simulation resumedSimulation = createDecaySimulation(AutomatonGraphs.singularGraph());
+        Checkpoints.restore(resumedSimulation, file);
+        assertEquals(50, resumedSimulation.getEpoch());
+        assertEquals(42, resumedSimulation.getRandomStreams().getSeed());
+        assertEquals(checkpointTime, resumedSimulation.getElapsedTime().to(SECOND).getValue().doubleValue(), 1e-12);
+        assertEquals(checkpointTimeStep, UnitRegistry.getTime().to(SECOND).getValue().doubleValue(), 1e-15);
+        assertEquals(checkpointConcentration, getConcentration(resumedSimulation, "A"), 1e-12);
+        for (int epoch = 0; epoch < 50; epoch++) {
+            resumedSimulation.nextEpoch();
+        }
+        assertEquals(expectedTime, resumedSimulation.getElapsedTime().to(SECOND).getValue().doubleValue(), expectedTime * 1e-6);
+        assertEquals(expectedConcentration, getConcentration(resumedSimulation, "A"), expectedConcentration * 1e-6);
+    }
+
+    @Test
+    void shouldResumeIntegratorState() throws IOException {
+        Simulation simulation = createMultiRateSimulation();
+        MultiRateIntegrator integrator = (MultiRateIntegrator) simulation.getScheduler().getIntegrator();
+        for (int epoch = 0; epoch < 20; epoch++) {
+            simulation.nextEpoch();
+        }
+        byte[] checkpoint = Checkpoints.toBytes(simulation);
+        for (int epoch = 0; epoch < 20; epoch++) {
+            simulation.nextEpoch();
+        }
+        double expectedConcentration = getConcentration(simulation, "A");
+        double expectedTime = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        UpdateModule reaction = simulation.getModules().get(0);
+        long expectedEvaluations = integrator.getEvaluations(reaction);
+        UnitRegistry.reinitialize();
+
+        // the slow module continues its stepping and the proposed time step is retained
+        Simulation resumedSimulation = createMultiRateSimulation();
+        MultiRateIntegrator resumedIntegrator = (MultiRateIntegrator) resumedSimulation.getScheduler().getIntegrator();
+        Checkpoints.restore(resumedSimulation, new ByteArrayInputStream(checkpoint));
+        for (int epoch = 0; epoch < 20; epoch++) {
+            resumedSimulation.nextEpoch();
+        }
+        assertEquals(expectedTime, resumedSimulation.getElapsedTime().to(SECOND).getValue().doubleValue(), expectedTime * 1e-12);
+        assertEquals(expectedConcentration, getConcentration(resumedSimulation, "A"), expectedConcentration * 1e-12);
+        assertEquals(expectedEvaluations, resumedIntegrator.getEvaluations(resumedSimulation.getModules().get(0)));
+        UnitRegistry.reinitialize();
+
+        // checkpoints require the same integrator
+        Simulation differentSimulation = createDecaySimulation(AutomatonGraphs.singularGraph());
+        assertThrows(CheckpointException.class, () -> Checkpoints.restore(differentSimulation, new ByteArrayInputStream(checkpoint)));
+    }
+
+    @Test
+    void shouldWriteCheckpointsInBackground() throws IOException {
+        Path file = Files.createTempDirectory("junit-tests").resolve("simulation.checkpoint");
+        Simulation simulation = createDecaySimulation(AutomatonGraphs.singularGraph());
+        SimulationManager manager = new SimulationManager(simulation);
+        manager.setSimulationTerminationToEpochs(35);
+        manager.setUpdateEmissionCondition(sim -> false);
+        manager.setCheckpointingToEpochs(file, 10);
+        manager.calculateUntilTermination();
+        assertTrue(manager.getCheckpointWriter().getWrittenCheckpoints() >= 1);
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+        UnitRegistry.reinitialize();
+
+        // the most recent checkpoint is retained
+        Simulation resumedSimulation = createDecaySimulation(AutomatonGraphs.singularGraph());
+        SimulationManager resumedManager = SimulationManager.resumeFromCheckpoint(resumedSimulation, file);
+        assertEquals(30, resumedSimulation.getEpoch());
+        resumedManager.setSimulationTerminationToEpochs(35);
+        resumedManager.setUpdateEmissionCondition(sim -> false);
+        resumedManager.calculateUntilTermination();
+        assertEquals(35, resumedSimulation.getEpoch());
+        assertEquals(simulation.getElapsedTime().to(SECOND).getValue().doubleValue(),
+                resumedSimulation.getElapsedTime().to(SECOND).getValue().doubleValue(), 1e-9);
+    }
+
+    @Test
+    void shouldRejectDifferentSimulation() {
+        Simulation simulation = createDecaySimulation(AutomatonGraphs.singularGraph());
+        simulation.nextEpoch();
+        byte[] checkpoint = Checkpoints.toBytes(simulation);
+
+        Simulation differentSimulation = createDecaySimulation(AutomatonGraphs.createRectangularAutomatonGraph(2, 1));
+        assertThrows(CheckpointException.class, () -> Checkpoints.restore(differentSimulation, new ByteArrayInputStream(checkpoint)));
+        assertThrows(IOException.class, () -> Checkpoints.restore(differentSimulation, new ByteArrayInputStream(new byte[16])));
+    }
+
+    @Test
+    void shouldRestoreTetheredVesicles() throws IOException {
+        Simulation simulation = createFusionSimulation();
+        VesicleFusion fusion = (VesicleFusion) simulation.getModules().get(0);
+        while (fusion.getTetheredVesicles().isEmpty()) {
+            simulation.nextEpoch();
+        }
+        byte[] checkpoint = Checkpoints.toBytes(simulation);
+        Vesicle tetheredVesicle = simulation.getVesicleLayer().getVesicles().get(0);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+
+        Simulation resumedSimulation = createFusionSimulation();
+        Checkpoints.restore(resumedSimulation, new ByteArrayInputStream(checkpoint));
+        VesicleFusion resumedFusion = (VesicleFusion) resumedSimulation.getModules().get(0);
+        assertEquals(1, resumedSimulation.getVesicleLayer().getVesicles().size());
+        Vesicle resumedVesicle = resumedSimulation.getVesicleLayer().getVesicles().get(0);
+        assertEquals(tetheredVesicle.getStringIdentifier(), resumedVesicle.getStringIdentifier());
+        assertEquals(tetheredVesicle.getPosition(), resumedVesicle.getPosition());
+        assertSame(VesicleStateRegistry.MEMBRANE_TETHERED, resumedVesicle.getState());
+        assertEquals(tetheredVesicle.getRadius().to(NANO(METRE)).getValue().doubleValue(),
+                resumedVesicle.getRadius().to(NANO(METRE)).getValue().doubleValue(), 1e-10);
+        Map.Entry<Vesicle, ?> tethering = resumedFusion.getTetheredVesicles().entrySet().iterator().next();
+        assertSame(resumedVesicle, tethering.getKey());
+
+        // continue until the vesicle fused
+        while (!resumedFusion.getTetheredVesicles().isEmpty()) {
+            resumedSimulation.nextEpoch();
+        }
+        AutomatonNode node = resumedSimulation.getGraph().getNode(0, 0);
+        ChemicalEntity vamp3 = Protein.create("VAMP3").build();
+        assertTrue(resumedSimulation.getVesicleLayer().getVesicles().isEmpty());
+        assertEquals(7.0, MolarConcentration.concentrationToMolecules(node.getConcentrationContainer().get(CellTopology.MEMBRANE, vamp3)).getValue().doubleValue(), 1e-10);
+    }
+
+    private static double getConcentration(Simulation simulation, String identifier) {
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        return UnitRegistry.concentration(node.getConcentrationContainer().get(CellSubsections.CYTOPLASM, simulation.getChemicalEntity(identifier)))
+                .to(MICRO_MOLE_PER_LITRE).getValue().doubleValue();
+    }
+
+    private static Simulation createDecaySimulation(AutomatonGraph graph) {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        for (AutomatonNode node : graph.getNodes()) {
+            node.setCellRegion(CellRegions.CYTOPLASM_REGION);
+        }
+        SmallMolecule substrate = SmallMolecule.create("A").build();
+        SmallMolecule product = SmallMolecule.create("B").build();
+        ConcentrationInitializer concentrationInitializer = new ConcentrationInitializer();
+        concentrationInitializer.addInitialConcentration(CellSubsections.CYTOPLASM, substrate, Quantities.getQuantity(10, MICRO_MOLE_PER_LITRE));
+        simulation.setConcentrationInitializer(concentrationInitializer);
+        RateConstant rateConstant = RateConstant.create(1.0)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(substrate)
+                .addProduct(product)
+                .irreversible()
+                .rate(rateConstant)
+                .build();
+        UnitRegistry.setTime(Quantities.getQuantity(100, MICRO(SECOND)));
+        return simulation;
+    }
+
+    private static Simulation createMultiRateSimulation() {
+        Simulation simulation = createDecaySimulation(AutomatonGraphs.singularGraph());
+        // the product decays fast and is calculated with the adaptive step integrator
+        RateConstant rateConstant = RateConstant.create(10.0)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(simulation.getChemicalEntity("B"))
+                .addProduct(SmallMolecule.create("C").build())
+                .irreversible()
+                .rate(rateConstant)
+                .build();
+        MultiRateIntegrator integrator = new MultiRateIntegrator(new EmbeddedRungeKuttaIntegrator());
+        integrator.setTimeStep(simulation.getModules().get(0), Quantities.getQuantity(350, MICRO(SECOND)));
+        simulation.getScheduler().setIntegrator(integrator);
+        simulation.setMaximalTimeStep(Quantities.getQuantity(1, MILLI(SECOND)));
+        return simulation;
+    }
+
+    private static Simulation createFusionSimulation() {
+        Simulation simulation = new Simulation();
+        final double simulationExtend = 100;
+        simulation.setSimulationRegion(new Rectangle(simulationExtend, simulationExtend));
+        Environment.setSystemExtend(Quantities.getQuantity(2, MICRO(METRE)));
+        Environment.setSimulationExtend(simulationExtend);
+        UnitRegistry.setTime(Quantities.getQuantity(1, MICRO(SECOND)));
+
+        Protein vamp3 = Protein.create("VAMP3")
+                .assignFeature(new UniProtIdentifier("P63027"))
+                .annotation(new Annotation<>(AnnotationType.NOTE, "SNARE type", "R-SNARE"))
+                .build();
+        Protein syntaxin3 = Protein.create("Syntaxin 3")
+                .assignFeature(new UniProtIdentifier("Q13277"))
+                .annotation(new Annotation<>(AnnotationType.NOTE, "SNARE type", "Qa-SNARE"))
+                .build();
+        Protein snap23 = Protein.create("SNAP23")
+                .assignFeature(new UniProtIdentifier("O00161"))
+                .annotation(new Annotation<>(AnnotationType.NOTE, "SNARE type", "Qbc-SNARE"))
+                .build();
+        ComplexEntity snareComplex = ComplexEntity.from(syntaxin3, snap23);
+
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        AutomatonNode node = graph.getNode(0, 0);
+        node.setPosition(new Vector2D(50.0, 50.0));
+        node.setCellRegion(CellRegion.MEMBRANE);
+        node.getConcentrationContainer().set(CellTopology.MEMBRANE, snareComplex, MolarConcentration.moleculesToConcentration(10));
+        simulation.setGraph(graph);
+
+        MembraneLayer membraneLayer = new MembraneLayer();
+        membraneLayer.addMembranes(MembraneTracer.regionsToMembrane(graph));
+        simulation.setMembraneLayer(membraneLayer);
+
+        VesicleLayer vesicleLayer = new VesicleLayer(simulation);
+        Vesicle vesicle = new Vesicle(new Vector2D(49.0, 49.0), Quantities.getQuantity(100.0, NANO(METRE)));
+        vesicle.getConcentrationContainer().set(CellTopology.MEMBRANE, vamp3, MolarConcentration.moleculesToConcentration(10));
+        vesicleLayer.addVesicle(vesicle);
+        simulation.setVesicleLayer(vesicleLayer);
+
+        VesicleFusion fusion = new VesicleFusion();
+        List<ChemicalEntity> qSnareEntities = new ArrayList<>();
+        qSnareEntities.add(snareComplex);
+        fusion.setFeature(new MatchingQSnares(qSnareEntities));
+        List<ChemicalEntity> rSnareEntities = new ArrayList<>();
+        rSnareEntities.add(vamp3);
+        fusion.setFeature(new MatchingRSnares(rSnareEntities));
+        fusion.setFeature(new SNAREFusionPairs(Quantities.getQuantity(3, ONE)));
+        fusion.setFeature(FusionTime.DEFAULT_FUSION_TIME);
+        fusion.setFeature(AttachmentDistance.DEFAULT_DYNEIN_ATTACHMENT_DISTANCE);
+        simulation.addModule(fusion);
+        return simulation;
+    }
+
+}
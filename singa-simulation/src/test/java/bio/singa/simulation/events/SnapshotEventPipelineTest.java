@@ -0,0 +1,168 @@
+package bio.singa.simulation.events;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.SimulationManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.MetricPrefix.MILLI;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class SnapshotEventPipelineTest {
+
+    private static final SmallMolecule substrate = SmallMolecule.create("A").build();
+    private static final SmallMolecule product = SmallMolecule.create("B").build();
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    private static Simulation createSimulation() {
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        AutomatonNode node = graph.getNode(0, 0);
+        node.setCellRegion(CellRegions.CYTOPLASM_REGION);
+        node.getConcentrationContainer().set(CYTOPLASM, substrate, 1.0);
+        simulation.observe(node);
+        return simulation;
+    }
+
+    @Test
+    void shouldPassCopiesOfObservedConcentrations() throws InterruptedException {
+        Simulation simulation = createSimulation();
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        SnapshotEventPipeline pipeline = new SnapshotEventPipeline(simulation);
+        CountDownLatch received = new CountDownLatch(1);
+        CountDownLatch modified = new CountDownLatch(1);
+        List<Double> concentrations = new ArrayList<>();
+        pipeline.addListener(snapshot -> {
+            try {
+                // wait until the simulation changed the concentration
+                modified.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertEquals(1, snapshot.getNumberOfUpdatables());
+            assertEquals(node.getStringIdentifier(), snapshot.getUpdatableIdentifier(0));
+            assertEquals(1, snapshot.size());
+            assertEquals(substrate, snapshot.getEntity(0));
+            assertEquals(CYTOPLASM, snapshot.getSubsection(0));
+            concentrations.add(snapshot.getConcentration(node.getStringIdentifier(), CYTOPLASM, substrate));
+            received.countDown();
+        });
+        pipeline.emit();
+        node.getConcentrationContainer().set(CYTOPLASM, substrate, 2.0);
+        modified.countDown();
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        pipeline.close();
+        assertEquals(1, concentrations.size());
+        assertEquals(1.0, (double) concentrations.get(0));
+        assertEquals(1, pipeline.getSubscriptions().get(0).getDeliveredSnapshots());
+    }
+
+    @Test
+    void shouldApplyBackpressureStrategies() {
+        Simulation simulation = createSimulation();
+        SnapshotEventPipeline pipeline = new SnapshotEventPipeline(simulation);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> blockedEpochs = new ArrayList<>();
+        List<Long> droppedEpochs = new ArrayList<>();
+        List<Long> coalescedEpochs = new ArrayList<>();
+        SnapshotSubscription blocking = pipeline.addListener(snapshot -> blockedEpochs.add(snapshot.getEpoch()),
+                BackpressureStrategy.BLOCK, 1);
+        SnapshotSubscription dropping = pipeline.addListener(snapshot -> {
+            awaitUninterruptibly(release);
+            droppedEpochs.add(snapshot.getEpoch());
+        }, BackpressureStrategy.DROP, 2);
+        SnapshotSubscription coalescing = pipeline.addListener(snapshot -> {
+            awaitUninterruptibly(release);
+            coalescedEpochs.add(snapshot.getEpoch());
+        }, BackpressureStrategy.COALESCE, 2);
+        for (long epoch = 0; epoch < 10; epoch++) {
+            simulation.setEpoch(epoch);
+            pipeline.emit();
+        }
+        release.countDown();
+        pipeline.close();
+
+        // every snapshot is received in order
+        assertEquals(10, blocking.getDeliveredSnapshots());
+        assertEquals(0, blocking.getDroppedSnapshots());
+        for (int epoch = 0; epoch < 10; epoch++) {
+            assertEquals(epoch, (long) blockedEpochs.get(epoch));
+        }
+        // the first snapshot might be taken from the buffer before it is full, the latest snapshots are dropped
+        assertEquals(10, dropping.getDeliveredSnapshots() + dropping.getDroppedSnapshots());
+        assertTrue(droppedEpochs.size() <= 3);
+        assertEquals(0L, (long) droppedEpochs.get(0));
+        assertFalse(droppedEpochs.contains(9L));
+        // the latest snapshot replaces pending snapshots
+        assertEquals(10, coalescing.getDeliveredSnapshots() + coalescing.getDroppedSnapshots());
+        assertTrue(coalescedEpochs.size() <= 3);
+        assertEquals(9L, (long) coalescedEpochs.get(coalescedEpochs.size() - 1));
+    }
+
+    @Test
+    void shouldDeliverSnapshotsFromSimulationManager() {
+        Simulation simulation = createSimulation();
+        UnitRegistry.setTime(Quantities.getQuantity(100, MICRO(SECOND)));
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(substrate)
+                .addProduct(product)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .build();
+        SimulationManager manager = new SimulationManager(simulation);
+        manager.setSimulationTerminationToTime(Quantities.getQuantity(1, MILLI(SECOND)));
+        List<Double> substrateConcentrations = new ArrayList<>();
+        String identifier = simulation.getGraph().getNode(0, 0).getStringIdentifier();
+        SnapshotSubscription subscription = manager.addSnapshotListener(snapshot ->
+                substrateConcentrations.add(snapshot.getConcentration(identifier, CYTOPLASM, substrate)));
+        manager.calculateUntilTermination();
+
+        assertEquals(substrateConcentrations.size(), subscription.getDeliveredSnapshots());
+        assertTrue(substrateConcentrations.size() > 1);
+        assertEquals(1.0, (double) substrateConcentrations.get(0));
+        // decay
+        for (int index = 1; index < substrateConcentrations.size(); index++) {
+            assertTrue(substrateConcentrations.get(index) < substrateConcentrations.get(index - 1));
+        }
+        assertThrows(IllegalStateException.class, () -> manager.getSnapshotPipeline().emit());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package bio.singa.simulation.features.variation;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.sections.CellSubsections;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static tec.units.indriya.unit.MetricPrefix.MILLI;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class VariationSweepTest {
+
+    private static final SmallMolecule substrate = SmallMolecule.create("S").build();
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldRunAndResumeSweep() throws IOException {
+        Path directory = Files.createTempDirectory("junit-tests");
+        ConcentrationVariation variation = new ConcentrationVariation(CellSubsections.CYTOPLASM, substrate);
+        // concentrations are passed as quantities
+        variation.setVariations((List) Arrays.asList(Quantities.getQuantity(10, MICRO_MOLE_PER_LITRE),
+                Quantities.getQuantity(20, MICRO_MOLE_PER_LITRE),
+                Quantities.getQuantity(40, MICRO_MOLE_PER_LITRE)));
+        VariationSet variationSet = new VariationSet();
+        variationSet.addVariation(variation);
+
+        VariationSweep sweep = new VariationSweep(VariationSweepTest::createDecaySimulation, variationSet, directory);
+        sweep.setParallelism(2);
+        sweep.setTerminationTime(Quantities.getQuantity(1, MILLI(SECOND)));
+        sweep.setRecordingInterval(Quantities.getQuantity(0.1, MILLI(SECOND)));
+        List<VariationRunReport> reports = sweep.run();
+        assertEquals(3, reports.size());
+        for (VariationRunReport report : reports) {
+            assertTrue(report.getSimulatedSeconds() >= 1.0e-3);
+            assertTrue(report.getThroughput() > 0.0);
+            assertTrue(Files.exists(report.getDirectory().resolve("variations.log")));
+            assertTrue(Files.size(report.getDirectory().resolve("n(0,0)_concentrations.csv")) > 0);
+        }
+        assertTrue(sweep.getAggregateThroughput() > 0.0);
+
+        // everything is finished
+        assertTrue(sweep.run().isEmpty());
+
+        // remove the last finished variation from the checkpoint and resume
+        Path checkpoint = directory.resolve(VariationSweep.CHECKPOINT_FILE_NAME);
+        List<String> lines = Files.readAllLines(checkpoint);
+        assertEquals(5, lines.size());
+        String removedLine = lines.remove(lines.size() - 1);
+        Files.write(checkpoint, lines);
+        List<VariationRunReport> resumedReports = sweep.run();
+        assertEquals(1, resumedReports.size());
+        assertEquals(removedLine.split(",")[0], String.valueOf(resumedReports.get(0).getIndex()));
+        assertEquals(5, Files.readAllLines(checkpoint).size());
+    }
+
+    private static Simulation createDecaySimulation() {
+        Simulation simulation = new Simulation();
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        simulation.setGraph(graph);
+        AutomatonNode node = graph.getNode(0, 0);
+        node.setCellRegion(CellRegions.CYTOPLASM_REGION);
+        SmallMolecule product = SmallMolecule.create("P").build();
+        RateConstant rateConstant = RateConstant.create(100)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(substrate)
+                .addProduct(product)
+                .irreversible()
+                .rate(rateConstant)
+                .identifier("decay")
+                .build();
+        simulation.observe(node);
+        return simulation;
+    }
+
+}
@@ -0,0 +1,76 @@
+package bio.singa.simulation.model.graphs;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.geometry.faces.Rectangle;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.ComparableQuantity;
+import tec.units.indriya.quantity.Quantities;
+
+import javax.measure.quantity.Length;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.Units.METRE;
+
+/**
+ * @author cl
+ */
+class NodeLocatorTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    private static AutomatonNode locateByScan(AutomatonGraph graph, Vector2D position) {
+        for (AutomatonNode node : graph.getNodes()) {
+            if (node.getSpatialRepresentation().isInside(position)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void shouldLocateSameNodesAsScan() {
+        double simulationExtend = 150;
+        int nodes = 5;
+        Simulation simulation = new Simulation();
+        simulation.setSimulationRegion(new Rectangle(simulationExtend, simulationExtend));
+        ComparableQuantity<Length> systemExtend = Quantities.getQuantity(1, MICRO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(simulationExtend);
+        Environment.setNodeSpacingToDiameter(systemExtend, nodes);
+        AutomatonGraph graph = AutomatonGraphs.createRectangularAutomatonGraph(nodes, nodes);
+        simulation.setGraph(graph);
+
+        NodeLocator locator = NodeLocator.of(graph);
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            Vector2D position = new Vector2D(random.nextDouble() * 160 - 5, random.nextDouble() * 160 - 5);
+            assertSame(locateByScan(graph, position), locator.locate(position));
+        }
+        // node centres are resolved without polygon tests
+        double spacing = simulationExtend / nodes;
+        for (int i = 0; i < nodes; i++) {
+            Vector2D position = new Vector2D((i + 0.5) * spacing, (i + 0.5) * spacing);
+            assertTrue(locator.resolvesDirectly(position));
+            assertSame(locateByScan(graph, position), locator.locate(position));
+        }
+        // node borders
+        for (int i = 0; i <= nodes; i++) {
+            Vector2D position = new Vector2D(i * spacing, 0.5 * spacing);
+            assertFalse(locator.resolvesDirectly(position));
+            assertSame(locateByScan(graph, position), locator.locate(position));
+        }
+        assertNull(locator.locate(new Vector2D(-10.0, -10.0)));
+        assertSame(graph, locator.getGraph());
+    }
+
+}
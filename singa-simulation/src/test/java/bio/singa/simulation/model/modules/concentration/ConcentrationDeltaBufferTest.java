@@ -0,0 +1,57 @@
+package bio.singa.simulation.model.modules.concentration;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.sections.CellSubsections;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class ConcentrationDeltaBufferTest {
+
+    private static final ChemicalEntity entityA = SmallMolecule.create("A").build();
+    private static final ChemicalEntity entityB = SmallMolecule.create("B").build();
+
+    @Test
+    void testPutAndOverwrite() {
+        ConcentrationDeltaBuffer buffer = new ConcentrationDeltaBuffer();
+        AutomatonNode node = new AutomatonNode(0, 0);
+        buffer.putFullDelta(node, CellSubsections.CYTOPLASM, entityA, 1.0);
+        buffer.putFullDelta(node, CellSubsections.CYTOPLASM, entityB, 2.0);
+        buffer.putFullDelta(node, CellSubsections.CYTOPLASM, entityA, 3.0);
+        buffer.putHalfDelta(node, CellSubsections.CYTOPLASM, entityA, 4.0);
+        assertEquals(2, buffer.size());
+        assertEquals(2, buffer.getNumberOfFullDeltas());
+        assertEquals(1, buffer.getNumberOfHalfDeltas());
+        assertSame(node, buffer.getUpdatable(0));
+        assertEquals(entityA, buffer.getEntity(0));
+        assertEquals(3.0, buffer.getFullDelta(0));
+        assertEquals(4.0, buffer.getHalfDelta(0));
+        assertFalse(buffer.hasHalfDelta(1));
+    }
+
+    @Test
+    void testGrowAndClear() {
+        ConcentrationDeltaBuffer buffer = new ConcentrationDeltaBuffer();
+        int numberOfNodes = 100;
+        for (int column = 0; column < numberOfNodes; column++) {
+            buffer.putFullDelta(new AutomatonNode(column, 0), CellSubsections.CYTOPLASM, entityA, column);
+        }
+        assertEquals(numberOfNodes, buffer.size());
+        for (int slot = 0; slot < numberOfNodes; slot++) {
+            assertEquals(slot, buffer.getFullDelta(slot));
+        }
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertTrue(buffer.hasNoFullDeltas());
+        buffer.putHalfDelta(new AutomatonNode(0, 0), CellSubsections.CYTOPLASM, entityB, 1.0);
+        assertEquals(1, buffer.size());
+        assertTrue(buffer.hasHalfDelta(0));
+        assertFalse(buffer.hasFullDelta(0));
+    }
+
+}
@@ -0,0 +1,168 @@
+package bio.singa.simulation.model.modules.concentration;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.simulation.model.modules.UpdateModule;
+import bio.singa.simulation.model.modules.qualitative.QualitativeModule;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.sections.ConcentrationContainer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author cl
+ */
+class ConcentrationDeltaManagerTest {
+
+    private static final ChemicalEntity entityA = SmallMolecule.create("A").build();
+    private static final ChemicalEntity entityB = SmallMolecule.create("B").build();
+    private static final ChemicalEntity entityC = SmallMolecule.create("C").build();
+
+    private static ConcentrationDeltaManager createManager() {
+        ConcentrationContainer container = CellRegions.CYTOPLASM_REGION.setUpConcentrationContainer();
+        container.set(CYTOPLASM, entityA, 1.0);
+        container.set(CYTOPLASM, entityB, 2.0);
+        container.set(CYTOPLASM, entityC, 4.0);
+        ConcentrationDeltaManager manager = new ConcentrationDeltaManager(container);
+        manager.backupConcentrations();
+        return manager;
+    }
+
+    @Test
+    void shouldDetermineGlobalErrorOfModifiedSlots() {
+        ConcentrationDeltaManager manager = createManager();
+        manager.addPotentialDelta(new ConcentrationDelta(null, CYTOPLASM, entityA, -0.2));
+        manager.addPotentialDelta(new ConcentrationDelta(null, CYTOPLASM, entityB, 0.4));
+        manager.setInterimAndUpdateCurrentConcentrations();
+        // half step concentrations
+        assertEquals(0.9, manager.getConcentrationContainer().get(CYTOPLASM, entityA), 1e-12);
+        assertEquals(2.2, manager.getConcentrationContainer().get(CYTOPLASM, entityB), 1e-12);
+        assertEquals(4.0, manager.getConcentrationContainer().get(CYTOPLASM, entityC), 1e-12);
+        // original concentrations are retained
+        assertEquals(1.0, manager.getOriginalConcentrations().get(CYTOPLASM, entityA), 1e-12);
+
+        manager.addPotentialDelta(new ConcentrationDelta(null, CYTOPLASM, entityA, -0.25));
+        manager.addPotentialDelta(new ConcentrationDelta(null, CYTOPLASM, entityC, 0.4));
+        manager.determineComparisionConcentrations();
+        // A: interim 0.8, comparison 0.75; B: interim 2.4, comparison 2.0; C: interim 4.0, comparison 4.4
+        double expectedError = Math.max(Math.abs(1 - 0.8 / 0.75), Math.max(Math.abs(1 - 2.4 / 2.0), Math.abs(1 - 4.0 / 4.4)));
+        assertEquals(expectedError, manager.determineGlobalNumericalError(), 1e-12);
+        assertEquals(1.0, manager.getOriginalConcentrations().get(CYTOPLASM, entityA), 1e-12);
+
+        manager.clearPotentialDeltas();
+        manager.revertToOriginalConcentrations();
+        assertEquals(1.0, manager.getConcentrationContainer().get(CYTOPLASM, entityA), 1e-12);
+        assertEquals(4.0, manager.getConcentrationContainer().get(CYTOPLASM, entityC), 1e-12);
+    }
+
+    @Test
+    void shouldCapNegativeDeltas() {
+        ConcentrationDeltaManager manager = createManager();
+        manager.addPotentialDelta(new ConcentrationDelta(null, CYTOPLASM, entityB, -1.0));
+        manager.addPotentialDelta(new ConcentrationDelta(null, CYTOPLASM, entityA, -2.0));
+        manager.setInterimAndUpdateCurrentConcentrations();
+        // the delta of A is capped to the remaining concentration and the delta of B is scaled accordingly
+        assertEquals(0.5, manager.getConcentrationContainer().get(CYTOPLASM, entityA), 1e-12);
+        assertEquals(1.75, manager.getConcentrationContainer().get(CYTOPLASM, entityB), 1e-12);
+        assertEquals(1.0, manager.getOriginalConcentrations().get(CYTOPLASM, entityA), 1e-12);
+        assertEquals(2.0, manager.getOriginalConcentrations().get(CYTOPLASM, entityB), 1e-12);
+    }
+
+    private static double valueOf(List<ConcentrationDelta> deltas, UpdateModule module, ChemicalEntity entity) {
+        return deltas.stream()
+                .filter(delta -> delta.getModule() == module && delta.getChemicalEntity().equals(entity))
+                .mapToDouble(ConcentrationDelta::getValue)
+                .sum();
+    }
+
+    @Test
+    void shouldCreditProductionWhenCappingDeltas() {
+        ConcentrationDeltaManager manager = createManager();
+        UpdateModule consumer = new EmptyModule();
+        UpdateModule producer = new EmptyModule();
+        manager.addPotentialDelta(new ConcentrationDelta(consumer, CYTOPLASM, entityA, -2.0));
+        manager.addPotentialDelta(new ConcentrationDelta(consumer, CYTOPLASM, entityB, -1.0));
+        manager.addPotentialDelta(new ConcentrationDelta(producer, CYTOPLASM, entityA, 0.5));
+        manager.determineComparisionConcentrations();
+        // the consumer may use the original and the produced concentration of A (1.5 of 2.0)
+        List<ConcentrationDelta> deltas = manager.getPotentialDeltas();
+        assertEquals(-1.5, valueOf(deltas, consumer, entityA), 1e-12);
+        assertEquals(-0.75, valueOf(deltas, consumer, entityB), 1e-12);
+        assertEquals(0.5, valueOf(deltas, producer, entityA), 1e-12);
+        assertEquals(0.0, manager.getConcentrationContainer().get(CYTOPLASM, entityA), 1e-12);
+        assertEquals(1.25, manager.getConcentrationContainer().get(CYTOPLASM, entityB), 1e-12);
+    }
+
+    @Test
+    void shouldLimitConsumptionIfCappedModulesProduce() {
+        ConcentrationDeltaManager manager = createManager();
+        UpdateModule first = new EmptyModule();
+        UpdateModule second = new EmptyModule();
+        // the first module is capped by A, such that it only produces 0.5 B and B would become -0.2
+        manager.addPotentialDelta(new ConcentrationDelta(first, CYTOPLASM, entityA, -2.0));
+        manager.addPotentialDelta(new ConcentrationDelta(first, CYTOPLASM, entityB, 1.0));
+        manager.addPotentialDelta(new ConcentrationDelta(second, CYTOPLASM, entityB, -2.7));
+        manager.determineComparisionConcentrations();
+        // a single pass does not suffice, the consumption of B is limited to its original concentration (2.0 of 2.7)
+        List<ConcentrationDelta> deltas = manager.getPotentialDeltas();
+        assertEquals(-1.0, valueOf(deltas, first, entityA), 1e-12);
+        assertEquals(0.5, valueOf(deltas, first, entityB), 1e-12);
+        assertEquals(-2.0, valueOf(deltas, second, entityB), 1e-12);
+        assertEquals(0.0, manager.getConcentrationContainer().get(CYTOPLASM, entityA), 1e-12);
+        assertEquals(0.5, manager.getConcentrationContainer().get(CYTOPLASM, entityB), 1e-12);
+        // capped deltas are applied
+        manager.shiftDeltas();
+        manager.applyDeltas();
+        assertEquals(0.0, manager.getConcentrationContainer().get(CYTOPLASM, entityA), 1e-12);
+        assertEquals(0.5, manager.getConcentrationContainer().get(CYTOPLASM, entityB), 1e-12);
+    }
+
+    @Test
+    void shouldRestoreOverlaidSlots() {
+        ConcentrationDeltaManager manager = createManager();
+        ChemicalEntity entityE = SmallMolecule.create("E").build();
+        manager.addPotentialDelta(new ConcentrationDelta(null, CYTOPLASM, entityA, -0.2));
+        manager.setInterimAndUpdateCurrentConcentrations();
+        ConcentrationContainer overlay = manager.getConcentrationContainer();
+        // the comparison adds an entity that is not present in the original concentrations
+        manager.addPotentialDelta(new ConcentrationDelta(null, CYTOPLASM, entityE, 0.4));
+        manager.determineComparisionConcentrations();
+        // the overlay is reused and the half step concentration of A has been restored
+        assertSame(overlay, manager.getConcentrationContainer());
+        assertEquals(1.0, overlay.get(CYTOPLASM, entityA), 1e-12);
+        assertEquals(0.4, overlay.get(CYTOPLASM, entityE), 1e-12);
+        manager.clearPotentialDeltas();
+        manager.revertToOriginalConcentrations();
+        assertFalse(manager.getConcentrationContainer().getReferencedEntities().contains(entityE));
+        assertFalse(manager.getOriginalConcentrations().getReferencedEntities().contains(entityE));
+    }
+
+    private static class EmptyModule extends QualitativeModule {
+
+        @Override
+        public void calculateUpdates() {
+
+        }
+
+        @Override
+        public void optimizeTimeStep() {
+
+        }
+
+        @Override
+        public void onReset() {
+
+        }
+
+        @Override
+        public void onCompletion() {
+
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+package bio.singa.simulation.model.modules.concentration.imlementations.reactions;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.ConcentrationJacobian;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static bio.singa.simulation.model.sections.CellRegions.EXTRACELLULAR_REGION;
+import static bio.singa.simulation.model.sections.CellTopology.INNER;
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.unit.MetricPrefix.MILLI;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class ReactionNetworkTest {
+
+    @BeforeAll
+    static void initialize() {
+        UnitRegistry.reinitialize();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+    }
+
+    @Test
+    @DisplayName("reaction network - should compile stoichiometry of static reactions")
+    void shouldCompileStoichiometry() {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(AutomatonGraphs.singularGraph());
+        ChemicalEntity a = SmallMolecule.create("A").build();
+        ChemicalEntity b = SmallMolecule.create("B").build();
+        ChemicalEntity c = SmallMolecule.create("C").build();
+        Reaction complexFormation = createComplexFormation(simulation, a, b, c);
+        Reaction dimerization = ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a, 2)
+                .addProduct(b)
+                .irreversible()
+                .rate(RateConstant.create(1.0)
+                        .forward().secondOrder()
+                        .concentrationUnit(MICRO_MOLE_PER_LITRE)
+                        .timeUnit(SECOND)
+                        .build())
+                .build();
+
+        ReactionNetwork network = ReactionNetwork.compile(simulation);
+        assertNotNull(network);
+        assertTrue(simulation.getModules().contains(network));
+        assertEquals(2, network.getNumberOfReactions());
+        assertEquals(3, network.getNumberOfSpecies());
+        assertEquals(-1.0, network.getStoichiometricCoefficient(complexFormation, INNER, a));
+        assertEquals(1.0, network.getStoichiometricCoefficient(complexFormation, INNER, c));
+        assertEquals(-2.0, network.getStoichiometricCoefficient(dimerization, INNER, a));
+        assertEquals(0.0, network.getStoichiometricCoefficient(dimerization, INNER, c));
+        // nodes are only calculated by the network
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        assertFalse(complexFormation.getApplicationCondition().test(node));
+        assertTrue(network.getApplicationCondition().test(node));
+    }
+
+    @Test
+    @DisplayName("reaction network - should determine jacobian analytically")
+    void shouldDetermineJacobian() {
+        Simulation simulation = new Simulation();
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        simulation.setGraph(graph);
+        ChemicalEntity a = SmallMolecule.create("A").build();
+        ChemicalEntity b = SmallMolecule.create("B").build();
+        ChemicalEntity c = SmallMolecule.create("C").build();
+        CellSubsection subsection = EXTRACELLULAR_REGION.getInnerSubsection();
+        AutomatonNode node = graph.getNode(0, 0);
+        node.getConcentrationContainer().initialize(subsection, a, Quantities.getQuantity(2.0, MICRO_MOLE_PER_LITRE));
+        node.getConcentrationContainer().initialize(subsection, b, Quantities.getQuantity(3.0, MICRO_MOLE_PER_LITRE));
+        node.getConcentrationContainer().initialize(subsection, c, Quantities.getQuantity(0.5, MICRO_MOLE_PER_LITRE));
+        Reaction reaction = createComplexFormation(simulation, a, b, c);
+        // finite differences of the reaction
+        ConcentrationJacobian reactionJacobian = new ConcentrationJacobian();
+        reaction.determineJacobian(node, reactionJacobian);
+        // analytical derivatives of the network
+        ReactionNetwork network = ReactionNetwork.compile(simulation);
+        ConcentrationJacobian networkJacobian = new ConcentrationJacobian();
+        network.determineJacobian(node, networkJacobian);
+
+        assertFalse(networkJacobian.hasNoDerivatives());
+        for (ChemicalEntity row : new ChemicalEntity[]{a, b, c}) {
+            for (ChemicalEntity column : new ChemicalEntity[]{a, b, c}) {
+                double expected = reactionJacobian.get(reactionJacobian.indexOf(subsection, row), reactionJacobian.indexOf(subsection, column));
+                double actual = networkJacobian.get(networkJacobian.indexOf(subsection, row), networkJacobian.indexOf(subsection, column));
+                assertEquals(expected, actual, Math.abs(expected) * 1e-5);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("reaction network - should approach equilibrium of reversible reaction")
+    void shouldCalculateCompiledReversibleReaction() {
+        Simulation simulation = new Simulation();
+        simulation.setReactionNetworkCompilation(true);
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        SmallMolecule speciesA = SmallMolecule.create("A").build();
+        SmallMolecule speciesB = SmallMolecule.create("B").build();
+        CellSubsection subsection = EXTRACELLULAR_REGION.getInnerSubsection();
+        for (AutomatonNode node : graph.getNodes()) {
+            node.getConcentrationContainer().initialize(subsection, speciesA, Quantities.getQuantity(1.0, MOLE_PER_LITRE));
+        }
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(speciesA)
+                .addProduct(speciesB)
+                .reversible()
+                .forwardReactionRate(RateConstant.create(5)
+                        .forward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .backwardReactionRate(RateConstant.create(10)
+                        .backward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .build();
+        simulation.setGraph(graph);
+
+        AutomatonNode node = graph.getNode(0, 0);
+        Quantity<Time> checkpoint = Quantities.getQuantity(800.0, MILLI(SECOND));
+        while (simulation.getElapsedTime().to(MILLI(SECOND)).getValue().doubleValue() < checkpoint.getValue().doubleValue()) {
+            simulation.nextEpoch();
+        }
+        assertTrue(simulation.getModules().stream().anyMatch(ReactionNetwork.class::isInstance));
+        assertEquals(0.66666, UnitRegistry.concentration(node.getConcentrationContainer().get(subsection, speciesA)).to(MOLE_PER_LITRE).getValue().doubleValue(), 1e-5);
+        assertEquals(0.33333, UnitRegistry.concentration(node.getConcentrationContainer().get(subsection, speciesB)).to(MOLE_PER_LITRE).getValue().doubleValue(), 1e-5);
+    }
+
+    private static Reaction createComplexFormation(Simulation simulation, ChemicalEntity a, ChemicalEntity b, ChemicalEntity c) {
+        return ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(a)
+                .addSubstrate(b)
+                .addProduct(c)
+                .reversible()
+                .forwardReactionRate(RateConstant.create(1.0)
+                        .forward().secondOrder()
+                        .concentrationUnit(MICRO_MOLE_PER_LITRE)
+                        .timeUnit(SECOND)
+                        .build())
+                .backwardReactionRate(RateConstant.create(0.5)
+                        .backward().firstOrder()
+                        .timeUnit(SECOND)
+                        .build())
+                .build();
+    }
+
+}
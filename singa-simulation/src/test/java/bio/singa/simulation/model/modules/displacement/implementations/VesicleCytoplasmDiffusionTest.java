@@ -4,28 +4,45 @@ import bio.singa.features.parameters.Environment;
 import bio.singa.features.units.UnitRegistry;
 import bio.singa.mathematics.vectors.Vector2D;
 import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.agents.pointlike.VesicleDisplacements;
 import bio.singa.simulation.model.agents.pointlike.VesicleLayer;
 import bio.singa.simulation.model.graphs.AutomatonGraph;
 import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.modules.concentration.ModuleState;
+import bio.singa.simulation.model.modules.qualitative.QualitativeModule;
 import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import tec.units.indriya.ComparableQuantity;
 import tec.units.indriya.quantity.Quantities;
 
 import javax.measure.quantity.Length;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static tec.units.indriya.unit.MetricPrefix.MICRO;
 import static tec.units.indriya.unit.MetricPrefix.NANO;
 import static tec.units.indriya.unit.Units.METRE;
+import static tec.units.indriya.unit.Units.SECOND;
 
 /**
  * @author cl
  */
 class VesicleCytoplasmDiffusionTest {
 
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
     @Test
     @DisplayName("vesicle diffusion - should move at all")
     void testVesicleDiffusion() {
@@ -95,4 +112,124 @@ class VesicleCytoplasmDiffusionTest {
             initialPosition = currentPosition;
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("vesicle diffusion - should calculate identical displacements in parallel chunks")
+    void shouldCalculateChunksInParallel() {
+        List<Vector2D> sequentialPositions = simulateChunkedDiffusion(1);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        List<Vector2D> parallelPositions = simulateChunkedDiffusion(4);
+        assertEquals(sequentialPositions, parallelPositions);
+    }
+
+    @Test
+    @DisplayName("vesicle diffusion - should recalculate parallel chunks if another module interrupts")
+    void shouldRecalculateInterruptedChunks() {
+        ComparableQuantity<Length> systemExtend = Quantities.getQuantity(20, MICRO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(500);
+        Environment.setNodeSpacingToDiameter(systemExtend, 10);
+        UnitRegistry.setTime(Quantities.getQuantity(1.0, MICRO(SECOND)));
+        Simulation simulation = new Simulation();
+        simulation.getScheduler().setPartitionParallelism(4);
+        simulation.setGraph(AutomatonGraphs.createRectangularAutomatonGraph(10, 10));
+        for (int index = 0; index < 30; index++) {
+            simulation.getVesicleLayer().addVesicle(new Vesicle(new Vector2D(20 + 15 * index, 30 + 14 * index), Quantities.getQuantity(50, NANO(METRE))));
+        }
+        CountDownLatch chunkStarted = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        // the first chunk waits until the module thread waiting for the chunks has been interrupted
+        VesicleCytoplasmDiffusion vesicleDiffusion = new VesicleCytoplasmDiffusion() {
+            @Override
+            protected int calculateDisplacements(VesicleDisplacements vesicles, SplittableRandom random, int from, int to, double[] deltaX, double[] deltaY) {
+                if (from == 0 && chunkStarted.getCount() > 0) {
+                    chunkStarted.countDown();
+                    awaitLatch(interrupted);
+                }
+                return super.calculateDisplacements(vesicles, random, from, to, deltaX, deltaY);
+            }
+        };
+        vesicleDiffusion.setChunkSize(4);
+        vesicleDiffusion.setSimulation(simulation);
+        simulation.getModules().add(vesicleDiffusion);
+        QualitativeModule interruptingModule = new QualitativeModule() {
+            @Override
+            public void calculateUpdates() {
+                if (interrupted.getCount() == 0) {
+                    state = ModuleState.SUCCEEDED;
+                    return;
+                }
+                awaitLatch(chunkStarted);
+                state = ModuleState.REQUIRING_RECALCULATION;
+            }
+
+            @Override
+            public void optimizeTimeStep() {
+                interrupted.countDown();
+                state = ModuleState.SUCCEEDED;
+            }
+
+            @Override
+            public void onReset() {
+
+            }
+
+            @Override
+            public void onCompletion() {
+
+            }
+        };
+        interruptingModule.setSimulation(simulation);
+        simulation.getModules().add(interruptingModule);
+        Vector2D initialPosition = simulation.getVesicleLayer().getVesicles().get(0).getPosition();
+        simulation.nextEpoch();
+        simulation.getScheduler().shutdown();
+        assertEquals(0, interrupted.getCount());
+        assertEquals(1, simulation.getEpoch());
+        assertNotEquals(initialPosition, simulation.getVesicleLayer().getVesicles().get(0).getPosition());
+    }
+
+    private static void awaitLatch(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<Vector2D> simulateChunkedDiffusion(int partitionParallelism) {
+        ComparableQuantity<Length> systemExtend = Quantities.getQuantity(20, MICRO(METRE));
+        Environment.setSystemExtend(systemExtend);
+        Environment.setSimulationExtend(500);
+        Environment.setNodeSpacingToDiameter(systemExtend, 10);
+        UnitRegistry.setTime(Quantities.getQuantity(1.0, MICRO(SECOND)));
+        Simulation simulation = new Simulation();
+        simulation.getRandomStreams().setSeed(42);
+        simulation.getScheduler().setPartitionParallelism(partitionParallelism);
+        simulation.setGraph(AutomatonGraphs.createRectangularAutomatonGraph(10, 10));
+        List<Vector2D> initialPositions = new ArrayList<>();
+        for (int index = 0; index < 30; index++) {
+            Vector2D position = new Vector2D(20 + 15 * index, 30 + 14 * index);
+            initialPositions.add(position);
+            simulation.getVesicleLayer().addVesicle(new Vesicle(position, Quantities.getQuantity(50, NANO(METRE))));
+        }
+        // small chunks, such that the vesicles are distributed to multiple chunks
+        VesicleCytoplasmDiffusion vesicleDiffusion = new VesicleCytoplasmDiffusion();
+        vesicleDiffusion.setChunkSize(4);
+        vesicleDiffusion.setSimulation(simulation);
+        simulation.getModules().add(vesicleDiffusion);
+        for (int epoch = 0; epoch < 5; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdown();
+        List<Vector2D> positions = new ArrayList<>();
+        for (int index = 0; index < 30; index++) {
+            Vector2D position = simulation.getVesicleLayer().getVesicles().get(index).getPosition();
+            assertNotEquals(initialPositions.get(index), position);
+            positions.add(position);
+        }
+        return positions;
+    }
+
+}
@@ -136,5 +136,23 @@ class ConcentrationContainerTest {
         assertEquals(0.5, UnitRegistry.concentration(containerA.get(subsectionB, entityB)).to(MOLE_PER_LITRE).getValue().doubleValue());
     }
 
+    @Test
+    void shouldShareCopiedPoolOfSubsectionWithMultipleTopologies() {
+        ConcentrationContainer container = new ConcentrationContainer();
+        container.initializeSubsection(subsectionA, INNER);
+        container.putSubsectionPool(subsectionA, OUTER, container.getPool(INNER).getValue());
+
+        ConcentrationContainer fullCopy = container.fullCopy();
+        assertSame(fullCopy.getPool(INNER).getValue(), fullCopy.getPool(OUTER).getValue());
+        assertNotSame(container.getPool(INNER).getValue(), fullCopy.getPool(INNER).getValue());
+        fullCopy.set(INNER, entityA, 1.0);
+        assertEquals(1.0, fullCopy.get(OUTER, entityA));
+        assertEquals(0.0, container.get(OUTER, entityA));
+
+        ConcentrationContainer emptyCopy = container.emptyCopy();
+        assertSame(emptyCopy.getPool(INNER).getValue(), emptyCopy.getPool(OUTER).getValue());
+        emptyCopy.set(OUTER, entityB, 0.5);
+        assertEquals(0.5, emptyCopy.get(INNER, entityB));
+    }
 
-}
\ No newline at end of file
+}
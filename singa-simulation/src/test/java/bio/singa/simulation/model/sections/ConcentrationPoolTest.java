@@ -8,6 +8,8 @@ import org.junit.jupiter.api.Test;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -36,4 +38,61 @@ class ConcentrationPoolTest {
         assertEquals(0.0, pool.get(entityB));
     }
 
-}
\ No newline at end of file
+    @Test
+    void testFullCopyAndIndexedAccess() {
+        ConcentrationPool pool = new ConcentrationPool();
+        pool.set(entityA, 1.0);
+        ConcentrationPool copy = pool.fullCopy();
+        copy.set(entityA, 2.0);
+        copy.set(entityB, 3.0);
+        assertEquals(1.0, pool.get(entityA));
+        assertEquals(0.0, pool.get(entityB));
+        assertEquals(1, pool.getReferencedEntities().size());
+        assertEquals(2.0, copy.get(copy.getEntityIndex().indexOf(entityA)));
+        assertEquals(3.0, copy.get(copy.getEntityIndex().indexOf(entityB)));
+    }
+
+    @Test
+    void testCopyOnWrite() {
+        ConcentrationPool pool = new ConcentrationPool();
+        pool.set(entityA, 1.0);
+        ConcentrationPool firstCopy = pool.fullCopy();
+        ConcentrationPool secondCopy = firstCopy.fullCopy();
+        // modifying the source does not modify copies
+        pool.set(entityA, 2.0);
+        assertEquals(1.0, firstCopy.get(entityA));
+        assertEquals(1.0, secondCopy.get(entityA));
+        // modifying a copy does not modify other copies
+        firstCopy.set(entityB, 3.0);
+        assertEquals(0.0, secondCopy.get(entityB));
+        assertEquals(0.0, pool.get(entityB));
+        assertEquals(1, secondCopy.getReferencedEntities().size());
+        assertEquals(2.0, pool.get(entityA));
+        assertEquals(3.0, firstCopy.get(entityB));
+    }
+
+    @Test
+    void testReindex() {
+        EntityIndex sourceIndex = new EntityIndex();
+        ConcentrationPool pool = new ConcentrationPool(sourceIndex);
+        pool.set(entityA, 1.0);
+        pool.set(entityB, 2.0);
+        ConcentrationPool copy = pool.fullCopy();
+        // the target index assigns different indices
+        EntityIndex targetIndex = new EntityIndex();
+        targetIndex.indexOf(entityB);
+        pool.reindex(targetIndex);
+        assertSame(targetIndex, pool.getEntityIndex());
+        assertEquals(1.0, pool.get(entityA));
+        assertEquals(2.0, pool.get(entityB));
+        assertEquals(2.0, pool.get(0));
+        assertEquals(1.0, pool.get(1));
+        // copies keep their index and are not modified
+        assertSame(sourceIndex, copy.getEntityIndex());
+        assertEquals(1.0, copy.get(0));
+        copy.set(entityA, 3.0);
+        assertEquals(1.0, pool.get(entityA));
+        assertFalse(pool.isReferenced(2));
+    }
+
+}
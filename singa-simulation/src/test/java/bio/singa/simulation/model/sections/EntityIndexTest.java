@@ -0,0 +1,86 @@
+package bio.singa.simulation.model.sections;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class EntityIndexTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldBindIndex() {
+        EntityIndex index = new EntityIndex();
+        EntityIndex previousIndex = EntityIndex.bind(index);
+        try {
+            assertSame(index, EntityIndex.current());
+            assertSame(index, new ConcentrationPool().getEntityIndex());
+        } finally {
+            EntityIndex.bind(previousIndex);
+        }
+        assertNotSame(index, EntityIndex.current());
+    }
+
+    @Test
+    void shouldUseIndexOfSimulation() {
+        // entities of other simulations in the same JVM
+        for (int i = 0; i < 100; i++) {
+            EntityIndex.current().indexOf(SmallMolecule.create("other " + i).build());
+        }
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        AutomatonNode node = graph.getNode(0, 0);
+        node.setCellRegion(CellRegions.CYTOPLASM_REGION);
+        SmallMolecule substrate = SmallMolecule.create("substrate").build();
+        SmallMolecule product = SmallMolecule.create("product").build();
+        node.getConcentrationContainer().set(CYTOPLASM, substrate, 1.0);
+        RateConstant rateConstant = RateConstant.create(1.0)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(substrate)
+                .addProduct(product)
+                .irreversible()
+                .rate(rateConstant)
+                .build();
+        UnitRegistry.setTime(Quantities.getQuantity(100, MICRO(SECOND)));
+        simulation.nextEpoch();
+
+        // pools are transferred to the index of the simulation, that only contains its own entities
+        EntityIndex entityIndex = simulation.getEntityIndex();
+        assertEquals(2, entityIndex.size());
+        ConcentrationPool pool = node.getConcentrationContainer().getPool(CYTOPLASM).getValue();
+        assertSame(entityIndex, pool.getEntityIndex());
+        assertTrue(pool.getCapacity() < 100);
+        double substrateConcentration = node.getConcentrationContainer().get(CYTOPLASM, substrate);
+        assertTrue(substrateConcentration < 1.0);
+        assertEquals(substrateConcentration, node.getConcentrationContainer().get(CYTOPLASM, entityIndex.indexOf(substrate)));
+        assertEquals(1.0, substrateConcentration + node.getConcentrationContainer().get(CYTOPLASM, product), 1e-10);
+        // the index is only bound while the simulation is calculated
+        assertNotSame(entityIndex, EntityIndex.current());
+    }
+
+}
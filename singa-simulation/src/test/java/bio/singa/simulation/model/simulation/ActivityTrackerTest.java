@@ -0,0 +1,99 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.diffusivity.Diffusivity;
+import bio.singa.features.model.Evidence;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.sections.CellSubsections;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import static bio.singa.chemistry.features.diffusivity.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static tec.units.indriya.unit.MetricPrefix.NANO;
+import static tec.units.indriya.unit.Units.METRE;
+
+/**
+ * @author cl
+ */
+class ActivityTrackerTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void testSparseDiffusion() {
+        // reference processing all nodes
+        UnitRegistry.reinitialize();
+        Simulation reference = createSparseDiffusionSimulation(false);
+        for (int i = 0; i < 5; i++) {
+            reference.nextEpoch();
+        }
+
+        // only process nodes in the vicinity of changes
+        UnitRegistry.reinitialize();
+        Simulation tracked = createSparseDiffusionSimulation(true);
+        Diffusion diffusion = (Diffusion) tracked.getModules().get(0);
+        tracked.nextEpoch();
+        // only the initially filled node and its neighbours changed
+        assertEquals(100, diffusion.getActiveUpdatables().size());
+        for (int i = 1; i < 5; i++) {
+            tracked.nextEpoch();
+            assertTrue(diffusion.getActiveUpdatables().size() < 100);
+        }
+
+        ChemicalEntity entity = reference.getChemicalEntity("D");
+        for (AutomatonNode expectedNode : reference.getGraph().getNodes()) {
+            AutomatonNode actualNode = tracked.getGraph().getNode(expectedNode.getIdentifier());
+            assertEquals(expectedNode.getConcentrationContainer().get(CellSubsections.EXTRACELLULAR_REGION, entity),
+                    actualNode.getConcentrationContainer().get(CellSubsections.EXTRACELLULAR_REGION, entity));
+        }
+    }
+
+    @Test
+    void testActivationAfterTimeStepIncrease() {
+        UnitRegistry.reinitialize();
+        Simulation tracked = createSparseDiffusionSimulation(true);
+        Diffusion diffusion = (Diffusion) tracked.getModules().get(0);
+        tracked.nextEpoch();
+        tracked.nextEpoch();
+        assertTrue(diffusion.getActiveUpdatables().size() < 100);
+        // deltas that were below the cutoff may exceed it with a larger time step
+        tracked.getScheduler().increaseTimeStep();
+        tracked.nextEpoch();
+        assertEquals(100, diffusion.getActiveUpdatables().size());
+    }
+
+    private static Simulation createSparseDiffusionSimulation(boolean activityTracking) {
+        Environment.setNodeSpacingToDiameter(Quantities.getQuantity(2500.0, NANO(METRE)), 10);
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(10, 10));
+        SmallMolecule entity = SmallMolecule.create("D")
+                .assignFeature(new Diffusivity(Quantities.getQuantity(4.40E-05, SQUARE_CENTIMETRE_PER_SECOND), Evidence.NO_EVIDENCE))
+                .build();
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() == 0 && node.getIdentifier().getRow() == 0 ? 1.0 : 0.0;
+            node.getConcentrationContainer().initialize(CellSubsections.EXTRACELLULAR_REGION, entity, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion diffusion = Diffusion.inSimulation(simulation)
+                .onlyFor(entity)
+                .build();
+        diffusion.setActivityTracking(activityTracking);
+        return simulation;
+    }
+
+}
@@ -0,0 +1,100 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.sections.CellSubsections;
+import bio.singa.simulation.model.sections.concentration.ConcentrationInitializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class EmbeddedRungeKuttaIntegratorTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldFollowExponentialDecay() {
+        for (EmbeddedRungeKuttaIntegrator.Tableau tableau : new EmbeddedRungeKuttaIntegrator.Tableau[]{
+                EmbeddedRungeKuttaIntegrator.Tableau.BOGACKI_SHAMPINE,
+                EmbeddedRungeKuttaIntegrator.Tableau.CASH_KARP,
+                EmbeddedRungeKuttaIntegrator.Tableau.DORMAND_PRINCE}) {
+            UnitRegistry.reinitialize();
+            Simulation simulation = createDecaySimulation();
+            EmbeddedRungeKuttaIntegrator integrator = new EmbeddedRungeKuttaIntegrator(tableau);
+            simulation.getScheduler().setIntegrator(integrator);
+            simulation.getScheduler().setRecalculationCutoff(1e-5);
+            double initialTimeStep = UnitRegistry.getTime().to(SECOND).getValue().doubleValue();
+
+            AutomatonNode node = simulation.getGraph().getNode(0, 0);
+            while (simulation.getElapsedTime().to(SECOND).getValue().doubleValue() < 2.0) {
+                simulation.nextEpoch();
+            }
+            double elapsedTime = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+            double expected = 10.0 * Math.exp(-elapsedTime);
+            double actual = UnitRegistry.concentration(node.getConcentrationContainer().get(CellSubsections.CYTOPLASM, simulation.getChemicalEntity("A")))
+                    .to(MICRO_MOLE_PER_LITRE).getValue().doubleValue();
+            assertEquals(expected, actual, expected * 1e-3, tableau.toString());
+            // step size is adapted to the error
+            assertTrue(UnitRegistry.getTime().to(SECOND).getValue().doubleValue() > initialTimeStep, tableau.toString());
+            assertTrue(integrator.getRejectedSteps() < simulation.getEpoch(), tableau.toString());
+        }
+    }
+
+    @Test
+    void shouldRespectMaximalTimeStep() {
+        Simulation simulation = createDecaySimulation();
+        simulation.getScheduler().setIntegrator(new EmbeddedRungeKuttaIntegrator());
+        simulation.setMaximalTimeStep(Quantities.getQuantity(0.01, SECOND));
+        for (int i = 0; i < 50; i++) {
+            simulation.nextEpoch();
+            assertTrue(UnitRegistry.getTime().to(SECOND).getValue().doubleValue() <= 0.01 + 1e-12);
+        }
+    }
+
+    private static Simulation createDecaySimulation() {
+        Simulation simulation = new Simulation();
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        simulation.setGraph(graph);
+        graph.getNode(0, 0).setCellRegion(CellRegions.CYTOPLASM_REGION);
+
+        SmallMolecule substrate = SmallMolecule.create("A").build();
+        SmallMolecule product = SmallMolecule.create("B").build();
+
+        ConcentrationInitializer ci = new ConcentrationInitializer();
+        ci.addInitialConcentration(CellSubsections.CYTOPLASM, substrate, Quantities.getQuantity(10, MICRO_MOLE_PER_LITRE));
+        simulation.setConcentrationInitializer(ci);
+
+        RateConstant rateConstant = RateConstant.create(1.0)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(substrate)
+                .addProduct(product)
+                .irreversible()
+                .rate(rateConstant)
+                .build();
+        return simulation;
+    }
+
+}
@@ -0,0 +1,119 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.Reaction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.sections.CellSubsections;
+import bio.singa.simulation.model.sections.concentration.ConcentrationInitializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class MultiRateIntegratorTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldSubCycleSlowModule() {
+        Simulation simulation = createSimulation();
+        Reaction fastReaction = createDecay(simulation, "A", "B", 10.0);
+        Reaction slowReaction = createDecay(simulation, "C", "D", 1.0);
+        MultiRateIntegrator integrator = new MultiRateIntegrator();
+        integrator.setTimeStep(slowReaction, Quantities.getQuantity(0.02, SECOND));
+        simulation.getScheduler().setIntegrator(integrator);
+        simulation.setMaximalTimeStep(Quantities.getQuantity(0.001, SECOND));
+        UnitRegistry.setTime(Quantities.getQuantity(100, MICRO(SECOND)));
+
+        while (simulation.getElapsedTime().to(SECOND).getValue().doubleValue() < 0.5) {
+            simulation.nextEpoch();
+        }
+        double elapsedTime = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+
+        // the slow process is applied centered in its time step, up to half of the time step ahead or behind
+        double aheadExpected = 10.0 * Math.exp(-(elapsedTime + 0.01));
+        double behindExpected = 10.0 * Math.exp(-(elapsedTime - 0.01));
+        double actual = getConcentration(simulation, "C");
+        assertTrue(actual >= aheadExpected && actual <= behindExpected, actual + " not in [" + aheadExpected + ", " + behindExpected + "]");
+        assertEquals(10.0, actual + getConcentration(simulation, "D"), 1e-8);
+        // fast process is calculated as usual
+        assertEquals(10.0 * Math.exp(-10.0 * elapsedTime), getConcentration(simulation, "A"), 0.01);
+
+        // slow module is only calculated once per time step
+        assertEquals(simulation.getEpoch(), integrator.getEvaluations(fastReaction));
+        long expectedSubSteps = Math.round(elapsedTime / 0.02) + 1;
+        assertTrue(Math.abs(integrator.getEvaluations(slowReaction) - expectedSubSteps) <= 1, integrator.getEvaluations(slowReaction) + " sub steps");
+        assertTrue(integrator.getEvaluations(slowReaction) * 10 < integrator.getEvaluations(fastReaction));
+    }
+
+    @Test
+    void shouldAdaptTimeStepOfSlowModule() {
+        Simulation simulation = createSimulation();
+        Reaction reaction = createDecay(simulation, "A", "B", 10.0);
+        MultiRateIntegrator integrator = new MultiRateIntegrator();
+        // too large for the reaction
+        integrator.setTimeStep(reaction, Quantities.getQuantity(0.1, SECOND));
+        simulation.getScheduler().setIntegrator(integrator);
+        UnitRegistry.setTime(Quantities.getQuantity(100, MICRO(SECOND)));
+
+        for (int epoch = 0; epoch < 100; epoch++) {
+            simulation.nextEpoch();
+            assertTrue(getConcentration(simulation, "A") >= 0.0);
+        }
+        assertEquals(10.0, getConcentration(simulation, "A") + getConcentration(simulation, "B"), 1e-8);
+        assertTrue(integrator.getTimeStep(reaction).to(SECOND).getValue().doubleValue() < 0.01);
+        assertTrue(integrator.getEvaluations(reaction) > 1);
+    }
+
+    private static double getConcentration(Simulation simulation, String identifier) {
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        return UnitRegistry.concentration(node.getConcentrationContainer().get(CellSubsections.CYTOPLASM, simulation.getChemicalEntity(identifier)))
+                .to(MICRO_MOLE_PER_LITRE).getValue().doubleValue();
+    }
+
+    private static Simulation createSimulation() {
+        Simulation simulation = new Simulation();
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        simulation.setGraph(graph);
+        graph.getNode(0, 0).setCellRegion(CellRegions.CYTOPLASM_REGION);
+        simulation.setConcentrationInitializer(new ConcentrationInitializer());
+        return simulation;
+    }
+
+    private static Reaction createDecay(Simulation simulation, String substrateIdentifier, String productIdentifier, double rate) {
+        SmallMolecule substrate = SmallMolecule.create(substrateIdentifier).build();
+        SmallMolecule product = SmallMolecule.create(productIdentifier).build();
+        simulation.getConcentrationInitializer().addInitialConcentration(CellSubsections.CYTOPLASM, substrate, Quantities.getQuantity(10, MICRO_MOLE_PER_LITRE));
+
+        RateConstant rateConstant = RateConstant.create(rate)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+        return ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(substrate)
+                .addProduct(product)
+                .irreversible()
+                .rate(rateConstant)
+                .build();
+    }
+
+}
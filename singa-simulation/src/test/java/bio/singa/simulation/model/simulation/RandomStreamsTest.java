@@ -0,0 +1,92 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.vectors.Vector2D;
+import bio.singa.simulation.model.agents.pointlike.Vesicle;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.modules.displacement.implementations.VesicleCytoplasmDiffusion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.MetricPrefix.NANO;
+import static tec.units.indriya.unit.Units.METRE;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class RandomStreamsTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldDeriveStreamsFromSeed() {
+        Simulation simulation = new Simulation();
+        RandomStreams streams = simulation.getRandomStreams();
+        streams.setSeed(42);
+        double first = streams.getStream("diffusion", 1).nextDouble();
+        // identical keys draw identical numbers
+        assertEquals(first, streams.getStream("diffusion", 1).nextDouble());
+        // other agents, streams and seeds draw other numbers
+        assertNotEquals(first, streams.getStream("diffusion", 2).nextDouble());
+        assertNotEquals(first, streams.getStream("fusion", 1).nextDouble());
+        streams.setSeed(43);
+        assertNotEquals(first, streams.getStream("diffusion", 1).nextDouble());
+        // setup streams are sequential
+        SplittableRandom setupStream = streams.getSetupStream("filaments");
+        assertNotEquals(setupStream.nextDouble(), setupStream.nextDouble());
+    }
+
+    @Test
+    void shouldReproduceVesicleDiffusionAtAnyThreadCount() {
+        List<Vector2D> sequentialPositions = simulateVesicleDiffusion(42, 1);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        List<Vector2D> parallelPositions = simulateVesicleDiffusion(42, 4);
+        assertEquals(sequentialPositions, parallelPositions);
+        UnitRegistry.reinitialize();
+        Environment.reset();
+        assertNotEquals(sequentialPositions, simulateVesicleDiffusion(7, 1));
+    }
+
+    private static List<Vector2D> simulateVesicleDiffusion(long seed, int threads) {
+        Environment.setSystemExtend(Quantities.getQuantity(20, MICRO(METRE)));
+        Environment.setSimulationExtend(500);
+        Environment.setNodeSpacingToDiameter(Quantities.getQuantity(20, MICRO(METRE)), 10);
+        UnitRegistry.setTime(Quantities.getQuantity(1.0, MICRO(SECOND)));
+        Simulation simulation = new Simulation();
+        simulation.getRandomStreams().setSeed(seed);
+        simulation.getScheduler().setParallelism(threads);
+        simulation.setGraph(AutomatonGraphs.createRectangularAutomatonGraph(10, 10));
+        for (int index = 0; index < 20; index++) {
+            // identifiers generated from the global counter differ between runs and must not affect the streams
+            Vesicle vesicle = new Vesicle(new Vector2D(100 + 15 * index, 100 + 10 * index), Quantities.getQuantity(50, NANO(METRE)));
+            simulation.getVesicleLayer().addVesicle(vesicle);
+        }
+        VesicleCytoplasmDiffusion diffusion = new VesicleCytoplasmDiffusion();
+        diffusion.setSimulation(simulation);
+        simulation.getModules().add(diffusion);
+        for (int epoch = 0; epoch < 10; epoch++) {
+            simulation.nextEpoch();
+        }
+        simulation.getScheduler().shutdown();
+        List<Vector2D> positions = new ArrayList<>();
+        for (Vesicle vesicle : simulation.getVesicleLayer().getVesicles()) {
+            positions.add(vesicle.getPosition());
+        }
+        return positions;
+    }
+
+}
@@ -0,0 +1,123 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.sections.CellSubsections;
+import bio.singa.simulation.model.sections.concentration.ConcentrationInitializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class RosenbrockIntegratorTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldFollowExponentialDecay() {
+        Simulation simulation = createSimulation(1.0, 0.0);
+        simulation.getScheduler().setIntegrator(new RosenbrockIntegrator());
+        simulation.getScheduler().setRecalculationCutoff(1e-5);
+        runUntil(simulation, 2.0);
+
+        double elapsedTime = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        double expected = 10.0 * Math.exp(-elapsedTime);
+        assertEquals(expected, getConcentration(simulation, "A"), expected * 1e-3);
+        assertEquals(10.0 - expected, getConcentration(simulation, "B"), expected * 1e-3);
+    }
+
+    @Test
+    void shouldReachEquilibriumOfStiffReaction() {
+        // explicit method
+        Simulation explicitSimulation = createSimulation(1000.0, 500.0);
+        explicitSimulation.getScheduler().setIntegrator(new EmbeddedRungeKuttaIntegrator(EmbeddedRungeKuttaIntegrator.Tableau.BOGACKI_SHAMPINE));
+        explicitSimulation.getScheduler().setRecalculationCutoff(1e-4);
+        runUntil(explicitSimulation, 10.0);
+        long explicitEpochs = explicitSimulation.getEpoch();
+        UnitRegistry.reinitialize();
+
+        // implicit method
+        Simulation simulation = createSimulation(1000.0, 500.0);
+        RosenbrockIntegrator integrator = new RosenbrockIntegrator();
+        simulation.getScheduler().setIntegrator(integrator);
+        simulation.getScheduler().setRecalculationCutoff(1e-4);
+        runUntil(simulation, 10.0);
+
+        assertEquals(10.0 / 3.0, getConcentration(simulation, "A"), 1e-3);
+        assertEquals(20.0 / 3.0, getConcentration(simulation, "B"), 1e-3);
+        // steps are not limited by the stability of the method
+        assertTrue(simulation.getEpoch() * 5 < explicitEpochs, simulation.getEpoch() + " epochs compared to " + explicitEpochs + " epochs");
+        assertTrue(integrator.getRejectedSteps() < simulation.getEpoch());
+    }
+
+    private static void runUntil(Simulation simulation, double time) {
+        while (simulation.getElapsedTime().to(SECOND).getValue().doubleValue() < time) {
+            simulation.nextEpoch();
+        }
+    }
+
+    private static double getConcentration(Simulation simulation, String identifier) {
+        AutomatonNode node = simulation.getGraph().getNode(0, 0);
+        return UnitRegistry.concentration(node.getConcentrationContainer().get(CellSubsections.CYTOPLASM, simulation.getChemicalEntity(identifier)))
+                .to(MICRO_MOLE_PER_LITRE).getValue().doubleValue();
+    }
+
+    private static Simulation createSimulation(double forwardsRate, double backwardsRate) {
+        Simulation simulation = new Simulation();
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        simulation.setGraph(graph);
+        graph.getNode(0, 0).setCellRegion(CellRegions.CYTOPLASM_REGION);
+
+        SmallMolecule substrate = SmallMolecule.create("A").build();
+        SmallMolecule product = SmallMolecule.create("B").build();
+
+        ConcentrationInitializer ci = new ConcentrationInitializer();
+        ci.addInitialConcentration(CellSubsections.CYTOPLASM, substrate, Quantities.getQuantity(10, MICRO_MOLE_PER_LITRE));
+        simulation.setConcentrationInitializer(ci);
+
+        RateConstant forwardsRateConstant = RateConstant.create(forwardsRate)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+        if (backwardsRate == 0.0) {
+            ReactionBuilder.staticReactants(simulation)
+                    .addSubstrate(substrate)
+                    .addProduct(product)
+                    .irreversible()
+                    .rate(forwardsRateConstant)
+                    .build();
+        } else {
+            RateConstant backwardsRateConstant = RateConstant.create(backwardsRate)
+                    .backward().firstOrder()
+                    .timeUnit(SECOND)
+                    .build();
+            ReactionBuilder.staticReactants(simulation)
+                    .addSubstrate(substrate)
+                    .addProduct(product)
+                    .reversible()
+                    .forwardReactionRate(forwardsRateConstant)
+                    .backwardReactionRate(backwardsRateConstant)
+                    .build();
+        }
+        return simulation;
+    }
+
+}
@@ -0,0 +1,162 @@
+package bio.singa.simulation.model.simulation;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.Reaction;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.sections.CellSubsections;
+import bio.singa.simulation.model.sections.concentration.ConcentrationInitializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.MetricPrefix.MILLI;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class SimulationMetricsTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldCollectModuleMetrics() {
+        Simulation simulation = createSimulation(AutomatonGraphs.createRectangularAutomatonGraph(3, 2));
+        Reaction reaction = createDecay(simulation);
+        for (int epoch = 0; epoch < 20; epoch++) {
+            simulation.nextEpoch();
+        }
+        SimulationMetrics metrics = simulation.getMetrics();
+        assertEquals(20, metrics.getEpochs());
+        assertTrue(metrics.getEpochTime() >= metrics.getLastEpochTime());
+        assertTrue(metrics.getLastEpochTime() > 0);
+        // full and half step pass for each epoch
+        assertTrue(metrics.getPasses() >= 40);
+        assertEquals(metrics.getPasses() - 40, metrics.getRecalculationPasses());
+        // interim concentrations and error evaluation
+        assertEquals(metrics.getPasses(), metrics.getGlobalErrorEvaluations());
+        assertTrue(metrics.getGlobalErrorTime() > 0);
+        assertEquals(simulation.getScheduler().getTimestepsIncreased(), metrics.getTimeStepIncreases());
+        assertEquals(simulation.getScheduler().getTimestepsDecreased(), metrics.getTimeStepDecreases());
+
+        List<ModuleMetrics> moduleMetrics = metrics.getModuleMetrics();
+        assertEquals(1, moduleMetrics.size());
+        ModuleMetrics reactionMetrics = metrics.getModuleMetrics(reaction);
+        assertSame(moduleMetrics.get(0), reactionMetrics);
+        assertEquals(metrics.getPasses(), reactionMetrics.getCalculations());
+        assertTrue(reactionMetrics.getTime() > 0);
+        assertTrue(reactionMetrics.getLastEpochTime() > 0);
+        // six nodes for each pass
+        assertEquals(6 * reactionMetrics.getCalculations(), reactionMetrics.getProcessedUpdatables());
+        // full and half step deltas of substrate and product for each node
+        assertEquals(4 * reactionMetrics.getProcessedUpdatables(), reactionMetrics.getProducedDeltas());
+
+        metrics.reset();
+        assertEquals(0, metrics.getEpochs());
+        assertEquals(0, reactionMetrics.getProducedDeltas());
+    }
+
+    @Test
+    void shouldNotCollectDisabledMetrics() {
+        Simulation simulation = createSimulation(AutomatonGraphs.singularGraph());
+        createDecay(simulation);
+        simulation.getMetrics().setEnabled(false);
+        for (int epoch = 0; epoch < 5; epoch++) {
+            simulation.nextEpoch();
+        }
+        assertEquals(0, simulation.getMetrics().getEpochs());
+        assertEquals(0, simulation.getMetrics().getPasses());
+        assertTrue(simulation.getMetrics().getModuleMetrics().isEmpty());
+    }
+
+    @Test
+    void shouldDumpMetricsToCsv() throws IOException {
+        Path file = Files.createTempDirectory("junit-tests").resolve("metrics.csv");
+        Simulation simulation = createSimulation(AutomatonGraphs.singularGraph());
+        Reaction reaction = createDecay(simulation);
+        reaction.setIdentifier("decay");
+        SimulationManager manager = new SimulationManager(simulation);
+        manager.setSimulationTerminationToTime(Quantities.getQuantity(1, MILLI(SECOND)));
+        manager.setUpdateEmissionCondition(sim -> sim.getEpoch() % 5 == 0);
+        manager.addGraphUpdateListener(new MetricsRecorder(simulation, file, MetricsRecorder.Format.CSV));
+        manager.calculateUntilTermination();
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals("epoch,elapsed_time_ms,source,metric,value", lines.get(0));
+        assertTrue(lines.stream().anyMatch(line -> line.contains(",simulation,epochs,")));
+        // final dump after closing
+        String lastEpochs = lines.stream()
+                .filter(line -> line.contains(",simulation,epochs,"))
+                .reduce((first, second) -> second)
+                .orElseThrow(IllegalStateException::new);
+        assertTrue(lastEpochs.endsWith("," + simulation.getEpoch()));
+        assertTrue(lines.stream().anyMatch(line -> line.contains(",decay,produced_deltas,")));
+    }
+
+    @Test
+    void shouldDumpMetricsToJson() throws IOException {
+        Path file = Files.createTempDirectory("junit-tests").resolve("metrics.json");
+        Simulation simulation = createSimulation(AutomatonGraphs.singularGraph());
+        Reaction reaction = createDecay(simulation);
+        reaction.setIdentifier("decay \"A\"");
+        MetricsRecorder recorder = new MetricsRecorder(simulation, file, MetricsRecorder.Format.JSON);
+        for (int epoch = 0; epoch < 10; epoch++) {
+            simulation.nextEpoch();
+        }
+        recorder.close();
+
+        String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"epoch\": 10,"));
+        assertTrue(json.contains("\"epochs\": 10,"));
+        assertTrue(json.contains("\"module\": \"decay \\\"A\\\"\""));
+        assertFalse(Files.exists(file.resolveSibling("metrics.json.tmp")));
+    }
+
+    private static Simulation createSimulation(AutomatonGraph graph) {
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        for (AutomatonNode node : graph.getNodes()) {
+            node.setCellRegion(CellRegions.CYTOPLASM_REGION);
+        }
+        simulation.setConcentrationInitializer(new ConcentrationInitializer());
+        UnitRegistry.setTime(Quantities.getQuantity(100, MICRO(SECOND)));
+        return simulation;
+    }
+
+    private static Reaction createDecay(Simulation simulation) {
+        SmallMolecule substrate = SmallMolecule.create("A").build();
+        SmallMolecule product = SmallMolecule.create("B").build();
+        simulation.getConcentrationInitializer().addInitialConcentration(CellSubsections.CYTOPLASM, substrate, Quantities.getQuantity(10, MICRO_MOLE_PER_LITRE));
+        RateConstant rateConstant = RateConstant.create(1.0)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+        return ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(substrate)
+                .addProduct(product)
+                .irreversible()
+                .rate(rateConstant)
+                .build();
+    }
+
+}
@@ -1,18 +1,43 @@
 package bio.singa.simulation.model.simulation;
 
+import bio.singa.chemistry.entities.ChemicalEntity;
 import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.diffusivity.Diffusivity;
 import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.model.Evidence;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.graphs.model.Graphs;
 import bio.singa.simulation.model.graphs.AutomatonGraph;
 import bio.singa.simulation.model.graphs.AutomatonGraphs;
 import bio.singa.simulation.model.graphs.AutomatonNode;
 import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.modules.concentration.ModuleState;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.modules.qualitative.QualitativeModule;
 import bio.singa.simulation.model.sections.CellRegions;
 import bio.singa.simulation.model.sections.CellSubsections;
 import bio.singa.simulation.model.sections.concentration.ConcentrationInitializer;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import tec.units.indriya.quantity.Quantities;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static bio.singa.chemistry.features.diffusivity.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
 import static bio.singa.features.units.UnitProvider.MICRO_MOLE_PER_LITRE;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.MetricPrefix.NANO;
+import static tec.units.indriya.unit.Units.METRE;
 import static tec.units.indriya.unit.Units.SECOND;
 
 /**
@@ -20,6 +45,12 @@ import static tec.units.indriya.unit.Units.SECOND;
  */
 class UpdateSchedulerTest {
 
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
     @Test
     void testAccuracyGainCalculation() {
 
@@ -70,4 +101,244 @@ class UpdateSchedulerTest {
         System.out.println(simulation.getElapsedTime());
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void testWorkerPoolParallelism() {
+        // reference using a new thread for each module
+        UnitRegistry.reinitialize();
+        Simulation threadPerModule = createReversibleReactionSimulation();
+        for (int i = 0; i < 20; i++) {
+            threadPerModule.nextEpoch();
+        }
+        double expectedConcentration = threadPerModule.getGraph().getNode(0, 0).getConcentrationContainer()
+                .get(CellSubsections.CYTOPLASM, threadPerModule.getChemicalEntity("P"));
+
+        // same simulation using pooled workers
+        UnitRegistry.reinitialize();
+        Simulation pooled = createReversibleReactionSimulation();
+        pooled.getScheduler().setParallelism(2);
+        for (int i = 0; i < 20; i++) {
+            pooled.nextEpoch();
+        }
+        double actualConcentration = pooled.getGraph().getNode(0, 0).getConcentrationContainer()
+                .get(CellSubsections.CYTOPLASM, pooled.getChemicalEntity("P"));
+        pooled.getScheduler().shutdown();
+
+        assertEquals(expectedConcentration, actualConcentration, 1e-15);
+        assertEquals(2, pooled.getModules().size());
+        assertTrue(pooled.getScheduler().getModuleExecutionTimes().keySet().containsAll(pooled.getModules()));
+    }
+
+    @Test
+    void testPartitionedDiffusion() {
+        // reference processing all nodes in the thread of the module
+        UnitRegistry.reinitialize();
+        Simulation sequential = createDiffusionSimulation();
+        for (int i = 0; i < 20; i++) {
+            sequential.nextEpoch();
+        }
+
+        // same simulation processing tiles of 3x3 nodes in parallel
+        UnitRegistry.reinitialize();
+        Simulation partitioned = createDiffusionSimulation();
+        partitioned.getScheduler().setPartitionParallelism(3);
+        partitioned.getScheduler().setPartitionTileSize(3);
+        for (int i = 0; i < 20; i++) {
+            partitioned.nextEpoch();
+        }
+        partitioned.getScheduler().shutdown();
+
+        ChemicalEntity entity = sequential.getChemicalEntity("D");
+        for (AutomatonNode expectedNode : sequential.getGraph().getNodes()) {
+            AutomatonNode actualNode = partitioned.getGraph().getNode(expectedNode.getIdentifier());
+            assertEquals(expectedNode.getConcentrationContainer().get(CellSubsections.EXTRACELLULAR_REGION, entity),
+                    actualNode.getConcentrationContainer().get(CellSubsections.EXTRACELLULAR_REGION, entity));
+        }
+        assertEquals(sequential.getElapsedTime(), partitioned.getElapsedTime());
+    }
+
+    @Test
+    void testInterruptedPartitionedDiffusion() {
+        // reference processing all nodes without interruptions
+        UnitRegistry.reinitialize();
+        Simulation sequential = createDiffusionSimulation();
+        for (int i = 0; i < 5; i++) {
+            sequential.nextEpoch();
+        }
+
+        // another module interrupts the module thread while it waits for its tiles
+        UnitRegistry.reinitialize();
+        Simulation partitioned = createDiffusionSimulation();
+        partitioned.getScheduler().setPartitionParallelism(3);
+        partitioned.getScheduler().setPartitionTileSize(3);
+        InterruptingModule interruptingModule = new InterruptingModule();
+        interruptingModule.setSimulation(partitioned);
+        partitioned.getModules().add(interruptingModule);
+        for (int i = 0; i < 5; i++) {
+            partitioned.nextEpoch();
+        }
+        partitioned.getScheduler().shutdown();
+
+        assertTrue(interruptingModule.interrupted);
+        assertSameConcentrations(sequential, partitioned);
+        assertEquals(sequential.getElapsedTime(), partitioned.getElapsedTime());
+    }
+
+    /**
+     * Interrupts all other modules once, as soon as the partition pool is busy.
+     */
+    static class InterruptingModule extends QualitativeModule {
+
+        private volatile boolean interrupted;
+
+        @Override
+        public void calculateUpdates() {
+            if (interrupted) {
+                state = ModuleState.SUCCEEDED;
+                return;
+            }
+            ForkJoinPool partitionPool = simulation.getScheduler().getPartitionPool();
+            long deadline = System.nanoTime() + 1_000_000_000L;
+            while (partitionPool.isQuiescent() && System.nanoTime() < deadline) {
+                Thread.yield();
+            }
+            state = ModuleState.REQUIRING_RECALCULATION;
+        }
+
+        @Override
+        public void optimizeTimeStep() {
+            interrupted = true;
+            state = ModuleState.SUCCEEDED;
+        }
+
+        @Override
+        public void onReset() {
+
+        }
+
+        @Override
+        public void onCompletion() {
+
+        }
+
+    }
+
+    @Test
+    void testConcurrentSimulations() throws Exception {
+        // references calculated one after another using the global registry
+        UnitRegistry.reinitialize();
+        Simulation firstReference = createDiffusionSimulation();
+        for (int i = 0; i < 20; i++) {
+            firstReference.nextEpoch();
+        }
+        UnitRegistry.reinitialize();
+        UnitRegistry.setTime(Quantities.getQuantity(10, MICRO(SECOND)));
+        Simulation secondReference = createDiffusionSimulation();
+        for (int i = 0; i < 20; i++) {
+            secondReference.nextEpoch();
+        }
+
+        // same simulations with their own scaling contexts calculated concurrently
+        UnitRegistry.reinitialize();
+        Simulation first = createDiffusionSimulation();
+        first.useOwnScalingContext();
+        UnitRegistry.setTime(Quantities.getQuantity(10, MICRO(SECOND)));
+        Simulation second = createDiffusionSimulation();
+        second.useOwnScalingContext();
+        UnitRegistry.reinitialize();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Simulation simulation : Arrays.asList(first, second)) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20; i++) {
+                    simulation.nextEpoch();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // the global registry is unaffected
+        assertEquals(UnitRegistry.DEFAULT_TIME, UnitRegistry.getTime());
+        assertSameConcentrations(firstReference, first);
+        assertSameConcentrations(secondReference, second);
+        assertEquals(firstReference.getElapsedTime(), first.getElapsedTime());
+        assertEquals(secondReference.getElapsedTime(), second.getElapsedTime());
+    }
+
+    private static void assertSameConcentrations(Simulation expected, Simulation actual) {
+        ChemicalEntity entity = expected.getChemicalEntity("D");
+        for (AutomatonNode expectedNode : expected.getGraph().getNodes()) {
+            AutomatonNode actualNode = actual.getGraph().getNode(expectedNode.getIdentifier());
+            assertEquals(expectedNode.getConcentrationContainer().get(CellSubsections.EXTRACELLULAR_REGION, entity),
+                    actualNode.getConcentrationContainer().get(CellSubsections.EXTRACELLULAR_REGION, entity));
+        }
+    }
+
+    private static Simulation createDiffusionSimulation() {
+        Environment.setNodeSpacingToDiameter(Quantities.getQuantity(2500.0, NANO(METRE)), 10);
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(10, 10));
+        SmallMolecule entity = SmallMolecule.create("D")
+                .assignFeature(new Diffusivity(Quantities.getQuantity(4.40E-05, SQUARE_CENTIMETRE_PER_SECOND), Evidence.NO_EVIDENCE))
+                .build();
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() < 5 ? 1.0 : 0.0;
+            node.getConcentrationContainer().initialize(CellSubsections.EXTRACELLULAR_REGION, entity, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .onlyFor(entity)
+                .build();
+        return simulation;
+    }
+
+    private static Simulation createReversibleReactionSimulation() {
+        Simulation simulation = new Simulation();
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        simulation.setGraph(graph);
+        AutomatonNode node = graph.getNode(0, 0);
+        node.setCellRegion(CellRegions.CYTOPLASM_REGION);
+
+        SmallMolecule substrate = SmallMolecule.create("S").build();
+        SmallMolecule product = SmallMolecule.create("P").build();
+        SmallMolecule otherSubstrate = SmallMolecule.create("T").build();
+        SmallMolecule otherProduct = SmallMolecule.create("Q").build();
+
+        ConcentrationInitializer ci = new ConcentrationInitializer();
+        ci.addInitialConcentration(CellSubsections.CYTOPLASM, substrate, Quantities.getQuantity(100, MICRO_MOLE_PER_LITRE));
+        ci.addInitialConcentration(CellSubsections.CYTOPLASM, otherSubstrate, Quantities.getQuantity(50, MICRO_MOLE_PER_LITRE));
+        simulation.setConcentrationInitializer(ci);
+
+        RateConstant kf = RateConstant.create(10)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+        RateConstant kb = RateConstant.create(5)
+                .backward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(substrate)
+                .addProduct(product)
+                .reversible()
+                .forwardReactionRate(kf)
+                .backwardReactionRate(kb)
+                .identifier("first reaction")
+                .build();
+
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(otherSubstrate)
+                .addProduct(otherProduct)
+                .reversible()
+                .forwardReactionRate(kf)
+                .backwardReactionRate(kb)
+                .identifier("second reaction")
+                .build();
+        return simulation;
+    }
+
+}
@@ -0,0 +1,110 @@
+package bio.singa.simulation.trajectories.columnar;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.diffusivity.Diffusivity;
+import bio.singa.features.model.Evidence;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.sections.CellSubsections;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static bio.singa.chemistry.features.diffusivity.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.unit.MetricPrefix.NANO;
+import static tec.units.indriya.unit.Units.METRE;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class ColumnarTrajectoryRecorderTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldWriteAndReadTrajectory() throws IOException {
+        Path directory = Files.createTempDirectory("junit-tests");
+        Path file = directory.resolve("trajectory.bin");
+
+        Environment.setNodeSpacingToDiameter(Quantities.getQuantity(2500.0, NANO(METRE)), 3);
+        AutomatonGraph graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(3, 3));
+        SmallMolecule entity = SmallMolecule.create("D")
+                .assignFeature(new Diffusivity(Quantities.getQuantity(4.40E-05, SQUARE_CENTIMETRE_PER_SECOND), Evidence.NO_EVIDENCE))
+                .build();
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() == 0 ? 1.0 : 0.0;
+            node.getConcentrationContainer().initialize(CellSubsections.EXTRACELLULAR_REGION, entity, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+        }
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .onlyFor(entity)
+                .build();
+
+        // record a corner node in blocks of four time points
+        AutomatonNode observedNode = graph.getNode(2, 2);
+        ColumnarTrajectoryRecorder recorder = new ColumnarTrajectoryRecorder(simulation, file, 4);
+        recorder.setUpdatables(graph.getNodes());
+        double[] expectedTimes = new double[10];
+        double[] expectedValues = new double[10];
+        double concentrationFactor = UnitRegistry.concentration(1.0).to(MOLE_PER_LITRE).getValue().doubleValue();
+        for (int epoch = 0; epoch < 10; epoch++) {
+            simulation.nextEpoch();
+            recorder.onEventReceived(new GraphUpdatedEvent(graph, simulation.getElapsedTime()));
+            expectedTimes[epoch] = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+            expectedValues[epoch] = observedNode.getConcentrationContainer().get(CellSubsections.EXTRACELLULAR_REGION, entity) * concentrationFactor;
+        }
+        recorder.close();
+        simulation.getScheduler().shutdown();
+
+        try (ColumnarTrajectoryReader reader = ColumnarTrajectoryReader.open(file)) {
+            assertEquals(10, reader.getNumberOfTimePoints());
+            int column = reader.getColumnIndex(observedNode.getStringIdentifier(), CellSubsections.EXTRACELLULAR_REGION.getIdentifier(), "D");
+            assertTrue(column >= 0);
+            double[] values = reader.readColumn(column, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            for (int row = 0; row < 10; row++) {
+                assertEquals(expectedValues[row], values[row]);
+            }
+            // random access to a time range spanning multiple blocks
+            double[] times = reader.readTimes(expectedTimes[3], expectedTimes[8]);
+            assertEquals(6, times.length);
+            assertEquals(expectedTimes[3], times[0]);
+            assertEquals(expectedTimes[8], times[5]);
+            double[] rangeValues = reader.readColumn(column, expectedTimes[3], expectedTimes[8]);
+            assertEquals(expectedValues[5], rangeValues[2]);
+            // access by entity
+            Map<TrajectoryColumn, double[]> entityValues = reader.readEntity("D", expectedTimes[9], expectedTimes[9]);
+            assertEquals(graph.getNodes().size(), entityValues.size());
+            assertEquals(expectedValues[9], entityValues.get(reader.getColumns().get(column))[0]);
+        }
+
+        // convert to the layout of the flat recorder
+        List<Path> files = ColumnarTrajectoryConverter.toCsv(file, directory.resolve("csv"));
+        assertEquals(graph.getNodes().size(), files.size());
+        List<String> lines = Files.readAllLines(directory.resolve("csv").resolve(observedNode.getStringIdentifier() + "_concentrations.csv"));
+        assertEquals("elapsed time,species,compartment,concentration", lines.get(0));
+        assertEquals(11, lines.size());
+        assertTrue(lines.get(10).endsWith("," + expectedValues[9]));
+    }
+
+}
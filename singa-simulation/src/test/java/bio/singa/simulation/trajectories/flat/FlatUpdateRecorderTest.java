@@ -0,0 +1,97 @@
+package bio.singa.simulation.trajectories.flat;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.reactions.RateConstant;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.reactions.ReactionBuilder;
+import bio.singa.simulation.model.sections.CellRegions;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.SimulationManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static bio.singa.simulation.model.sections.CellSubsections.CYTOPLASM;
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.unit.MetricPrefix.MICRO;
+import static tec.units.indriya.unit.MetricPrefix.MILLI;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class FlatUpdateRecorderTest {
+
+    @AfterEach
+    void cleanUp() {
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    @Test
+    void shouldRecordSnapshots() throws IOException {
+        Path workspace = Files.createTempDirectory("junit-tests");
+        AutomatonGraph graph = AutomatonGraphs.singularGraph();
+        Simulation simulation = new Simulation();
+        simulation.setGraph(graph);
+        AutomatonNode node = graph.getNode(0, 0);
+        node.setCellRegion(CellRegions.CYTOPLASM_REGION);
+        SmallMolecule substrate = SmallMolecule.create("A").build();
+        SmallMolecule product = SmallMolecule.create("B").build();
+        node.getConcentrationContainer().set(CYTOPLASM, substrate, 1.0);
+        RateConstant rateConstant = RateConstant.create(1.0)
+                .forward().firstOrder()
+                .timeUnit(SECOND)
+                .build();
+        ReactionBuilder.staticReactants(simulation)
+                .addSubstrate(substrate)
+                .addProduct(product)
+                .irreversible()
+                .rate(rateConstant)
+                .build();
+        UnitRegistry.setTime(Quantities.getQuantity(100, MICRO(SECOND)));
+        simulation.observe(node);
+
+        FlatUpdateRecorder recorder = FlatUpdateRecorder.create()
+                .workspace(workspace)
+                .directory("flat", false)
+                .build();
+        recorder.addUpdatableToObserve(node);
+        SimulationManager manager = new SimulationManager(simulation);
+        manager.setSimulationTerminationToTime(Quantities.getQuantity(1, MILLI(SECOND)));
+        manager.addSnapshotListener(recorder);
+        // closes the recorder after pending snapshots have been written
+        manager.calculateUntilTermination();
+
+        List<String> concentrations = Files.readAllLines(workspace.resolve("flat").resolve(node.getStringIdentifier() + "_concentrations.csv"));
+        assertEquals("elapsed time,species,compartment,concentration", concentrations.get(0));
+        // one emission before each epoch
+        int epochs = (int) simulation.getEpoch();
+        assertTrue(epochs > 1);
+        List<String> substrateRows = concentrations.stream()
+                .filter(line -> line.contains("," + substrate.getIdentifier() + "," + CYTOPLASM.getIdentifier() + ","))
+                .collect(Collectors.toList());
+        assertEquals(epochs, substrateRows.size());
+
+        List<String> deltas = Files.readAllLines(workspace.resolve("flat").resolve(node.getStringIdentifier() + "_deltas.csv"));
+        assertEquals("elapsed_time,module,cell_section,chemical_entity,delta_average", deltas.get(0));
+        // the observed deltas are collected at the start of the following epoch
+        String moduleIdentifier = simulation.getModules().get(0).getIdentifier();
+        List<String> substrateDeltas = deltas.stream()
+                .filter(line -> line.contains("," + moduleIdentifier + "," + CYTOPLASM.getIdentifier() + "," + substrate.getIdentifier() + ","))
+                .collect(Collectors.toList());
+        assertFalse(substrateDeltas.isEmpty());
+        assertTrue(substrateDeltas.stream().allMatch(line -> line.substring(line.lastIndexOf(',') + 1).startsWith("-")));
+    }
+
+}
@@ -0,0 +1,206 @@
+package bio.singa.simulation.trajectories.nested;
+
+import bio.singa.chemistry.entities.SmallMolecule;
+import bio.singa.chemistry.features.diffusivity.Diffusivity;
+import bio.singa.features.model.Evidence;
+import bio.singa.features.parameters.Environment;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.mathematics.graphs.model.Graphs;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.graphs.AutomatonGraph;
+import bio.singa.simulation.model.graphs.AutomatonGraphs;
+import bio.singa.simulation.model.graphs.AutomatonNode;
+import bio.singa.simulation.model.modules.concentration.imlementations.transport.Diffusion;
+import bio.singa.simulation.model.sections.CellSubsections;
+import bio.singa.simulation.model.simulation.Simulation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import tec.units.indriya.quantity.Quantities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static bio.singa.chemistry.features.diffusivity.Diffusivity.SQUARE_CENTIMETRE_PER_SECOND;
+import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
+import static org.junit.jupiter.api.Assertions.*;
+import static tec.units.indriya.unit.MetricPrefix.NANO;
+import static tec.units.indriya.unit.Units.METRE;
+import static tec.units.indriya.unit.Units.SECOND;
+
+/**
+ * @author cl
+ */
+class StreamingTrajectoriesTest {
+
+    private static final int EPOCHS = 10;
+
+    private AutomatonGraph graph;
+    private SmallMolecule entity;
+    private Simulation simulation;
+
+    @AfterEach
+    void cleanUp() {
+        if (simulation != null) {
+            simulation.getScheduler().shutdown();
+        }
+        UnitRegistry.reinitialize();
+        Environment.reset();
+    }
+
+    private void setUpSimulation() {
+        Environment.setNodeSpacingToDiameter(Quantities.getQuantity(2500.0, NANO(METRE)), 3);
+        graph = AutomatonGraphs.useStructureFrom(Graphs.buildGridGraph(3, 3));
+        entity = SmallMolecule.create("D")
+                .assignFeature(new Diffusivity(Quantities.getQuantity(4.40E-05, SQUARE_CENTIMETRE_PER_SECOND), Evidence.NO_EVIDENCE))
+                .build();
+        for (AutomatonNode node : graph.getNodes()) {
+            double concentration = node.getIdentifier().getColumn() == 0 ? 1.0 : 0.0;
+            node.getConcentrationContainer().initialize(CellSubsections.EXTRACELLULAR_REGION, entity, Quantities.getQuantity(concentration, MOLE_PER_LITRE));
+        }
+        simulation = new Simulation();
+        simulation.setGraph(graph);
+        Diffusion.inSimulation(simulation)
+                .onlyFor(entity)
+                .build();
+    }
+
+    /**
+     * Simulates and passes every epoch to both recorders, returns the concentrations of the observed node.
+     */
+    private List<Double> record(NestedUpdateRecorder reference, NestedUpdateRecorder streaming, AutomatonNode observedNode) {
+        List<Double> values = new ArrayList<>();
+        for (int epoch = 0; epoch < EPOCHS; epoch++) {
+            simulation.nextEpoch();
+            GraphUpdatedEvent event = new GraphUpdatedEvent(graph, simulation.getElapsedTime());
+            reference.onEventReceived(event);
+            streaming.onEventReceived(event);
+            values.add(reference.getTrajectories().getTrajectoryData().get(simulation.getElapsedTime().to(SECOND).getValue().doubleValue())
+                    .getConcentrationData().get(observedNode).getConcentrations().get(CellSubsections.EXTRACELLULAR_REGION).get(entity));
+        }
+        streaming.close();
+        return values;
+    }
+
+    private double valueOf(Trajectories trajectories, double time, AutomatonNode node) {
+        return trajectories.getTrajectoryData().get(time).getConcentrationData().get(node)
+                .getConcentrations().get(CellSubsections.EXTRACELLULAR_REGION).get(entity);
+    }
+
+    @Test
+    void shouldSpillAllSnapshots() throws IOException {
+        setUpSimulation();
+        Path directory = Files.createTempDirectory("junit-tests");
+        NestedUpdateRecorder reference = new NestedUpdateRecorder(simulation, SECOND, MOLE_PER_LITRE);
+        StreamingTrajectories streamingTrajectories = new StreamingTrajectories(SECOND, MOLE_PER_LITRE, TrajectoryRetentionPolicy.all(), 3, directory);
+        NestedUpdateRecorder streaming = new NestedUpdateRecorder(simulation, streamingTrajectories);
+        record(reference, streaming, graph.getNode(2, 2));
+        assertTrue(Files.exists(directory.resolve("snapshots-0.bin")));
+
+        Trajectories expected = reference.getTrajectories();
+        Trajectories actual = streaming.getTrajectories();
+        assertEquals(EPOCHS, streamingTrajectories.getNumberOfRetainedSnapshots());
+        assertEquals(expected.getTrajectoryData().keySet(), actual.getTrajectoryData().keySet());
+        for (Double time : expected.getTrajectoryData().keySet()) {
+            for (AutomatonNode node : graph.getNodes()) {
+                assertEquals(valueOf(expected, time, node), valueOf(actual, time, node));
+                assertEquals(expected.getTrajectoryData().get(time).getConcentrationData().get(node).getPosition(),
+                        actual.getTrajectoryData().get(time).getConcentrationData().get(node).getPosition());
+            }
+        }
+        streamingTrajectories.deleteSpillFiles();
+        assertFalse(Files.exists(directory.resolve("snapshots-0.bin")));
+    }
+
+    @Test
+    void shouldRetainEveryNthSnapshot() {
+        setUpSimulation();
+        NestedUpdateRecorder reference = new NestedUpdateRecorder(simulation, SECOND, MOLE_PER_LITRE);
+        StreamingTrajectories streamingTrajectories = new StreamingTrajectories(SECOND, MOLE_PER_LITRE, TrajectoryRetentionPolicy.everyNth(3), 2, null);
+        NestedUpdateRecorder streaming = new NestedUpdateRecorder(simulation, streamingTrajectories);
+        record(reference, streaming, graph.getNode(2, 2));
+
+        // snapshots 0, 3, 6 and 9
+        List<Double> times = new ArrayList<>();
+        streamingTrajectories.forEachSnapshot((time, data) -> times.add(time));
+        assertEquals(4, times.size());
+        assertEquals(EPOCHS, streamingTrajectories.getNumberOfReceivedSnapshots());
+        Trajectories expected = reference.getTrajectories();
+        Trajectories actual = streaming.getTrajectories();
+        for (Double time : times) {
+            for (AutomatonNode node : graph.getNodes()) {
+                assertEquals(valueOf(expected, time, node), valueOf(actual, time, node));
+            }
+        }
+        assertThrows(IllegalStateException.class, streamingTrajectories::toMinimumTrajectories);
+    }
+
+    @Test
+    void shouldStartSegmentsForChangedUpdatables() throws IOException {
+        setUpSimulation();
+        Path directory = Files.createTempDirectory("junit-tests");
+        StreamingTrajectories streamingTrajectories = new StreamingTrajectories(SECOND, MOLE_PER_LITRE, TrajectoryRetentionPolicy.all(), 4, directory);
+        List<AutomatonNode> nodes = new ArrayList<>(graph.getNodes());
+        AutomatonNode firstNode = nodes.get(0);
+        List<AutomatonNode> remainingNodes = nodes.subList(1, nodes.size());
+        streamingTrajectories.addSnapshot(0.0, nodes);
+        streamingTrajectories.addSnapshot(1.0, nodes);
+        // removed updatable
+        streamingTrajectories.addSnapshot(2.0, remainingNodes);
+        assertEquals(2, streamingTrajectories.getNumberOfSegments());
+        // added entity
+        SmallMolecule otherEntity = SmallMolecule.create("E").build();
+        firstNode.getConcentrationContainer().initialize(CellSubsections.EXTRACELLULAR_REGION, otherEntity, Quantities.getQuantity(0.5, MOLE_PER_LITRE));
+        streamingTrajectories.addSnapshot(3.0, nodes);
+        streamingTrajectories.addSnapshot(4.0, nodes);
+        streamingTrajectories.close();
+        assertEquals(3, streamingTrajectories.getNumberOfSegments());
+        assertEquals(5, streamingTrajectories.getNumberOfRetainedSnapshots());
+        // completed segments are spilled
+        assertTrue(Files.exists(directory.resolve("snapshots-0.bin")));
+        assertTrue(Files.exists(directory.resolve("snapshots-1.bin")));
+        assertTrue(Files.exists(directory.resolve("snapshots-2.bin")));
+
+        Trajectories trajectories = streamingTrajectories.toTrajectories();
+        assertEquals(5, trajectories.getTrajectoryData().size());
+        assertEquals(nodes.size(), trajectories.getTrajectoryData().get(1.0).getConcentrationData().size());
+        assertEquals(remainingNodes.size(), trajectories.getTrajectoryData().get(2.0).getConcentrationData().size());
+        assertFalse(trajectories.getTrajectoryData().get(2.0).getConcentrationData().containsKey(firstNode));
+        assertEquals(1.0, valueOf(trajectories, 1.0, firstNode));
+        assertFalse(trajectories.getTrajectoryData().get(1.0).getConcentrationData().get(firstNode)
+                .getConcentrations().get(CellSubsections.EXTRACELLULAR_REGION).containsKey(otherEntity));
+        assertEquals(0.5, (double) trajectories.getTrajectoryData().get(4.0).getConcentrationData().get(firstNode)
+                .getConcentrations().get(CellSubsections.EXTRACELLULAR_REGION).get(otherEntity));
+        streamingTrajectories.deleteSpillFiles();
+        assertFalse(Files.exists(directory.resolve("snapshots-1.bin")));
+    }
+
+    @Test
+    void shouldRetainEnvelopes() {
+        setUpSimulation();
+        AutomatonNode observedNode = graph.getNode(2, 2);
+        NestedUpdateRecorder reference = new NestedUpdateRecorder(simulation, SECOND, MOLE_PER_LITRE);
+        StreamingTrajectories streamingTrajectories = new StreamingTrajectories(SECOND, MOLE_PER_LITRE, TrajectoryRetentionPolicy.envelope(4), 8, null);
+        NestedUpdateRecorder streaming = new NestedUpdateRecorder(simulation, streamingTrajectories);
+        List<Double> values = record(reference, streaming, observedNode);
+
+        // envelopes of snapshots 0-3, 4-7 and the incomplete envelope 8-9
+        Trajectories minima = streamingTrajectories.toMinimumTrajectories();
+        Trajectories maxima = streamingTrajectories.toMaximumTrajectories();
+        Trajectories last = streamingTrajectories.toTrajectories();
+        assertEquals(3, last.getTrajectoryData().size());
+        int[][] envelopes = {{0, 4}, {4, 8}, {8, 10}};
+        List<Double> times = new ArrayList<>(reference.getTrajectories().getTrajectoryData().keySet());
+        times.sort(Double::compareTo);
+        for (int[] envelope : envelopes) {
+            double time = times.get(envelope[1] - 1);
+            List<Double> envelopeValues = values.subList(envelope[0], envelope[1]);
+            assertEquals(envelopeValues.stream().mapToDouble(Double::doubleValue).min().getAsDouble(), valueOf(minima, time, observedNode));
+            assertEquals(envelopeValues.stream().mapToDouble(Double::doubleValue).max().getAsDouble(), valueOf(maxima, time, observedNode));
+            assertEquals(values.get(envelope[1] - 1).doubleValue(), valueOf(last, time, observedNode));
+        }
+    }
+
+}
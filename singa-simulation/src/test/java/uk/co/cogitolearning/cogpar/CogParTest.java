@@ -22,4 +22,21 @@ class CogParTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    void shouldCompileExpression() {
+        String exprstr = "k*(A-B/2)^2 - sqrt(abs(k))/(1+A*B)";
+        ExpressionNode expr = new ExpressionParser().parse(exprstr);
+        CompiledExpression compiled = CompiledExpression.compile(expr);
+        assertEquals(3, compiled.getNumberOfSlots());
+        double[] slots = new double[compiled.getNumberOfSlots()];
+        slots[compiled.getSlot("k")] = 0.5;
+        slots[compiled.getSlot("A")] = 3.0;
+        slots[compiled.getSlot("B")] = 1.5;
+        expr.accept(new SetVariable("k", 0.5));
+        expr.accept(new SetVariable("A", 3.0));
+        expr.accept(new SetVariable("B", 1.5));
+        assertEquals(expr.getValue(), compiled.evaluate(slots));
+        assertEquals(-1, compiled.getSlot("C"));
+    }
+
+}